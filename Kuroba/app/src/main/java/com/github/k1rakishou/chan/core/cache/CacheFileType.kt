@@ -2,15 +2,19 @@ package com.github.k1rakishou.chan.core.cache
 
 enum class CacheFileType(
   val id: Int,
-  val diskSizePercent: Float
+  val diskSizePercent: Float,
+  /**
+   * Small files of this type are stored in [PackedSegmentStore] segments instead of separate files.
+   * */
+  val usePackedStorage: Boolean
 ) {
-  ThreadDownloaderThumbnail(0, 0.05f),
-  BookmarkThumbnail(1, 0.05f),
-  NavHistoryThumbnail(2, 0.05f),
-  SiteIcon(3, 0.05f),
-  PostMediaThumbnail(4, 0.05f),
-  PostMediaFull(5, 0.65f),
-  Other(6, 0.1f);
+  ThreadDownloaderThumbnail(0, 0.05f, true),
+  BookmarkThumbnail(1, 0.05f, true),
+  NavHistoryThumbnail(2, 0.05f, true),
+  SiteIcon(3, 0.05f, true),
+  PostMediaThumbnail(4, 0.05f, true),
+  PostMediaFull(5, 0.65f, false),
+  Other(6, 0.1f, false);
 
   fun calculateDiskSize(totalDiskCacheSize: Long): Long {
     return (totalDiskCacheSize.toFloat() * diskSizePercent).toLong()
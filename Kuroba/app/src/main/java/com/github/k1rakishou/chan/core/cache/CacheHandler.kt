@@ -26,6 +26,7 @@ import com.github.k1rakishou.model.util.ChanPostUtils
 import kotlinx.coroutines.asCoroutineDispatcher
 import kotlinx.coroutines.withContext
 import java.io.File
+import java.io.IOException
 import java.util.*
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Executors
@@ -35,17 +36,19 @@ import kotlin.time.measureTime
 /**
  * CacheHandler has been re-worked a little bit because old implementation was relying on the
  * lastModified file flag which doesn't work on some Android versions/different phones. It was decided
- * to instead use a meta file for every cache file which will contain the following information:
- * 1. Time of creation of the cache file (in millis).
+ * to instead keep the following information for every cache file in a journal (see [CacheJournal]):
+ * 1. Time of creation and of the last access of the cache file (in millis).
  * 2. A flag that indicates whether a download has been completed or not.
+ * 3. The size of the downloaded file.
  *
  * We need creation time to not delete cache file for active downloads or for downloads that has
  * just been completed (otherwise the user may see a black screen instead of an image/webm). The
- * minimum cache file life time is 5 minutes. That means we won't delete any cache files (and their
- * meta files) for at least 5 minutes.
+ * minimum cache file life time is 5 minutes. That means we won't delete any cache files for at least
+ * 5 minutes.
  *
  * CacheHandler now also caches file chunks that are used by [ConcurrentChunkedFileDownloader] as well
- * as all media files retrieved via [ImageLoaderV2]
+ * as all media files retrieved via [ImageLoaderV2]. Small files (thumbnails, site icons) of
+ * [CacheFileType.usePackedStorage] types are stored in [PackedSegmentStore] segments instead.
  */
 @OptIn(ExperimentalTime::class)
 class CacheHandler(
@@ -53,6 +56,7 @@ class CacheHandler(
   private val appConstants: AppConstants
 ) {
   private val innerCaches = ConcurrentHashMap<CacheFileType, InnerCache>()
+  private val packedStores = ConcurrentHashMap<CacheFileType, PackedSegmentStore>()
   private val cacheHandlerDispatcher = Executors.newSingleThreadExecutor().asCoroutineDispatcher()
 
   init {
@@ -94,16 +98,134 @@ class CacheHandler(
         innerCacheChunksDirFile.mkdirs()
       }
 
+      val innerCacheJournalFile = File(File(diskCacheDir, cacheFileType.id.toString()), "journal")
+
+      // Both the inner cache and the packed store share the disk size of the cache file type
+      val cacheFileTypeDiskSizeBytes = cacheFileType.calculateDiskSize(totalFileCacheDiskSizeBytes)
+      val packedStoreDiskSizeBytes = if (cacheFileType.usePackedStorage) {
+        (cacheFileTypeDiskSizeBytes * PACKED_STORE_DISK_SIZE_PERCENT).toLong()
+      } else {
+        0L
+      }
+
       val innerCache = InnerCache(
         cacheDirFile = innerCacheDirFile,
         chunksCacheDirFile = innerCacheChunksDirFile,
-        fileCacheDiskSizeBytes = cacheFileType.calculateDiskSize(totalFileCacheDiskSizeBytes),
+        journalFile = innerCacheJournalFile,
+        fileCacheDiskSizeBytes = cacheFileTypeDiskSizeBytes - packedStoreDiskSizeBytes,
         cacheFileType = cacheFileType,
         isDevBuild = ENABLE_LOGGING
       )
 
       innerCaches.put(cacheFileType, innerCache)
+
+      if (cacheFileType.usePackedStorage) {
+        val packedStore = PackedSegmentStore(
+          segmentsDir = File(File(diskCacheDir, cacheFileType.id.toString()), "segments"),
+          maxSizeBytes = packedStoreDiskSizeBytes
+        )
+
+        packedStores.put(cacheFileType, packedStore)
+        cacheHandlerDispatcher.executor.execute { loadPackedStore(cacheFileType, packedStore) }
+      }
+    }
+  }
+
+  private fun loadPackedStore(cacheFileType: CacheFileType, packedStore: PackedSegmentStore) {
+    try {
+      val duration = measureTime { packedStore.ensureLoaded() }
+
+      Logger.d(TAG, "loadPackedStore($cacheFileType) took $duration, " +
+        "entries=${packedStore.entriesCount()}, segments=${packedStore.segmentsCount()}, " +
+        "size=${ChanPostUtils.getReadableFileSize(packedStore.totalSize())}")
+    } catch (error: IOException) {
+      Logger.e(TAG, "loadPackedStore($cacheFileType) error, clearing it", error)
+      packedStore.clear()
+    }
+  }
+
+  /**
+   * Whether a file of [cacheFileType] with this [contentLength] should be stored in a
+   * [PackedSegmentStore] (via [putPackedCacheData]) instead of a separate cache file.
+   * */
+  fun canUsePackedStorage(cacheFileType: CacheFileType, contentLength: Long): Boolean {
+    return packedStores.containsKey(cacheFileType)
+      && contentLength > 0
+      && contentLength <= PackedSegmentStore.MAX_ENTRY_SIZE_BYTES
+  }
+
+  fun getPackedCacheDataOrNull(cacheFileType: CacheFileType, url: String): PackedCacheData? {
+    BackgroundUtils.ensureBackgroundThread()
+
+    val packedStore = packedStores[cacheFileType]
+      ?: return null
+    val key = getInnerCacheByFileType(cacheFileType).hashUrl(url)
+
+    val bytes = try {
+      packedStore.get(key)
+    } catch (error: IOException) {
+      Logger.e(TAG, "getPackedCacheDataOrNull($cacheFileType, $url) error", error)
+      removePackedCacheData(cacheFileType, url)
+      null
+    }
+
+    if (ENABLE_LOGGING) {
+      Logger.d(TAG, "getPackedCacheDataOrNull($cacheFileType, $url) -> ${bytes?.size}")
+    }
+
+    if (bytes == null) {
+      return null
+    }
+
+    return PackedCacheData(key, bytes)
+  }
+
+  /**
+   * Returns [PackedCacheData] with the [bytes] even when they couldn't be stored (e.g. the disk is
+   * full) so that the already downloaded file can still be used.
+   * */
+  fun putPackedCacheData(cacheFileType: CacheFileType, url: String, bytes: ByteArray): PackedCacheData {
+    BackgroundUtils.ensureBackgroundThread()
+
+    val key = getInnerCacheByFileType(cacheFileType).hashUrl(url)
+    val packedStore = packedStores[cacheFileType]
+
+    if (packedStore == null || !canUsePackedStorage(cacheFileType, bytes.size.toLong())) {
+      return PackedCacheData(key, bytes)
+    }
+
+    try {
+      packedStore.put(key, bytes)
+    } catch (error: IOException) {
+      Logger.e(TAG, "putPackedCacheData($cacheFileType, $url) error", error)
+      return PackedCacheData(key, bytes)
     }
+
+    if (ENABLE_LOGGING) {
+      Logger.d(TAG, "putPackedCacheData($cacheFileType, $url, ${bytes.size})")
+    }
+
+    return PackedCacheData(key, bytes)
+  }
+
+  private fun removePackedCacheData(cacheFileType: CacheFileType, url: String): Boolean {
+    val packedStore = packedStores[cacheFileType]
+      ?: return false
+    val key = getInnerCacheByFileType(cacheFileType).hashUrl(url)
+
+    return try {
+      packedStore.remove(key)
+    } catch (error: IOException) {
+      Logger.e(TAG, "removePackedCacheData($cacheFileType, $url) error", error)
+      false
+    }
+  }
+
+  private fun packedStoreContains(cacheFileType: CacheFileType, url: String): Boolean {
+    val packedStore = packedStores[cacheFileType]
+      ?: return false
+
+    return packedStore.contains(getInnerCacheByFileType(cacheFileType).hashUrl(url))
   }
 
   fun getCacheFileOrNull(cacheFileType: CacheFileType, url: String): File? {
@@ -120,7 +242,7 @@ class CacheHandler(
 
   /**
    * Either returns already downloaded file or creates an empty new one on the disk (also creates
-   * cache file meta with default parameters)
+   * a journal entry with default parameters)
    * */
   fun getOrCreateCacheFile(cacheFileType: CacheFileType, url: String): File? {
     BackgroundUtils.ensureBackgroundThread()
@@ -159,7 +281,7 @@ class CacheHandler(
   fun cacheFileExists(cacheFileType: CacheFileType, fileUrl: String): Boolean {
     val innerCache = getInnerCacheByFileType(cacheFileType)
     val fileName = innerCache.formatCacheFileName(innerCache.hashUrl(fileUrl))
-    val exists = innerCache.containsFile(fileName)
+    val exists = innerCache.containsFile(fileName) || packedStoreContains(cacheFileType, fileUrl)
 
     if (ENABLE_LOGGING) {
       Logger.d(TAG, "cacheFileExists($cacheFileType, $fileUrl) -> $exists")
@@ -176,7 +298,8 @@ class CacheHandler(
     val innerCache = getInnerCacheByFileType(cacheFileType)
 
     return withContext(cacheHandlerDispatcher) {
-      return@withContext innerCache.deleteCacheFile(innerCache.hashUrl(url))
+      val deletedPacked = removePackedCacheData(cacheFileType, url)
+      return@withContext innerCache.deleteCacheFile(innerCache.hashUrl(url)) || deletedPacked
     }
   }
 
@@ -187,14 +310,16 @@ class CacheHandler(
 
     val innerCache = getInnerCacheByFileType(cacheFileType)
 
-    return getInnerCacheByFileType(cacheFileType).deleteCacheFile(innerCache.hashUrl(url))
+    val deletedPacked = removePackedCacheData(cacheFileType, url)
+    return innerCache.deleteCacheFile(innerCache.hashUrl(url)) || deletedPacked
   }
 
   fun isAlreadyDownloaded(cacheFileType: CacheFileType, fileUrl: String): Boolean {
     BackgroundUtils.ensureBackgroundThread()
 
     val innerCache = getInnerCacheByFileType(cacheFileType)
-    val alreadyDownloaded = isAlreadyDownloaded(cacheFileType, innerCache.getCacheFileByUrl(fileUrl))
+    val alreadyDownloaded = packedStoreContains(cacheFileType, fileUrl)
+      || isAlreadyDownloaded(cacheFileType, innerCache.getCacheFileByUrl(fileUrl))
 
     if (ENABLE_LOGGING) {
       Logger.d(TAG, "isAlreadyDownloaded($cacheFileType, $fileUrl) -> $alreadyDownloaded")
@@ -204,11 +329,9 @@ class CacheHandler(
   }
 
   /**
-   * Checks whether this file is already downloaded by reading it's meta info. If a file has no
-   * meta info or it cannot be read - deletes the file so it can be re-downloaded again with all
-   * necessary information
+   * Checks whether this file is already downloaded by looking it up in the journal (no disk access).
    *
-   * [cacheFile] must be the cache file, not cache file meta!
+   * [cacheFile] must be the cache file, not a chunk file!
    * */
   fun isAlreadyDownloaded(cacheFileType: CacheFileType, cacheFile: File): Boolean {
     BackgroundUtils.ensureBackgroundThread()
@@ -239,7 +362,8 @@ class CacheHandler(
       Logger.d(TAG, "getSize($cacheFileType)")
     }
 
-    return getInnerCacheByFileType(cacheFileType).getSize()
+    val packedStoreSize = packedStores[cacheFileType]?.totalSize() ?: 0L
+    return getInnerCacheByFileType(cacheFileType).getSize() + packedStoreSize
   }
 
   fun getMaxSize(cacheFileType: CacheFileType): Long {
@@ -247,7 +371,8 @@ class CacheHandler(
       Logger.d(TAG, "getMaxSize($cacheFileType)")
     }
 
-    return getInnerCacheByFileType(cacheFileType).getMaxSize()
+    val packedStoreMaxSize = packedStores[cacheFileType]?.maxSize() ?: 0L
+    return getInnerCacheByFileType(cacheFileType).getMaxSize() + packedStoreMaxSize
   }
 
   /**
@@ -276,10 +401,11 @@ class CacheHandler(
     }
 
     getInnerCacheByFileType(cacheFileType).clearCache()
+    packedStores[cacheFileType]?.clear()
   }
 
   /**
-   * Deletes a cache file with it's meta. Also decreases the total cache size variable by the size
+   * Deletes a cache file and it's journal entry. Also decreases the total cache size variable by the size
    * of the file.
    * */
   fun deleteCacheFile(cacheFileType: CacheFileType, cacheFile: File): Boolean {
@@ -297,5 +423,8 @@ class CacheHandler(
   companion object {
     private const val TAG = "CacheHandler"
     private const val ENABLE_LOGGING = false
+
+    // Most of the files of CacheFileType.usePackedStorage types are small enough to be packed
+    private const val PACKED_STORE_DISK_SIZE_PERCENT = 0.75f
   }
 }
\ No newline at end of file
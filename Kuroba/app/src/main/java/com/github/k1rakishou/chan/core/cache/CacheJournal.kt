@@ -0,0 +1,336 @@
+package com.github.k1rakishou.chan.core.cache
+
+import androidx.annotation.GuardedBy
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.OutputStreamWriter
+import java.util.concurrent.TimeUnit
+
+/**
+ * An in-memory index of all the files of an [InnerCache] (key is the url hash, the name of the cache
+ * file without the extension) backed by an append-only journal file. Replaces the meta file that we
+ * used to create for every cache file so that checking whether a file is downloaded doesn't need any
+ * disk access and trim() is just a sort of the index instead of reading thousands of meta files.
+ *
+ * Journal format (text, one operation per line, after a two line header):
+ * "P key createdOn lastAccess size isDownloaded" - add or replace an entry.
+ * "A key lastAccess" - the file was accessed.
+ * "R key" - the entry was removed.
+ *
+ * Every operation makes the previous operations of the same key redundant so once there are too many
+ * of them the journal is rewritten from scratch by [compact]. A partially written last line (the app
+ * was killed in the middle of a write) is skipped when loading the journal.
+ * */
+internal class CacheJournal(
+  private val journalFile: File
+) {
+  @GuardedBy("this")
+  private val entries = LinkedHashMap<String, Entry>(128)
+  @GuardedBy("this")
+  private var writer: BufferedWriter? = null
+  @GuardedBy("this")
+  private var redundantOperationsCount = 0
+  @GuardedBy("this")
+  private var totalSize = 0L
+
+  /**
+   * Loads the journal into memory. Returns false if there is no journal (or it's broken) which means
+   * the index needs to be rebuilt (see [rewrite]).
+   * */
+  @Synchronized
+  fun load(): Boolean {
+    closeWriter()
+    clearEntries()
+
+    if (!journalFile.exists()) {
+      return false
+    }
+
+    var needsCompaction = false
+
+    try {
+      journalFile.bufferedReader().use { reader ->
+        val magic = reader.readLine()
+        val version = reader.readLine()
+
+        if (magic != JOURNAL_MAGIC || version != JOURNAL_VERSION.toString()) {
+          throw IOException("Unexpected journal header: magic=$magic, version=$version")
+        }
+
+        while (true) {
+          val line = reader.readLine()
+            ?: break
+
+          if (!applyOperation(line)) {
+            // Most likely the app was killed while this line was being written
+            needsCompaction = true
+            break
+          }
+        }
+      }
+    } catch (error: IOException) {
+      clearEntries()
+      return false
+    }
+
+    if (needsCompaction) {
+      writeJournal()
+    } else {
+      writer = openWriter(append = true)
+    }
+
+    return true
+  }
+
+  @Synchronized
+  fun get(key: String): Entry? {
+    return entries[key]
+  }
+
+  @Synchronized
+  fun contains(key: String): Boolean {
+    return entries.containsKey(key)
+  }
+
+  @Synchronized
+  fun size(): Int {
+    return entries.size
+  }
+
+  @Synchronized
+  fun totalSize(): Long {
+    return totalSize
+  }
+
+  @Synchronized
+  fun snapshot(): List<Entry> {
+    return entries.values.toList()
+  }
+
+  @Synchronized
+  @Throws(IOException::class)
+  fun put(entry: Entry) {
+    putEntry(entry)
+    appendLine(formatPut(entry))
+  }
+
+  /**
+   * The access time is only persisted with [ACCESS_TIME_GRANULARITY_MS] precision so that reading the
+   * same files over and over (e.g. scrolling the same thread back and forth) doesn't grow the journal.
+   * */
+  @Synchronized
+  @Throws(IOException::class)
+  fun markAccessed(key: String, accessTime: Long) {
+    val entry = entries[key]
+      ?: return
+
+    if (accessTime - entry.lastAccess < ACCESS_TIME_GRANULARITY_MS) {
+      return
+    }
+
+    putEntry(entry.copy(lastAccess = accessTime))
+    appendLine("$OP_ACCESS $key $accessTime")
+  }
+
+  @Synchronized
+  @Throws(IOException::class)
+  fun remove(key: String) {
+    if (removeEntry(key) == null) {
+      return
+    }
+
+    appendLine("$OP_REMOVE $key")
+  }
+
+  /**
+   * Replaces the whole index with [newEntries] and rewrites the journal.
+   * */
+  @Synchronized
+  @Throws(IOException::class)
+  fun rewrite(newEntries: Collection<Entry>) {
+    clearEntries()
+    newEntries.forEach { entry -> putEntry(entry) }
+
+    writeJournal()
+  }
+
+  @Synchronized
+  fun needsCompaction(): Boolean {
+    return redundantOperationsCount >= COMPACTION_THRESHOLD && redundantOperationsCount >= entries.size
+  }
+
+  @Synchronized
+  @Throws(IOException::class)
+  fun compact() {
+    if (redundantOperationsCount == 0) {
+      return
+    }
+
+    writeJournal()
+  }
+
+  @GuardedBy("this")
+  private fun applyOperation(line: String): Boolean {
+    val parts = line.split(' ')
+
+    when (parts.getOrNull(0)) {
+      OP_PUT -> {
+        if (parts.size != 6) {
+          return false
+        }
+
+        val entry = Entry(
+          key = parts[1],
+          createdOn = parts[2].toLongOrNull() ?: return false,
+          lastAccess = parts[3].toLongOrNull() ?: return false,
+          size = parts[4].toLongOrNull() ?: return false,
+          isDownloaded = when (parts[5]) {
+            "1" -> true
+            "0" -> false
+            else -> return false
+          }
+        )
+
+        putEntry(entry)
+      }
+      OP_ACCESS -> {
+        if (parts.size != 3) {
+          return false
+        }
+
+        val lastAccess = parts[2].toLongOrNull()
+          ?: return false
+        val entry = entries[parts[1]]
+
+        if (entry == null) {
+          ++redundantOperationsCount
+        } else {
+          putEntry(entry.copy(lastAccess = lastAccess))
+        }
+      }
+      OP_REMOVE -> {
+        if (parts.size != 2) {
+          return false
+        }
+
+        removeEntry(parts[1])
+        ++redundantOperationsCount
+      }
+      else -> return false
+    }
+
+    return true
+  }
+
+  @GuardedBy("this")
+  private fun putEntry(entry: Entry) {
+    val prevEntry = entries.put(entry.key, entry)
+    if (prevEntry != null) {
+      totalSize -= prevEntry.size
+      ++redundantOperationsCount
+    }
+
+    totalSize += entry.size
+  }
+
+  @GuardedBy("this")
+  private fun removeEntry(key: String): Entry? {
+    val prevEntry = entries.remove(key)
+      ?: return null
+
+    totalSize -= prevEntry.size
+    ++redundantOperationsCount
+
+    return prevEntry
+  }
+
+  @GuardedBy("this")
+  private fun clearEntries() {
+    entries.clear()
+    totalSize = 0L
+    redundantOperationsCount = 0
+  }
+
+  @GuardedBy("this")
+  private fun appendLine(line: String) {
+    val currentWriter = writer ?: openWriter(append = true).also { writer = it }
+
+    currentWriter.write(line)
+    currentWriter.write("\n")
+    currentWriter.flush()
+  }
+
+  /**
+   * Writes the current entries into a temp file and then replaces the journal with it so that we
+   * never end up with a half written journal.
+   * */
+  @GuardedBy("this")
+  private fun writeJournal() {
+    closeWriter()
+
+    val tmpJournalFile = File(journalFile.parentFile, journalFile.name + TMP_FILE_SUFFIX)
+
+    BufferedWriter(OutputStreamWriter(FileOutputStream(tmpJournalFile, false), Charsets.UTF_8)).use { tmpWriter ->
+      tmpWriter.write(JOURNAL_MAGIC)
+      tmpWriter.write("\n")
+      tmpWriter.write(JOURNAL_VERSION.toString())
+      tmpWriter.write("\n")
+
+      entries.values.forEach { entry ->
+        tmpWriter.write(formatPut(entry))
+        tmpWriter.write("\n")
+      }
+    }
+
+    if (!tmpJournalFile.renameTo(journalFile)) {
+      tmpJournalFile.delete()
+      throw IOException("Failed to replace journal ${journalFile.absolutePath}")
+    }
+
+    redundantOperationsCount = 0
+    writer = openWriter(append = true)
+  }
+
+  private fun openWriter(append: Boolean): BufferedWriter {
+    return BufferedWriter(OutputStreamWriter(FileOutputStream(journalFile, append), Charsets.UTF_8))
+  }
+
+  @GuardedBy("this")
+  private fun closeWriter() {
+    try {
+      writer?.close()
+    } catch (ignored: IOException) {
+    } finally {
+      writer = null
+    }
+  }
+
+  private fun formatPut(entry: Entry): String {
+    val isDownloaded = if (entry.isDownloaded) "1" else "0"
+    return "$OP_PUT ${entry.key} ${entry.createdOn} ${entry.lastAccess} ${entry.size} $isDownloaded"
+  }
+
+  data class Entry(
+    val key: String,
+    val createdOn: Long,
+    val lastAccess: Long,
+    val size: Long,
+    val isDownloaded: Boolean
+  )
+
+  companion object {
+    private const val JOURNAL_MAGIC = "kurobaex.cache_journal"
+    private const val JOURNAL_VERSION = 1
+    private const val TMP_FILE_SUFFIX = ".tmp"
+
+    private const val OP_PUT = "P"
+    private const val OP_ACCESS = "A"
+    private const val OP_REMOVE = "R"
+
+    private const val COMPACTION_THRESHOLD = 2000
+
+    val ACCESS_TIME_GRANULARITY_MS = TimeUnit.MINUTES.toMillis(1)
+  }
+}
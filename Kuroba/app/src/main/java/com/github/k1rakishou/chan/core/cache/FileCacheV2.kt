@@ -19,6 +19,7 @@ import com.github.k1rakishou.chan.core.cache.downloader.PartialContentSupportChe
 import com.github.k1rakishou.chan.core.cache.downloader.log
 import com.github.k1rakishou.chan.core.cache.downloader.logError
 import com.github.k1rakishou.chan.core.cache.downloader.logErrorsAndExtractErrorMessage
+import com.github.k1rakishou.chan.core.diagnostics.MetricsRegistry
 import com.github.k1rakishou.chan.core.site.SiteResolver
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils.getNetworkClass
 import com.github.k1rakishou.chan.utils.BackgroundUtils
@@ -34,6 +35,7 @@ import io.reactivex.Flowable
 import io.reactivex.processors.PublishProcessor
 import io.reactivex.schedulers.Schedulers
 import okhttp3.HttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
 import java.io.File
 import java.io.IOException
 import java.util.*
@@ -47,7 +49,8 @@ class FileCacheV2(
   private val siteResolver: SiteResolver,
   private val downloaderOkHttpClient: Lazy<RealDownloaderOkHttpClient>,
   private val connectivityManager: ConnectivityManager,
-  private val appConstants: AppConstants
+  private val appConstants: AppConstants,
+  private val metricsRegistry: MetricsRegistry
 ) {
   private val activeDownloads = ActiveDownloads()
 
@@ -290,6 +293,7 @@ class FileCacheV2(
         // Only call cancel when not already canceled and not stopped
         if (result !is FileDownloadResult.Canceled && result !is FileDownloadResult.Stopped) {
           activeDownloads.get(url)?.cancelableDownload?.cancel()
+          metricsRegistry.increment(MetricsRegistry.FILE_CACHE_ERRORS, url.toHttpUrlOrNull()?.host)
         }
 
         purgeOutput(request.url, request.getOutputFile())
@@ -341,6 +345,14 @@ class FileCacheV2(
             ") for request ${request}"
           )
 
+          // requestTime is 0 when the file was already in the cache
+          if (result.requestTime > 0) {
+            val host = url.toHttpUrlOrNull()?.host
+
+            metricsRegistry.recordMillis(MetricsRegistry.FILE_CACHE_DOWNLOAD, host, result.requestTime)
+            metricsRegistry.increment(MetricsRegistry.FILE_CACHE_DOWNLOADED_BYTES, host, total)
+          }
+
           // Trigger cache trimmer after a file has been successfully downloaded
           cacheHandler.get().fileWasAdded(
             cacheFileType = cacheFileType,
@@ -530,10 +542,15 @@ class FileCacheV2(
       url = url
     ) ?: return Flowable.error(FileCacheException.CouldNotCreateOutputCacheFile(url))
 
+    val host = url.toHttpUrlOrNull()?.host
+
     if (cacheHandler.get().isAlreadyDownloaded(cacheFileType, outputFile)) {
+      metricsRegistry.increment(MetricsRegistry.FILE_CACHE_HITS, host)
       return Flowable.just(FileDownloadResult.Success(outputFile, 0L))
     }
 
+    metricsRegistry.increment(MetricsRegistry.FILE_CACHE_MISSES, host)
+
     val fullPath = outputFile.absolutePath
     val exists = outputFile.exists()
     val isFile = outputFile.isFile()
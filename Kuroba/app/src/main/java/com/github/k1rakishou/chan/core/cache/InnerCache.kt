@@ -1,7 +1,6 @@
 package com.github.k1rakishou.chan.core.cache
 
 import android.os.Environment
-import androidx.annotation.GuardedBy
 import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils
 import com.github.k1rakishou.chan.utils.BackgroundUtils
@@ -17,8 +16,8 @@ import org.joda.time.format.DateTimeFormatterBuilder
 import org.joda.time.format.ISODateTimeFormat
 import java.io.File
 import java.io.IOException
-import java.io.PrintWriter
 import java.util.*
+import java.util.concurrent.CountDownLatch
 import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
@@ -29,6 +28,7 @@ import kotlin.time.measureTime
 internal class InnerCache(
   cacheDirFile: File,
   chunksCacheDirFile: File,
+  journalFile: File,
   private val fileCacheDiskSizeBytes: Long,
   private val cacheFileType: CacheFileType,
   private val isDevBuild: Boolean
@@ -45,23 +45,19 @@ internal class InnerCache(
   private val size = AtomicLong()
   private val lastTrimTime = AtomicLong(0)
   private val trimRunning = AtomicBoolean(false)
-  private val recalculationRunning = AtomicBoolean(false)
   private val trimChunksRunning = AtomicBoolean(false)
+  private val journalCompactionRunning = AtomicBoolean(false)
   private val directoriesChecked = AtomicBoolean(false)
 
-  @GuardedBy("itself")
-  private val filesOnDiskCache = hashSetWithCap<String>(128)
-  @GuardedBy("itself")
-  private val fullyDownloadedFiles = hashSetWithCap<String>(128)
+  private val journal = CacheJournal(journalFile)
+  private val journalLoadedLatch = CountDownLatch(1)
 
   private val _cacheDirFile: File = cacheDirFile
   private val cacheDirFile: File
     get() {
       if (!_cacheDirFile.exists()) {
         _cacheDirFile.mkdirs()
-
-        synchronized(filesOnDiskCache) { filesOnDiskCache.clear() }
-        synchronized(fullyDownloadedFiles) { fullyDownloadedFiles.clear() }
+        clearJournal()
       }
 
       return _cacheDirFile
@@ -81,7 +77,7 @@ internal class InnerCache(
     Logger.d(TAG, "cacheFileType=$cacheFileType, " +
       "fileCacheDiskSize=${ChanPostUtils.getReadableFileSize(fileCacheDiskSizeBytes)}")
 
-    backgroundRecalculateSize()
+    backgroundLoadJournal()
     backgroundClearChunksCacheDir()
   }
 
@@ -94,7 +90,10 @@ internal class InnerCache(
   }
 
   fun containsFile(fileName: String): Boolean {
-    return synchronized(filesOnDiskCache) { filesOnDiskCache.contains(fileName) }
+    val cacheFileKey = getCacheFileKey(fileName)
+      ?: return false
+
+    return journal.contains(cacheFileKey)
   }
 
   fun getChunkCacheFileOrNull(chunkStart: Long, chunkEnd: Long, url: String): File? {
@@ -120,23 +119,27 @@ internal class InnerCache(
 
   fun getCacheFileOrNull(url: String): File? {
     BackgroundUtils.ensureBackgroundThread()
+    awaitJournalLoaded()
 
     createDirectories()
+    val cacheFileKey = hashUrl(url)
     val cacheFile = getCacheFileByUrl(url)
 
     return cacheHandlerSynchronizer.withLocalLock(cacheFile.name) {
       try {
-        if (!cacheFile.exists()) {
+        val entry = journal.get(cacheFileKey)
+        if (entry == null || !entry.isDownloaded) {
           return@withLocalLock null
         }
 
-        if (!getCacheFileMetaInternal(url).exists()) {
+        if (!cacheFile.exists()) {
+          Logger.e(TAG, "Cache file is in the journal but does not exist (deleting). file: ${cacheFile.absolutePath}")
+          deleteCacheFile(cacheFile)
           return@withLocalLock null
         }
 
-        if (!isAlreadyDownloaded(cacheFile)) {
-          return@withLocalLock null
-        }
+        journal.markAccessed(cacheFileKey, System.currentTimeMillis())
+        backgroundCompactJournalIfNeeded()
 
         return@withLocalLock cacheFile
       } catch (error: IOException) {
@@ -151,8 +154,10 @@ internal class InnerCache(
 
   fun getOrCreateCacheFile(url: String): File? {
     BackgroundUtils.ensureBackgroundThread()
+    awaitJournalLoaded()
 
     createDirectories()
+    val cacheFileKey = hashUrl(url)
     val cacheFile = getCacheFileByUrl(url)
 
     return cacheHandlerSynchronizer.withLocalLock(cacheFile.name) {
@@ -161,27 +166,22 @@ internal class InnerCache(
           throw IOException("Couldn't create cache file, path = ${cacheFile.absolutePath}")
         }
 
-        val cacheFileMeta = getCacheFileMetaInternal(url)
-        if (!cacheFileMeta.exists()) {
-          if (!cacheFileMeta.createNewFile()) {
-            throw IOException("Couldn't create cache file meta, path = ${cacheFileMeta.absolutePath}")
-          }
+        if (!journal.contains(cacheFileKey)) {
+          val now = System.currentTimeMillis()
 
-          val result = updateCacheFileMeta(
-            file = cacheFileMeta,
-            overwrite = true,
-            createdOn = System.currentTimeMillis(),
-            fileDownloaded = false
+          journal.put(
+            CacheJournal.Entry(
+              key = cacheFileKey,
+              createdOn = now,
+              lastAccess = now,
+              size = 0L,
+              isDownloaded = false
+            )
           )
 
-          if (!result) {
-            throw IOException("Cache file meta update failed")
-          }
+          backgroundCompactJournalIfNeeded()
         }
 
-        val cacheFileName = cacheFile.name
-        synchronized(filesOnDiskCache) { filesOnDiskCache.add(cacheFileName) }
-
         return@withLocalLock cacheFile
       } catch (error: IOException) {
         Logger.e(TAG, "Error while trying to get or create cache file (deleting)", error)
@@ -222,62 +222,31 @@ internal class InnerCache(
 
   fun isAlreadyDownloaded(cacheFile: File): Boolean {
     BackgroundUtils.ensureBackgroundThread()
+    awaitJournalLoaded()
 
     createDirectories()
     val cacheFileName = cacheFile.name
 
+    val cacheFileKey = getCacheFileKey(cacheFileName)
+    if (cacheFileKey == null) {
+      Logger.e(TAG, "Not a cache file (deleting). file: ${cacheFile.absolutePath}")
+      deleteCacheFile(cacheFile)
+      return false
+    }
+
     return cacheHandlerSynchronizer.withLocalLock(cacheFileName) {
       try {
-        val containsInCache = synchronized(fullyDownloadedFiles) { fullyDownloadedFiles.contains(cacheFileName) }
-        if (containsInCache) {
-          return@withLocalLock true
-        }
+        // Files that are not in the journal were never created by us (or were already deleted) so
+        // there is no need to touch the disk at all.
+        val entry = journal.get(cacheFileKey)
+          ?: return@withLocalLock false
 
-        if (!cacheFile.exists()) {
-          deleteCacheFile(cacheFile)
-          return@withLocalLock false
-        }
-
-        if (!cacheFileName.endsWith(CACHE_EXTENSION)) {
-          Logger.e(TAG, "Not a cache file (deleting). file: ${cacheFile.absolutePath}")
-          deleteCacheFile(cacheFile)
-          return@withLocalLock false
-        }
-
-        val cacheFileMetaFile = getCacheFileMetaByCacheFile(cacheFile)
-        if (cacheFileMetaFile == null) {
-          Logger.e(TAG, "Couldn't get cache file meta by cache file (deleting). cacheFile: ${cacheFile.absolutePath}")
-          deleteCacheFile(cacheFile)
-          return@withLocalLock false
-        }
-
-        if (!cacheFileMetaFile.exists()) {
-          Logger.e(TAG, "Cache file meta does not exist (deleting). cacheFileMetaFile: ${cacheFileMetaFile.absolutePath}")
-          deleteCacheFile(cacheFile)
-          return@withLocalLock false
+        if (entry.isDownloaded) {
+          journal.markAccessed(cacheFileKey, System.currentTimeMillis())
+          backgroundCompactJournalIfNeeded()
         }
 
-        if (cacheFileMetaFile.length() <= 0) {
-          Logger.e(TAG, "Cache file meta is empty (deleting). cacheFileMetaFile: ${cacheFileMetaFile.absolutePath}")
-          deleteCacheFile(cacheFile)
-          return@withLocalLock false
-        }
-
-        val cacheFileMeta = readCacheFileMeta(cacheFileMetaFile)
-        if (cacheFileMeta == null) {
-          Logger.e(TAG, "Failed to read cache file meta (deleting). cacheFileMetaFile: ${cacheFileMetaFile.absolutePath}")
-          deleteCacheFile(cacheFile)
-          return@withLocalLock false
-        }
-
-        val isDownloaded = cacheFileMeta.isDownloaded
-        if (isDownloaded) {
-          synchronized(fullyDownloadedFiles) { fullyDownloadedFiles += cacheFileName }
-        } else {
-          synchronized(fullyDownloadedFiles) { fullyDownloadedFiles -= cacheFileName }
-        }
-
-        return@withLocalLock isDownloaded
+        return@withLocalLock entry.isDownloaded
       } catch (error: Throwable) {
         Logger.e(TAG, "Error while trying to check whether the file is already downloaded", error)
         deleteCacheFile(cacheFile)
@@ -289,6 +258,7 @@ internal class InnerCache(
 
   fun markFileDownloaded(output: File): Boolean {
     BackgroundUtils.ensureBackgroundThread()
+    awaitJournalLoaded()
 
     return cacheHandlerSynchronizer.withLocalLock(output.name) {
       try {
@@ -300,31 +270,23 @@ internal class InnerCache(
           return@withLocalLock false
         }
 
-        val cacheFileMeta = getCacheFileMetaByCacheFile(output)
-        if (cacheFileMeta == null) {
-          Logger.e(TAG, "Couldn't get cache file meta by cache file (deleting). output: ${output.absolutePath}")
+        val entry = getCacheFileKey(output.name)?.let { cacheFileKey -> journal.get(cacheFileKey) }
+        if (entry == null) {
+          Logger.e(TAG, "Couldn't find cache file in the journal (deleting). output: ${output.absolutePath}")
           deleteCacheFile(output)
           return@withLocalLock false
         }
 
-        val updateResult = updateCacheFileMeta(
-          file = cacheFileMeta,
-          overwrite = false,
-          createdOn = null,
-          fileDownloaded = true
+        journal.put(
+          entry.copy(
+            lastAccess = System.currentTimeMillis(),
+            size = output.length(),
+            isDownloaded = true
+          )
         )
 
-        if (!updateResult) {
-          Logger.e(
-            TAG, "Failed to update cache file meta (deleting). " +
-            "cacheFileMeta: ${cacheFileMeta.absolutePath}, output: ${output.absolutePath}")
-          deleteCacheFile(output)
-        } else {
-          val outputFileName = output.name
-          synchronized(fullyDownloadedFiles) { fullyDownloadedFiles += outputFileName }
-        }
-
-        return@withLocalLock updateResult
+        backgroundCompactJournalIfNeeded()
+        return@withLocalLock true
       } catch (error: Throwable) {
         Logger.e(TAG, "Error while trying to mark file as downloaded (deleting)", error)
         deleteCacheFile(output)
@@ -382,26 +344,28 @@ internal class InnerCache(
       }
 
       val cacheFileName = formatCacheFileName(originalFileName)
-      val cacheMetaFileName = formatCacheFileMetaName(originalFileName)
-
       val cacheFile = File(cacheDirFile, cacheFileName)
-      val cacheMetaFile = File(cacheDirFile, cacheMetaFileName)
-      val cacheFileSize = cacheFile.length()
 
-      val deleteCacheFileResult = !cacheFile.exists() || cacheFile.delete()
+      val entry = journal.get(originalFileName)
+      val cacheFileSize = if (entry != null && entry.isDownloaded) {
+        entry.size
+      } else {
+        cacheFile.length()
+      }
+
+      val deleteCacheFileResult = cacheFile.delete() || !cacheFile.exists()
       if (!deleteCacheFileResult) {
         Logger.e(TAG, "Failed to delete cache file, fileName = ${cacheFile.absolutePath}")
       }
 
-      val deleteCacheFileMetaResult = !cacheMetaFile.exists() || cacheMetaFile.delete()
-      if (!deleteCacheFileMetaResult) {
-        Logger.e(TAG, "Failed to delete cache file meta = ${cacheMetaFile.absolutePath}")
+      try {
+        journal.remove(originalFileName)
+        backgroundCompactJournalIfNeeded()
+      } catch (error: IOException) {
+        Logger.e(TAG, "Failed to remove cache file from the journal, fileName = ${cacheFile.absolutePath}", error)
       }
 
-      synchronized(filesOnDiskCache) { filesOnDiskCache.remove(cacheFileName) }
-      synchronized(fullyDownloadedFiles) { fullyDownloadedFiles.remove(cacheFileName) }
-
-      if (deleteCacheFileResult && deleteCacheFileMetaResult) {
+      if (deleteCacheFileResult) {
         val fileSize = if (cacheFileSize < 0) {
           0
         } else {
@@ -415,7 +379,7 @@ internal class InnerCache(
           }
 
           if (isDevBuild) {
-            Logger.d(TAG, "Deleted $cacheFileName and it's meta $cacheMetaFileName, " +
+            Logger.d(TAG, "Deleted $cacheFileName, " +
               "fileSize = ${ChanPostUtils.getReadableFileSize(fileSize)}, " +
               "cache size = ${ChanPostUtils.getReadableFileSize(size.get())}")
           }
@@ -424,13 +388,13 @@ internal class InnerCache(
         return@withLocalLock true
       }
 
-      // Only one of the files could be deleted
       return@withLocalLock false
     }
   }
 
   fun clearCache() {
     Logger.d(TAG, "Clearing cache ${cacheFileType}")
+    awaitJournalLoaded()
 
     cacheHandlerSynchronizer.withGlobalLock {
       if (cacheDirFile.exists() && cacheDirFile.isDirectory) {
@@ -449,99 +413,17 @@ internal class InnerCache(
         }
       }
 
-      synchronized(filesOnDiskCache) { filesOnDiskCache.clear() }
-      synchronized(fullyDownloadedFiles) { fullyDownloadedFiles.clear() }
-
+      clearJournal()
       recalculateSize()
     }
   }
 
-  private fun getCacheFileMetaByCacheFile(cacheFile: File): File? {
-    val fileNameWithExtension = cacheFile.name
-    if (!fileNameWithExtension.endsWith(CACHE_EXTENSION)) {
-      Logger.e(TAG, "Bad file (not a cache file), file = ${cacheFile.absolutePath}")
-      return null
-    }
-
-    val originalFileName = StringUtils.removeExtensionFromFileName(fileNameWithExtension)
-    if (originalFileName.isEmpty()) {
-      Logger.e(TAG, "Bad fileNameWithExtension, fileNameWithExtension = $fileNameWithExtension")
-      return null
-    }
-
-    return File(cacheDirFile, formatCacheFileMetaName(originalFileName))
-  }
-
-  @Throws(IOException::class)
-  private fun updateCacheFileMeta(
-    file: File,
-    overwrite: Boolean,
-    createdOn: Long?,
-    fileDownloaded: Boolean?
-  ): Boolean {
-    return cacheHandlerSynchronizer.withLocalLock(file.name) {
-      if (!file.exists()) {
-        Logger.e(TAG, "Cache file meta does not exist!")
-        return@withLocalLock false
-      }
-
-      if (!file.name.endsWith(CACHE_META_EXTENSION)) {
-        Logger.e(TAG, "Not a cache file meta! file = ${file.absolutePath}")
-        return@withLocalLock false
-      }
-
-      val prevCacheFileMeta = readCacheFileMeta(file).let { cacheFileMeta ->
-        when {
-          !overwrite && cacheFileMeta != null -> {
-            require(!(createdOn == null && fileDownloaded == null)) {
-              "Only one parameter may be null when updating!"
-            }
-
-            val updatedCreatedOn = createdOn ?: cacheFileMeta.createdOn
-            val updatedFileDownloaded = fileDownloaded ?: cacheFileMeta.isDownloaded
-
-            return@let CacheFileMeta(
-              CURRENT_META_FILE_VERSION,
-              updatedCreatedOn,
-              updatedFileDownloaded
-            )
-          }
-          else -> {
-            if (createdOn == null || fileDownloaded == null) {
-              throw IOException(
-                "Both parameters must not be null when writing! " +
-                  "(Probably prevCacheFileMeta couldn't be read, check the logs)"
-              )
-            }
-
-            return@let CacheFileMeta(CURRENT_META_FILE_VERSION, createdOn, fileDownloaded)
-          }
-        }
-      }
-
-      return@withLocalLock file.outputStream().use { stream ->
-        return@use PrintWriter(stream).use { pw ->
-          val toWrite = String.format(
-            Locale.ENGLISH,
-            CACHE_FILE_META_CONTENT_FORMAT,
-            CURRENT_META_FILE_VERSION,
-            prevCacheFileMeta.createdOn,
-            prevCacheFileMeta.isDownloaded
-          )
-
-          val lengthChars = ConversionUtils.intToCharArray(toWrite.length)
-          pw.write(lengthChars)
-          pw.write(toWrite)
-          pw.flush()
-
-          return@use true
-        }
-      }
-    }
-  }
-
+  /**
+   * Cache file meta files are not used anymore (see [CacheJournal]), this is only used once to
+   * migrate them into the journal.
+   * */
   @Throws(IOException::class)
-  private fun readCacheFileMeta(cacheFileMeta: File): CacheFileMeta? {
+  private fun readLegacyCacheFileMeta(cacheFileMeta: File): CacheFileMeta? {
     return cacheHandlerSynchronizer.withLocalLock(cacheFileMeta.name) {
       if (!cacheFileMeta.exists()) {
         throw IOException("Cache file meta does not exist, path = ${cacheFileMeta.absolutePath}")
@@ -626,14 +508,6 @@ internal class InnerCache(
     return File(chunksCacheDirFile, fileName)
   }
 
-  internal fun getCacheFileMetaInternal(url: String): File {
-    createDirectories()
-
-    // AbstractFile expects all file names to have extensions
-    val fileName = formatCacheFileMetaName(hashUrl(url))
-    return File(cacheDirFile, fileName)
-  }
-
   internal fun hashUrl(url: String): String {
     return HashingUtil.stringHash(url)
   }
@@ -664,16 +538,14 @@ internal class InnerCache(
     )
   }
 
-  private fun formatCacheFileMetaName(originalFileName: String): String {
-    return String.format(
-      Locale.ENGLISH,
-      CACHE_FILE_NAME_FORMAT,
-      originalFileName,
-      // AbstractFile expects all file names to have extensions
-      CACHE_META_EXTENSION
-    )
-  }
+  private fun getCacheFileKey(cacheFileName: String): String? {
+    if (!cacheFileName.endsWith(CACHE_EXTENSION)) {
+      return null
+    }
 
+    return StringUtils.removeExtensionFromFileName(cacheFileName)
+      .takeIf { cacheFileKey -> cacheFileKey.isNotEmpty() }
+  }
 
   private fun createDirectories(forced: Boolean = false) {
     if (!forced && !directoriesChecked.compareAndSet(false, true)) {
@@ -719,65 +591,181 @@ internal class InnerCache(
     }
   }
 
-  private fun backgroundRecalculateSize() {
-    if (recalculationRunning.get()) {
-      return
-    }
-
+  private fun backgroundLoadJournal() {
     executor.execute {
+      try {
+        loadJournal()
+      } catch (error: Throwable) {
+        Logger.e(TAG, "loadJournal() error", error)
+        clearJournal()
+      } finally {
+        journalLoadedLatch.countDown()
+      }
+
       recalculateSize()
     }
   }
 
+  /**
+   * Loading is started right away in init{} so by the time anyone requests a file it's most likely
+   * already loaded.
+   * */
+  private fun awaitJournalLoaded() {
+    journalLoadedLatch.await()
+  }
+
   @OptIn(ExperimentalTime::class)
-  private fun recalculateSize() {
-    var calculatedSize: Long = 0
+  private fun loadJournal() {
+    Logger.d(TAG, "loadJournal() start")
 
-    if (!recalculationRunning.compareAndSet(false, true)) {
-      return
+    val time = measureTime {
+      cacheHandlerSynchronizer.withGlobalLock {
+        if (journal.load()) {
+          syncJournalWithCacheDir()
+        } else {
+          rebuildJournal()
+        }
+      }
     }
 
-    Logger.d(TAG, "recalculateSize() start")
+    Logger.d(TAG, "loadJournal() end took $time, entries=${journal.size()}")
+  }
 
-    val time = measureTime {
-      synchronized(filesOnDiskCache) { filesOnDiskCache.clear() }
+  /**
+   * Drops entries whose files are gone and deletes files that have no entries (the app was killed
+   * before the journal was updated). Only file names are listed here, no file is read.
+   * */
+  private fun syncJournalWithCacheDir() {
+    val fileNames = cacheDirFile.list() ?: emptyArray()
+    val cacheFileKeysOnDisk = hashSetWithCap<String>(fileNames.size)
+    var deletedFiles = 0
+
+    for (fileName in fileNames) {
+      val cacheFileKey = getCacheFileKey(fileName)
+      if (cacheFileKey != null && journal.contains(cacheFileKey)) {
+        cacheFileKeysOnDisk += cacheFileKey
+        continue
+      }
 
-      try {
-        cacheHandlerSynchronizer.withGlobalLock {
-          val files = cacheDirFile.listFiles() ?: emptyArray()
-          for (file in files) {
-            if (file.name.endsWith(CACHE_META_EXTENSION)) {
-              continue
-            }
+      File(cacheDirFile, fileName).delete()
+      ++deletedFiles
+    }
 
-            calculatedSize += file.length()
-            val cacheFileName = file.name
+    var removedEntries = 0
 
-            synchronized(filesOnDiskCache) { filesOnDiskCache.add(cacheFileName) }
-          }
+    journal.snapshot().forEach { entry ->
+      if (entry.key !in cacheFileKeysOnDisk) {
+        journal.remove(entry.key)
+        ++removedEntries
+      }
+    }
+
+    if (deletedFiles > 0 || removedEntries > 0) {
+      Logger.d(TAG, "syncJournalWithCacheDir() deletedFiles=$deletedFiles, removedEntries=$removedEntries")
+    }
+  }
+
+  /**
+   * Called when there is no journal yet (first start after an update) or it couldn't be read. Builds
+   * the journal out of the cache files and their meta files (which are deleted afterwards). Cache
+   * files without (or with broken) meta are deleted just like they used to be.
+   * */
+  private fun rebuildJournal() {
+    Logger.d(TAG, "rebuildJournal() start")
+
+    val directoryFiles = cacheDirFile.listFiles() ?: emptyArray()
+    val legacyMetaFiles = directoryFiles
+      .filter { file -> file.name.endsWith(CACHE_META_EXTENSION) }
+      .associateBy { file -> StringUtils.removeExtensionFromFileName(file.name) }
+
+    val entries = mutableListWithCap<CacheJournal.Entry>(directoryFiles.size / 2)
+
+    for (file in directoryFiles) {
+      val cacheFileKey = getCacheFileKey(file.name)
+        ?: continue
+
+      val cacheFileMeta = legacyMetaFiles[cacheFileKey]?.let { legacyMetaFile ->
+        try {
+          readLegacyCacheFileMeta(legacyMetaFile)
+        } catch (error: IOException) {
+          null
+        }
+      }
+
+      if (cacheFileMeta == null) {
+        Logger.e(TAG, "Couldn't read cache meta for file = ${file.absolutePath}")
+
+        if (!file.delete()) {
+          Logger.e(TAG, "Couldn't delete cache file = ${file.absolutePath}")
         }
 
-        size.set(calculatedSize)
+        continue
+      }
+
+      entries += CacheJournal.Entry(
+        key = cacheFileKey,
+        createdOn = cacheFileMeta.createdOn,
+        lastAccess = cacheFileMeta.createdOn,
+        size = if (cacheFileMeta.isDownloaded) file.length() else 0L,
+        isDownloaded = cacheFileMeta.isDownloaded
+      )
+    }
+
+    journal.rewrite(entries)
+    legacyMetaFiles.values.forEach { legacyMetaFile -> legacyMetaFile.delete() }
+
+    Logger.d(TAG, "rebuildJournal() end, entries=${entries.size}, legacyMetaFiles=${legacyMetaFiles.size}")
+  }
+
+  private fun clearJournal() {
+    try {
+      journal.rewrite(emptyList())
+    } catch (error: IOException) {
+      Logger.e(TAG, "Failed to clear the journal", error)
+    }
+  }
+
+  private fun backgroundCompactJournalIfNeeded() {
+    if (!journal.needsCompaction()) {
+      return
+    }
+
+    if (!journalCompactionRunning.compareAndSet(false, true)) {
+      return
+    }
+
+    executor.execute {
+      try {
+        compactJournal()
       } finally {
-        recalculationRunning.set(false)
+        journalCompactionRunning.set(false)
       }
     }
+  }
 
-    Logger.d(
-      TAG, "recalculateSize() end took $time, " +
-      "filesOnDiskCount=${filesOnDiskCache.size}, " +
-      "fullyDownloadedFilesCount=${fullyDownloadedFiles.size}")
+  @OptIn(ExperimentalTime::class)
+  private fun compactJournal() {
+    try {
+      val time = measureTime { journal.compact() }
+      Logger.d(TAG, "compactJournal() took $time, entries=${journal.size()}")
+    } catch (error: IOException) {
+      Logger.e(TAG, "compactJournal() error", error)
+    }
+  }
+
+  private fun recalculateSize() {
+    size.set(journal.totalSize())
+
+    Logger.d(TAG, "recalculateSize() size=${ChanPostUtils.getReadableFileSize(size.get())}, " +
+      "entries=${journal.size()}")
   }
 
   private fun trim() {
     BackgroundUtils.ensureBackgroundThread()
     createDirectories()
 
-    val directoryFiles = cacheHandlerSynchronizer.withGlobalLock { cacheDirFile.listFiles() ?: emptyArray() }
-    // Don't try to trim empty directories or just two files in it.
-    // Two (not one) because for every cache file we now have a cache file meta with some
-    // additional info.
-    if (directoryFiles.size <= 2) {
+    // Don't try to trim empty directories or just one file in it.
+    if (journal.size() <= 1) {
       return
     }
 
@@ -785,16 +773,13 @@ internal class InnerCache(
 
     // LastModified doesn't work on some platforms/phones
     // (https://issuetracker.google.com/issues/36930892)
-    // so we have to use a workaround. When creating a cache file for a download we also create a
-    // meta file where we will put some info about this download: the main file creation time and
-    // a flag that will tell us whether the download is complete or not. So now we need to parse
-    // the creation time from the meta file to sort cache files in ascending order (from the
-    // oldest cache file to the newest).
+    // so we keep the creation and the last access time of every cache file in the journal instead
+    // and delete the least recently used files first.
 
     var totalDeleted = 0L
     var filesDeleted = 0
 
-    val sortedFiles = groupFilterAndSortFiles(directoryFiles)
+    val sortedEntries = journal.snapshot().sortedWith(CACHE_ENTRY_COMPARATOR)
     val now = System.currentTimeMillis()
 
     val currentCacheSizeToUse = if (size.get() > fileCacheDiskSizeBytes) {
@@ -815,21 +800,18 @@ internal class InnerCache(
       "sizeToFree=${ChanPostUtils.getReadableFileSize(sizeToFree)}")
 
     // We either delete all files we can in the cache directory or at most half of the cache
-    for (cacheFile in sortedFiles) {
-      val file = cacheFile.file
-      val createdOn = cacheFile.createdOn
-
+    for (entry in sortedEntries) {
       val minCacheFileLifeTime = if (AppModuleAndroidUtils.isDevBuild()) {
         0
       } else {
-        // Do not delete fresh files because it may happen right at the time user switched
+        // Do not delete recently used files because it may happen right at the time user switched
         // to it. Since the list is sorted there is no point to iterate it anymore since all
         // the following files will be "too young" to be deleted so we just break out of
         // the loop.
         MIN_CACHE_FILE_LIFE_TIME
       }
 
-      if (now - createdOn < minCacheFileLifeTime) {
+      if (now - entry.lastAccess < minCacheFileLifeTime) {
         break
       }
 
@@ -837,10 +819,8 @@ internal class InnerCache(
         break
       }
 
-      val fileSize = file.length()
-
-      if (deleteCacheFile(file)) {
-        totalDeleted += fileSize
+      if (deleteCacheFile(formatCacheFileName(entry.key))) {
+        totalDeleted += entry.size
         ++filesDeleted
       }
 
@@ -857,96 +837,6 @@ internal class InnerCache(
       "cacheFileType=$cacheFileType, filesDeleted=$filesDeleted, " +
       "total space freed=${ChanPostUtils.getReadableFileSize(totalDeleted)}") }
 
-  private fun groupFilterAndSortFiles(directoryFiles: Array<File>): List<CacheFile> {
-    BackgroundUtils.ensureBackgroundThread()
-
-    val groupedCacheFiles = filterAndGroupCacheFilesWithMeta(directoryFiles)
-    val cacheFiles = ArrayList<CacheFile>(groupedCacheFiles.size)
-
-    for ((abstractFile, abstractFileMeta) in groupedCacheFiles) {
-      val cacheFileMeta = try {
-        readCacheFileMeta(abstractFileMeta)
-      } catch (error: IOException) {
-        null
-      }
-
-      if (cacheFileMeta == null) {
-        Logger.e(TAG, "Couldn't read cache meta for file = ${abstractFile.absolutePath}")
-
-        if (!deleteCacheFile(abstractFile)) {
-          Logger.e(TAG, "Couldn't delete cache file with meta for file = ${abstractFile.absolutePath}")
-        }
-        continue
-      }
-
-      cacheFiles.add(CacheFile(abstractFile, cacheFileMeta))
-    }
-
-    // Sort in ascending order, the oldest files are in the beginning of the list
-    Collections.sort(cacheFiles, CACHE_FILE_COMPARATOR)
-    return cacheFiles
-  }
-
-  private fun filterAndGroupCacheFilesWithMeta(
-    directoryFiles: Array<File>
-  ): List<GroupedCacheFile> {
-    BackgroundUtils.ensureBackgroundThread()
-
-    val grouped = directoryFiles
-      .map { file -> Pair(file, file.name) }
-      .filter { (_, fileName) ->
-        // Either cache file or cache meta
-        fileName.endsWith(CACHE_EXTENSION) || fileName.endsWith(CACHE_META_EXTENSION)
-      }
-      .groupBy { (_, fileName) ->
-        StringUtils.removeExtensionFromFileName(fileName)
-      }
-
-    val groupedCacheFileList = mutableListWithCap<GroupedCacheFile>(grouped.size / 2)
-
-    for ((fileName, groupOfFiles) in grouped) {
-      // We have already filtered all non-cache related files so it's safe to delete them here.
-      // We delete files without where either the cache file or cache file meta (or both) are
-      // missing.
-      if (groupOfFiles.isEmpty()) {
-        deleteCacheFile(fileName)
-        continue
-      }
-
-      // We also handle a hypothetical case where there are more than one cache file/meta with
-      // the same name
-      if (groupOfFiles.size != 2) {
-        groupOfFiles.forEach { (file, _) -> deleteCacheFile(file) }
-        continue
-      }
-
-      val (file1, fileName1) = groupOfFiles[0]
-      val (file2, fileName2) = groupOfFiles[1]
-
-      val cacheFile = when {
-        fileName1.endsWith(CACHE_EXTENSION) -> file1
-        fileName2.endsWith(CACHE_EXTENSION) -> file2
-        else -> throw IllegalStateException(
-          "Neither of grouped files is a cache file! " +
-            "fileName1 = $fileName1, fileName2 = $fileName2"
-        )
-      }
-
-      val cacheFileMeta = when {
-        fileName1.endsWith(CACHE_META_EXTENSION) -> file1
-        fileName2.endsWith(CACHE_META_EXTENSION) -> file2
-        else -> throw IllegalStateException(
-          "Neither of grouped files is a cache file meta! " +
-            "fileName1 = $fileName1, fileName2 = $fileName2"
-        )
-      }
-
-      groupedCacheFileList += GroupedCacheFile(cacheFile, cacheFileMeta)
-    }
-
-    return groupedCacheFileList
-  }
-
   private fun getAdditionalDebugInfo(file: File): String {
     val state = Environment.getExternalStorageState(file)
     val externalCacheDir = AndroidUtils.getAppContext().externalCacheDir?.absolutePath ?: "<null>"
@@ -964,23 +854,6 @@ internal class InnerCache(
       "internalCacheDir = ${internalCacheDir})"
   }
 
-  private class CacheFile(
-    val file: File,
-    private val cacheFileMeta: CacheFileMeta
-  ) {
-
-    val createdOn: Long
-      get() = cacheFileMeta.createdOn
-
-    override fun toString(): String {
-      return "CacheFile{" +
-        "file=${file.absolutePath}" +
-        ", cacheFileMeta=${cacheFileMeta}" +
-        "}"
-    }
-
-  }
-
   internal class CacheFileMeta(
     val version: Int = CURRENT_META_FILE_VERSION,
     val createdOn: Long,
@@ -1006,11 +879,6 @@ internal class InnerCache(
     }
   }
 
-  private data class GroupedCacheFile(
-    val cacheFile: File,
-    val cacheFileMeta: File
-  )
-
   companion object {
     private const val CURRENT_META_FILE_VERSION = 1
     private const val CACHE_FILE_META_HEADER_SIZE = 4
@@ -1022,7 +890,6 @@ internal class InnerCache(
 
     private const val CACHE_FILE_NAME_FORMAT = "%s.%s"
     private const val CHUNK_CACHE_FILE_NAME_FORMAT = "%s_%d_%d.%s"
-    private const val CACHE_FILE_META_CONTENT_FORMAT = "%d,%d,%b"
     internal const val CACHE_EXTENSION = "cache"
     internal const val CACHE_META_EXTENSION = "cache_meta"
     internal const val CHUNK_CACHE_EXTENSION = "chunk"
@@ -1030,9 +897,11 @@ internal class InnerCache(
     private val MIN_CACHE_FILE_LIFE_TIME = TimeUnit.MINUTES.toMillis(1)
     private val MIN_TRIM_INTERVAL = TimeUnit.SECONDS.toMillis(5)
 
-    private val CACHE_FILE_COMPARATOR = Comparator<CacheFile> { cacheFile1, cacheFile2 ->
-      cacheFile1.createdOn.compareTo(cacheFile2.createdOn)
-    }
+    // Sort in ascending order, the least recently used files are in the beginning of the list
+    private val CACHE_ENTRY_COMPARATOR = compareBy<CacheJournal.Entry>(
+      { entry -> entry.lastAccess },
+      { entry -> entry.createdOn }
+    )
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,16 @@
+package com.github.k1rakishou.chan.core.cache
+
+/**
+ * A cache file read from a [PackedSegmentStore]. There is no file on the disk to pass to coil so
+ * the contents are passed instead (see [com.github.k1rakishou.chan.core.image.PackedCacheDataFetcher]).
+ * */
+class PackedCacheData(
+  val key: String,
+  val bytes: ByteArray
+) {
+
+  override fun toString(): String {
+    return "PackedCacheData{key=$key, size=${bytes.size}}"
+  }
+
+}
@@ -0,0 +1,377 @@
+package com.github.k1rakishou.chan.core.cache
+
+import androidx.annotation.GuardedBy
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.*
+
+/**
+ * Storage for small cache files (thumbnails, site icons) of a [CacheFileType] with
+ * [CacheFileType.usePackedStorage] flag. Instead of creating a separate file for every thumbnail
+ * (tens of thousands of tiny files) they are appended into big segment files and read back with
+ * positional reads using an in-memory index (key -> segment, offset, length).
+ *
+ * Record format: magic (int), flags (byte), key length (byte), key (utf-8), data length (int), data.
+ * Deletions are persisted by appending a tombstone record (no data) so that the index can be rebuilt
+ * by scanning the record headers of all segments in order when the store is opened. A partially
+ * written last record (the app was killed in the middle of a write) is cut off.
+ *
+ * Eviction works on the segment level: once the total size of all segments exceeds [maxSizeBytes]
+ * the oldest segment is deleted as a whole. Entries of that segment that were read since they were
+ * written get a second chance and are copied into the newest segment first.
+ * */
+internal class PackedSegmentStore(
+  private val segmentsDir: File,
+  private val maxSizeBytes: Long,
+  private val segmentMaxSizeBytes: Long = DEFAULT_SEGMENT_MAX_SIZE_BYTES
+) {
+  @GuardedBy("this")
+  private val index = HashMap<String, Location>(256)
+  @GuardedBy("this")
+  private val segments = TreeMap<Int, Segment>()
+  @GuardedBy("this")
+  private var totalSize = 0L
+
+  @Volatile
+  private var loaded = false
+
+  @Synchronized
+  @Throws(IOException::class)
+  fun ensureLoaded() {
+    if (loaded) {
+      return
+    }
+
+    if (!segmentsDir.exists() && !segmentsDir.mkdirs()) {
+      throw IOException("Failed to create segments directory ${segmentsDir.absolutePath}")
+    }
+
+    val segmentFiles = segmentsDir.listFiles() ?: emptyArray()
+
+    for (segmentFile in segmentFiles) {
+      val segmentId = parseSegmentId(segmentFile.name)
+      if (segmentId == null) {
+        segmentFile.delete()
+        continue
+      }
+
+      segments[segmentId] = Segment(segmentId, segmentFile)
+    }
+
+    for (segment in segments.values) {
+      scanSegment(segment)
+      totalSize += segment.size
+    }
+
+    loaded = true
+  }
+
+  /**
+   * Does not wait for the store to be loaded (may be called on the main thread).
+   * */
+  fun contains(key: String): Boolean {
+    if (!loaded) {
+      return false
+    }
+
+    return synchronized(this) { index.containsKey(key) }
+  }
+
+  @Throws(IOException::class)
+  fun get(key: String): ByteArray? {
+    val (channel, location) = synchronized(this) {
+      ensureLoaded()
+
+      val location = index[key]
+        ?: return null
+      val segment = segments[location.segmentId]
+        ?: return null
+
+      location.accessed = true
+      return@synchronized segment.channel() to location
+    }
+
+    // Positional reads don't change the channel position so they can be done concurrently and
+    // without holding the lock. If the segment gets evicted in the meantime the read will fail with
+    // ClosedChannelException.
+    val buffer = ByteBuffer.allocate(location.length)
+    readFully(channel, buffer, location.dataOffset)
+
+    return buffer.array()
+  }
+
+  @Synchronized
+  @Throws(IOException::class)
+  fun put(key: String, data: ByteArray) {
+    require(data.size <= MAX_ENTRY_SIZE_BYTES) { "Entry is too big: ${data.size}" }
+    ensureLoaded()
+
+    index[key] = appendRecord(key, data, tombstone = false)
+      ?: throw IOException("Failed to append record for key $key")
+
+    evictIfNeeded()
+  }
+
+  @Synchronized
+  @Throws(IOException::class)
+  fun remove(key: String): Boolean {
+    ensureLoaded()
+
+    if (index.remove(key) == null) {
+      return false
+    }
+
+    appendRecord(key, EMPTY_DATA, tombstone = true)
+    return true
+  }
+
+  @Synchronized
+  fun clear() {
+    segments.values.forEach { segment ->
+      segment.close()
+      segment.file.delete()
+    }
+
+    segments.clear()
+    index.clear()
+    totalSize = 0L
+  }
+
+  @Synchronized
+  fun totalSize(): Long = totalSize
+
+  fun maxSize(): Long = maxSizeBytes
+
+  @Synchronized
+  fun entriesCount(): Int = index.size
+
+  @Synchronized
+  fun segmentsCount(): Int = segments.size
+
+  @GuardedBy("this")
+  private fun appendRecord(key: String, data: ByteArray, tombstone: Boolean): Location? {
+    val keyBytes = key.toByteArray(Charsets.UTF_8)
+    require(keyBytes.size <= MAX_KEY_LENGTH) { "Key is too long: $key" }
+
+    val recordSize = RECORD_HEADER_SIZE + keyBytes.size + data.size
+    val segment = getSegmentForAppend(recordSize)
+
+    val buffer = ByteBuffer.allocate(recordSize)
+    buffer.putInt(RECORD_MAGIC)
+    buffer.put(if (tombstone) FLAG_TOMBSTONE else FLAG_DATA)
+    buffer.put(keyBytes.size.toByte())
+    buffer.put(keyBytes)
+    buffer.putInt(data.size)
+    buffer.put(data)
+    buffer.flip()
+
+    val recordOffset = segment.size
+    writeFully(segment.channel(), buffer, recordOffset)
+
+    segment.size += recordSize
+    totalSize += recordSize
+
+    if (tombstone) {
+      return null
+    }
+
+    return Location(
+      segmentId = segment.id,
+      dataOffset = recordOffset + recordSize - data.size,
+      length = data.size
+    )
+  }
+
+  @GuardedBy("this")
+  private fun getSegmentForAppend(recordSize: Int): Segment {
+    val lastSegment = segments.lastEntry()?.value
+    if (lastSegment != null && (lastSegment.size == 0L || lastSegment.size + recordSize <= segmentMaxSizeBytes)) {
+      return lastSegment
+    }
+
+    val segmentId = (lastSegment?.id ?: 0) + 1
+    val segment = Segment(segmentId, File(segmentsDir, formatSegmentFileName(segmentId)))
+    segments[segmentId] = segment
+
+    return segment
+  }
+
+  @GuardedBy("this")
+  private fun evictIfNeeded() {
+    while (totalSize > maxSizeBytes && segments.size > 1) {
+      val oldestSegment = segments.firstEntry()?.value
+        ?: break
+
+      val oldestSegmentEntries = index.entries
+        .filter { (_, location) -> location.segmentId == oldestSegment.id }
+
+      for ((key, location) in oldestSegmentEntries) {
+        if (!location.accessed) {
+          index.remove(key)
+          continue
+        }
+
+        val data = ByteBuffer.allocate(location.length)
+        readFully(oldestSegment.channel(), data, location.dataOffset)
+
+        // The copy has to prove that it's still needed again to survive the next eviction
+        index[key] = appendRecord(key, data.array(), tombstone = false)
+          ?: continue
+      }
+
+      segments.remove(oldestSegment.id)
+      totalSize -= oldestSegment.size
+
+      oldestSegment.close()
+      oldestSegment.file.delete()
+    }
+  }
+
+  @GuardedBy("this")
+  private fun scanSegment(segment: Segment) {
+    val channel = segment.channel()
+    val fileSize = channel.size()
+    val header = ByteBuffer.allocate(RECORD_HEADER_SIZE + MAX_KEY_LENGTH)
+    var offset = 0L
+
+    while (offset < fileSize) {
+      header.clear()
+
+      val read = readAtMost(channel, header, offset)
+      if (read < RECORD_HEADER_SIZE) {
+        break
+      }
+
+      header.flip()
+
+      val magic = header.getInt()
+      val flags = header.get()
+      val keyLength = header.get().toInt() and 0xFF
+
+      if (magic != RECORD_MAGIC || (flags != FLAG_DATA && flags != FLAG_TOMBSTONE) || read < RECORD_HEADER_SIZE + keyLength) {
+        break
+      }
+
+      val keyBytes = ByteArray(keyLength)
+      header.get(keyBytes)
+      val dataLength = header.getInt()
+
+      val recordSize = RECORD_HEADER_SIZE + keyLength + dataLength
+      if (dataLength < 0 || offset + recordSize > fileSize) {
+        break
+      }
+
+      val key = String(keyBytes, Charsets.UTF_8)
+
+      if (flags == FLAG_TOMBSTONE) {
+        index.remove(key)
+      } else {
+        index[key] = Location(
+          segmentId = segment.id,
+          dataOffset = offset + recordSize - dataLength,
+          length = dataLength
+        )
+      }
+
+      offset += recordSize
+    }
+
+    if (offset < fileSize) {
+      // Cut off the broken tail so that new records are appended right after the last valid one
+      channel.truncate(offset)
+    }
+
+    segment.size = offset
+  }
+
+  private class Location(
+    val segmentId: Int,
+    val dataOffset: Long,
+    val length: Int,
+    var accessed: Boolean = false
+  )
+
+  private class Segment(
+    val id: Int,
+    val file: File
+  ) {
+    var size: Long = 0L
+    private var randomAccessFile: RandomAccessFile? = null
+
+    fun channel(): FileChannel {
+      val raf = randomAccessFile ?: RandomAccessFile(file, "rw").also { randomAccessFile = it }
+      return raf.channel
+    }
+
+    fun close() {
+      try {
+        randomAccessFile?.close()
+      } catch (ignored: IOException) {
+      } finally {
+        randomAccessFile = null
+      }
+    }
+  }
+
+  companion object {
+    const val MAX_ENTRY_SIZE_BYTES = 512 * 1024
+    const val DEFAULT_SEGMENT_MAX_SIZE_BYTES = 4L * 1024 * 1024
+
+    private const val RECORD_MAGIC = 0x4B505331 // KPS1
+    private const val FLAG_DATA: Byte = 0
+    private const val FLAG_TOMBSTONE: Byte = 1
+    private const val MAX_KEY_LENGTH = 255
+    // magic + flags + key length + data length
+    private const val RECORD_HEADER_SIZE = 4 + 1 + 1 + 4
+
+    private const val SEGMENT_FILE_PREFIX = "segment_"
+    private val EMPTY_DATA = ByteArray(0)
+
+    private fun formatSegmentFileName(segmentId: Int): String {
+      return String.format(Locale.ENGLISH, "%s%08d", SEGMENT_FILE_PREFIX, segmentId)
+    }
+
+    private fun parseSegmentId(fileName: String): Int? {
+      if (!fileName.startsWith(SEGMENT_FILE_PREFIX)) {
+        return null
+      }
+
+      return fileName.removePrefix(SEGMENT_FILE_PREFIX).toIntOrNull()
+    }
+
+    private fun readFully(channel: FileChannel, buffer: ByteBuffer, position: Long) {
+      val expected = buffer.remaining()
+      val read = readAtMost(channel, buffer, position)
+
+      if (read != expected) {
+        throw IOException("Unexpected end of segment, read=$read, expected=$expected")
+      }
+    }
+
+    private fun readAtMost(channel: FileChannel, buffer: ByteBuffer, position: Long): Int {
+      var totalRead = 0
+
+      while (buffer.hasRemaining()) {
+        val read = channel.read(buffer, position + totalRead)
+        if (read < 0) {
+          break
+        }
+
+        totalRead += read
+      }
+
+      return totalRead
+    }
+
+    private fun writeFully(channel: FileChannel, buffer: ByteBuffer, position: Long) {
+      var totalWritten = 0L
+
+      while (buffer.hasRemaining()) {
+        totalWritten += channel.write(buffer, position + totalWritten)
+      }
+    }
+  }
+}
@@ -6,6 +6,10 @@ import com.github.k1rakishou.fsaf.FileManager
 import dagger.Lazy
 import io.reactivex.Flowable
 import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.channels.FileChannel
 
 
 internal class ChunkMerger(
@@ -42,22 +46,10 @@ internal class ChunkMerger(
           throw FileCacheException.OutputFileDoesNotExist(output.absolutePath)
         }
 
-        output.outputStream().use { outputStream ->
-          // Iterate each chunk and write it to the output file
-          for (chunkEvent in sortedChunkEvents) {
-            val chunkFile = chunkEvent.chunkCacheFile
-
-            if (!chunkFile.exists()) {
-              throw FileCacheException.ChunkFileDoesNotExist(chunkFile.absolutePath)
-            }
-
-            chunkFile.inputStream().use { inputStream ->
-              inputStream.copyTo(outputStream)
-            }
-          }
-
-          outputStream.flush()
-        }
+        mergeChunkFiles(
+          chunkFiles = sortedChunkEvents.map { chunkEvent -> chunkEvent.chunkCacheFile },
+          output = output
+        )
       } finally {
         // In case of success or an error we want delete all chunk files
         chunkSuccessEvents.forEach { event ->
@@ -104,5 +96,37 @@ internal class ChunkMerger(
 
   companion object {
     private const val TAG = "ChunkPersister"
+
+    /**
+     * Appends [chunkFiles] (must be sorted by their position in the file) to [output] with
+     * [FileChannel.transferTo] so that the bytes go from one file to another inside the kernel
+     * (sendfile) instead of being copied through a heap buffer.
+     * */
+    @Throws(IOException::class)
+    fun mergeChunkFiles(chunkFiles: List<File>, output: File) {
+      FileOutputStream(output).channel.use { outputChannel ->
+        for (chunkFile in chunkFiles) {
+          if (!chunkFile.exists()) {
+            throw FileCacheException.ChunkFileDoesNotExist(chunkFile.absolutePath)
+          }
+
+          FileInputStream(chunkFile).channel.use { inputChannel ->
+            val chunkSize = inputChannel.size()
+            var position = 0L
+
+            // transferTo() may transfer less than requested
+            while (position < chunkSize) {
+              val transferred = inputChannel.transferTo(position, chunkSize - position, outputChannel)
+              if (transferred <= 0L) {
+                throw IOException("Failed to transfer chunk file ${chunkFile.absolutePath} " +
+                  "(position=$position, chunkSize=$chunkSize)")
+              }
+
+              position += transferred
+            }
+          }
+        }
+      }
+    }
   }
 }
\ No newline at end of file
@@ -24,9 +24,11 @@ import com.github.k1rakishou.chan.core.AppDependenciesInitializer;
 import com.github.k1rakishou.chan.core.base.okhttp.CoilOkHttpClient;
 import com.github.k1rakishou.chan.core.cache.CacheHandler;
 import com.github.k1rakishou.chan.core.cache.FileCacheV2;
+import com.github.k1rakishou.chan.core.cache.PackedCacheData;
 import com.github.k1rakishou.chan.core.diagnostics.AnrSupervisor;
 import com.github.k1rakishou.chan.core.helper.ImageLoaderFileManagerWrapper;
 import com.github.k1rakishou.chan.core.image.ImageLoaderV2;
+import com.github.k1rakishou.chan.core.image.PackedCacheDataFetcher;
 import com.github.k1rakishou.chan.core.manager.ArchivesManager;
 import com.github.k1rakishou.chan.core.manager.BoardManager;
 import com.github.k1rakishou.chan.core.manager.BookmarksManager;
@@ -53,6 +55,7 @@ import com.google.gson.Gson;
 
 import javax.inject.Singleton;
 
+import coil.ComponentRegistry;
 import coil.ImageLoader;
 import coil.request.CachePolicy;
 import dagger.Lazy;
@@ -132,6 +135,11 @@ public class AppModule {
                 .diskCachePolicy(CachePolicy.DISABLED)
                 .callFactory(coilOkHttpClient.okHttpClient())
                 .availableMemoryPercentage(availableMemoryPercentage)
+                .componentRegistry(
+                        new ComponentRegistry.Builder()
+                                .add(new PackedCacheDataFetcher(), PackedCacheData.class)
+                                .build()
+                )
                 .build();
     }
 
@@ -4,6 +4,7 @@ import android.content.Context
 import com.github.k1rakishou.chan.core.base.okhttp.RealProxiedOkHttpClient
 import com.github.k1rakishou.chan.core.cache.CacheHandler
 import com.github.k1rakishou.chan.core.cache.FileCacheV2
+import com.github.k1rakishou.chan.core.diagnostics.MetricsRegistry
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressNotifier
 import com.github.k1rakishou.chan.core.image.ImageLoaderV2
 import com.github.k1rakishou.chan.core.manager.BoardManager
@@ -13,7 +14,6 @@ import com.github.k1rakishou.chan.core.manager.ThreadDownloadManager
 import com.github.k1rakishou.chan.core.site.SiteResolver
 import com.github.k1rakishou.chan.core.site.loader.ChanThreadLoaderCoordinator
 import com.github.k1rakishou.chan.core.site.loader.internal.usecase.ParsePostsV1UseCase
-import com.github.k1rakishou.chan.features.media_viewer.helper.ExoPlayerCache
 import com.github.k1rakishou.chan.features.media_viewer.helper.MediaViewerGoToImagePostHelper
 import com.github.k1rakishou.chan.features.media_viewer.helper.MediaViewerGoToPostHelper
 import com.github.k1rakishou.chan.features.media_viewer.helper.MediaViewerOpenAlbumHelper
@@ -54,7 +54,8 @@ class HelperModule {
     chanThreadsCache: ChanThreadsCache,
     chanCatalogSnapshotCache: ChanCatalogSnapshotCache,
     threadDownloadManager: ThreadDownloadManager,
-    parsePostsV1UseCase: ParsePostsV1UseCase
+    parsePostsV1UseCase: ParsePostsV1UseCase,
+    metricsRegistry: MetricsRegistry
   ): ChanThreadLoaderCoordinator {
     Logger.deps("ChanThreadLoaderCoordinator")
     return ChanThreadLoaderCoordinator(
@@ -68,7 +69,8 @@ class HelperModule {
       chanThreadsCache,
       chanCatalogSnapshotCache,
       threadDownloadManager,
-      parsePostsV1UseCase
+      parsePostsV1UseCase,
+      metricsRegistry
     )
   }
 
@@ -183,13 +185,6 @@ class HelperModule {
     return MediaViewerOpenAlbumHelper(chanThreadManager)
   }
 
-  @Provides
-  @Singleton
-  fun provideExoPlayerDiskCache(context: Context, appConstants: AppConstants): ExoPlayerCache {
-    Logger.deps("ExoPlayerCache");
-    return ExoPlayerCache(context, appConstants)
-  }
-
   @Provides
   @Singleton
   fun provideAppSettingsUpdateAppRefreshHelper(): AppSettingsUpdateAppRefreshHelper {
@@ -211,4 +206,11 @@ class HelperModule {
     return ThreadDownloadProgressNotifier()
   }
 
+  @Provides
+  @Singleton
+  fun provideMetricsRegistry(): MetricsRegistry {
+    Logger.deps("MetricsRegistry");
+    return MetricsRegistry()
+  }
+
 }
\ No newline at end of file
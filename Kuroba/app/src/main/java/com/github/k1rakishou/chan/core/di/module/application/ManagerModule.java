@@ -28,6 +28,7 @@ import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient;
 import com.github.k1rakishou.chan.core.base.okhttp.RealDownloaderOkHttpClient;
 import com.github.k1rakishou.chan.core.base.okhttp.RealProxiedOkHttpClient;
 import com.github.k1rakishou.chan.core.cache.CacheHandler;
+import com.github.k1rakishou.chan.core.diagnostics.MetricsRegistry;
 import com.github.k1rakishou.chan.core.helper.FilterEngine;
 import com.github.k1rakishou.chan.core.helper.FilterWatcherNotificationHelper;
 import com.github.k1rakishou.chan.core.helper.ImageSaverFileManagerWrapper;
@@ -172,10 +173,11 @@ public class ManagerModule {
     @Provides
     @Singleton
     public FilterEngine provideFilterEngine(
+            CoroutineScope appScope,
             ChanFilterManager chanFilterManager
     ) {
         Logger.deps("FilterEngine");
-        return new FilterEngine(chanFilterManager);
+        return new FilterEngine(appScope, ChanSettings.verboseLogs.get(), chanFilterManager);
     }
 
     @Provides
@@ -403,7 +405,8 @@ public class ManagerModule {
             Lazy<ParsePostRepliesUseCase> parsePostRepliesUseCase,
             Lazy<ReplyNotificationsHelper> replyNotificationsHelper,
             Lazy<LastPageNotificationsHelper> lastPageNotificationsHelper,
-            CurrentOpenedDescriptorStateManager currentOpenedDescriptorStateManager
+            CurrentOpenedDescriptorStateManager currentOpenedDescriptorStateManager,
+            MetricsRegistry metricsRegistry
     ) {
         Logger.deps("BookmarkWatcherDelegate");
         return new BookmarkWatcherDelegate(
@@ -417,7 +420,8 @@ public class ManagerModule {
                 parsePostRepliesUseCase,
                 replyNotificationsHelper,
                 lastPageNotificationsHelper,
-                currentOpenedDescriptorStateManager
+                currentOpenedDescriptorStateManager,
+                metricsRegistry
         );
     }
 
@@ -662,7 +666,8 @@ public class ManagerModule {
             Lazy<ChanPostRepository> chanPostRepository,
             Lazy<ChanThreadLoaderCoordinator> chanThreadLoaderCoordinator,
             Lazy<ThreadDataPreloader> threadDataPreloadUseCase,
-            Lazy<CatalogDataPreloader> catalogDataPreloadUseCase
+            Lazy<CatalogDataPreloader> catalogDataPreloadUseCase,
+            Lazy<CurrentOpenedDescriptorStateManager> currentOpenedDescriptorStateManager
     ) {
         Logger.deps("ChanThreadManager");
         return new ChanThreadManager(
@@ -675,7 +680,8 @@ public class ManagerModule {
                 chanPostRepository,
                 chanThreadLoaderCoordinator,
                 threadDataPreloadUseCase,
-                catalogDataPreloadUseCase
+                catalogDataPreloadUseCase,
+                currentOpenedDescriptorStateManager
         );
     }
 
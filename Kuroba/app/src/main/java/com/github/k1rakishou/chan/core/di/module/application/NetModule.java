@@ -28,6 +28,7 @@ import com.github.k1rakishou.chan.core.base.okhttp.RealDownloaderOkHttpClient;
 import com.github.k1rakishou.chan.core.base.okhttp.RealProxiedOkHttpClient;
 import com.github.k1rakishou.chan.core.cache.CacheHandler;
 import com.github.k1rakishou.chan.core.cache.FileCacheV2;
+import com.github.k1rakishou.chan.core.diagnostics.MetricsRegistry;
 import com.github.k1rakishou.chan.core.helper.ProxyStorage;
 import com.github.k1rakishou.chan.core.site.SiteResolver;
 import com.github.k1rakishou.chan.core.site.http.HttpCallManager;
@@ -93,7 +94,8 @@ public class NetModule {
             Lazy<CacheHandler> cacheHandler,
             SiteResolver siteResolver,
             Lazy<RealDownloaderOkHttpClient> realDownloaderOkHttpClient,
-            AppConstants appConstants
+            AppConstants appConstants,
+            MetricsRegistry metricsRegistry
     ) {
         Logger.deps("FileCacheV2");
 
@@ -103,7 +105,8 @@ public class NetModule {
                 siteResolver,
                 realDownloaderOkHttpClient,
                 connectivityManager,
-                appConstants
+                appConstants,
+                metricsRegistry
         );
     }
 
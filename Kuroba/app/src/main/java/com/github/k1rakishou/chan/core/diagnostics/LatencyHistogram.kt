@@ -0,0 +1,144 @@
+package com.github.k1rakishou.chan.core.diagnostics
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * A lock-free latency histogram with HDR-style log-linear buckets. Every power of two is split into
+ * [SUB_BUCKETS_COUNT] linear sub-buckets so every recorded value is off by at most 1/[SUB_BUCKETS_COUNT]
+ * (~6%) while the whole range (1us up to ~19 hours) fits into a few hundred counters. Recording is a
+ * couple of atomic increments, no allocations and no locks, so it's fine to call it from any thread
+ * as often as we want.
+ *
+ * Values are recorded in microseconds, values outside of the range are clamped.
+ * */
+class LatencyHistogram {
+  private val buckets = AtomicLongArray(BUCKETS_COUNT)
+  private val totalCount = AtomicLong(0)
+  private val totalSumMicros = AtomicLong(0)
+  private val maxMicros = AtomicLong(0)
+
+  fun recordNanos(nanos: Long) {
+    recordMicros(nanos / NANOS_IN_MICRO)
+  }
+
+  fun recordMicros(micros: Long) {
+    val value = micros.coerceIn(0, MAX_TRACKABLE_MICROS)
+
+    buckets.incrementAndGet(bucketIndex(value))
+    totalCount.incrementAndGet()
+    totalSumMicros.addAndGet(value)
+
+    while (true) {
+      val currentMax = maxMicros.get()
+      if (value <= currentMax || maxMicros.compareAndSet(currentMax, value)) {
+        break
+      }
+    }
+  }
+
+  fun reset() {
+    for (index in 0 until BUCKETS_COUNT) {
+      buckets.set(index, 0)
+    }
+
+    totalCount.set(0)
+    totalSumMicros.set(0)
+    maxMicros.set(0)
+  }
+
+  /**
+   * The snapshot is not atomic, values recorded while it's being taken may or may not end up in it
+   * (and mean/max may be slightly off from the buckets), which is good enough for diagnostics.
+   * */
+  fun snapshot(): Snapshot {
+    val counts = LongArray(BUCKETS_COUNT) { index -> buckets.get(index) }
+    val count = counts.sum()
+
+    if (count == 0L) {
+      return Snapshot.EMPTY
+    }
+
+    // Bucket boundaries may be higher than the real maximum
+    val max = maxMicros.get()
+
+    return Snapshot(
+      count = count,
+      meanMicros = totalSumMicros.get() / totalCount.get().coerceAtLeast(1),
+      p50Micros = percentile(counts, count, 0.50).coerceAtMost(max),
+      p95Micros = percentile(counts, count, 0.95).coerceAtMost(max),
+      p99Micros = percentile(counts, count, 0.99).coerceAtMost(max),
+      maxMicros = max
+    )
+  }
+
+  data class Snapshot(
+    val count: Long,
+    val meanMicros: Long,
+    val p50Micros: Long,
+    val p95Micros: Long,
+    val p99Micros: Long,
+    val maxMicros: Long
+  ) {
+
+    companion object {
+      val EMPTY = Snapshot(0, 0, 0, 0, 0, 0)
+    }
+  }
+
+  companion object {
+    private const val NANOS_IN_MICRO = 1000L
+
+    private const val SUB_BUCKET_BITS = 4
+    private const val SUB_BUCKETS_COUNT = 1 shl SUB_BUCKET_BITS
+    private const val MAX_VALUE_BITS = 36
+    // The whole [2^(MAX_VALUE_BITS - 1), 2^MAX_VALUE_BITS) range is the last bucket group
+    internal const val MAX_TRACKABLE_MICROS = (1L shl MAX_VALUE_BITS) - 1
+    internal const val BUCKETS_COUNT = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS_COUNT
+
+    /**
+     * Values below [SUB_BUCKETS_COUNT] get a bucket each. Bigger values are grouped by their highest
+     * bit and then split linearly by the next [SUB_BUCKET_BITS] bits.
+     * */
+    internal fun bucketIndex(value: Long): Int {
+      if (value < SUB_BUCKETS_COUNT) {
+        return value.toInt()
+      }
+
+      val highestBit = 63 - java.lang.Long.numberOfLeadingZeros(value)
+      val shift = highestBit - SUB_BUCKET_BITS
+      val subBucket = (value ushr shift).toInt() - SUB_BUCKETS_COUNT
+
+      return (shift + 1) * SUB_BUCKETS_COUNT + subBucket
+    }
+
+    /**
+     * The highest value that ends up in the bucket with [index].
+     * */
+    internal fun bucketHighestValue(index: Int): Long {
+      if (index < SUB_BUCKETS_COUNT) {
+        return index.toLong()
+      }
+
+      val shift = index / SUB_BUCKETS_COUNT - 1
+      val subBucket = (index % SUB_BUCKETS_COUNT + SUB_BUCKETS_COUNT).toLong()
+
+      return ((subBucket + 1) shl shift) - 1
+    }
+
+    private fun percentile(counts: LongArray, totalCount: Long, percentile: Double): Long {
+      val targetCount = Math.ceil(totalCount * percentile).toLong().coerceAtLeast(1)
+      var seenCount = 0L
+
+      for (index in counts.indices) {
+        seenCount += counts[index]
+
+        if (seenCount >= targetCount) {
+          return bucketHighestValue(index)
+        }
+      }
+
+      return bucketHighestValue(counts.lastIndex)
+    }
+  }
+}
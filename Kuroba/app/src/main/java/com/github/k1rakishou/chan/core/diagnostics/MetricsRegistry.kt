@@ -0,0 +1,187 @@
+package com.github.k1rakishou.chan.core.diagnostics
+
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.time.Duration
+import kotlin.time.ExperimentalTime
+
+/**
+ * In-memory counters and latency histograms of the load pipeline, the bookmark watcher and the file
+ * cache. Every metric is recorded twice: once for the site (or host) it belongs to and once for
+ * [ALL_SITES] so that we can see both which stage and which site regressed.
+ *
+ * Recording does not allocate once the metric/site pair exists (two map lookups plus a couple of
+ * atomic operations) so it's fine to record on every request. Nothing is persisted, the metrics only
+ * live as long as the process.
+ * */
+class MetricsRegistry {
+  // metric name -> site name (or host) -> histogram
+  private val histograms = ConcurrentHashMap<String, ConcurrentHashMap<String, LatencyHistogram>>()
+  // metric name -> site name (or host) -> counter
+  private val counters = ConcurrentHashMap<String, ConcurrentHashMap<String, AtomicLong>>()
+  private val collectingSince = AtomicLong(System.currentTimeMillis())
+
+  fun increment(name: String, site: String?, delta: Long = 1L) {
+    counter(name, ALL_SITES).addAndGet(delta)
+
+    if (site != null) {
+      counter(name, site).addAndGet(delta)
+    }
+  }
+
+  fun recordNanos(name: String, site: String?, nanos: Long) {
+    histogram(name, ALL_SITES).recordNanos(nanos)
+
+    if (site != null) {
+      histogram(name, site).recordNanos(nanos)
+    }
+  }
+
+  fun recordMillis(name: String, site: String?, millis: Long) {
+    recordNanos(name, site, millis * NANOS_IN_MILLI)
+  }
+
+  @OptIn(ExperimentalTime::class)
+  fun record(name: String, site: String?, duration: Duration) {
+    recordNanos(name, site, duration.inWholeNanoseconds)
+  }
+
+  fun reset() {
+    histograms.values.forEach { histogramsBySite ->
+      histogramsBySite.values.forEach { histogram -> histogram.reset() }
+    }
+
+    counters.values.forEach { countersBySite ->
+      countersBySite.values.forEach { counter -> counter.set(0) }
+    }
+
+    collectingSince.set(System.currentTimeMillis())
+  }
+
+  fun snapshot(): Snapshot {
+    val histogramEntries = histograms.flatMap { (name, histogramsBySite) ->
+      histogramsBySite.map { (site, histogram) -> HistogramEntry(name, site, histogram.snapshot()) }
+    }
+
+    val counterEntries = counters.flatMap { (name, countersBySite) ->
+      countersBySite.map { (site, counter) -> CounterEntry(name, site, counter.get()) }
+    }
+
+    return Snapshot(
+      collectingSince = collectingSince.get(),
+      histograms = histogramEntries
+        .filter { histogramEntry -> histogramEntry.snapshot.count > 0 }
+        .sortedWith(compareBy({ it.name }, { it.site != ALL_SITES }, { it.site })),
+      counters = counterEntries
+        .filter { counterEntry -> counterEntry.value != 0L }
+        .sortedWith(compareBy({ it.name }, { it.site != ALL_SITES }, { it.site }))
+    )
+  }
+
+  /**
+   * Plain text dump of every non-empty metric, one metric/site pair per line.
+   * */
+  fun dump(): String {
+    val snapshot = snapshot()
+
+    return buildString {
+      appendLine("Metrics collected during the last ${formatMillis(System.currentTimeMillis() - snapshot.collectingSince)}")
+
+      snapshot.histograms.forEach { histogramEntry ->
+        append(histogramEntry.name)
+        append(" [")
+        append(histogramEntry.site)
+        append("] ")
+        appendLine(formatHistogram(histogramEntry.snapshot))
+      }
+
+      snapshot.counters.forEach { counterEntry ->
+        appendLine("${counterEntry.name} [${counterEntry.site}] ${counterEntry.value}")
+      }
+    }
+  }
+
+  private fun histogram(name: String, site: String): LatencyHistogram {
+    val histogramsBySite = histograms[name]
+      ?: histograms.getOrPut(name) { ConcurrentHashMap() }
+
+    return histogramsBySite[site]
+      ?: histogramsBySite.getOrPut(site) { LatencyHistogram() }
+  }
+
+  private fun counter(name: String, site: String): AtomicLong {
+    val countersBySite = counters[name]
+      ?: counters.getOrPut(name) { ConcurrentHashMap() }
+
+    return countersBySite[site]
+      ?: countersBySite.getOrPut(site) { AtomicLong(0) }
+  }
+
+  data class Snapshot(
+    val collectingSince: Long,
+    val histograms: List<HistogramEntry>,
+    val counters: List<CounterEntry>
+  ) {
+    fun histogramsOf(name: String): List<HistogramEntry> = histograms.filter { it.name == name }
+    fun countersOf(name: String): List<CounterEntry> = counters.filter { it.name == name }
+  }
+
+  data class HistogramEntry(val name: String, val site: String, val snapshot: LatencyHistogram.Snapshot)
+  data class CounterEntry(val name: String, val site: String, val value: Long)
+
+  companion object {
+    const val ALL_SITES = "all"
+
+    // Thread/catalog loading, per site
+    const val LOAD_REQUESTS = "load.requests"
+    const val LOAD_NOT_MODIFIED = "load.not_modified"
+    const val LOAD_ERRORS = "load.errors"
+    const val LOAD_NETWORK = "load.network"
+    const val LOAD_READ_JSON = "load.read_json"
+    const val LOAD_PARSE = "load.parse"
+    const val LOAD_FILTER = "load.filter"
+    const val LOAD_STORE = "load.store"
+    const val LOAD_LOCAL_TOTAL = "load.local_total"
+    const val LOAD_PARSED_POSTS = "load.parsed_posts"
+    const val LOAD_STORED_POSTS = "load.stored_posts"
+
+    // Bookmark watcher, per site
+    const val BOOKMARK_WATCHER_UPDATE = "bookmark_watcher.update"
+    const val BOOKMARK_WATCHER_FETCHED = "bookmark_watcher.fetched"
+    const val BOOKMARK_WATCHER_NOT_MODIFIED = "bookmark_watcher.not_modified"
+    const val BOOKMARK_WATCHER_ERRORS = "bookmark_watcher.errors"
+
+    // File cache, per host
+    const val FILE_CACHE_HITS = "file_cache.hits"
+    const val FILE_CACHE_MISSES = "file_cache.misses"
+    const val FILE_CACHE_DOWNLOAD = "file_cache.download"
+    const val FILE_CACHE_DOWNLOADED_BYTES = "file_cache.downloaded_bytes"
+    const val FILE_CACHE_ERRORS = "file_cache.errors"
+
+    private const val NANOS_IN_MILLI = 1_000_000L
+
+    fun formatHistogram(snapshot: LatencyHistogram.Snapshot): String {
+      return String.format(
+        Locale.ENGLISH,
+        "n=%d mean=%s p50=%s p95=%s p99=%s max=%s",
+        snapshot.count,
+        formatMicros(snapshot.meanMicros),
+        formatMicros(snapshot.p50Micros),
+        formatMicros(snapshot.p95Micros),
+        formatMicros(snapshot.p99Micros),
+        formatMicros(snapshot.maxMicros)
+      )
+    }
+
+    fun formatMicros(micros: Long): String {
+      return when {
+        micros < 1000L -> "${micros}us"
+        micros < 1000_000L -> String.format(Locale.ENGLISH, "%.1fms", micros / 1000.0)
+        else -> String.format(Locale.ENGLISH, "%.2fs", micros / 1000_000.0)
+      }
+    }
+
+    private fun formatMillis(millis: Long): String = formatMicros(millis * 1000L)
+  }
+}
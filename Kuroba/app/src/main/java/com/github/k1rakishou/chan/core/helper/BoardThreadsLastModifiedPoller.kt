@@ -0,0 +1,261 @@
+package com.github.k1rakishou.chan.core.helper
+
+import androidx.annotation.VisibleForTesting
+import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient
+import com.github.k1rakishou.chan.core.manager.SiteManager
+import com.github.k1rakishou.chan.core.site.loader.ConditionalRequestValidators
+import com.github.k1rakishou.common.EmptyBodyResponseException
+import com.github.k1rakishou.common.ModularResult.Companion.Try
+import com.github.k1rakishou.common.errorMessageOrClassName
+import com.github.k1rakishou.common.jsonArray
+import com.github.k1rakishou.common.jsonObject
+import com.github.k1rakishou.common.parallelMapOrdered
+import com.github.k1rakishou.common.suspendCall
+import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.google.gson.stream.JsonReader
+import dagger.Lazy
+import kotlinx.coroutines.Dispatchers
+import okhttp3.HttpUrl
+import okhttp3.Request
+import java.io.InputStreamReader
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Uses board-level "last modified" jsons (see [com.github.k1rakishou.chan.core.site.SiteEndpoints.threadsLastModified])
+ * to figure out which bookmarked threads have not changed since they were fetched last time so that
+ * the bookmark watcher can skip them. One request per board instead of one request per thread. The
+ * board jsons themselves are requested with ETag/Last-Modified validators, so when nothing has
+ * changed on a board at all the server doesn't even send the json again.
+ *
+ * The flow is: [retainThreads] with all the bookmarks that are still watched, [findUnchangedThreads]
+ * before fetching the threads, then [onThreadFetched] for every thread that was actually fetched.
+ * */
+class BoardThreadsLastModifiedPoller(
+  private val verboseLogsEnabled: Boolean,
+  private val proxiedOkHttpClient: Lazy<ProxiedOkHttpClient>,
+  private val siteManager: SiteManager
+) {
+  private val boardStates = ConcurrentHashMap<BoardDescriptor, BoardState>()
+  // Last modification time of a thread (taken from the board json) at the moment of its last
+  // successful fetch.
+  private val fetchedThreadsLastModified = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, Long>()
+  // Last modification time of a thread from the most recent board json, becomes "fetched" once
+  // the thread is successfully fetched.
+  private val pendingThreadsLastModified = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, Long>()
+
+  suspend fun findUnchangedThreads(
+    threadDescriptors: Collection<ChanDescriptor.ThreadDescriptor>
+  ): Set<ChanDescriptor.ThreadDescriptor> {
+    val threadDescriptorsByBoard = threadDescriptors
+      .groupBy { threadDescriptor -> threadDescriptor.boardDescriptor }
+      .filter { (boardDescriptor, boardThreadDescriptors) ->
+        // For a single thread it's cheaper to just fetch the thread itself
+        boardThreadDescriptors.size >= MIN_THREADS_PER_BOARD && getEndpoint(boardDescriptor) != null
+      }
+
+    if (threadDescriptorsByBoard.isEmpty()) {
+      return emptySet()
+    }
+
+    val boardDescriptors = threadDescriptorsByBoard.keys.toList()
+
+    val boardThreadsLastModifiedList = parallelMapOrdered(
+      dataList = boardDescriptors,
+      parallelism = MAX_PARALLEL_BOARD_REQUESTS,
+      dispatcher = Dispatchers.IO
+    ) { boardDescriptor ->
+      return@parallelMapOrdered Try { fetchBoardThreadsLastModified(boardDescriptor) }
+        .peekError { error ->
+          Logger.e(TAG, "fetchBoardThreadsLastModified($boardDescriptor) error: ${error.errorMessageOrClassName()}")
+        }
+        .valueOrNull()
+    }
+
+    val unchangedThreads = hashSetOf<ChanDescriptor.ThreadDescriptor>()
+
+    boardDescriptors.forEachIndexed { index, boardDescriptor ->
+      val boardThreadsLastModified = boardThreadsLastModifiedList[index]
+        ?: return@forEachIndexed
+
+      for (threadDescriptor in threadDescriptorsByBoard[boardDescriptor]!!) {
+        // Not on the board anymore (archived or deleted), need to fetch it to find out
+        val lastModified = boardThreadsLastModified[threadDescriptor.threadNo]
+          ?: continue
+
+        if (fetchedThreadsLastModified[threadDescriptor] == lastModified) {
+          pendingThreadsLastModified.remove(threadDescriptor)
+          unchangedThreads += threadDescriptor
+          continue
+        }
+
+        pendingThreadsLastModified[threadDescriptor] = lastModified
+      }
+    }
+
+    Logger.d(TAG, "findUnchangedThreads() threads=${threadDescriptors.size}, " +
+      "boards=${boardDescriptors.size}, unchangedThreads=${unchangedThreads.size}")
+
+    return unchangedThreads
+  }
+
+  fun onThreadFetched(threadDescriptor: ChanDescriptor.ThreadDescriptor, success: Boolean) {
+    val lastModified = pendingThreadsLastModified.remove(threadDescriptor)
+
+    if (!success) {
+      fetchedThreadsLastModified.remove(threadDescriptor)
+      return
+    }
+
+    // Otherwise the thread is either not in the board json or hasn't changed since the previous
+    // fetch, the last known modification time is still correct in both cases.
+    if (lastModified != null) {
+      fetchedThreadsLastModified[threadDescriptor] = lastModified
+    }
+  }
+
+  /**
+   * Forgets everything about threads that are not in [threadDescriptors] (deleted, archived or no
+   * longer watched bookmarks) and about boards none of those threads belong to.
+   * */
+  fun retainThreads(threadDescriptors: Set<ChanDescriptor.ThreadDescriptor>) {
+    val boardDescriptors = threadDescriptors.mapTo(hashSetOf()) { threadDescriptor -> threadDescriptor.boardDescriptor }
+
+    fetchedThreadsLastModified.keys.retainAll(threadDescriptors)
+    pendingThreadsLastModified.keys.retainAll(threadDescriptors)
+    boardStates.keys.retainAll(boardDescriptors)
+  }
+
+  private fun getEndpoint(boardDescriptor: BoardDescriptor): HttpUrl? {
+    return siteManager.bySiteDescriptor(boardDescriptor.siteDescriptor)
+      ?.endpoints()
+      ?.threadsLastModified(boardDescriptor)
+  }
+
+  /**
+   * Returns a map of threadNo -> last modification time of all threads of a board.
+   * */
+  private suspend fun fetchBoardThreadsLastModified(boardDescriptor: BoardDescriptor): Map<Long, Long>? {
+    val endpoint = getEndpoint(boardDescriptor)
+      ?: return null
+
+    val prevBoardState = boardStates[boardDescriptor]
+      ?.takeIf { boardState -> boardState.url == endpoint }
+
+    val requestBuilder = Request.Builder()
+      .url(endpoint)
+      .get()
+
+    siteManager.bySiteDescriptor(boardDescriptor.siteDescriptor)?.let { site ->
+      site.requestModifier().modifyCatalogOrThreadGetRequest(
+        site = site,
+        chanDescriptor = ChanDescriptor.CatalogDescriptor.create(boardDescriptor),
+        requestBuilder = requestBuilder,
+        conditionalRequestValidators = prevBoardState?.validators
+      )
+    }
+
+    val response = proxiedOkHttpClient.get().okHttpClient().suspendCall(requestBuilder.build())
+
+    if (response.code == NOT_MODIFIED_STATUS && prevBoardState != null) {
+      response.close()
+
+      if (verboseLogsEnabled) {
+        Logger.d(TAG, "fetchBoardThreadsLastModified($boardDescriptor) not modified")
+      }
+
+      return prevBoardState.threadsLastModified
+    }
+
+    if (!response.isSuccessful) {
+      response.close()
+      boardStates.remove(boardDescriptor)
+
+      Logger.e(TAG, "fetchBoardThreadsLastModified($boardDescriptor) bad status code: ${response.code}")
+      return null
+    }
+
+    val body = response.body
+      ?: throw EmptyBodyResponseException()
+
+    val threadsLastModified = body.use { responseBody ->
+      responseBody.byteStream().use { inputStream ->
+        JsonReader(InputStreamReader(inputStream, StandardCharsets.UTF_8)).use { jsonReader ->
+          readThreadsLastModified(jsonReader)
+        }
+      }
+    }
+
+    val validators = ConditionalRequestValidators.fromResponse(response)
+    if (validators != null) {
+      boardStates[boardDescriptor] = BoardState(endpoint, validators, threadsLastModified)
+    } else {
+      boardStates.remove(boardDescriptor)
+    }
+
+    return threadsLastModified
+  }
+
+  /**
+   * [{"page": 1, "threads": [{"no": 123, "last_modified": 1600000000, ...}, ...]}, ...]
+   * */
+  @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
+  internal fun readThreadsLastModified(reader: JsonReader): Map<Long, Long> {
+    val threadsLastModified = HashMap<Long, Long>(256)
+
+    reader.jsonArray {
+      while (hasNext()) {
+        jsonObject {
+          while (hasNext()) {
+            if (nextName() != "threads") {
+              skipValue()
+              continue
+            }
+
+            jsonArray {
+              while (hasNext()) {
+                readThread(this, threadsLastModified)
+              }
+            }
+          }
+        }
+      }
+    }
+
+    return threadsLastModified
+  }
+
+  private fun readThread(reader: JsonReader, threadsLastModified: MutableMap<Long, Long>) {
+    var threadNo = -1L
+    var lastModified = -1L
+
+    reader.jsonObject {
+      while (hasNext()) {
+        when (nextName()) {
+          "no" -> threadNo = nextLong()
+          "last_modified" -> lastModified = nextLong()
+          else -> skipValue()
+        }
+      }
+    }
+
+    if (threadNo > 0 && lastModified > 0) {
+      threadsLastModified[threadNo] = lastModified
+    }
+  }
+
+  private class BoardState(
+    val url: HttpUrl,
+    val validators: ConditionalRequestValidators,
+    val threadsLastModified: Map<Long, Long>
+  )
+
+  companion object {
+    private const val TAG = "BoardThreadsLastModifiedPoller"
+    private const val MIN_THREADS_PER_BOARD = 2
+    private const val MAX_PARALLEL_BOARD_REQUESTS = 4
+    private const val NOT_MODIFIED_STATUS = 304
+  }
+}
@@ -2,6 +2,7 @@ package com.github.k1rakishou.chan.core.helper
 
 import com.github.k1rakishou.chan.core.base.DebouncingCoroutineExecutor
 import com.github.k1rakishou.chan.core.manager.ArchivesManager
+import com.github.k1rakishou.chan.core.manager.BoardManager
 import com.github.k1rakishou.chan.core.manager.ChanThreadManager
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
@@ -22,12 +23,16 @@ class ChanThreadTicker(
   private val isDevFlavor: Boolean,
   private val _archivesManager: Lazy<ArchivesManager>,
   private val _chanThreadManager: Lazy<ChanThreadManager>,
+  private val _boardManager: Lazy<BoardManager>,
+  private val refreshIntervalCalculator: ThreadRefreshIntervalCalculator = ThreadRefreshIntervalCalculator(),
   private val action: suspend (ChanDescriptor) -> Unit
 ) {
   private val archivesManager: ArchivesManager
     get() = _archivesManager.get()
   private val chanThreadManager: ChanThreadManager
     get() = _chanThreadManager.get()
+  private val boardManager: BoardManager
+    get() = _boardManager.get()
 
   private val debouncer = DebouncingCoroutineExecutor(scope)
   private val chanTickerData = ChanTickerData()
@@ -244,6 +249,22 @@ class ChanThreadTicker(
     val postsCount = chanThreadManager.getThreadPostsCount(currentDescriptor)
     val multiplier = (postsCount.toFloat() / POSTS_COUNT_LONG_TIMEOUTS.toFloat()) / LONG_TIMEOUT_DIVIDER
 
+    if (!isArchiveDescriptor) {
+      val adaptiveTimeoutSec = getAdaptiveWaitTimeSeconds(currentDescriptor)
+      if (adaptiveTimeoutSec != null) {
+        if (multiplier <= 1) {
+          return adaptiveTimeoutSec
+        }
+
+        // Huge threads still take a lot of time to process so don't refresh them more often than
+        // the regular timeouts would (see below)
+        val minTimeoutSec = ((refreshIntervalCalculator.config.minIntervalSec.toFloat() * multiplier).toLong())
+          .coerceAtMost(MAX_ADAPTIVE_TIMER_TIMEOUT_SEC)
+
+        return adaptiveTimeoutSec.coerceAtLeast(minTimeoutSec)
+      }
+    }
+
     if (multiplier <= 1) {
       return timeoutSec
     }
@@ -268,6 +289,33 @@ class ChanThreadTicker(
     return ((timeoutSec.toFloat() * multiplier).toLong()).coerceAtMost(MAX_ADAPTIVE_TIMER_TIMEOUT_SEC)
   }
 
+  /**
+   * Picks the timeout based on how fast new posts arrive in the thread (see
+   * [ThreadRefreshIntervalCalculator]). Returns null when the thread is not loaded yet or has too few
+   * posts to estimate anything.
+   * */
+  private fun getAdaptiveWaitTimeSeconds(threadDescriptor: ChanDescriptor.ThreadDescriptor): Long? {
+    val chanThread = chanThreadManager.getChanThread(threadDescriptor)
+      ?: return null
+
+    val lastPostTimestamps = chanThread.lastPostTimestamps(refreshIntervalCalculator.config.postsToSample)
+    val bumpLimit = boardManager.byBoardDescriptor(threadDescriptor.boardDescriptor())?.bumpLimit ?: 0
+    val bumpLimitReached = bumpLimit > 0 && chanThread.repliesCount >= bumpLimit
+
+    val timeoutSec = refreshIntervalCalculator.calculateIntervalSeconds(
+      lastPostTimestamps = lastPostTimestamps,
+      nowSeconds = System.currentTimeMillis() / 1000L,
+      bumpLimitReached = bumpLimitReached
+    )
+
+    if (timeoutSec != null) {
+      Logger.d(TAG, "getAdaptiveWaitTimeSeconds($threadDescriptor) timeoutSec=$timeoutSec, " +
+        "sampledPosts=${lastPostTimestamps.size}, bumpLimitReached=$bumpLimitReached")
+    }
+
+    return timeoutSec
+  }
+
   private class ChanTickerData(
     private var currentChanDescriptor: ChanDescriptor? = null,
     private var currentTimeoutIndex: Int = 0,
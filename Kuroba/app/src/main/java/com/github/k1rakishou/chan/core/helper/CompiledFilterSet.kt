@@ -0,0 +1,182 @@
+package com.github.k1rakishou.chan.core.helper
+
+import androidx.annotation.AnyThread
+import com.github.k1rakishou.common.RegexPatternCompiler
+import com.github.k1rakishou.common.datastructure.AhoCorasickAutomaton
+import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.data.filter.ChanFilter
+import com.github.k1rakishou.model.data.filter.FilterType
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import java.util.*
+import java.util.regex.Pattern
+
+/**
+ * A set of filters compiled for matching them all against a post at once. Filters with plain keywords
+ * (words without wildcards or "exact sentences") are merged into one [AhoCorasickAutomaton] per
+ * [FilterType] so that every post field is scanned only once no matter how many filters there are.
+ * Regex filters (and keywords with wildcards) are still matched one by one.
+ *
+ * Immutable and thread safe.
+ * */
+class CompiledFilterSet private constructor(
+  val filters: List<ChanFilter>,
+  private val patternRegistry: FilterPatternRegistry,
+  private val fieldMatchers: Map<FilterType, FieldMatcher>
+) {
+
+  fun isEmpty(): Boolean = filters.isEmpty()
+
+  /**
+   * Returns indexes (into [filters]) of every filter that matches [post]. Has the same semantics as
+   * calling [FilterEngine.matches] for every filter of this set.
+   * */
+  @AnyThread
+  fun findMatchingFilters(post: ChanPostBuilder): BitSet {
+    val matchedFilters = BitSet(filters.size)
+
+    if (filters.isEmpty() || post.moderatorCapcode.isNotEmpty() || post.sticky) {
+      return matchedFilters
+    }
+
+    val comment = post.postCommentBuilder.getComment()
+    if (comment.isNotEmpty()) {
+      matchField(FilterType.COMMENT, comment, matchedFilters)
+    }
+
+    matchField(FilterType.SUBJECT, post.subject, matchedFilters)
+    matchField(FilterType.NAME, post.name, matchedFilters)
+    matchField(FilterType.TRIPCODE, post.tripcode, matchedFilters)
+    matchField(FilterType.ID, post.posterId, matchedFilters)
+
+    if (post.postImages.size > 0) {
+      for (image in post.postImages) {
+        matchField(FilterType.IMAGE, image.fileHash, matchedFilters)
+      }
+
+      matchField(FilterType.FILENAME, FilterEngine.concatFilenames(post), matchedFilters)
+    }
+
+    if (post.httpIcons.size > 0) {
+      matchField(FilterType.COUNTRY_CODE, FilterEngine.extractCountryCode(post), matchedFilters)
+    }
+
+    for ((index, filter) in filters.withIndex()) {
+      if (filter.onlyOnOP && !post.op) {
+        matchedFilters.clear(index)
+        continue
+      }
+
+      if (filter.applyToSaved && !post.isSavedReply) {
+        matchedFilters.clear(index)
+        continue
+      }
+
+      if (filter.applyToEmptyComments && comment.isEmpty()) {
+        matchedFilters.set(index)
+      }
+    }
+
+    return matchedFilters
+  }
+
+  private fun matchField(filterType: FilterType, text: CharSequence?, matchedFilters: BitSet) {
+    if (text.isNullOrEmpty()) {
+      return
+    }
+
+    val fieldMatcher = fieldMatchers[filterType]
+      ?: return
+
+    fieldMatcher.automaton?.findAll(text) { filterIndex -> matchedFilters.set(filterIndex) }
+
+    for (regexFilter in fieldMatcher.regexFilters) {
+      if (matchedFilters.get(regexFilter.filterIndex)) {
+        continue
+      }
+
+      try {
+        val found = patternRegistry.withMatcher(regexFilter.pattern, text) { matcher -> matcher.find() }
+        if (found) {
+          matchedFilters.set(regexFilter.filterIndex)
+        }
+      } catch (e: IllegalArgumentException) {
+        Logger.e(TAG, "matcher.find() exception, pattern=" + regexFilter.pattern.pattern(), e)
+      }
+    }
+  }
+
+  override fun toString(): String {
+    val keywordsCount = fieldMatchers.values.sumOf { fieldMatcher -> fieldMatcher.automaton?.keywordsCount ?: 0 }
+    val regexCount = fieldMatchers.values.sumOf { fieldMatcher -> fieldMatcher.regexFilters.size }
+
+    return "CompiledFilterSet{filters=${filters.size}, keywords=${keywordsCount}, regexFilters=${regexCount}}"
+  }
+
+  private class FieldMatcher(
+    val automaton: AhoCorasickAutomaton?,
+    val regexFilters: List<RegexFilter>
+  )
+
+  private class RegexFilter(
+    val filterIndex: Int,
+    val pattern: Pattern
+  )
+
+  companion object {
+    private const val TAG = "CompiledFilterSet"
+
+    @AnyThread
+    fun compile(
+      filters: List<ChanFilter>,
+      patternRegistry: FilterPatternRegistry,
+      patternProvider: (ChanFilter) -> Pattern?
+    ): CompiledFilterSet {
+      val automatonBuilders = mutableMapOf<FilterType, AhoCorasickAutomaton.Builder>()
+      val regexFilters = mutableMapOf<FilterType, MutableList<RegexFilter>>()
+
+      filters.forEachIndexed { filterIndex, filter ->
+        val filterTypes = FilterType.forFlags(filter.type)
+        if (filterTypes.isEmpty()) {
+          return@forEachIndexed
+        }
+
+        val plainKeywords = RegexPatternCompiler.extractPlainKeywords(filter.pattern)
+        if (plainKeywords != null) {
+          for (filterType in filterTypes) {
+            val builder = automatonBuilders.getOrPut(filterType) { AhoCorasickAutomaton.Builder() }
+
+            for (keyword in plainKeywords.keywords) {
+              builder.addKeyword(keyword, filterIndex, plainKeywords.wholeWords)
+            }
+          }
+
+          return@forEachIndexed
+        }
+
+        val pattern = patternProvider(filter)
+          ?: return@forEachIndexed
+
+        for (filterType in filterTypes) {
+          regexFilters.getOrPut(filterType) { mutableListOf() }
+            .add(RegexFilter(filterIndex, pattern))
+        }
+      }
+
+      val fieldMatchers = EnumMap<FilterType, FieldMatcher>(FilterType::class.java)
+
+      for (filterType in FilterType.values()) {
+        val automaton = automatonBuilders[filterType]?.build()?.takeIf { automaton -> !automaton.isEmpty() }
+        val regexFiltersForType = regexFilters[filterType] ?: emptyList<RegexFilter>()
+
+        if (automaton == null && regexFiltersForType.isEmpty()) {
+          continue
+        }
+
+        fieldMatchers[filterType] = FieldMatcher(automaton, regexFiltersForType)
+      }
+
+      return CompiledFilterSet(filters, patternRegistry, fieldMatchers)
+    }
+  }
+
+}
@@ -16,33 +16,42 @@
  */
 package com.github.k1rakishou.chan.core.helper
 
+import android.util.LruCache
 import androidx.annotation.AnyThread
 import com.github.k1rakishou.chan.core.manager.ChanFilterManager
 import com.github.k1rakishou.common.RegexPatternCompiler
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.board.ChanBoard
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
 import com.github.k1rakishou.model.data.filter.ChanFilter
 import com.github.k1rakishou.model.data.filter.ChanFilterMutable
 import com.github.k1rakishou.model.data.filter.FilterType
 import com.github.k1rakishou.model.data.post.ChanPostBuilder
-import java.util.*
-import java.util.concurrent.atomic.AtomicLong
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.launch
 import java.util.regex.Pattern
 import javax.inject.Inject
 
 class FilterEngine @Inject constructor(
+  private val appScope: CoroutineScope,
+  verboseLogsEnabled: Boolean,
   private val chanFilterManager: ChanFilterManager
 ) {
-  private val cacheHits = AtomicLong(0)
-  private val cacheMisses = AtomicLong(0)
-  private val patternCache: MutableMap<String?, Pattern> = HashMap()
-
-  fun currentCacheHits(): Long {
-    return cacheHits.get()
+  private val patternRegistry = FilterPatternRegistry(collectStats = verboseLogsEnabled)
+  // Only the most recently used boards are kept, the whole cache is dropped when filters change
+  private val compiledFilterSetCache = LruCache<BoardDescriptor, CompiledFilterSet>(MAX_CACHED_FILTER_SETS)
+
+  init {
+    appScope.launch(Dispatchers.Default) {
+      chanFilterManager.listenForFiltersChanges()
+        .collect { rebuildPatternRegistry() }
+    }
   }
 
-  fun currentCacheMisses(): Long {
-    return cacheMisses.get()
+  fun patternRegistryStats(): FilterPatternRegistryStats {
+    return patternRegistry.stats()
   }
 
   fun createOrUpdateFilter(chanFilterMutable: ChanFilterMutable, onUpdated: Function0<Unit>) {
@@ -56,6 +65,37 @@ class FilterEngine @Inject constructor(
     return filter.matchesBoard(board.boardDescriptor)
   }
 
+  /**
+   * Returns a [CompiledFilterSet] for [filters] (which must be the filters enabled for [boardDescriptor]).
+   * The compiled set is reused for as long as the filters stay the same.
+   * */
+  @AnyThread
+  fun getOrCompileFilterSet(boardDescriptor: BoardDescriptor, filters: List<ChanFilter>): CompiledFilterSet {
+    val cachedFilterSet = compiledFilterSetCache.get(boardDescriptor)
+    if (cachedFilterSet != null && cachedFilterSet.filters == filters) {
+      return cachedFilterSet
+    }
+
+    val compiledFilterSet = CompiledFilterSet.compile(filters, patternRegistry) { chanFilter ->
+      getOrCompilePattern(chanFilter.pattern, chanFilter.type)
+    }
+
+    Logger.d(TAG, "getOrCompileFilterSet($boardDescriptor) compiled $compiledFilterSet")
+    compiledFilterSetCache.put(boardDescriptor, compiledFilterSet)
+
+    return compiledFilterSet
+  }
+
+  private fun rebuildPatternRegistry() {
+    val patterns = chanFilterManager.getEnabledFiltersSorted()
+      .map { chanFilter -> Pair(chanFilter.pattern, chanFilter.type) }
+
+    patternRegistry.rebuild(patterns) { patternRaw, filterType -> compilePattern(patternRaw, filterType) }
+    compiledFilterSetCache.evictAll()
+
+    Logger.d(TAG, "rebuildPatternRegistry() done, ${patternRegistry.stats()}")
+  }
+
   fun extractMatchedKeywords(
     chanFilter: ChanFilter,
     text: CharSequence?
@@ -64,29 +104,30 @@ class FilterEngine @Inject constructor(
       return emptySet()
     }
 
-    val pattern = synchronized(patternCache) { patternCache[chanFilter.pattern] }
+    val pattern = patternRegistry.get(chanFilter.pattern)
     if (pattern == null) {
       return emptySet()
     }
 
-    val matcher = pattern.matcher(text)
     val keywords = hashSetOf<String>()
 
-    while (matcher.find()) {
-      val start = matcher.start()
-      val end = matcher.end()
+    patternRegistry.withMatcher(pattern, text) { matcher ->
+      while (matcher.find()) {
+        val start = matcher.start()
+        val end = matcher.end()
 
-      // Avoid empty keywords and some bugged patterns
-      if (start >= end) {
-        continue
-      }
+        // Avoid empty keywords and some bugged patterns
+        if (start >= end) {
+          continue
+        }
 
-      val keyword = text.subSequence(start, end).toString()
-      if (keyword.isEmpty()) {
-        continue
-      }
+        val keyword = text.subSequence(start, end).toString()
+        if (keyword.isEmpty()) {
+          continue
+        }
 
-      keywords.add(keyword)
+        keywords.add(keyword)
+      }
     }
 
     return keywords
@@ -154,16 +195,7 @@ class FilterEngine @Inject constructor(
 
   private fun tryMatchPostFlagsWithFilter(filter: ChanFilter, post: ChanPostBuilder): Boolean {
     // figure out if the post has a country code, if so check the filter
-    var countryCode = ""
-
-    for (icon in post.httpIcons) {
-      val index = icon.iconName.indexOf('/')
-      if (index != -1) {
-        countryCode = icon.iconName.substring(index + 1)
-        break
-      }
-    }
-
+    val countryCode = extractCountryCode(post)
     if (countryCode.isEmpty()) {
       return false
     }
@@ -178,13 +210,7 @@ class FilterEngine @Inject constructor(
       }
     }
 
-    val files = StringBuilder()
-
-    for (image in post.postImages) {
-      files.append(image.filename).append(" ")
-    }
-
-    val fnames = files.toString()
+    val fnames = concatFilenames(post)
     if (fnames.isNotEmpty()) {
       if (typeMatches(filter, FilterType.FILENAME) && matches(filter, fnames, false)) {
         return true
@@ -238,45 +264,40 @@ class FilterEngine @Inject constructor(
       return false
     }
 
-    var pattern: Pattern? = null
-    if (!forceCompile) {
-      synchronized(patternCache) {
-        pattern = patternCache[patternRaw]
-        if (pattern == null) {
-          cacheMisses.incrementAndGet()
-        } else {
-          cacheHits.incrementAndGet()
-        }
-      }
-    }
-
-    if (pattern == null) {
-      val extraFlags = if (typeMatches(filterType, FilterType.COUNTRY_CODE)) {
-        Pattern.CASE_INSENSITIVE
-      } else {
-        0
-      }
-
-      pattern = compile(patternRaw, extraFlags).patternOrNull
-      if (pattern != null) {
-        synchronized(patternCache) { patternCache.put(patternRaw, pattern!!) }
-      }
-    }
+    val pattern = getOrCompilePattern(patternRaw, filterType, forceCompile)
 
     if (pattern == null) {
       return false
     }
 
-    val matcher = pattern!!.matcher(text)
-
     try {
-      return matcher.find()
+      return patternRegistry.withMatcher(pattern, text) { matcher -> matcher.find() }
     } catch (e: IllegalArgumentException) {
-      Logger.e(TAG, "matcher.find() exception, pattern=" + pattern!!.pattern(), e)
+      Logger.e(TAG, "matcher.find() exception, pattern=" + pattern.pattern(), e)
       return false
     }
   }
 
+  @AnyThread
+  private fun getOrCompilePattern(patternRaw: String?, filterType: Int, forceCompile: Boolean = false): Pattern? {
+    if (forceCompile) {
+      return compilePattern(patternRaw, filterType)
+    }
+
+    return patternRegistry.getOrCompile(patternRaw, filterType) { raw, type -> compilePattern(raw, type) }
+  }
+
+  @AnyThread
+  private fun compilePattern(patternRaw: String?, filterType: Int): Pattern? {
+    val extraFlags = if (typeMatches(filterType, FilterType.COUNTRY_CODE)) {
+      Pattern.CASE_INSENSITIVE
+    } else {
+      0
+    }
+
+    return compile(patternRaw, extraFlags).patternOrNull
+  }
+
   @AnyThread
   fun compile(rawPattern: String?, extraPatternFlags: Int): RegexPatternCompiler.PatternCompilationResult {
     return RegexPatternCompiler.compile(rawPattern, extraPatternFlags)
@@ -284,6 +305,27 @@ class FilterEngine @Inject constructor(
 
   companion object {
     private const val TAG = "FilterEngine"
+    private const val MAX_CACHED_FILTER_SETS = 16
+
+    fun extractCountryCode(post: ChanPostBuilder): String {
+      for (icon in post.httpIcons) {
+        val index = icon.iconName.indexOf('/')
+        if (index != -1) {
+          return icon.iconName.substring(index + 1)
+        }
+      }
+
+      return ""
+    }
+
+    fun concatFilenames(post: ChanPostBuilder): String {
+      val files = StringBuilder()
 
+      for (image in post.postImages) {
+        files.append(image.filename).append(" ")
+      }
+
+      return files.toString()
+    }
   }
 }
\ No newline at end of file
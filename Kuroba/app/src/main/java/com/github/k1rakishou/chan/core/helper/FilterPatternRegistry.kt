@@ -0,0 +1,219 @@
+package com.github.k1rakishou.chan.core.helper
+
+import android.util.LruCache
+import androidx.annotation.AnyThread
+import androidx.annotation.GuardedBy
+import java.util.*
+import java.util.concurrent.atomic.LongAdder
+import java.util.regex.Matcher
+import java.util.regex.Pattern
+
+/**
+ * Holds compiled filter patterns in an immutable snapshot which is replaced as a whole whenever the
+ * filters change (see [rebuild]), so lookups never take a lock. Patterns that are not in the snapshot
+ * (e.g. ones that are being tested in the filter editor) are compiled on demand and kept in a small
+ * LRU cache instead so that they can't pile up.
+ *
+ * Every thread also gets its own set of [Matcher]s which are reused between calls instead of creating
+ * a new [Matcher] for every piece of text. The matchers are only referenced by the owning thread's
+ * [ThreadLocal] so they go away together with the thread.
+ *
+ * Hit/miss/matcher reuse counters are only collected when [collectStats] is true (verbose logs are
+ * enabled) since lookups happen for every filter and every post.
+ * */
+class FilterPatternRegistry(
+  private val collectStats: Boolean
+) {
+  @Volatile
+  private var snapshot: Snapshot = Snapshot(generation = 0, patterns = emptyMap())
+
+  private val writeLock = Any()
+  @GuardedBy("writeLock")
+  private var generationCounter = 0
+
+  private val onDemandPatterns = LruCache<String, Pattern>(MAX_ON_DEMAND_PATTERNS)
+  private val threadStateThreadLocal = object : ThreadLocal<ThreadState>() {
+    override fun initialValue(): ThreadState = ThreadState()
+  }
+
+  private val hits = LongAdder()
+  private val misses = LongAdder()
+  private val matcherReuses = LongAdder()
+
+  private val compilationStats = CompilationStats()
+
+  /**
+   * Replaces the whole snapshot with patterns of [patternsRaw]. Already compiled patterns are reused.
+   * */
+  @AnyThread
+  fun rebuild(patternsRaw: Collection<Pair<String?, Int>>, compiler: (String?, Int) -> Pattern?) {
+    synchronized(writeLock) {
+      val prevPatterns = snapshot.patterns
+      val newPatterns = HashMap<String?, Pattern>(patternsRaw.size)
+
+      for ((patternRaw, filterType) in patternsRaw) {
+        if (newPatterns.containsKey(patternRaw)) {
+          continue
+        }
+
+        val pattern = prevPatterns[patternRaw]
+          ?: patternRaw?.let { raw -> onDemandPatterns.get(raw) }
+          ?: compileAndMeasure(patternRaw, filterType, compiler)
+          ?: continue
+
+        newPatterns[patternRaw] = pattern
+      }
+
+      snapshot = Snapshot(generation = ++generationCounter, patterns = newPatterns)
+    }
+  }
+
+  @AnyThread
+  fun get(patternRaw: String?): Pattern? {
+    val pattern = snapshot.patterns[patternRaw]
+      ?: patternRaw?.let { raw -> onDemandPatterns.get(raw) }
+
+    if (collectStats) {
+      if (pattern == null) {
+        misses.increment()
+      } else {
+        hits.increment()
+      }
+    }
+
+    return pattern
+  }
+
+  @AnyThread
+  fun getOrCompile(patternRaw: String?, filterType: Int, compiler: (String?, Int) -> Pattern?): Pattern? {
+    val pattern = get(patternRaw)
+    if (pattern != null) {
+      return pattern
+    }
+
+    val compiledPattern = compileAndMeasure(patternRaw, filterType, compiler)
+      ?: return null
+
+    if (patternRaw != null) {
+      onDemandPatterns.put(patternRaw, compiledPattern)
+    }
+
+    return compiledPattern
+  }
+
+  /**
+   * Executes [func] with a [Matcher] for [pattern] that is reset to [text]. The [Matcher] belongs to
+   * the current thread and must not escape [func].
+   * */
+  @AnyThread
+  inline fun <T> withMatcher(pattern: Pattern, text: CharSequence, func: (Matcher) -> T): T {
+    val matcher = obtainMatcher(pattern, text)
+
+    try {
+      return func(matcher)
+    } finally {
+      // Do not keep the text alive
+      matcher.reset(EMPTY_TEXT)
+    }
+  }
+
+  @PublishedApi
+  internal fun obtainMatcher(pattern: Pattern, text: CharSequence): Matcher {
+    val threadState = threadStateThreadLocal.get()!!
+    val currentGeneration = snapshot.generation
+
+    if (threadState.generation != currentGeneration || threadState.matchers.size >= MAX_MATCHERS_PER_THREAD) {
+      // Filters have changed (or there are too many on demand patterns), drop the old matchers
+      threadState.matchers.clear()
+      threadState.generation = currentGeneration
+    }
+
+    val matcher = threadState.matchers[pattern]
+    if (matcher != null) {
+      if (collectStats) {
+        matcherReuses.increment()
+      }
+
+      return matcher.reset(text)
+    }
+
+    return pattern.matcher(text)
+      .also { newMatcher -> threadState.matchers[pattern] = newMatcher }
+  }
+
+  @AnyThread
+  fun stats(): FilterPatternRegistryStats {
+    return synchronized(compilationStats) {
+      FilterPatternRegistryStats(
+        patternsCount = snapshot.patterns.size,
+        onDemandPatternsCount = onDemandPatterns.size(),
+        hits = hits.sum(),
+        misses = misses.sum(),
+        matcherReuses = matcherReuses.sum(),
+        compiledPatterns = compilationStats.compiledPatterns,
+        totalCompilationTimeNanos = compilationStats.totalCompilationTimeNanos
+      )
+    }
+  }
+
+  private fun compileAndMeasure(
+    patternRaw: String?,
+    filterType: Int,
+    compiler: (String?, Int) -> Pattern?
+  ): Pattern? {
+    val start = System.nanoTime()
+    val pattern = compiler(patternRaw, filterType)
+    val delta = System.nanoTime() - start
+
+    synchronized(compilationStats) {
+      compilationStats.compiledPatterns++
+      compilationStats.totalCompilationTimeNanos += delta
+    }
+
+    return pattern
+  }
+
+  private class Snapshot(
+    val generation: Int,
+    val patterns: Map<String?, Pattern>
+  )
+
+  /**
+   * Only ever accessed by the thread that owns it.
+   * */
+  private class ThreadState {
+    var generation = 0
+    val matchers = IdentityHashMap<Pattern, Matcher>()
+  }
+
+  private class CompilationStats {
+    var compiledPatterns = 0L
+    var totalCompilationTimeNanos = 0L
+  }
+
+  companion object {
+    @PublishedApi
+    internal const val EMPTY_TEXT = ""
+
+    private const val MAX_ON_DEMAND_PATTERNS = 32
+    private const val MAX_MATCHERS_PER_THREAD = 256
+  }
+}
+
+data class FilterPatternRegistryStats(
+  val patternsCount: Int,
+  val onDemandPatternsCount: Int,
+  val hits: Long,
+  val misses: Long,
+  val matcherReuses: Long,
+  val compiledPatterns: Long,
+  val totalCompilationTimeNanos: Long
+) {
+
+  override fun toString(): String {
+    return "FilterPatternRegistryStats{patternsCount=$patternsCount, onDemandPatternsCount=$onDemandPatternsCount, " +
+      "hits=$hits, misses=$misses, matcherReuses=$matcherReuses, compiledPatterns=$compiledPatterns, " +
+      "totalCompilationTimeMs=${totalCompilationTimeNanos / 1_000_000}}"
+  }
+
+}
@@ -221,10 +221,10 @@ class PostHideHelper(
       return
     }
 
-    // find all replies to the post recursively
+    // find all replies to the post (and replies to the replies)
     val postWithAllReplies = ChanPostUtils.findPostWithReplies(
       parentPost.postDescriptor,
-      postsFastLookupMap.values
+      postsFastLookupMap
     )
 
     val postDescriptorWithAllReplies: MutableSet<PostDescriptor> = HashSet(postWithAllReplies.size)
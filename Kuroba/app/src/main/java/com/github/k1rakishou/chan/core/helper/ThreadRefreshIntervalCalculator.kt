@@ -0,0 +1,69 @@
+package com.github.k1rakishou.chan.core.helper
+
+/**
+ * Picks the next thread refresh interval based on how fast new posts arrive. The arrival rate is
+ * estimated from the timestamps of the last few posts of a thread and the time passed since the oldest
+ * of them, so the quiet time after the last post slows the rate down as well (and a dead thread ends up
+ * being refreshed rarely even if it used to be fast). The interval is then picked so that every
+ * refresh brings roughly [Config.targetNewPostsPerRefresh] new posts.
+ * */
+class ThreadRefreshIntervalCalculator(
+  val config: Config = Config()
+) {
+
+  /**
+   * [lastPostTimestamps] are unix seconds, oldest first. Returns null when there is not enough data
+   * to estimate the rate in which case the caller should fall back to the regular timeouts.
+   * */
+  fun calculateIntervalSeconds(
+    lastPostTimestamps: LongArray,
+    nowSeconds: Long,
+    bumpLimitReached: Boolean
+  ): Long? {
+    if (lastPostTimestamps.size < config.minPostsToEstimate) {
+      return null
+    }
+
+    val oldestTimestamp = lastPostTimestamps.first()
+    val newestTimestamp = lastPostTimestamps.last()
+
+    // Server and device clocks are not always in sync
+    val secondsSinceLastPost = (nowSeconds - newestTimestamp).coerceAtLeast(0)
+    if (secondsSinceLastPost >= config.staleThreadSeconds) {
+      return config.maxIntervalSec
+    }
+
+    val windowSeconds = (nowSeconds - oldestTimestamp).coerceAtLeast(1)
+    val postsPerSecond = (lastPostTimestamps.size - 1).toDouble() / windowSeconds.toDouble()
+
+    var intervalSeconds = if (postsPerSecond > 0.0) {
+      config.targetNewPostsPerRefresh / postsPerSecond
+    } else {
+      config.maxIntervalSec.toDouble()
+    }
+
+    if (bumpLimitReached) {
+      // The thread is going to fall off the board soon, nobody is in a hurry there anymore
+      intervalSeconds *= config.bumpLimitBackoffMultiplier
+    }
+
+    return intervalSeconds.toLong().coerceIn(config.minIntervalSec, config.maxIntervalSec)
+  }
+
+  data class Config(
+    val minIntervalSec: Long = 10L,
+    val maxIntervalSec: Long = 600L,
+    val targetNewPostsPerRefresh: Double = 5.0,
+    val postsToSample: Int = 20,
+    val minPostsToEstimate: Int = 3,
+    val staleThreadSeconds: Long = 15L * 60L,
+    val bumpLimitBackoffMultiplier: Double = 3.0
+  ) {
+    init {
+      require(minIntervalSec in 1..maxIntervalSec) { "Bad interval bounds: [$minIntervalSec, $maxIntervalSec]" }
+      require(targetNewPostsPerRefresh > 0.0) { "Bad targetNewPostsPerRefresh: $targetNewPostsPerRefresh" }
+      require(minPostsToEstimate >= 2) { "Bad minPostsToEstimate: $minPostsToEstimate" }
+      require(postsToSample >= minPostsToEstimate) { "Bad postsToSample: $postsToSample" }
+    }
+  }
+}
@@ -8,6 +8,7 @@ import android.graphics.ColorFilter
 import android.graphics.Matrix
 import android.graphics.Paint
 import android.graphics.drawable.BitmapDrawable
+import android.net.Uri
 import android.util.LruCache
 import android.view.View
 import androidx.annotation.DrawableRes
@@ -28,6 +29,7 @@ import com.github.k1rakishou.chan.core.base.okhttp.CoilOkHttpClient
 import com.github.k1rakishou.chan.core.cache.CacheFileType
 import com.github.k1rakishou.chan.core.cache.CacheHandler
 import com.github.k1rakishou.chan.core.cache.FileCacheV2
+import com.github.k1rakishou.chan.core.cache.PackedCacheData
 import com.github.k1rakishou.chan.core.helper.ImageLoaderFileManagerWrapper
 import com.github.k1rakishou.chan.core.manager.ReplyManager
 import com.github.k1rakishou.chan.core.manager.ThreadDownloadManager
@@ -43,7 +45,6 @@ import com.github.k1rakishou.common.ModularResult.Companion.value
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.core_themes.ThemeEngine
 import com.github.k1rakishou.fsaf.FileManager
-import com.github.k1rakishou.fsaf.file.AbstractFile
 import com.github.k1rakishou.fsaf.file.ExternalFile
 import com.github.k1rakishou.fsaf.file.RawFile
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
@@ -53,6 +54,7 @@ import kotlinx.coroutines.*
 import kotlinx.coroutines.sync.Mutex
 import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
 import okhttp3.Request
+import okhttp3.ResponseBody
 import java.io.File
 import java.io.FileOutputStream
 import java.io.IOException
@@ -285,8 +287,6 @@ class ImageLoaderV2(
       BackgroundUtils.ensureBackgroundThread()
 
       try {
-        var isFromCache = true
-
         // 1. Enqueue a new request (or add a callback to an old request if there is already a
         // request with this url).
         val alreadyHasActiveRequest = mutex.withLockNonCancellable {
@@ -312,27 +312,25 @@ class ImageLoaderV2(
         }
 
         // 2. Check whether we have this bitmap cached on the disk
-        var imageFile = tryLoadFromDiskCacheOrNull(url, cacheFileType, postDescriptor)
+        val cachedImageData = tryLoadFromDiskCacheOrNull(url, cacheFileType, postDescriptor)
+        val isFromCache = cachedImageData != null
 
         // 3. Failed to find this bitmap in the disk cache. Load it from the network.
-        if (imageFile == null) {
-          isFromCache = false
-
-          imageFile = loadFromNetworkInternal(
+        val imageData = cachedImageData
+          ?: loadFromNetworkInternal(
             context = context,
             url = url,
             cacheFileType = cacheFileType,
             imageSize = imageSize
           )
 
-          if (imageFile == null) {
-            val errorMessage = "Failed to load image '$url' from disk and network"
+        if (imageData == null) {
+          val errorMessage = "Failed to load image '$url' from disk and network"
 
-            Logger.e(TAG, errorMessage)
-            notifyListenersFailure(context, url, IOException(errorMessage))
+          Logger.e(TAG, errorMessage)
+          notifyListenersFailure(context, url, IOException(errorMessage))
 
-            return@launch
-          }
+          return@launch
         }
 
         // 4. We have this image on disk, now we need to reload it from disk, apply transformations
@@ -357,7 +355,7 @@ class ImageLoaderV2(
             val resultBitmapDrawable = applyTransformationsToDrawable(
               context = context,
               lifecycle = context.getLifecycleFromContext(),
-              imageFile = imageFile,
+              imageData = imageData,
               activeListener = activeListener,
               url = url,
               cacheFileType = cacheFileType
@@ -426,16 +424,15 @@ class ImageLoaderV2(
   private suspend fun applyTransformationsToDrawable(
     context: Context,
     lifecycle: Lifecycle?,
-    imageFile: AbstractFile?,
+    imageData: CachedImageData,
     activeListener: ActiveListener,
     url: String,
     cacheFileType: CacheFileType
   ): BitmapDrawable? {
-    val fileLocation = when (imageFile) {
-      is RawFile -> File(imageFile.getFullPath())
-      is ExternalFile -> imageFile.getUri()
-      null -> return null
-      else -> error("Unknown file type: ${imageFile.javaClass.simpleName}")
+    val fileLocation: Any = when (imageData) {
+      is CachedImageData.File -> imageData.file
+      is CachedImageData.Document -> imageData.uri
+      is CachedImageData.Packed -> imageData.packedCacheData
     }
 
     // When using any transformations at all we won't be able to use HARDWARE bitmaps. We only really
@@ -501,16 +498,11 @@ class ImageLoaderV2(
     url: String,
     cacheFileType: CacheFileType,
     imageSize: ImageSize,
-  ): AbstractFile? {
+  ): CachedImageData? {
     BackgroundUtils.ensureBackgroundThread()
 
     try {
-      val resultFile = loadFromNetworkIntoFile(cacheFileType, url)
-      if (resultFile == null) {
-        return null
-      }
-
-      return fileManager.fromRawFile(resultFile)
+      return loadFromNetworkIntoCache(cacheFileType, url)
     } catch (error: Throwable) {
       notifyListenersFailure(context, url, error)
 
@@ -595,17 +587,79 @@ class ImageLoaderV2(
   }
 
   @Throws(HttpException::class)
-  private suspend fun loadFromNetworkIntoFile(cacheFileType: CacheFileType, url: String): File? {
+  private suspend fun loadFromNetworkIntoCache(cacheFileType: CacheFileType, url: String): CachedImageData? {
+    BackgroundUtils.ensureBackgroundThread()
+
+    val responseBody = executeImageRequest(url)
+      ?: return null
+
+    if (cacheHandler.canUsePackedStorage(cacheFileType, responseBody.contentLength())) {
+      val bytes = runInterruptible { responseBody.use { body -> body.bytes() } }
+      return CachedImageData.Packed(cacheHandler.putPackedCacheData(cacheFileType, url, bytes))
+    }
+
+    val cacheFile = loadFromNetworkIntoFile(cacheFileType, url, responseBody)
+      ?: return null
+
+    return CachedImageData.File(cacheFile)
+  }
+
+  @Throws(HttpException::class)
+  private suspend fun executeImageRequest(url: String): ResponseBody? {
+    BackgroundUtils.ensureBackgroundThread()
+
+    val site = siteResolver.findSiteForUrl(url)
+    val requestModifier = site?.requestModifier()
+
+    val requestBuilder = Request.Builder()
+      .url(url)
+      .get()
+
+    if (site != null && requestModifier != null) {
+      requestModifier.modifyThumbnailGetRequest(site, requestBuilder)
+    }
+
+    val response = coilOkHttpClient.okHttpClient().suspendCall(requestBuilder.build())
+    if (!response.isSuccessful) {
+      Logger.e(TAG, "executeImageRequest() bad response code: ${response.code}")
+
+      if (response.code == 404) {
+        throw HttpException(response)
+      }
+
+      return null
+    }
+
+    val responseBody = response.body
+      ?: throw IOException("Response body is null")
+
+    val contentMainType = responseBody.contentType()?.type
+    val contentSubType = responseBody.contentType()?.subtype
+
+    if (contentMainType != "image" && contentMainType != "video" && !endchanFaviconUrl(url)) {
+      responseBody.close()
+      throw BadContentTypeException("${contentMainType}/${contentSubType}")
+    }
+
+    return responseBody
+  }
+
+  private suspend fun loadFromNetworkIntoFile(
+    cacheFileType: CacheFileType,
+    url: String,
+    responseBody: ResponseBody
+  ): File? {
     BackgroundUtils.ensureBackgroundThread()
 
     val cacheFile = cacheHandler.getOrCreateCacheFile(cacheFileType, url)
     if (cacheFile == null) {
       Logger.e(TAG, "loadFromNetworkIntoFile() cacheHandler.getOrCreateCacheFile('$url') -> null")
+      responseBody.close()
       return null
     }
 
     val success = try {
-      loadFromNetworkIntoFileInternal(url, cacheFileType, cacheFile)
+      loadFromNetworkIntoFileInternal(cacheFileType, cacheFile, responseBody)
     } catch (error: Throwable) {
       if (!fileCacheV2.isRunning(url)) {
         cacheHandler.deleteCacheFile(cacheFileType, cacheFile)
@@ -631,45 +685,13 @@ class ImageLoaderV2(
   }
 
   private suspend fun loadFromNetworkIntoFileInternal(
-    url: String,
     cacheFileType: CacheFileType,
-    cacheFile: File
+    cacheFile: File,
+    responseBody: ResponseBody
   ): Boolean {
     BackgroundUtils.ensureBackgroundThread()
 
-    val site = siteResolver.findSiteForUrl(url)
-    val requestModifier = site?.requestModifier()
-
-    val requestBuilder = Request.Builder()
-      .url(url)
-      .get()
-
-    if (site != null && requestModifier != null) {
-      requestModifier.modifyThumbnailGetRequest(site, requestBuilder)
-    }
-
-    val response = coilOkHttpClient.okHttpClient().suspendCall(requestBuilder.build())
-    if (!response.isSuccessful) {
-      Logger.e(TAG, "loadFromNetworkInternalIntoFile() bad response code: ${response.code}")
-
-      if (response.code == 404) {
-        throw HttpException(response)
-      }
-
-      return false
-    }
-
     runInterruptible {
-      val responseBody = response.body
-        ?: throw IOException("Response body is null")
-
-      val contentMainType = responseBody.contentType()?.type
-      val contentSubType = responseBody.contentType()?.subtype
-
-      if (contentMainType != "image" && contentMainType != "video" && !endchanFaviconUrl(url)) {
-        throw BadContentTypeException("${contentMainType}/${contentSubType}")
-      }
-
       responseBody.byteStream().use { inputStream ->
         cacheFile.outputStream().use { os ->
           inputStream.copyTo(os)
@@ -703,7 +725,7 @@ class ImageLoaderV2(
     url: String,
     cacheFileType: CacheFileType,
     postDescriptor: PostDescriptor?
-  ): AbstractFile? {
+  ): CachedImageData? {
     BackgroundUtils.ensureBackgroundThread()
 
     val httpUrl = url.toHttpUrlOrNull()
@@ -714,12 +736,21 @@ class ImageLoaderV2(
       )
 
       if (foundFile != null && fileManager.getLength(foundFile) > 0L && fileManager.canRead(foundFile)) {
-        return foundFile
+        when (foundFile) {
+          is RawFile -> return CachedImageData.File(File(foundFile.getFullPath()))
+          is ExternalFile -> return CachedImageData.Document(foundFile.getUri())
+          else -> Logger.e(TAG, "Unknown downloaded file type: ${foundFile.javaClass.simpleName}")
+        }
       }
 
       // fallthrough
     }
 
+    val packedCacheData = cacheHandler.getPackedCacheDataOrNull(cacheFileType, url)
+    if (packedCacheData != null) {
+      return CachedImageData.Packed(packedCacheData)
+    }
+
     val cacheFile = cacheHandler.getCacheFileOrNull(cacheFileType, url)
     if (cacheFile == null) {
       return null
@@ -729,7 +760,7 @@ class ImageLoaderV2(
       return null
     }
 
-    return fileManager.fromRawFile(cacheFile)
+    return CachedImageData.File(cacheFile)
   }
 
   fun loadFromResources(
@@ -1413,6 +1444,17 @@ class ImageLoaderV2(
     }
   }
 
+  /**
+   * An image that is already on the disk and can be decoded by coil: a cache file, a file of a downloaded
+   * thread (which may be a SAF document) or [PackedCacheData] for small files of
+   * [CacheFileType.usePackedStorage] types.
+   * */
+  private sealed class CachedImageData {
+    class File(val file: java.io.File) : CachedImageData()
+    class Document(val uri: Uri) : CachedImageData()
+    class Packed(val packedCacheData: PackedCacheData) : CachedImageData()
+  }
+
   class ActiveListener(
     val imageListenerParam: ImageListenerParam,
     val imageSize: ImageSize,
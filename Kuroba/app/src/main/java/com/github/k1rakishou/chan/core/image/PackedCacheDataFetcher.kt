@@ -0,0 +1,38 @@
+package com.github.k1rakishou.chan.core.image
+
+import coil.bitmap.BitmapPool
+import coil.decode.DataSource
+import coil.decode.Options
+import coil.fetch.FetchResult
+import coil.fetch.Fetcher
+import coil.fetch.SourceResult
+import coil.size.Size
+import com.github.k1rakishou.chan.core.cache.PackedCacheData
+import okio.Buffer
+
+/**
+ * Allows coil to decode images stored in [com.github.k1rakishou.chan.core.cache.PackedSegmentStore].
+ * */
+class PackedCacheDataFetcher : Fetcher<PackedCacheData> {
+
+  override fun key(data: PackedCacheData): String {
+    return "${KEY_PREFIX}${data.key}"
+  }
+
+  override suspend fun fetch(
+    pool: BitmapPool,
+    data: PackedCacheData,
+    size: Size,
+    options: Options
+  ): FetchResult {
+    return SourceResult(
+      source = Buffer().write(data.bytes),
+      mimeType = null,
+      dataSource = DataSource.DISK
+    )
+  }
+
+  companion object {
+    private const val KEY_PREFIX = "packed_cache_"
+  }
+}
@@ -42,7 +42,8 @@ class ChanThreadManager(
   private val _chanPostRepository: Lazy<ChanPostRepository>,
   private val _chanThreadLoaderCoordinator: Lazy<ChanThreadLoaderCoordinator>,
   private val _threadDataPreloader: Lazy<ThreadDataPreloader>,
-  private val _catalogDataPreloader: Lazy<CatalogDataPreloader>
+  private val _catalogDataPreloader: Lazy<CatalogDataPreloader>,
+  private val _currentOpenedDescriptorStateManager: Lazy<CurrentOpenedDescriptorStateManager>
 ) {
 
   private val siteManager: SiteManager
@@ -63,10 +64,19 @@ class ChanThreadManager(
     get() = _threadDataPreloader.get()
   private val catalogDataPreloader: CatalogDataPreloader
     get() = _catalogDataPreloader.get()
+  private val currentOpenedDescriptorStateManager: CurrentOpenedDescriptorStateManager
+    get() = _currentOpenedDescriptorStateManager.get()
 
   // Only accessed on the main thread
   private val requestedChanDescriptors = hashSetOf<ChanDescriptor>()
 
+  init {
+    chanThreadsCache.setEvictionProtectedThreadChecker { threadDescriptor ->
+      return@setEvictionProtectedThreadChecker bookmarksManager.contains(threadDescriptor) ||
+        threadDescriptor == currentOpenedDescriptorStateManager.currentThreadDescriptor
+    }
+  }
+
   suspend fun awaitUntilDependenciesInitialized() {
     siteManager.awaitUntilInitialized()
     bookmarksManager.awaitUntilInitialized()
@@ -171,6 +181,7 @@ class ChanThreadManager(
           is ChanDescriptor.CompositeCatalogDescriptor -> error("Cannot use CompositeCatalogDescriptor here")
         }
       }
+      is ThreadLoadResult.NotModified,
       is ThreadLoadResult.Error -> {
         // no-op
       }
@@ -179,6 +190,10 @@ class ChanThreadManager(
     return threadLoadResult
   }
 
+  fun findPostSearchCandidates(chanDescriptor: ChanDescriptor, query: CharSequence): List<PostDescriptor>? {
+    return chanThreadsCache.findPostSearchCandidates(chanDescriptor, query)
+  }
+
   fun iteratePostsWhile(
     chanDescriptor: ChanDescriptor,
     iterator: (ChanPost) -> Boolean
@@ -302,11 +317,11 @@ class ChanThreadManager(
     when (val descriptor = postDescriptor.descriptor) {
       is ChanDescriptor.ThreadDescriptor -> {
         chanThreadsCache.getThread(descriptor)
-          ?.findPostWithRepliesRecursive(postDescriptor, postsSet)
+          ?.findPostWithReplies(postDescriptor, postsSet)
       }
       is ChanDescriptor.ICatalogDescriptor -> {
         getChanCatalog(descriptor)
-          ?.findPostWithRepliesRecursive(postDescriptor, postsSet)
+          ?.findPostWithReplies(postDescriptor, postsSet)
       }
     }
 
@@ -483,7 +483,7 @@ class ReportManager(
       appendLine("userAgent: ${appConstants.userAgent}")
       appendLine("kurobaExCustomUserAgent: ${appConstants.kurobaExCustomUserAgent}")
 
-      appendLine("maxPostsCountInPostsCache: ${appConstants.maxPostsCountInPostsCache}")
+      appendLine("postsCacheMaxSizeBytes: ${appConstants.postsCacheMaxSizeBytes}")
       appendLine("maxAmountOfPostsInDatabase: ${appConstants.maxAmountOfPostsInDatabase}")
       appendLine("maxAmountOfThreadsInDatabase: ${appConstants.maxAmountOfThreadsInDatabase}")
 
@@ -1,23 +1,20 @@
 package com.github.k1rakishou.chan.core.manager
 
-import androidx.annotation.GuardedBy
 import com.github.k1rakishou.common.ModularResult
-import com.github.k1rakishou.common.mutableIteration
-import com.github.k1rakishou.common.mutableMapWithCap
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.post.ChanSavedReply
+import com.github.k1rakishou.model.data.thread.ThreadPostIndex
 import com.github.k1rakishou.model.repository.ChanSavedReplyRepository
 import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
 import com.github.k1rakishou.model.util.ChanPostUtils
 import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.SharedFlow
 import kotlinx.coroutines.flow.asSharedFlow
-import java.util.*
-import java.util.concurrent.locks.ReentrantReadWriteLock
-import kotlin.concurrent.read
-import kotlin.concurrent.write
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
 import kotlin.time.ExperimentalTime
 import kotlin.time.measureTime
 
@@ -26,9 +23,10 @@ class SavedReplyManager(
   private val chanThreadsCache: ChanThreadsCache,
   private val savedReplyRepository: ChanSavedReplyRepository
 ) {
-  private val lock = ReentrantReadWriteLock()
-  @GuardedBy("lock")
-  private val savedReplyMap = mutableMapWithCap<ChanDescriptor.ThreadDescriptor, MutableList<ChanSavedReply>>(16)
+  // Only the writers take the lock (to not lose concurrent updates of the same thread), readers just
+  // grab the current snapshot of the thread from savedReplyMap.
+  private val lock = ReentrantLock()
+  private val savedReplyMap = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, ThreadSavedReplies>(16)
 
   private val _savedRepliesUpdateFlow = MutableSharedFlow<Unit>(extraBufferCapacity = 1)
   val savedRepliesUpdateFlow: SharedFlow<Unit>
@@ -47,7 +45,7 @@ class SavedReplyManager(
 
   @OptIn(ExperimentalTime::class)
   suspend fun preloadForThread(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
-    val alreadyPreloaded = lock.read { savedReplyMap[threadDescriptor]?.isNotEmpty() == true }
+    val alreadyPreloaded = savedReplyMap[threadDescriptor]?.isNotEmpty() == true
     if (alreadyPreloaded) {
       return
     }
@@ -67,20 +65,18 @@ class SavedReplyManager(
     return ModularResult.Try {
       val allSavedReplies = savedReplyRepository.loadAll().unwrap()
 
-      lock.write {
+      lock.withLock {
         val groupedSavedReplies = allSavedReplies.groupBy { savedReply -> savedReply.postDescriptor.threadDescriptor() }
 
         groupedSavedReplies.entries.forEach { (threadDescriptor, savedReplies) ->
-          savedReplyMap[threadDescriptor] = savedReplies.toMutableList()
+          savedReplyMap[threadDescriptor] = ThreadSavedReplies(threadDescriptor, savedReplies)
         }
       }
     }
   }
 
   fun getAll(): Map<ChanDescriptor.ThreadDescriptor, List<ChanSavedReply>> {
-    return lock.write {
-      return@write savedReplyMap.toMap()
-    }
+    return savedReplyMap.mapValues { (_, threadSavedReplies) -> threadSavedReplies.savedReplies }
   }
 
   fun isSaved(chanDescriptor: ChanDescriptor, postNo: Long, postSubNo: Long): Boolean {
@@ -92,29 +88,15 @@ class SavedReplyManager(
       is ChanDescriptor.CatalogDescriptor -> ChanDescriptor.ThreadDescriptor.create(chanDescriptor, postNo)
     }
 
-    return lock.read {
-      return@read savedReplyMap[threadDescriptor]
-        ?.any { chanSavedReply ->
-          return@any chanSavedReply.postDescriptor.postNo == postNo
-            && chanSavedReply.postDescriptor.postSubNo == postSubNo
-        } ?: false
-    }
+    return savedReplyMap[threadDescriptor]?.contains(postNo, postSubNo) ?: false
   }
 
   fun isSaved(postDescriptor: PostDescriptor): Boolean {
-    return lock.read {
-      return@read savedReplyMap[postDescriptor.threadDescriptor()]?.any { chanSavedReply ->
-        chanSavedReply.postDescriptor == postDescriptor
-      } ?: false
-    }
+    return getSavedReply(postDescriptor) != null
   }
 
   fun getSavedReply(postDescriptor: PostDescriptor): ChanSavedReply? {
-    return lock.read {
-      return@read savedReplyMap[postDescriptor.threadDescriptor()]?.firstOrNull { chanSavedReply ->
-        chanSavedReply.postDescriptor == postDescriptor
-      }
-    }
+    return savedReplyMap[postDescriptor.threadDescriptor()]?.get(postDescriptor)
   }
 
   suspend fun unsavePost(postDescriptor: PostDescriptor) {
@@ -128,20 +110,26 @@ class SavedReplyManager(
         return
       }
 
-    val updated = lock.write {
+    val updated = lock.withLock {
       var updated = false
 
-      postDescriptors.forEach { postDescriptor ->
-        val index = savedReplyMap[postDescriptor.threadDescriptor()]
-          ?.indexOfFirst { chanSavedReply -> chanSavedReply.postDescriptor == postDescriptor } ?: -1
+      postDescriptors
+        .groupBy { postDescriptor -> postDescriptor.threadDescriptor() }
+        .forEach { (threadDescriptor, threadPostDescriptors) ->
+          val threadSavedReplies = savedReplyMap[threadDescriptor]
+            ?: return@forEach
 
-        if (index >= 0) {
-          savedReplyMap[postDescriptor.threadDescriptor()]?.removeAt(index)
-          updated = true
+          val postDescriptorsToRemove = threadPostDescriptors.toSet()
+          val savedReplies = threadSavedReplies.savedReplies
+            .filter { chanSavedReply -> chanSavedReply.postDescriptor !in postDescriptorsToRemove }
+
+          if (savedReplies.size != threadSavedReplies.savedReplies.size) {
+            savedReplyMap[threadDescriptor] = ThreadSavedReplies(threadDescriptor, savedReplies)
+            updated = true
+          }
         }
-      }
 
-      return@write updated
+      return@withLock updated
     }
 
     if (updated) {
@@ -154,7 +142,7 @@ class SavedReplyManager(
       .peekError { error -> Logger.e(TAG, "unsaveAll() error", error) }
       .ignore()
 
-    lock.write { savedReplyMap.clear() }
+    lock.withLock { savedReplyMap.clear() }
     _savedRepliesUpdateFlow.tryEmit(Unit)
   }
 
@@ -179,16 +167,24 @@ class SavedReplyManager(
         return
       }
 
-    val updated = lock.write {
-      val index = savedReplyMap[postDescriptor.threadDescriptor()]
-        ?.indexOfFirst { chanSavedReply -> chanSavedReply.postDescriptor == postDescriptor } ?: -1
+    val updated = lock.withLock {
+      val threadDescriptor = postDescriptor.threadDescriptor()
 
-      if (index < 0) {
-        savedReplyMap[postDescriptor.threadDescriptor()]?.add(savedReply)
-        return@write true
+      // Saved replies of threads that are not preloaded yet will be loaded from the database later but
+      // the listeners still have to be notified that a new reply was saved
+      val threadSavedReplies = savedReplyMap[threadDescriptor]
+        ?: return@withLock true
+
+      if (threadSavedReplies.get(postDescriptor) != null) {
+        return@withLock false
       }
 
-      return@write false
+      savedReplyMap[threadDescriptor] = ThreadSavedReplies(
+        threadDescriptor = threadDescriptor,
+        savedReplies = threadSavedReplies.savedReplies + savedReply
+      )
+
+      return@withLock true
     }
 
     if (updated) {
@@ -204,19 +200,15 @@ class SavedReplyManager(
       return emptyList()
     }
 
-    return lock.read {
-      val savedRepliesNoSet = savedReplyMap[threadDescriptor]
-        ?.map { chanSavedReply -> chanSavedReply.postDescriptor }
-        ?.toSet()
-        ?: return@read emptyList()
+    val threadSavedReplies = savedReplyMap[threadDescriptor]
+      ?: return emptyList()
 
-      return@read postList
-        .filter { postDescriptor -> savedRepliesNoSet.contains(postDescriptor) }
-    }
+    return postList
+      .filter { postDescriptor -> threadSavedReplies.get(postDescriptor) != null }
   }
 
   fun getThreadSavedReplies(threadDescriptor: ChanDescriptor.ThreadDescriptor): List<ChanSavedReply> {
-    return lock.read { savedReplyMap[threadDescriptor] ?: emptyList() }
+    return savedReplyMap[threadDescriptor]?.savedReplies ?: emptyList()
   }
 
   private suspend fun preloadForThreadInternal(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
@@ -226,13 +218,13 @@ class SavedReplyManager(
         return
       }
 
-    lock.write {
-      savedReplyMap[threadDescriptor] = savedReplies.toMutableList()
+    lock.withLock {
+      savedReplyMap[threadDescriptor] = ThreadSavedReplies(threadDescriptor, savedReplies)
     }
   }
 
   private fun onThreadDeleteEventReceived(threadDeleteEvent: ChanThreadsCache.ThreadDeleteEvent) {
-    lock.write {
+    lock.withLock {
       when (threadDeleteEvent) {
         ChanThreadsCache.ThreadDeleteEvent.ClearAll -> {
           Logger.d(TAG, "onThreadDeleteEventReceived.ClearAll() clearing ${savedReplyMap.size} threads")
@@ -252,17 +244,14 @@ class SavedReplyManager(
           var removedPosts = 0
 
           threadDeleteEvent.entries.forEach { (threadDescriptor, originalPostDescriptor) ->
-            val innerPostHideMap = savedReplyMap[threadDescriptor]
+            val threadSavedReplies = savedReplyMap[threadDescriptor]
               ?: return@forEach
 
-            innerPostHideMap.mutableIteration { mutableIterator, mapEntry ->
-              if (mapEntry.postDescriptor != originalPostDescriptor) {
-                ++removedPosts
-                mutableIterator.remove()
-              }
+            val savedReplies = threadSavedReplies.savedReplies
+              .filter { chanSavedReply -> chanSavedReply.postDescriptor == originalPostDescriptor }
 
-              return@mutableIteration true
-            }
+            removedPosts += threadSavedReplies.savedReplies.size - savedReplies.size
+            savedReplyMap[threadDescriptor] = ThreadSavedReplies(threadDescriptor, savedReplies)
           }
 
           Logger.d(TAG, "onThreadDeleteEventReceived.RemoveThreadPostsExceptOP() removed ${removedPosts} saved posts")
@@ -271,6 +260,34 @@ class SavedReplyManager(
     }
   }
 
+  /**
+   * Immutable snapshot of the saved replies of a thread with an index by (postNo, postSubNo) so that
+   * [isSaved], which is called for every post and every quote of every post during parsing, is a single
+   * primitive hash lookup without any locking. Every update creates a new snapshot.
+   * */
+  private class ThreadSavedReplies(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    val savedReplies: List<ChanSavedReply>
+  ) {
+    private val index = ThreadPostIndex(threadDescriptor, savedReplies.size)
+
+    init {
+      savedReplies.forEachIndexed { savedReplyIndex, chanSavedReply ->
+        index.put(chanSavedReply.postDescriptor, savedReplyIndex)
+      }
+    }
+
+    fun isNotEmpty(): Boolean = savedReplies.isNotEmpty()
+
+    fun contains(postNo: Long, postSubNo: Long): Boolean {
+      return index.indexOf(postNo, postSubNo) != ThreadPostIndex.NO_INDEX
+    }
+
+    fun get(postDescriptor: PostDescriptor): ChanSavedReply? {
+      return savedReplies.getOrNull(index.indexOf(postDescriptor))
+    }
+  }
+
   companion object {
     private const val TAG = "SavedReplyManager"
   }
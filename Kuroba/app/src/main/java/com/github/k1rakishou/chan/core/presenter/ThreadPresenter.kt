@@ -189,6 +189,7 @@ class ThreadPresenter @Inject constructor(
       isDevFlavor = isDevBuild(),
       _archivesManager = _archivesManager,
       _chanThreadManager = _chanThreadManager,
+      _boardManager = _boardManager,
       action = this::onChanTickerTick
     )
   }
@@ -684,7 +685,8 @@ class ThreadPresenter @Inject constructor(
         )
 
         when (lastThreadLoadResult) {
-          is ThreadLoadResult.Loaded -> {
+          is ThreadLoadResult.Loaded,
+          is ThreadLoadResult.NotModified -> {
             Logger.d(TAG, "loadWholeCompositeCatalog() ${nextDescriptorToLoad} success")
           }
           is ThreadLoadResult.Error -> {
@@ -701,7 +703,8 @@ class ThreadPresenter @Inject constructor(
         is ThreadLoadResult.Error -> {
           onChanLoaderError(lastThreadLoadResult.chanDescriptor, lastThreadLoadResult.exception)
         }
-        is ThreadLoadResult.Loaded -> {
+        is ThreadLoadResult.Loaded,
+        is ThreadLoadResult.NotModified -> {
           val successfullyProcessedNewPosts = onChanLoaderData(lastThreadLoadResult.chanDescriptor)
           if (!successfullyProcessedNewPosts) {
             val error = getPossibleChanLoadError(currentChanDescriptor)
@@ -830,7 +833,10 @@ class ThreadPresenter @Inject constructor(
         is ThreadLoadResult.Error -> {
           onChanLoaderError(threadLoadResult.chanDescriptor, threadLoadResult.exception)
         }
-        is ThreadLoadResult.Loaded -> {
+        is ThreadLoadResult.Loaded,
+        is ThreadLoadResult.NotModified -> {
+          // NotModified means that the cached posts are still up to date, so we just need to
+          // display them and restart the ticker.
           val (successfullyProcessedNewPosts, time) = measureTimedValue {
             onChanLoaderData(threadLoadResult.chanDescriptor)
           }
@@ -64,6 +64,16 @@ public interface SiteEndpoints {
     }
 
     HttpUrl pages(ChanBoard board);
+
+    /**
+     * Json with the last modification time of every thread of a board (like 4chan's threads.json).
+     * When a site has it the bookmark watcher only fetches threads that have changed since the
+     * previous check instead of fetching every bookmarked thread.
+     */
+    @Nullable
+    default HttpUrl threadsLastModified(BoardDescriptor boardDescriptor) {
+        return null;
+    }
     HttpUrl reply(ChanDescriptor chanDescriptor);
     HttpUrl delete(ChanPost post);
 
@@ -19,6 +19,7 @@ package com.github.k1rakishou.chan.core.site
 import android.webkit.WebView
 import androidx.annotation.CallSuper
 import com.github.k1rakishou.chan.core.site.http.HttpCall
+import com.github.k1rakishou.chan.core.site.loader.ConditionalRequestValidators
 import com.github.k1rakishou.common.AppConstants
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import okhttp3.Request
@@ -49,14 +50,22 @@ abstract class SiteRequestModifier<T : Site>(
     requestBuilder.addHeader(acceptEncodingHeaderKey, gzipHeaderValue)
   }
 
+  /**
+   * [conditionalRequestValidators] are validators of the previous successful load of [chanDescriptor]
+   * (if there are any). Sites whose servers do not handle conditional requests correctly may override
+   * this method and not pass them to the super method.
+   * */
   @CallSuper
   open fun modifyCatalogOrThreadGetRequest(
     site: T,
     chanDescriptor: ChanDescriptor,
-    requestBuilder: Request.Builder
+    requestBuilder: Request.Builder,
+    conditionalRequestValidators: ConditionalRequestValidators? = null
   ) {
     requestBuilder.addHeader(userAgentHeaderKey, appConstants.userAgent)
     requestBuilder.addHeader(acceptEncodingHeaderKey, gzipHeaderValue)
+
+    conditionalRequestValidators?.applyTo(requestBuilder)
   }
 
   @CallSuper
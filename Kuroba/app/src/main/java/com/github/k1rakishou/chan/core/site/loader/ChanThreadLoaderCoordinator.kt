@@ -16,9 +16,11 @@
  */
 package com.github.k1rakishou.chan.core.site.loader
 
+import androidx.annotation.VisibleForTesting
 import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.core.base.okhttp.CloudFlareHandlerInterceptor
 import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient
+import com.github.k1rakishou.chan.core.diagnostics.MetricsRegistry
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressEvent
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressNotifier
 import com.github.k1rakishou.chan.core.manager.BoardManager
@@ -27,6 +29,7 @@ import com.github.k1rakishou.chan.core.site.Site
 import com.github.k1rakishou.chan.core.site.SiteResolver
 import com.github.k1rakishou.chan.core.site.SiteSpecificError
 import com.github.k1rakishou.chan.core.site.loader.internal.ChanPostPersister
+import com.github.k1rakishou.chan.core.site.loader.internal.ConditionalRequestValidatorStore
 import com.github.k1rakishou.chan.core.site.loader.internal.DatabasePostLoader
 import com.github.k1rakishou.chan.core.site.loader.internal.usecase.ParsePostsV1UseCase
 import com.github.k1rakishou.chan.core.site.loader.internal.usecase.ReloadPostsFromDatabaseUseCase
@@ -34,6 +37,7 @@ import com.github.k1rakishou.chan.core.site.loader.internal.usecase.StorePostsIn
 import com.github.k1rakishou.chan.core.site.parser.ChanReader
 import com.github.k1rakishou.chan.core.site.parser.PostParser
 import com.github.k1rakishou.chan.core.site.parser.processor.ChanReaderProcessor
+import com.github.k1rakishou.chan.core.site.parser.processor.PostParsePipeline
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils.isDevBuild
 import com.github.k1rakishou.chan.utils.BackgroundUtils
 import com.github.k1rakishou.common.AppConstants
@@ -49,6 +53,7 @@ import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.options.ChanCacheOptions
 import com.github.k1rakishou.model.data.options.ChanCacheUpdateOptions
+import com.github.k1rakishou.model.data.options.ChanLoadOption
 import com.github.k1rakishou.model.data.options.ChanLoadOptions
 import com.github.k1rakishou.model.data.options.ChanReadOptions
 import com.github.k1rakishou.model.data.options.PostsToReloadOptions
@@ -58,11 +63,14 @@ import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache
 import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
 import kotlinx.coroutines.CoroutineName
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
 import kotlinx.coroutines.withContext
 import okhttp3.HttpUrl
 import okhttp3.Request
+import okhttp3.Response
 import java.io.InputStream
 import java.util.*
 import java.util.concurrent.ConcurrentHashMap
@@ -91,7 +99,8 @@ class ChanThreadLoaderCoordinator(
   private val chanThreadsCache: ChanThreadsCache,
   private val chanCatalogSnapshotCache: ChanCatalogSnapshotCache,
   private val threadDownloadManager: ThreadDownloadManager,
-  private val parsePostsV1UseCase: ParsePostsV1UseCase
+  private val parsePostsV1UseCase: ParsePostsV1UseCase,
+  private val metricsRegistry: MetricsRegistry
 ) : CoroutineScope {
   private val job = SupervisorJob()
 
@@ -99,6 +108,8 @@ class ChanThreadLoaderCoordinator(
     get() = Dispatchers.IO + job + CoroutineName("ChanThreadLoaderCoordinator")
 
   private val lastFullThreadUpdate = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, Long>(16)
+  @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
+  internal val conditionalRequestValidatorStore = ConditionalRequestValidatorStore()
 
   private val reloadPostsFromDatabaseUseCase by lazy {
     ReloadPostsFromDatabaseUseCase(
@@ -177,6 +188,25 @@ class ChanThreadLoaderCoordinator(
           // fallthrough
         }
 
+        val canUseConditionalRequest = canUseConditionalRequest(
+          compositeCatalogDescriptor = compositeCatalogDescriptor,
+          chanDescriptor = chanDescriptor,
+          chanLoadUrl = chanLoadUrl,
+          chanReadOptions = chanReadOptions,
+          chanLoadOptions = chanLoadOptions,
+          postProcessFlags = postProcessFlags
+        )
+
+        val conditionalRequestValidators = if (canUseConditionalRequest) {
+          conditionalRequestValidatorStore.get(
+            chanDescriptor = chanDescriptor,
+            url = chanLoadUrl.url,
+            cachedPostsCount = getCachedPostsCount(chanDescriptor)
+          )
+        } else {
+          null
+        }
+
         val requestBuilder = Request.Builder()
           .url(chanLoadUrl.url)
           .get()
@@ -185,13 +215,19 @@ class ChanThreadLoaderCoordinator(
           site.requestModifier().modifyCatalogOrThreadGetRequest(
             site = site,
             chanDescriptor = chanDescriptor,
-            requestBuilder = requestBuilder
+            requestBuilder = requestBuilder,
+            conditionalRequestValidators = conditionalRequestValidators
           )
         }
 
         chanLoadProgressNotifier.sendProgressEvent(ChanLoadProgressEvent.Loading(chanDescriptor))
 
+        val siteName = chanDescriptor.siteName()
+        metricsRegistry.increment(MetricsRegistry.LOAD_REQUESTS, siteName)
+
         val reloadFunc: suspend (error: Throwable) -> ThreadLoadResult = func@ { error: Throwable ->
+          metricsRegistry.increment(MetricsRegistry.LOAD_ERRORS, siteName)
+
           return@func fallbackPostLoadOnNetworkError(
             page = page,
             site = site,
@@ -218,81 +254,238 @@ class ChanThreadLoaderCoordinator(
           return@Try reloadFunc(error)
         }
 
+        metricsRegistry.record(MetricsRegistry.LOAD_NETWORK, siteName, requestDuration)
+
+        if (response.code == NOT_MODIFIED_STATUS && conditionalRequestValidators != null) {
+          response.close()
+          metricsRegistry.increment(MetricsRegistry.LOAD_NOT_MODIFIED, siteName)
+
+          if (getCachedPostsCount(chanDescriptor) > 0) {
+            Logger.d(TAG, "loadThreadOrCatalog(chanLoadUrl='${chanLoadUrl}') not modified, " +
+              "request took $requestDuration")
+
+            if (chanDescriptor is ChanDescriptor.ThreadDescriptor) {
+              chanThreadsCache.getThread(chanDescriptor)?.updateLastUpdateTime(chanCacheUpdateOptions)
+            }
+
+            return@Try ThreadLoadResult.NotModified(chanDescriptor)
+          }
+
+          // The cache was cleared while we were waiting for the response so we have nothing to show,
+          // load everything again without the validators.
+          conditionalRequestValidatorStore.remove(chanDescriptor)
+
+          return@Try loadThreadOrCatalog(
+            page = page,
+            site = site,
+            compositeCatalogDescriptor = compositeCatalogDescriptor,
+            chanDescriptor = chanDescriptor,
+            chanCacheOptions = chanCacheOptions,
+            chanCacheUpdateOptions = chanCacheUpdateOptions,
+            chanReadOptions = chanReadOptions,
+            chanLoadOptions = chanLoadOptions,
+            postProcessFlags = postProcessFlags
+          ).unwrap()
+        }
+
         if (!response.isSuccessful) {
           return@Try reloadFunc(BadStatusResponseException(response.code))
         }
 
         chanLoadProgressNotifier.sendProgressEvent(ChanLoadProgressEvent.Reading(chanDescriptor))
 
-        val (chanReaderProcessor, readPostsDuration) = measureTimedValue {
-          val body = response.body
-            ?: throw EmptyBodyResponseException()
-
-          return@measureTimedValue body.byteStream().use { inputStream ->
-            return@use readPostsFromResponse(
-              page = page,
-              chanLoadUrl = chanLoadUrl,
-              responseBodyStream = inputStream,
-              chanDescriptor = chanDescriptor,
-              chanReadOptions = chanReadOptions,
-              chanLoadOptions = chanLoadOptions,
-              chanReaderProcessorOptions = chanReaderProcessorOptions,
-              chanReader = chanReader
-            ).unwrap()
+        val postParser = chanReader.getParser()
+          ?: throw NullPointerException("PostParser cannot be null!")
+
+        // Parse the thread posts as soon as they are read instead of waiting for the whole response to
+        // be read first. Started in our own scope so that parsing errors end up in persistPosts() (which
+        // turns them into ThreadLoadResult.Error) instead of cancelling the caller. Catalogs are parsed
+        // once the whole response is read because an OP may quote another OP that comes later in the
+        // catalog.
+        val postParsePipeline = if (chanDescriptor is ChanDescriptor.ThreadDescriptor) {
+          PostParsePipeline()
+        } else {
+          null
+        }
+
+        val pipelinedParsing = if (postParsePipeline != null) {
+          this@ChanThreadLoaderCoordinator.async(Dispatchers.Default) {
+            parsePostsV1UseCase.parsePostsPipelined(
+              threadDescriptor = chanDescriptor as ChanDescriptor.ThreadDescriptor,
+              postParser = postParser,
+              postParsePipeline = postParsePipeline
+            )
           }
+        } else {
+          null
         }
 
-        Logger.d(TAG, "loadThreadOrCatalog(chanLoadUrl='${chanLoadUrl}') chanReaderProcessor=${chanReaderProcessor}")
+        try {
+          return@Try readAndPersistPosts(
+            page = page,
+            compositeCatalogDescriptor = compositeCatalogDescriptor,
+            chanDescriptor = chanDescriptor,
+            chanCacheOptions = chanCacheOptions,
+            chanCacheUpdateOptions = chanCacheUpdateOptions,
+            chanReadOptions = chanReadOptions,
+            chanLoadOptions = chanLoadOptions,
+            chanLoadUrl = chanLoadUrl,
+            chanReader = chanReader,
+            chanReaderProcessorOptions = chanReaderProcessorOptions,
+            postParser = postParser,
+            postParsePipeline = postParsePipeline,
+            pipelinedParsing = pipelinedParsing,
+            response = response,
+            requestDuration = requestDuration,
+            canUseConditionalRequest = canUseConditionalRequest,
+            isThreadDownloaded = isThreadDownloaded,
+            reloadFunc = reloadFunc
+          )
+        } finally {
+          // No-op when the parsing has already finished
+          pipelinedParsing?.cancel()
+        }
+      }.mapError { error -> ChanLoaderException(error) }
+    }
+  }
 
-        if (chanReaderProcessor.error != null) {
-          val error = chanReaderProcessor.error!!
-          if (error.isNotFoundError()) {
-            return@Try reloadFunc(BadStatusResponseException.notFoundResponse())
-          }
+  @OptIn(ExperimentalTime::class)
+  private suspend fun readAndPersistPosts(
+    page: Int?,
+    compositeCatalogDescriptor: ChanDescriptor.CompositeCatalogDescriptor?,
+    chanDescriptor: ChanDescriptor,
+    chanCacheOptions: ChanCacheOptions,
+    chanCacheUpdateOptions: ChanCacheUpdateOptions,
+    chanReadOptions: ChanReadOptions,
+    chanLoadOptions: ChanLoadOptions,
+    chanLoadUrl: ChanLoadUrl,
+    chanReader: ChanReader,
+    chanReaderProcessorOptions: ChanReaderProcessor.Options,
+    postParser: PostParser,
+    postParsePipeline: PostParsePipeline?,
+    pipelinedParsing: Deferred<ParsePostsV1UseCase.PipelinedParsingResult>?,
+    response: Response,
+    requestDuration: Duration,
+    canUseConditionalRequest: Boolean,
+    isThreadDownloaded: Boolean,
+    reloadFunc: suspend (error: Throwable) -> ThreadLoadResult
+  ): ThreadLoadResult {
+    val (chanReaderProcessor, readPostsDuration) = measureTimedValue {
+      val body = response.body
+        ?: throw EmptyBodyResponseException()
 
-          when (error) {
-            is SiteSpecificError.DvachError -> {
-              throw SiteError(error.errorCode, error.errorMessage)
-            }
-            else -> error("Unknown error: ${error}")
-          }
+      return@measureTimedValue try {
+        body.byteStream().use { inputStream ->
+          return@use readPostsFromResponse(
+            page = page,
+            chanLoadUrl = chanLoadUrl,
+            responseBodyStream = inputStream,
+            chanDescriptor = chanDescriptor,
+            chanReadOptions = chanReadOptions,
+            chanLoadOptions = chanLoadOptions,
+            chanReaderProcessorOptions = chanReaderProcessorOptions,
+            chanReader = chanReader,
+            postParsePipeline = postParsePipeline
+          ).unwrap()
         }
+      } finally {
+        postParsePipeline?.onReadingFinished()
+      }
+    }
 
-        val postParser = chanReader.getParser()
-          ?: throw NullPointerException("PostParser cannot be null!")
+    Logger.d(TAG, "loadThreadOrCatalog(chanLoadUrl='${chanLoadUrl}') chanReaderProcessor=${chanReaderProcessor}")
 
-        val (threadLoadResult, loadTimeInfo) = chanPostPersister.persistPosts(
-          compositeCatalogDescriptor = compositeCatalogDescriptor,
-          chanDescriptor = chanDescriptor,
-          chanReaderProcessor = chanReaderProcessor,
-          cacheOptions = chanCacheOptions,
-          chanCacheUpdateOptions = chanCacheUpdateOptions,
-          postParser = postParser,
-        )
+    if (chanReaderProcessor.error != null) {
+      val error = chanReaderProcessor.error!!
+      if (error.isNotFoundError()) {
+        return reloadFunc(BadStatusResponseException.notFoundResponse())
+      }
 
-        if (chanDescriptor is ChanDescriptor.ThreadDescriptor) {
-          chanPostRepository.updateThreadState(
-            threadDescriptor = chanDescriptor,
-            deleted = chanReaderProcessor.deleted && !isThreadDownloaded,
-            archived = chanReaderProcessor.archived || isThreadDownloaded,
-            closed = chanReaderProcessor.closed
-          )
+      when (error) {
+        is SiteSpecificError.DvachError -> {
+          throw SiteError(error.errorCode, error.errorMessage)
         }
+        else -> error("Unknown error: ${error}")
+      }
+    }
 
-        loadRequestStatistics(
-          url = chanLoadUrl.url,
-          chanDescriptor = chanDescriptor,
-          loadTimeInfo = loadTimeInfo,
-          requestDuration = requestDuration,
-          readPostsDuration = readPostsDuration
-        )
-        return@Try threadLoadResult
-      }.mapError { error -> ChanLoaderException(error) }
+    val (threadLoadResult, loadTimeInfo) = chanPostPersister.persistPosts(
+      compositeCatalogDescriptor = compositeCatalogDescriptor,
+      chanDescriptor = chanDescriptor,
+      chanReaderProcessor = chanReaderProcessor,
+      cacheOptions = chanCacheOptions,
+      chanCacheUpdateOptions = chanCacheUpdateOptions,
+      postParser = postParser,
+      pipelinedParsing = pipelinedParsing
+    )
+
+    if (chanDescriptor is ChanDescriptor.ThreadDescriptor) {
+      chanPostRepository.updateThreadState(
+        threadDescriptor = chanDescriptor,
+        deleted = chanReaderProcessor.deleted && !isThreadDownloaded,
+        archived = chanReaderProcessor.archived || isThreadDownloaded,
+        closed = chanReaderProcessor.closed
+      )
+    }
+
+    if (canUseConditionalRequest && threadLoadResult is ThreadLoadResult.Loaded) {
+      conditionalRequestValidatorStore.put(
+        chanDescriptor = chanDescriptor,
+        url = chanLoadUrl.url,
+        cachedPostsCount = getCachedPostsCount(chanDescriptor),
+        validators = ConditionalRequestValidators.fromResponse(response)
+      )
+    } else {
+      conditionalRequestValidatorStore.remove(chanDescriptor)
+    }
+
+    reportLoadStatistics(
+      url = chanLoadUrl.url,
+      chanDescriptor = chanDescriptor,
+      loadTimeInfo = loadTimeInfo,
+      requestDuration = requestDuration,
+      readPostsDuration = readPostsDuration
+    )
+    return threadLoadResult
+  }
+
+  /**
+   * A "304 Not Modified" response means that we will use whatever is in the memory cache, so we can
+   * only send conditional requests when a regular load would have resulted in the same cache contents.
+   * */
+  private fun canUseConditionalRequest(
+    compositeCatalogDescriptor: ChanDescriptor.CompositeCatalogDescriptor?,
+    chanDescriptor: ChanDescriptor,
+    chanLoadUrl: ChanLoadUrl,
+    chanReadOptions: ChanReadOptions,
+    chanLoadOptions: ChanLoadOptions,
+    postProcessFlags: PostProcessFlags?
+  ): Boolean {
+    if (compositeCatalogDescriptor != null || postProcessFlags != null || chanLoadUrl.page != null) {
+      return false
+    }
+
+    if (chanLoadOptions.chanLoadOption !is ChanLoadOption.RetainAll) {
+      return false
+    }
+
+    if (chanReadOptions != ChanReadOptions.default()) {
+      return false
+    }
+
+    return chanDescriptor is ChanDescriptor.ThreadDescriptor
+      || chanDescriptor is ChanDescriptor.CatalogDescriptor
+  }
+
+  private fun getCachedPostsCount(chanDescriptor: ChanDescriptor): Int {
+    return when (chanDescriptor) {
+      is ChanDescriptor.ThreadDescriptor -> chanThreadsCache.getThreadPostsCount(chanDescriptor)
+      is ChanDescriptor.ICatalogDescriptor -> chanThreadsCache.getCatalog(chanDescriptor)?.postsCount() ?: 0
     }
   }
 
   @OptIn(ExperimentalTime::class)
-  private suspend fun loadRequestStatistics(
+  private fun reportLoadStatistics(
     url: HttpUrl,
     chanDescriptor: ChanDescriptor,
     loadTimeInfo: ChanPostPersister.LoadTimeInfo?,
@@ -303,22 +496,22 @@ class ChanThreadLoaderCoordinator(
       return
     }
 
+    val siteName = chanDescriptor.siteName()
     val storeDuration = loadTimeInfo.storeDuration
-    val storedPostsCount = loadTimeInfo.storedPostsCount
     val filterProcessingDuration = loadTimeInfo.filterProcessingDuration
-    val filtersCount = loadTimeInfo.filtersCount
     val parsingDuration = loadTimeInfo.parsingDuration
-    val parsedPostsCount = loadTimeInfo.parsedPostsCount
-    val postsInChanReaderProcessor = loadTimeInfo.postsInChanReaderProcessor
+    val fullLocalDuration = readPostsDuration + storeDuration + parsingDuration + filterProcessingDuration
 
-    val cachedPostsCount = chanPostRepository.getTotalCachedPostsCount()
-    val cachedThreadsCount = chanPostRepository.getTotalCachedThreadCount()
-    val threadsWithMoreThanOnePostCount = chanPostRepository.getThreadsWithMoreThanOnePostCount()
+    metricsRegistry.record(MetricsRegistry.LOAD_READ_JSON, siteName, readPostsDuration)
+    metricsRegistry.record(MetricsRegistry.LOAD_PARSE, siteName, parsingDuration)
+    metricsRegistry.record(MetricsRegistry.LOAD_FILTER, siteName, filterProcessingDuration)
+    metricsRegistry.record(MetricsRegistry.LOAD_STORE, siteName, storeDuration)
+    metricsRegistry.record(MetricsRegistry.LOAD_LOCAL_TOTAL, siteName, fullLocalDuration)
+    metricsRegistry.increment(MetricsRegistry.LOAD_PARSED_POSTS, siteName, loadTimeInfo.parsedPostsCount.toLong())
+    metricsRegistry.increment(MetricsRegistry.LOAD_STORED_POSTS, siteName, loadTimeInfo.storedPostsCount.toLong())
 
-    val currentThreadCachedPostsCount = if (chanDescriptor is ChanDescriptor.ThreadDescriptor) {
-      chanPostRepository.getThreadCachedPostsCount(chanDescriptor)
-    } else {
-      null
+    if (!ChanSettings.verboseLogs.get()) {
+      return
     }
 
     val logString = buildString {
@@ -326,22 +519,11 @@ class ChanThreadLoaderCoordinator(
       appendLine("url = $url.")
       appendLine("Network request execution took $requestDuration.")
       appendLine("Json reading took $readPostsDuration.")
-      appendLine("Store new posts took $storeDuration (stored $storedPostsCount posts).")
-      appendLine("Parse posts took $parsingDuration (parsed $parsedPostsCount out of $postsInChanReaderProcessor posts).")
-      appendLine("Filter processing took $filterProcessingDuration (filers count: $filtersCount).")
-      appendLine("Total in-memory cached posts count: $cachedPostsCount/${appConstants.maxPostsCountInPostsCache}.")
-
-      if (currentThreadCachedPostsCount != null) {
-        appendLine("Current thread cached posts count: $currentThreadCachedPostsCount")
-      }
-
-      val isLowRamDevice = ChanSettings.isLowRamDevice()
-
-      appendLine("Threads with more than one post " +
-        "count: ($threadsWithMoreThanOnePostCount/${ChanThreadsCache.immuneThreadsCount(isLowRamDevice)}), " +
-        "total cached threads count: ${cachedThreadsCount}.")
-
-      val fullLocalDuration = readPostsDuration + storeDuration + parsingDuration + filterProcessingDuration
+      appendLine("Store new posts took $storeDuration (stored ${loadTimeInfo.storedPostsCount} posts).")
+      appendLine("Parse posts took $parsingDuration (parsed ${loadTimeInfo.parsedPostsCount} " +
+        "out of ${loadTimeInfo.postsInChanReaderProcessor} posts).")
+      appendLine("Filter processing took $filterProcessingDuration (filers count: ${loadTimeInfo.filtersCount}).")
+      appendLine("Cached posts count of this ${chanDescriptor.javaClass.simpleName}: ${getCachedPostsCount(chanDescriptor)}.")
       appendLine("Total local processing time: $fullLocalDuration")
     }
 
@@ -585,7 +767,8 @@ class ChanThreadLoaderCoordinator(
     chanReadOptions: ChanReadOptions,
     chanLoadOptions: ChanLoadOptions,
     chanReaderProcessorOptions: ChanReaderProcessor.Options,
-    chanReader: ChanReader
+    chanReader: ChanReader,
+    postParsePipeline: PostParsePipeline? = null
   ): ModularResult<ChanReaderProcessor> {
     BackgroundUtils.ensureBackgroundThread()
 
@@ -596,7 +779,8 @@ class ChanThreadLoaderCoordinator(
         chanReadOptions = chanReadOptions,
         chanLoadOptions = chanLoadOptions,
         options = chanReaderProcessorOptions,
-        chanDescriptor = chanDescriptor
+        chanDescriptor = chanDescriptor,
+        postParsePipeline = postParsePipeline
       )
 
       when (chanDescriptor) {
@@ -734,6 +918,7 @@ class ChanThreadLoaderCoordinator(
 
   companion object {
     private const val TAG = "ChanThreadLoaderCoordinator"
+    private const val NOT_MODIFIED_STATUS = 304
     private val THREE_MINUTES = TimeUnit.MINUTES.toMillis(3)
     private val ONE_MINUTE = TimeUnit.MINUTES.toMillis(1)
   }
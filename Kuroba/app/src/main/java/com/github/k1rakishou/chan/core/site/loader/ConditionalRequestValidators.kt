@@ -0,0 +1,47 @@
+package com.github.k1rakishou.chan.core.site.loader
+
+import okhttp3.Request
+import okhttp3.Response
+
+/**
+ * Cache validators (ETag / Last-Modified) of the last successfully loaded thread or catalog json.
+ * Sent back to the server with the next request of the same url so that the server can reply with
+ * "304 Not Modified" instead of sending the whole json again.
+ * */
+data class ConditionalRequestValidators(
+  val eTag: String?,
+  val lastModified: String?
+) {
+
+  fun isEmpty(): Boolean = eTag.isNullOrEmpty() && lastModified.isNullOrEmpty()
+
+  fun applyTo(requestBuilder: Request.Builder) {
+    if (!eTag.isNullOrEmpty()) {
+      requestBuilder.header(IF_NONE_MATCH_HEADER, eTag)
+    }
+
+    if (!lastModified.isNullOrEmpty()) {
+      requestBuilder.header(IF_MODIFIED_SINCE_HEADER, lastModified)
+    }
+  }
+
+  companion object {
+    private const val ETAG_HEADER = "ETag"
+    private const val LAST_MODIFIED_HEADER = "Last-Modified"
+    private const val IF_NONE_MATCH_HEADER = "If-None-Match"
+    private const val IF_MODIFIED_SINCE_HEADER = "If-Modified-Since"
+
+    fun fromResponse(response: Response): ConditionalRequestValidators? {
+      val validators = ConditionalRequestValidators(
+        eTag = response.header(ETAG_HEADER),
+        lastModified = response.header(LAST_MODIFIED_HEADER)
+      )
+
+      if (validators.isEmpty()) {
+        return null
+      }
+
+      return validators
+    }
+  }
+}
@@ -5,17 +5,27 @@ import com.github.k1rakishou.common.errorMessageOrClassName
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 
 sealed class ThreadLoadResult {
+  abstract val chanDescriptor: ChanDescriptor
+
   data class Error(
-    val chanDescriptor: ChanDescriptor,
+    override val chanDescriptor: ChanDescriptor,
     val exception: ChanLoaderException
   ) : ThreadLoadResult() {
     override fun toString(): String = "ThreadLoadResult.Error{exception=${exception.errorMessageOrClassName()}}"
   }
 
-  data class Loaded(val chanDescriptor: ChanDescriptor) : ThreadLoadResult() {
+  data class Loaded(override val chanDescriptor: ChanDescriptor) : ThreadLoadResult() {
     override fun toString(): String = "ThreadLoadResult.Loaded{chanDescriptor=${chanDescriptor}}"
   }
 
+  /**
+   * The server replied with "304 Not Modified" so the thread/catalog in the cache is still up to date
+   * and nothing was read, parsed or persisted.
+   * */
+  data class NotModified(override val chanDescriptor: ChanDescriptor) : ThreadLoadResult() {
+    override fun toString(): String = "ThreadLoadResult.NotModified{chanDescriptor=${chanDescriptor}}"
+  }
+
   companion object {
     fun fromModularResult(chanDescriptor: ChanDescriptor, modularResult: ModularResult<*>): ThreadLoadResult {
       return when (modularResult) {
@@ -20,6 +20,7 @@ import com.github.k1rakishou.model.data.options.ChanCacheUpdateOptions
 import com.github.k1rakishou.model.repository.ChanCatalogSnapshotRepository
 import com.github.k1rakishou.model.repository.ChanPostRepository
 import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache
+import kotlinx.coroutines.Deferred
 import kotlin.time.Duration
 import kotlin.time.ExperimentalTime
 import kotlin.time.measureTimedValue
@@ -42,6 +43,7 @@ internal class ChanPostPersister(
     cacheOptions: ChanCacheOptions,
     chanCacheUpdateOptions: ChanCacheUpdateOptions,
     postParser: PostParser,
+    pipelinedParsing: Deferred<ParsePostsV1UseCase.PipelinedParsingResult>? = null
   ): ThreadResultWithTimeInfo {
     return Try {
       BackgroundUtils.ensureBackgroundThread()
@@ -79,11 +81,20 @@ internal class ChanPostPersister(
         }
       }
 
-      val parsingResult = parsePostsV1UseCase.parseNewPostsPosts(
-        chanDescriptor = chanDescriptor,
-        postParser = postParser,
-        postBuildersToParse = chanReaderProcessor.getToParse()
-      )
+      val parsingResult = if (pipelinedParsing != null) {
+        // The posts were being parsed while the response was still being read
+        parsePostsV1UseCase.awaitPipelinedParsing(
+          chanDescriptor = chanDescriptor,
+          pipelinedParsing = pipelinedParsing,
+          postBuildersToParse = chanReaderProcessor.getToParse()
+        )
+      } else {
+        parsePostsV1UseCase.parseNewPostsPosts(
+          chanDescriptor = chanDescriptor,
+          postParser = postParser,
+          postBuildersToParse = chanReaderProcessor.getToParse()
+        )
+      }
 
       chanLoadProgressNotifier.sendProgressEvent(
         ChanLoadProgressEvent.PersistingPosts(chanDescriptor, parsingResult.parsedPosts.size)
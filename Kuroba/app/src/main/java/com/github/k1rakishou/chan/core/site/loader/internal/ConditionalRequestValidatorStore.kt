@@ -0,0 +1,71 @@
+package com.github.k1rakishou.chan.core.site.loader.internal
+
+import androidx.annotation.GuardedBy
+import com.github.k1rakishou.chan.core.site.loader.ConditionalRequestValidators
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import okhttp3.HttpUrl
+
+/**
+ * Remembers [ConditionalRequestValidators] of the last successful load of every thread/catalog.
+ * Validators are bound to the url they were received with since incremental and full thread loads
+ * (or different catalog pages) use different urls. The amount of posts that were in the memory cache
+ * when the validators were stored is remembered as well, validators are not returned once the cache
+ * has lost some of those posts (e.g. after the thread was evicted) because "304 Not Modified" would
+ * then leave us with nothing to show. Only the most recently used descriptors are kept.
+ * */
+internal class ConditionalRequestValidatorStore(
+  private val maxSize: Int = DEFAULT_MAX_SIZE
+) {
+  @GuardedBy("this")
+  private val validatorsMap = object : LinkedHashMap<ChanDescriptor, StoredValidators>(16, 0.75f, true) {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<ChanDescriptor, StoredValidators>?): Boolean {
+      return size > maxSize
+    }
+  }
+
+  @Synchronized
+  fun get(
+    chanDescriptor: ChanDescriptor,
+    url: HttpUrl,
+    cachedPostsCount: Int
+  ): ConditionalRequestValidators? {
+    val storedValidators = validatorsMap[chanDescriptor]
+      ?: return null
+
+    if (storedValidators.url != url || cachedPostsCount < storedValidators.cachedPostsCount) {
+      return null
+    }
+
+    return storedValidators.validators
+  }
+
+  @Synchronized
+  fun put(
+    chanDescriptor: ChanDescriptor,
+    url: HttpUrl,
+    cachedPostsCount: Int,
+    validators: ConditionalRequestValidators?
+  ) {
+    if (validators == null || validators.isEmpty() || cachedPostsCount <= 0) {
+      validatorsMap.remove(chanDescriptor)
+      return
+    }
+
+    validatorsMap[chanDescriptor] = StoredValidators(url, cachedPostsCount, validators)
+  }
+
+  @Synchronized
+  fun remove(chanDescriptor: ChanDescriptor) {
+    validatorsMap.remove(chanDescriptor)
+  }
+
+  private class StoredValidators(
+    val url: HttpUrl,
+    val cachedPostsCount: Int,
+    val validators: ConditionalRequestValidators
+  )
+
+  companion object {
+    private const val DEFAULT_MAX_SIZE = 128
+  }
+}
@@ -1,14 +1,16 @@
 package com.github.k1rakishou.chan.core.site.loader.internal.usecase
 
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressNotifier
+import com.github.k1rakishou.chan.core.helper.CompiledFilterSet
 import com.github.k1rakishou.chan.core.helper.FilterEngine
 import com.github.k1rakishou.chan.core.manager.BoardManager
 import com.github.k1rakishou.chan.core.manager.PostFilterManager
 import com.github.k1rakishou.chan.core.manager.SavedReplyManager
 import com.github.k1rakishou.chan.core.site.parser.PostParser
 import com.github.k1rakishou.chan.utils.BackgroundUtils
-import com.github.k1rakishou.common.processDataCollectionConcurrently
+import com.github.k1rakishou.common.parallelMapOrdered
 import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.filter.ChanFilter
 import com.github.k1rakishou.model.data.filter.FilterAction
@@ -42,34 +44,44 @@ abstract class AbstractParsePostsUseCase(
       return
     }
 
-    processDataCollectionConcurrently(postBuildersToParse, THREAD_COUNT * 2, Dispatchers.IO) { postToParse ->
+    parallelMapOrdered(postBuildersToParse, THREAD_COUNT, Dispatchers.Default) { postToParse ->
       // needed for "Apply to own posts" to work correctly
       postToParse.isSavedReply(savedReplyManager.isSaved(postToParse.postDescriptor))
     }
   }
 
   protected suspend fun processFilters(
+    boardDescriptor: BoardDescriptor,
     postBuildersToParse: List<ChanPostBuilder>,
     filters: List<ChanFilter>
   ) {
-    if (postBuildersToParse.isEmpty() || filters.isEmpty()) {
+    if (postBuildersToParse.isEmpty()) {
       return
     }
 
-    processDataCollectionConcurrently(postBuildersToParse, THREAD_COUNT * 2, Dispatchers.IO) { postToParse ->
-      if (filters.isNotEmpty()) {
-        processFilters(postToParse, filters)
-      }
+    val compiledFilterSet = compileFilters(boardDescriptor, filters)
+      ?: return
+
+    parallelMapOrdered(postBuildersToParse, THREAD_COUNT, Dispatchers.Default) { postToParse ->
+      processFilters(postToParse, compiledFilterSet)
+    }
+
+    if (verboseLogsEnabled) {
+      Logger.d(TAG, "postParsingProcessFiltersStage() ${filterEngine.patternRegistryStats()}")
+    }
+  }
 
-      return@processDataCollectionConcurrently
+  protected fun compileFilters(boardDescriptor: BoardDescriptor, filters: List<ChanFilter>): CompiledFilterSet? {
+    // Do not auto create watch filters, this may end up pretty bad
+    val nonWatchFilters = filters.filter { filter -> !filter.isWatchFilter() }
+    if (nonWatchFilters.isEmpty()) {
+      return null
     }
 
-    Logger.d(TAG, "postParsingProcessFiltersStage() " +
-      "cacheHits=${filterEngine.currentCacheHits()}, " +
-      "cacheMisses=${filterEngine.currentCacheMisses()}")
+    return filterEngine.getOrCompileFilterSet(boardDescriptor, nonWatchFilters)
   }
 
-  private fun processFilters(postToParse: ChanPostBuilder, filters: List<ChanFilter>) {
+  protected fun processFilters(postToParse: ChanPostBuilder, compiledFilterSet: CompiledFilterSet) {
     // Process the filters before finish, because parsing the html is dependent on filter matches
     val postDescriptor = postToParse.postDescriptor
 
@@ -86,19 +98,15 @@ abstract class AbstractParsePostsUseCase(
       return
     }
 
-    for (filter in filters) {
-      if (filter.isWatchFilter()) {
-        // Do not auto create watch filters, this may end up pretty bad
-        continue
-      }
-
-      if (filterEngine.matches(filter, postToParse)) {
-        postFilterManager.insert(postDescriptor, createPostFilter(filter))
-        return
-      }
-
-      postFilterManager.remove(postDescriptor)
+    // Filters are sorted so the first matched filter is the one that gets applied
+    val firstMatchedFilterIndex = compiledFilterSet.findMatchingFilters(postToParse).nextSetBit(0)
+    if (firstMatchedFilterIndex >= 0) {
+      val filter = compiledFilterSet.filters[firstMatchedFilterIndex]
+      postFilterManager.insert(postDescriptor, createPostFilter(filter))
+      return
     }
+
+    postFilterManager.remove(postDescriptor)
   }
 
   @Suppress("WHEN_ENUM_CAN_BE_NULL_IN_JAVA")
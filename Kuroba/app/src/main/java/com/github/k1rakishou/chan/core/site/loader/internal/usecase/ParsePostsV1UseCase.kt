@@ -8,14 +8,23 @@ import com.github.k1rakishou.chan.core.manager.PostFilterManager
 import com.github.k1rakishou.chan.core.manager.SavedReplyManager
 import com.github.k1rakishou.chan.core.site.parser.PostParseWorker
 import com.github.k1rakishou.chan.core.site.parser.PostParser
+import com.github.k1rakishou.chan.core.site.parser.processor.PostParsePipeline
 import com.github.k1rakishou.chan.utils.BackgroundUtils
-import com.github.k1rakishou.common.processDataCollectionConcurrently
+import com.github.k1rakishou.common.parallelMapOrdered
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.data.post.ChanPostBuilder
 import com.github.k1rakishou.model.repository.ChanPostRepository
+import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
 import kotlin.time.Duration
+import kotlin.time.Duration.Companion.nanoseconds
 import kotlin.time.ExperimentalTime
 import kotlin.time.measureTime
 import kotlin.time.measureTimedValue
@@ -61,19 +70,20 @@ class ParsePostsV1UseCase(
     )
 
     val (parsedPosts, parsingDuration) = measureTimedValue {
-      return@measureTimedValue processDataCollectionConcurrently(
+      // PostParseWorker handles (and logs) its own errors and returns null for posts that failed to parse
+      return@measureTimedValue parallelMapOrdered(
         dataList = postBuildersToParse,
-        batchCount = THREAD_COUNT * 2,
-        dispatcher = Dispatchers.IO
+        parallelism = THREAD_COUNT,
+        dispatcher = Dispatchers.Default
       ) { postToParse ->
-        return@processDataCollectionConcurrently PostParseWorker(
+        return@parallelMapOrdered PostParseWorker(
           savedReplyManager = savedReplyManager,
           postBuilder = postToParse,
           postParser = postParser,
-          internalIds = internalIds,
+          isInternalPost = { postNo -> internalIds.contains(postNo) },
           isParsingCatalog = chanDescriptor is ChanDescriptor.ICatalogDescriptor
         ).parse()
-      }
+      }.filterNotNull()
     }
 
     Logger.d(TAG, "parseNewPostsPosts(chanDescriptor=$chanDescriptor) -> parsedPosts=${parsedPosts.size}")
@@ -85,7 +95,7 @@ class ParsePostsV1UseCase(
     )
 
     val filterProcessingDuration = measureTime {
-      processFilters(postBuildersToParse, filters)
+      processFilters(chanDescriptor.boardDescriptor(), postBuildersToParse, filters)
     }
 
     Logger.d(TAG, "parseNewPostsPosts(chanDescriptor=$chanDescriptor, " +
@@ -101,6 +111,112 @@ class ParsePostsV1UseCase(
     )
   }
 
+  /**
+   * Parses the thread posts while they are still being read from the response (see [PostParsePipeline]).
+   * Every post goes through the same steps as in [parseNewPostsPosts] (saved replies, comment, filters)
+   * but one post at a time, as soon as it is read. Returns once the reader is done and every read post
+   * is parsed, use [awaitPipelinedParsing] to get the [ParsingResult] once the reader is done.
+   *
+   * Only usable for threads. Catalog OPs may quote OPs that come later in the catalog so catalogs must
+   * be parsed with [parseNewPostsPosts] once all of their posts are read.
+   * */
+  @OptIn(ExperimentalTime::class)
+  suspend fun parsePostsPipelined(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    postParser: PostParser,
+    postParsePipeline: PostParsePipeline
+  ): PipelinedParsingResult {
+    BackgroundUtils.ensureBackgroundThread()
+
+    chanPostRepository.awaitUntilInitialized()
+    boardManager.awaitUntilInitialized()
+
+    val cachedPostNos = chanPostRepository.getCachedThreadPostsNos(threadDescriptor)
+    val filters = loadFilters(threadDescriptor)
+    val compiledFilterSet = compileFilters(threadDescriptor.boardDescriptor(), filters)
+
+    val parsedPosts = ConcurrentHashMap<PostDescriptor, ChanPost>()
+    val filterProcessingNanos = AtomicLong(0)
+
+    coroutineScope {
+      repeat(THREAD_COUNT) {
+        launch(Dispatchers.Default) {
+          for (postToParse in postParsePipeline.postsToParse) {
+            // needed for "Apply to own posts" to work correctly
+            postToParse.isSavedReply(savedReplyManager.isSaved(postToParse.postDescriptor))
+
+            // PostParseWorker handles (and logs) its own errors and returns null for posts that failed to parse
+            val chanPost = PostParseWorker(
+              savedReplyManager = savedReplyManager,
+              postBuilder = postToParse,
+              postParser = postParser,
+              isInternalPost = { postNo -> postParsePipeline.isPostRead(postNo) || cachedPostNos.contains(postNo) },
+              isParsingCatalog = false
+            ).parse()
+
+            if (chanPost != null) {
+              parsedPosts[postToParse.postDescriptor] = chanPost
+            }
+
+            if (compiledFilterSet != null) {
+              val start = System.nanoTime()
+              processFilters(postToParse, compiledFilterSet)
+              filterProcessingNanos.addAndGet(System.nanoTime() - start)
+            }
+          }
+        }
+      }
+    }
+
+    return PipelinedParsingResult(
+      parsedPosts = parsedPosts,
+      filtersCount = filters.size,
+      filterProcessingTime = filterProcessingNanos.get().nanoseconds
+    )
+  }
+
+  /**
+   * Waits for [parsePostsPipelined] to process the rest of the posts. The reader may drop some of the
+   * posts it has already handed over to the pipeline (see ChanReaderProcessor.applyChanReadOptions())
+   * so only the posts from [postBuildersToParse] make it into the result (in the same order).
+   *
+   * [ParsingResult.parsingTime] is the time we had to wait for the parsing to finish after the reader
+   * was done, which is what is left of the parsing time with the pipeline.
+   * */
+  @OptIn(ExperimentalTime::class)
+  suspend fun awaitPipelinedParsing(
+    chanDescriptor: ChanDescriptor,
+    pipelinedParsing: Deferred<PipelinedParsingResult>,
+    postBuildersToParse: List<ChanPostBuilder>
+  ): ParsingResult {
+    chanLoadProgressNotifier.sendProgressEvent(
+      ChanLoadProgressEvent.ParsingPosts(chanDescriptor, postBuildersToParse.size)
+    )
+
+    val (pipelinedParsingResult, waitDuration) = measureTimedValue { pipelinedParsing.await() }
+
+    val parsedPosts = postBuildersToParse.mapNotNull { postBuilder ->
+      pipelinedParsingResult.parsedPosts[postBuilder.postDescriptor]
+    }
+
+    Logger.d(TAG, "awaitPipelinedParsing(chanDescriptor=$chanDescriptor) -> " +
+      "parsedPosts=${parsedPosts.size}, pipelineParsedPosts=${pipelinedParsingResult.parsedPosts.size}, " +
+      "filters=${pipelinedParsingResult.filtersCount}, waited for $waitDuration")
+
+    return ParsingResult(
+      parsedPosts = parsedPosts,
+      filterProcessionTime = pipelinedParsingResult.filterProcessingTime,
+      filtersCount = pipelinedParsingResult.filtersCount,
+      parsingTime = waitDuration
+    )
+  }
+
+  class PipelinedParsingResult @OptIn(ExperimentalTime::class) constructor(
+    val parsedPosts: Map<PostDescriptor, ChanPost>,
+    val filtersCount: Int,
+    val filterProcessingTime: Duration
+  )
+
   companion object {
     private const val TAG = "ParsePostsUseCase"
   }
@@ -29,7 +29,7 @@ internal class PostParseWorker(
   private val savedReplyManager: SavedReplyManager,
   private val postBuilder: ChanPostBuilder,
   private val postParser: PostParser,
-  private val internalIds: Set<Long>,
+  private val isInternalPost: (Long) -> Boolean,
   private val isParsingCatalog: Boolean
 ) {
 
@@ -41,7 +41,7 @@ internal class PostParseWorker(
         }
 
         override fun isInternal(postNo: Long): Boolean {
-          return internalIds.contains(postNo)
+          return isInternalPost(postNo)
         }
 
         override fun isParsingCatalogPosts(): Boolean {
@@ -16,6 +16,7 @@
  */
 package com.github.k1rakishou.chan.core.site.parser.processor
 
+import com.github.k1rakishou.common.MurmurHashUtils
 import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.common.removeIfKt
 import com.github.k1rakishou.core_logger.Logger
@@ -35,10 +36,13 @@ class ChanReaderProcessor(
   private val chanReadOptions: ChanReadOptions,
   private val chanLoadOptions: ChanLoadOptions,
   private val options: Options,
-  override val chanDescriptor: ChanDescriptor
+  override val chanDescriptor: ChanDescriptor,
+  private val postParsePipeline: PostParsePipeline? = null
 ) : AbstractChanReaderProcessor() {
   private val toParse = mutableListWithCap<ChanPostBuilder>(64)
   private val postOrderedList = mutableListWithCap<PostDescriptor>(64)
+  // Only filled when downloading a thread, persisted along with the posts
+  private val postHashes = mutableMapOf<PostDescriptor, MurmurHashUtils.Murmur3Hash>()
 
   override val canUseEmptyBoardIfBoardDoesNotExist: Boolean
     get() = false
@@ -66,25 +70,23 @@ class ChanReaderProcessor(
   }
 
   override suspend fun addPost(postBuilder: ChanPostBuilder) {
-    lock.withLock {
-      if (differsFromCached(postBuilder)) {
-        toParse.add(postBuilder)
-      }
-
-      postOrderedList.add(postBuilder.postDescriptor)
-    }
+    lock.withLock { addPostInternal(postBuilder) }
   }
 
   override suspend fun addManyPosts(postBuilders: List<ChanPostBuilder>) {
     lock.withLock {
-      postBuilders.forEach { postBuilder ->
-        if (differsFromCached(postBuilder)) {
-          toParse.add(postBuilder)
-        }
+      postBuilders.forEach { postBuilder -> addPostInternal(postBuilder) }
+    }
+  }
 
-        postOrderedList.add(postBuilder.postDescriptor)
-      }
+  private fun addPostInternal(postBuilder: ChanPostBuilder) {
+    val needsParsing = differsFromCached(postBuilder)
+    if (needsParsing) {
+      toParse.add(postBuilder)
     }
+
+    postOrderedList.add(postBuilder.postDescriptor)
+    postParsePipeline?.onPostRead(postBuilder, needsParsing)
   }
 
   override suspend fun applyChanReadOptions() {
@@ -128,6 +130,10 @@ class ChanReaderProcessor(
     return lock.withLock { toParse }
   }
 
+  suspend fun getPostHashes(): Map<PostDescriptor, MurmurHashUtils.Murmur3Hash> {
+    return lock.withLock { postHashes.toMap() }
+  }
+
   override suspend fun getThreadDescriptors(): List<ChanDescriptor.ThreadDescriptor> {
     return lock.withLock {
       return@withLock toParse
@@ -145,12 +151,15 @@ class ChanReaderProcessor(
       return true
     }
 
-    if (builder.op) {
-      // Always update original post
+    if (options.isDownloadingThread) {
+      // The hash has to be calculated here, before the builder is parsed, because parsing modifies the
+      // builder's comment/name/subject.
+      postHashes[builder.postDescriptor] = builder.getPostHash
       return true
     }
 
-    if (options.isDownloadingThread) {
+    if (builder.op) {
+      // Always update original post
       return true
     }
 
@@ -0,0 +1,42 @@
+package com.github.k1rakishou.chan.core.site.parser.processor
+
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ReceiveChannel
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Hands the posts over from [ChanReaderProcessor] to the parse workers (see
+ * ParsePostsV1UseCase.parsePostsPipelined()) as soon as they are read from the response so that reading
+ * the json and parsing the post comments overlap instead of running one after another.
+ *
+ * The readers add posts in the order the server returns them and a thread post can only quote the posts
+ * that were made before it, so by the time a post is parsed every post it may quote is already in
+ * [readPostNos] (or in the cache). This doesn't hold for catalogs (they are sorted by bump order) so
+ * the pipeline is only used for threads.
+ * */
+class PostParsePipeline {
+  private val _postsToParse = Channel<ChanPostBuilder>(Channel.UNLIMITED)
+  private val readPostNos: MutableSet<Long> = ConcurrentHashMap.newKeySet()
+
+  val postsToParse: ReceiveChannel<ChanPostBuilder>
+    get() = _postsToParse
+
+  fun onPostRead(postBuilder: ChanPostBuilder, needsParsing: Boolean) {
+    readPostNos += postBuilder.id
+
+    if (needsParsing) {
+      _postsToParse.trySend(postBuilder)
+    }
+  }
+
+  /**
+   * Must always be called once the reader is done (even if it has failed) otherwise the parse workers
+   * will wait for more posts forever.
+   * */
+  fun onReadingFinished() {
+    _postsToParse.close()
+  }
+
+  fun isPostRead(postNo: Long): Boolean = readPostNos.contains(postNo)
+}
@@ -227,6 +227,13 @@ open class Chan4 : SiteBase() {
         .build()
     }
 
+    override fun threadsLastModified(boardDescriptor: BoardDescriptor): HttpUrl {
+      return a.newBuilder()
+        .addPathSegment(boardDescriptor.boardCode)
+        .addPathSegment("threads.json")
+        .build()
+    }
+
     override fun reply(chanDescriptor: ChanDescriptor): HttpUrl {
       return getSysEndpoint(chanDescriptor.boardDescriptor())
         .newBuilder()
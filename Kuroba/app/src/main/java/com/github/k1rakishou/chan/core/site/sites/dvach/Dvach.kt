@@ -29,6 +29,7 @@ import com.github.k1rakishou.chan.core.site.limitations.PasscodeDependantAttacha
 import com.github.k1rakishou.chan.core.site.limitations.PasscodeDependantMaxAttachablesTotalSize
 import com.github.k1rakishou.chan.core.site.limitations.PasscodePostingLimitationsInfo
 import com.github.k1rakishou.chan.core.site.limitations.SitePostingLimitation
+import com.github.k1rakishou.chan.core.site.loader.ConditionalRequestValidators
 import com.github.k1rakishou.chan.core.site.parser.CommentParser
 import com.github.k1rakishou.chan.core.site.parser.CommentParserType
 import com.github.k1rakishou.chan.core.site.sites.archive.NativeArchivePostList
@@ -406,9 +407,10 @@ class Dvach : CommonSite() {
     override fun modifyCatalogOrThreadGetRequest(
       site: Dvach,
       chanDescriptor: ChanDescriptor,
-      requestBuilder: Request.Builder
+      requestBuilder: Request.Builder,
+      conditionalRequestValidators: ConditionalRequestValidators?
     ) {
-      super.modifyCatalogOrThreadGetRequest(site, chanDescriptor, requestBuilder)
+      super.modifyCatalogOrThreadGetRequest(site, chanDescriptor, requestBuilder, conditionalRequestValidators)
 
       addAntiSpamCookie(requestBuilder)
       addUserCodeCookie(site, requestBuilder)
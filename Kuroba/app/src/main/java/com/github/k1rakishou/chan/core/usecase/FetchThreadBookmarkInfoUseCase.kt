@@ -1,14 +1,17 @@
 package com.github.k1rakishou.chan.core.usecase
 
 import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient
+import com.github.k1rakishou.chan.core.helper.BoardThreadsLastModifiedPoller
 import com.github.k1rakishou.chan.core.manager.BookmarksManager
 import com.github.k1rakishou.chan.core.manager.SiteManager
+import com.github.k1rakishou.chan.core.site.loader.ConditionalRequestValidators
 import com.github.k1rakishou.chan.core.site.parser.ChanReader
 import com.github.k1rakishou.common.AppConstants
 import com.github.k1rakishou.common.EmptyBodyResponseException
 import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.common.ModularResult.Companion.Try
-import com.github.k1rakishou.common.processDataCollectionConcurrently
+import com.github.k1rakishou.common.errorMessageOrClassName
+import com.github.k1rakishou.common.parallelMapOrdered
 import com.github.k1rakishou.common.suspendCall
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoObject
@@ -20,6 +23,7 @@ import kotlinx.coroutines.Dispatchers
 import okhttp3.HttpUrl
 import okhttp3.Request
 import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.math.max
 
 @Suppress("FoldInitializerAndIfToElvis")
@@ -32,6 +36,13 @@ class FetchThreadBookmarkInfoUseCase(
   private val bookmarksManager: BookmarksManager,
   private val appConstants: AppConstants
 ) : ISuspendUseCase<List<ChanDescriptor.ThreadDescriptor>, ModularResult<List<ThreadBookmarkFetchResult>>> {
+  private val boardThreadsLastModifiedPoller by lazy {
+    BoardThreadsLastModifiedPoller(verboseLogsEnabled, proxiedOkHttpClient, siteManager)
+  }
+
+  // Validators of the last successful fetch of every thread, for sites that don't have board-level
+  // "last modified" jsons (and for threads that are not present in them).
+  private val threadValidators = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, ConditionalRequestValidators>()
 
   override suspend fun execute(parameter: List<ChanDescriptor.ThreadDescriptor>): ModularResult<List<ThreadBookmarkFetchResult>> {
     Logger.d(TAG, "FetchThreadBookmarkInfoUseCase.execute(${parameter.size})")
@@ -44,22 +55,67 @@ class FetchThreadBookmarkInfoUseCase(
     val batchSize = (appConstants.processorsCount * BATCH_PER_CORE)
       .coerceAtLeast(MIN_BATCHES_COUNT)
 
-    return processDataCollectionConcurrently(watchingBookmarkDescriptors, batchSize, Dispatchers.IO) { threadDescriptor ->
+    pruneThreadStates()
+
+    val unchangedThreads = Try { boardThreadsLastModifiedPoller.findUnchangedThreads(watchingBookmarkDescriptors) }
+      .peekError { error -> Logger.e(TAG, "findUnchangedThreads() error: ${error.errorMessageOrClassName()}") }
+      .valueOrNull()
+      ?: emptySet()
+
+    return parallelMapOrdered(watchingBookmarkDescriptors, batchSize, Dispatchers.IO) { threadDescriptor ->
+      if (threadDescriptor in unchangedThreads && !isFirstFetch(threadDescriptor)) {
+        return@parallelMapOrdered ThreadBookmarkFetchResult.NotModified(threadDescriptor)
+      }
+
       val site = siteManager.bySiteDescriptor(threadDescriptor.siteDescriptor())
       if (site == null) {
         Logger.e(TAG, "Site with descriptor ${threadDescriptor.siteDescriptor()} " +
           "not found in siteRepository!")
-        return@processDataCollectionConcurrently null
+        return@parallelMapOrdered null
       }
 
       val threadJsonEndpoint = site.endpoints().thread(threadDescriptor)
 
-      return@processDataCollectionConcurrently fetchThreadBookmarkInfo(
-        threadDescriptor,
-        threadJsonEndpoint,
-        site.chanReader()
+      val fetchResult = Try {
+        fetchThreadBookmarkInfo(
+          threadDescriptor,
+          threadJsonEndpoint,
+          site.chanReader()
+        )
+      }.mapErrorToValue<ThreadBookmarkFetchResult> { error ->
+        ThreadBookmarkFetchResult.Error(error, threadDescriptor)
+      }
+
+      boardThreadsLastModifiedPoller.onThreadFetched(
+        threadDescriptor = threadDescriptor,
+        success = fetchResult is ThreadBookmarkFetchResult.Success
+          || fetchResult is ThreadBookmarkFetchResult.NotModified
       )
-    }
+
+      return@parallelMapOrdered fetchResult
+    }.filterNotNull()
+  }
+
+  /**
+   * The states are only updated for threads that are being fetched so the states of deleted (or no
+   * longer watched) bookmarks have to be removed here, otherwise they would be kept forever.
+   * */
+  private fun pruneThreadStates() {
+    val activeBookmarkDescriptors = bookmarksManager.mapNotNullAllBookmarks { threadBookmarkView ->
+      if (!threadBookmarkView.isActive()) {
+        return@mapNotNullAllBookmarks null
+      }
+
+      return@mapNotNullAllBookmarks threadBookmarkView.threadDescriptor
+    }.toSet()
+
+    threadValidators.keys.retainAll(activeBookmarkDescriptors)
+    boardThreadsLastModifiedPoller.retainThreads(activeBookmarkDescriptors)
+  }
+
+  private fun isFirstFetch(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
+    return bookmarksManager.mapBookmark(threadDescriptor) { threadBookmarkView -> threadBookmarkView.isFirstFetch() }
+      ?: true
   }
 
   private suspend fun fetchThreadBookmarkInfo(
@@ -71,11 +127,18 @@ class FetchThreadBookmarkInfoUseCase(
       .url(threadJsonEndpoint)
       .get()
 
+    val conditionalRequestValidators = if (isFirstFetch(threadDescriptor)) {
+      null
+    } else {
+      threadValidators[threadDescriptor]
+    }
+
     siteManager.bySiteDescriptor(threadDescriptor.siteDescriptor())?.let { site ->
       site.requestModifier().modifyCatalogOrThreadGetRequest(
         site = site,
         chanDescriptor = threadDescriptor,
-        requestBuilder = requestBuilder
+        requestBuilder = requestBuilder,
+        conditionalRequestValidators = conditionalRequestValidators
       )
     }
 
@@ -84,9 +147,22 @@ class FetchThreadBookmarkInfoUseCase(
     val response = try {
       proxiedOkHttpClient.get().okHttpClient().suspendCall(request)
     } catch (error: IOException) {
+      threadValidators.remove(threadDescriptor)
       return ThreadBookmarkFetchResult.Error(error, threadDescriptor)
     }
 
+    if (response.code == NOT_MODIFIED_STATUS && conditionalRequestValidators != null) {
+      response.close()
+      return ThreadBookmarkFetchResult.NotModified(threadDescriptor)
+    }
+
+    val validators = ConditionalRequestValidators.fromResponse(response)
+    if (response.isSuccessful && validators != null) {
+      threadValidators[threadDescriptor] = validators
+    } else {
+      threadValidators.remove(threadDescriptor)
+    }
+
     if (!response.isSuccessful) {
       if (response.code == NOT_FOUND_STATUS) {
         return ThreadBookmarkFetchResult.NotFoundOnServer(threadDescriptor)
@@ -145,6 +221,7 @@ class FetchThreadBookmarkInfoUseCase(
     private const val BATCH_PER_CORE = 4
     private const val MIN_BATCHES_COUNT = 8
     private const val NOT_FOUND_STATUS = 404
+    private const val NOT_MODIFIED_STATUS = 304
   }
 }
 
@@ -167,6 +244,13 @@ sealed class ThreadBookmarkFetchResult(val threadDescriptor: ChanDescriptor.Thre
     threadDescriptor: ChanDescriptor.ThreadDescriptor
   ) : ThreadBookmarkFetchResult(threadDescriptor)
 
+  /**
+   * The thread hasn't changed since the last successful fetch so there is nothing to update.
+   * */
+  class NotModified(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor
+  ) : ThreadBookmarkFetchResult(threadDescriptor)
+
   class Success(
     val threadBookmarkInfoObject: ThreadBookmarkInfoObject,
     threadDescriptor: ChanDescriptor.ThreadDescriptor
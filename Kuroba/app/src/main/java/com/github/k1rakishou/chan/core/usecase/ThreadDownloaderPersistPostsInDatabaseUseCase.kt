@@ -126,8 +126,9 @@ class ThreadDownloaderPersistPostsInDatabaseUseCase(
     )
 
     chanPostRepository.insertOrUpdatePostsInDatabase(
-      ownerThreadDatabaseId,
-      parsingResult.parsedPosts
+      ownerThreadId = ownerThreadDatabaseId,
+      posts = parsingResult.parsedPosts,
+      postHashes = chanReaderProcessor.getPostHashes()
     ).unwrap()
 
     Logger.d(TAG, "downloadThreadPosts() deleted=${chanReaderProcessor.deleted}, " +
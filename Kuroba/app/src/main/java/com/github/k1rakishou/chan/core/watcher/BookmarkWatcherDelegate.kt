@@ -1,6 +1,7 @@
 package com.github.k1rakishou.chan.core.watcher
 
 import com.github.k1rakishou.ChanSettings
+import com.github.k1rakishou.chan.core.diagnostics.MetricsRegistry
 import com.github.k1rakishou.chan.core.helper.LastPageNotificationsHelper
 import com.github.k1rakishou.chan.core.helper.LastViewedPostNoInfoHolder
 import com.github.k1rakishou.chan.core.helper.ReplyNotificationsHelper
@@ -43,7 +44,8 @@ class BookmarkWatcherDelegate(
   private val parsePostRepliesUseCase: Lazy<ParsePostRepliesUseCase>,
   private val replyNotificationsHelper: Lazy<ReplyNotificationsHelper>,
   private val lastPageNotificationsHelper: Lazy<LastPageNotificationsHelper>,
-  private val currentOpenedDescriptorStateManager: CurrentOpenedDescriptorStateManager
+  private val currentOpenedDescriptorStateManager: CurrentOpenedDescriptorStateManager,
+  private val metricsRegistry: MetricsRegistry
 ) {
 
   suspend fun doWork(
@@ -137,6 +139,7 @@ class BookmarkWatcherDelegate(
         }
 
       printDebugLogs(fetchResults)
+      reportFetchResults(fetchResults)
 
       if (fetchResults.isEmpty()) {
         Logger.d(TAG, "fetchThreadBookmarkInfoUseCase.execute() returned no fetch results")
@@ -149,7 +152,10 @@ class BookmarkWatcherDelegate(
         processSuccessFetchResults(successFetchResults)
       }
 
-      val unsuccessFetchResults = fetchResults.filter { result -> result !is ThreadBookmarkFetchResult.Success }
+      // NotModified results need no processing at all, the bookmarks are already up to date
+      val unsuccessFetchResults = fetchResults.filter { result ->
+        result !is ThreadBookmarkFetchResult.Success && result !is ThreadBookmarkFetchResult.NotModified
+      }
       if (unsuccessFetchResults.isNotEmpty()) {
         processUnsuccessFetchResults(unsuccessFetchResults)
       }
@@ -170,9 +176,32 @@ class BookmarkWatcherDelegate(
       }
     }
 
+    metricsRegistry.record(MetricsRegistry.BOOKMARK_WATCHER_UPDATE, null, duration)
     Logger.d(TAG, "BookmarkWatcherDelegate.doWork() took $duration")
   }
 
+  private fun reportFetchResults(fetchResults: List<ThreadBookmarkFetchResult>) {
+    fetchResults.forEach { fetchResult ->
+      val siteName = fetchResult.threadDescriptor.siteName()
+      metricsRegistry.increment(MetricsRegistry.BOOKMARK_WATCHER_FETCHED, siteName)
+
+      when (fetchResult) {
+        is ThreadBookmarkFetchResult.NotModified -> {
+          metricsRegistry.increment(MetricsRegistry.BOOKMARK_WATCHER_NOT_MODIFIED, siteName)
+        }
+        is ThreadBookmarkFetchResult.Error,
+        is ThreadBookmarkFetchResult.BadStatusCode -> {
+          metricsRegistry.increment(MetricsRegistry.BOOKMARK_WATCHER_ERRORS, siteName)
+        }
+        is ThreadBookmarkFetchResult.AlreadyDeleted,
+        is ThreadBookmarkFetchResult.NotFoundOnServer,
+        is ThreadBookmarkFetchResult.Success -> {
+          // no-op
+        }
+      }
+    }
+  }
+
   private fun getWatchingBookmarkDescriptors(
     updateCurrentlyOpenedThread: Boolean,
     currentThreadDescriptor: ChanDescriptor.ThreadDescriptor?
@@ -225,6 +254,7 @@ class BookmarkWatcherDelegate(
             // No-op. This just means that the user has deleted this bookmark while it was fetching
             // info so we have nothing to do.
           }
+          is ThreadBookmarkFetchResult.NotModified,
           is ThreadBookmarkFetchResult.Success -> {
             throw IllegalStateException("Shouldn't be handled here")
           }
@@ -407,6 +437,7 @@ class BookmarkWatcherDelegate(
     var alreadyDeletedCount = 0
     var notFoundOnServerCount = 0
     var badStatusCount = 0
+    var notModifiedCount = 0
     var successCount = 0
 
     threadBookmarkFetchResults.forEach { fetchResult ->
@@ -439,6 +470,13 @@ class BookmarkWatcherDelegate(
 
           ++badStatusCount
         }
+        is ThreadBookmarkFetchResult.NotModified -> {
+          if (verboseLogsEnabled) {
+            Logger.d(TAG, "FetchResult.NotModified: descriptor=${fetchResult.threadDescriptor}")
+          }
+
+          ++notModifiedCount
+        }
         is ThreadBookmarkFetchResult.Success -> {
           if (verboseLogsEnabled) {
             val originalPost = fetchResult.threadBookmarkInfoObject.simplePostObjects.firstOrNull { post ->
@@ -456,7 +494,7 @@ class BookmarkWatcherDelegate(
     Logger.d(TAG, "fetchThreadBookmarkInfo stats: total results=${threadBookmarkFetchResults.size}, " +
       "errorsCount=$errorsCount, alreadyDeletedCount=$alreadyDeletedCount, " +
       "notFoundOnServerCount=$notFoundOnServerCount, badStatusCount=$badStatusCount, " +
-      "successCount=$successCount")
+      "notModifiedCount=$notModifiedCount, successCount=$successCount")
   }
 
   companion object {
@@ -13,6 +13,8 @@ import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.R
 import com.github.k1rakishou.chan.controller.Controller
 import com.github.k1rakishou.chan.core.cache.CacheFileType
+import com.github.k1rakishou.chan.core.cache.CacheHandler
+import com.github.k1rakishou.chan.core.cache.FileCacheV2
 import com.github.k1rakishou.chan.core.di.component.activity.ActivityComponent
 import com.github.k1rakishou.chan.core.image.ImageLoaderV2
 import com.github.k1rakishou.chan.core.manager.ArchivesManager
@@ -25,7 +27,7 @@ import com.github.k1rakishou.chan.core.manager.WindowInsetsListener
 import com.github.k1rakishou.chan.features.gesture_editor.Android10GesturesExclusionZonesHolder
 import com.github.k1rakishou.chan.features.image_saver.ImageSaverV2
 import com.github.k1rakishou.chan.features.image_saver.ImageSaverV2OptionsController
-import com.github.k1rakishou.chan.features.media_viewer.helper.ExoPlayerCache
+import com.github.k1rakishou.chan.features.media_viewer.helper.CacheHandlerDataSource
 import com.github.k1rakishou.chan.features.media_viewer.helper.ExoPlayerWrapper
 import com.github.k1rakishou.chan.features.media_viewer.helper.MediaLongClickMenuHelper
 import com.github.k1rakishou.chan.features.media_viewer.helper.MediaViewerGoToImagePostHelper
@@ -71,7 +73,6 @@ import com.google.android.exoplayer2.upstream.ContentDataSource
 import com.google.android.exoplayer2.upstream.DataSource
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSource
 import com.google.android.exoplayer2.upstream.FileDataSource
-import com.google.android.exoplayer2.upstream.cache.CacheDataSource
 import dagger.Lazy
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.Dispatchers
@@ -107,7 +108,9 @@ class MediaViewerController(
   @Inject
   lateinit var mediaViewerScrollerHelper: MediaViewerScrollerHelper
   @Inject
-  lateinit var exoPlayerCache: ExoPlayerCache
+  lateinit var cacheHandler: Lazy<CacheHandler>
+  @Inject
+  lateinit var fileCacheV2: Lazy<FileCacheV2>
   @Inject
   lateinit var globalWindowInsetsManager: GlobalWindowInsetsManager
   @Inject
@@ -806,9 +809,7 @@ class MediaViewerController(
       .setUserAgent(appConstants.userAgent)
       .setDefaultRequestProperties(createRequestProperties(viewableMedia))
 
-    return CacheDataSource.Factory()
-      .setCache(exoPlayerCache.actualCache)
-      .setUpstreamDataSourceFactory(defaultDataSourceFactory)
+    return CacheHandlerDataSource.Factory(cacheHandler, fileCacheV2, defaultDataSourceFactory)
   }
 
   private fun createRequestProperties(viewableMediaList: List<ViewableMedia>): Map<String, String> {
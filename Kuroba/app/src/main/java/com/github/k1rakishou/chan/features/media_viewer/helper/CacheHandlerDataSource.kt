@@ -0,0 +1,276 @@
+package com.github.k1rakishou.chan.features.media_viewer.helper
+
+import android.net.Uri
+import androidx.annotation.VisibleForTesting
+import com.github.k1rakishou.chan.core.cache.CacheFileType
+import com.github.k1rakishou.chan.core.cache.CacheHandler
+import com.github.k1rakishou.chan.core.cache.FileCacheV2
+import com.github.k1rakishou.core_logger.Logger
+import com.google.android.exoplayer2.C
+import com.google.android.exoplayer2.upstream.DataSink
+import com.google.android.exoplayer2.upstream.DataSource
+import com.google.android.exoplayer2.upstream.DataSpec
+import com.google.android.exoplayer2.upstream.FileDataSource
+import com.google.android.exoplayer2.upstream.TeeDataSource
+import com.google.android.exoplayer2.upstream.TransferListener
+import dagger.Lazy
+import java.io.File
+import java.io.IOException
+import java.io.OutputStream
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * A DataSource for ExoPlayer that uses the same disk cache ([CacheFileType.PostMediaFull]) as
+ * [FileCacheV2] (and PrefetchLoader) so that:
+ * - Already downloaded (e.g. prefetched) videos are played directly from the cache file.
+ * - Videos that are streamed from the beginning to the end are put into the cache, so they won't be
+ *   downloaded again by FileCacheV2 (image saver, "open in external app" etc).
+ *
+ * Partial reads (seeking before the whole video was streamed, range requests that don't cover the
+ * whole file) are not cached.
+ * */
+class CacheHandlerDataSource(
+  private val cacheHandler: CacheHandler,
+  private val fileCacheV2: FileCacheV2,
+  private val upstreamDataSourceFactory: DataSource.Factory
+) : DataSource {
+  private val transferListeners = mutableListOf<TransferListener>()
+  private var currentDataSource: DataSource? = null
+  private var currentUri: Uri? = null
+
+  override fun addTransferListener(transferListener: TransferListener) {
+    transferListeners += transferListener
+  }
+
+  @Throws(IOException::class)
+  override fun open(dataSpec: DataSpec): Long {
+    val url = dataSpec.uri.toString()
+    currentUri = dataSpec.uri
+
+    if (!isRemoteUri(dataSpec.uri)) {
+      return openDataSource(upstreamDataSourceFactory.createDataSource(), dataSpec)
+    }
+
+    val cacheFile = cacheHandler.getCacheFileOrNull(CACHE_FILE_TYPE, url)
+    if (cacheFile != null) {
+      val fileDataSpec = dataSpec.buildUpon()
+        .setUri(Uri.fromFile(cacheFile))
+        .build()
+
+      return openDataSource(FileDataSource(), fileDataSpec)
+    }
+
+    val upstreamDataSource = upstreamDataSourceFactory.createDataSource()
+    val dataSource = TeeDataSource(
+      upstreamDataSource,
+      CacheHandlerDataSink(cacheHandler, fileCacheV2, url) { getResourceLength(upstreamDataSource.responseHeaders) }
+    )
+
+    return openDataSource(dataSource, dataSpec)
+  }
+
+  @Throws(IOException::class)
+  override fun read(buffer: ByteArray, offset: Int, length: Int): Int {
+    val dataSource = checkNotNull(currentDataSource) { "DataSource is not opened" }
+    return dataSource.read(buffer, offset, length)
+  }
+
+  override fun getUri(): Uri? {
+    return currentUri
+  }
+
+  override fun getResponseHeaders(): Map<String, List<String>> {
+    return currentDataSource?.responseHeaders ?: emptyMap()
+  }
+
+  @Throws(IOException::class)
+  override fun close() {
+    val dataSource = currentDataSource
+
+    currentDataSource = null
+    currentUri = null
+
+    dataSource?.close()
+  }
+
+  private fun openDataSource(dataSource: DataSource, dataSpec: DataSpec): Long {
+    transferListeners.forEach { transferListener -> dataSource.addTransferListener(transferListener) }
+    currentDataSource = dataSource
+
+    return dataSource.open(dataSpec)
+  }
+
+  private fun isRemoteUri(uri: Uri): Boolean {
+    return uri.scheme == "http" || uri.scheme == "https"
+  }
+
+  /**
+   * Writes the streamed video into a temporary chunk file and moves it into the cache once the
+   * whole file was received. Never throws so that a cache failure doesn't break the playback.
+   * */
+  private class CacheHandlerDataSink(
+    private val cacheHandler: CacheHandler,
+    private val fileCacheV2: FileCacheV2,
+    private val url: String,
+    private val resourceLengthFunc: () -> Long
+  ) : DataSink {
+    private var tempFile: File? = null
+    private var outputStream: OutputStream? = null
+    private var expectedLength = C.LENGTH_UNSET.toLong()
+    private var bytesWritten = 0L
+
+    override fun open(dataSpec: DataSpec) {
+      // TeeDataSource opens the upstream (and resolves the length of the DataSpec) before opening the
+      // sink so we can check whether we are going to receive the whole file. The length of the
+      // DataSpec alone is not enough since it may be a range request that ends before the end of
+      // the file.
+      if (dataSpec.position != 0L) {
+        return
+      }
+
+      val resourceLength = resourceLengthFunc()
+      if (resourceLength == C.LENGTH_UNSET.toLong() || dataSpec.length != resourceLength) {
+        return
+      }
+
+      if (resourceLength > cacheHandler.getMaxSize(CACHE_FILE_TYPE)) {
+        return
+      }
+
+      // Either FileCacheV2 or another player is already downloading this file into the cache
+      if (fileCacheV2.isRunning(url) || !activeUrls.add(url)) {
+        return
+      }
+
+      try {
+        val chunkFile = cacheHandler.getOrCreateChunkCacheFile(CACHE_FILE_TYPE, 0L, STREAM_CHUNK_END, url)
+        if (chunkFile == null) {
+          activeUrls.remove(url)
+          return
+        }
+
+        tempFile = chunkFile
+        outputStream = chunkFile.outputStream().buffered()
+        expectedLength = resourceLength
+        bytesWritten = 0L
+      } catch (error: IOException) {
+        Logger.e(TAG, "open() error, url=$url", error)
+        abort()
+      }
+    }
+
+    override fun write(buffer: ByteArray, offset: Int, length: Int) {
+      val stream = outputStream
+        ?: return
+
+      try {
+        stream.write(buffer, offset, length)
+        bytesWritten += length
+      } catch (error: IOException) {
+        Logger.e(TAG, "write() error, url=$url", error)
+        abort()
+      }
+    }
+
+    override fun close() {
+      val stream = outputStream
+        ?: return
+      val chunkFile = tempFile
+        ?: return
+
+      try {
+        stream.close()
+        outputStream = null
+
+        if (bytesWritten == expectedLength && !fileCacheV2.isRunning(url)) {
+          moveIntoCache(chunkFile)
+        }
+      } catch (error: Throwable) {
+        Logger.e(TAG, "close() error, url=$url", error)
+      } finally {
+        abort()
+      }
+    }
+
+    private fun moveIntoCache(chunkFile: File) {
+      val cacheFile = cacheHandler.getOrCreateCacheFile(CACHE_FILE_TYPE, url)
+        ?: return
+
+      if (!chunkFile.renameTo(cacheFile) || !cacheHandler.markFileDownloaded(CACHE_FILE_TYPE, cacheFile)) {
+        Logger.e(TAG, "Failed to move streamed file into the cache, url=$url")
+        cacheHandler.deleteCacheFile(CACHE_FILE_TYPE, cacheFile)
+        return
+      }
+
+      cacheHandler.fileWasAdded(CACHE_FILE_TYPE, bytesWritten)
+      Logger.d(TAG, "Cached streamed file, url=$url, size=$bytesWritten")
+    }
+
+    private fun abort() {
+      try {
+        outputStream?.close()
+      } catch (ignored: IOException) {
+      }
+
+      outputStream = null
+      tempFile?.delete()
+      tempFile = null
+
+      activeUrls.remove(url)
+    }
+  }
+
+  class Factory(
+    private val cacheHandler: Lazy<CacheHandler>,
+    private val fileCacheV2: Lazy<FileCacheV2>,
+    private val upstreamDataSourceFactory: DataSource.Factory
+  ) : DataSource.Factory {
+
+    override fun createDataSource(): DataSource {
+      return CacheHandlerDataSource(cacheHandler.get(), fileCacheV2.get(), upstreamDataSourceFactory)
+    }
+
+  }
+
+  companion object {
+    private const val TAG = "CacheHandlerDataSource"
+    private val CACHE_FILE_TYPE = CacheFileType.PostMediaFull
+
+    // ConcurrentChunkedFileDownloader never creates chunks with negative end so this temp file can't
+    // clash with its chunks
+    private const val STREAM_CHUNK_END = -1L
+
+    private val activeUrls = ConcurrentHashMap.newKeySet<String>()
+
+    private val CONTENT_RANGE_REGEX = "bytes \\d+-\\d+/(\\d+)".toRegex()
+
+    /**
+     * Returns the length of the whole file (not just the requested range) from the response headers
+     * or [C.LENGTH_UNSET] when it's unknown.
+     * */
+    @VisibleForTesting
+    internal fun getResourceLength(responseHeaders: Map<String, List<String>>): Long {
+      val contentRange = getHeaderValue(responseHeaders, "Content-Range")
+      if (contentRange != null) {
+        return CONTENT_RANGE_REGEX.matchEntire(contentRange.trim())
+          ?.groupValues?.get(1)
+          ?.toLongOrNull()
+          ?: C.LENGTH_UNSET.toLong()
+      }
+
+      // Not a partial response so it contains the whole file
+      return getHeaderValue(responseHeaders, "Content-Length")
+        ?.trim()
+        ?.toLongOrNull()
+        ?: C.LENGTH_UNSET.toLong()
+    }
+
+    private fun getHeaderValue(responseHeaders: Map<String, List<String>>, name: String): String? {
+      // Header names are case-insensitive and HttpURLConnection uses a null key for the status line
+      return responseHeaders.entries
+        .firstOrNull { (key, _) -> name.equals(key, ignoreCase = true) }
+        ?.value
+        ?.firstOrNull()
+    }
+  }
+}
@@ -7,6 +7,7 @@ import com.github.k1rakishou.chan.core.base.LazySuspend
 import com.github.k1rakishou.chan.core.base.SerializedCoroutineExecutor
 import com.github.k1rakishou.chan.core.cache.CacheHandler
 import com.github.k1rakishou.chan.core.cache.FileCacheV2
+import com.github.k1rakishou.chan.core.diagnostics.MetricsRegistry
 import com.github.k1rakishou.chan.core.helper.DialogFactory
 import com.github.k1rakishou.chan.core.helper.ProxyStorage
 import com.github.k1rakishou.chan.core.manager.*
@@ -107,6 +108,8 @@ class SettingsCoordinator(
   lateinit var installMpvNativeLibrariesFromGithubUseCase: InstallMpvNativeLibrariesFromGithubUseCase
   @Inject
   lateinit var installMpvNativeLibrariesFromLocalDirectoryUseCase: InstallMpvNativeLibrariesFromLocalDirectoryUseCase
+  @Inject
+  lateinit var metricsRegistry: MetricsRegistry
 
   private val scope = KurobaCoroutineScope()
   private val settingBuilderExecutor = SerializedCoroutineExecutor(scope)
@@ -184,6 +187,13 @@ class SettingsCoordinator(
     )
   }
 
+  private val metricsSettingsScreen by lazy {
+    MetricsSettingsScreen(
+      context,
+      metricsRegistry
+    )
+  }
+
   private val importExportSettingsScreen by lazy {
     ImportExportSettingsScreen(
       context,
@@ -277,6 +287,7 @@ class SettingsCoordinator(
     mainSettingsScreen.onCreate()
     developerSettingsScreen.onCreate()
     databaseSummaryScreen.onCreate()
+    metricsSettingsScreen.onCreate()
     threadWatcherSettingsScreen.onCreate()
     appearanceSettingsScreen.onCreate()
     behaviorSettingsScreen.onCreate()
@@ -293,6 +304,7 @@ class SettingsCoordinator(
     mainSettingsScreen.onDestroy()
     developerSettingsScreen.onDestroy()
     databaseSummaryScreen.onDestroy()
+    metricsSettingsScreen.onDestroy()
     threadWatcherSettingsScreen.onDestroy()
     appearanceSettingsScreen.onDestroy()
     behaviorSettingsScreen.onDestroy()
@@ -471,6 +483,7 @@ class SettingsCoordinator(
       graph += mainSettingsScreen.build()
       graph += developerSettingsScreen.build()
       graph += databaseSummaryScreen.build()
+      graph += metricsSettingsScreen.build()
       graph += threadWatcherSettingsScreen.build()
       graph += appearanceSettingsScreen.build()
       graph += behaviorSettingsScreen.build()
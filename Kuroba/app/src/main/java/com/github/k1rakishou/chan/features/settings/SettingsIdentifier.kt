@@ -168,6 +168,7 @@ sealed class DeveloperScreen(
     object EnableDisableVerboseLogs : MainGroup("enable_disable_verbose_logs")
     object CrashApp : MainGroup("crash_the_app")
     object ShowDatabaseSummary : MainGroup("show_database_summary")
+    object ShowMetrics : MainGroup("show_metrics")
     object ResetThreadOpenCounter : MainGroup("reset_thread_open_counter")
     object CrashOnSafeThrow : MainGroup("crash_on_safe_throw")
     object SimulateAppUpdated : MainGroup("simulate_app_updated")
@@ -225,6 +226,92 @@ sealed class DatabaseSummaryScreen(
   }
 }
 
+// ===========================================================
+// ================= MetricsScreen ===========================
+// ===========================================================
+
+sealed class MetricsScreen(
+  groupIdentifier: GroupIdentifier,
+  settingIdentifier: SettingIdentifier,
+  screenIdentifier: ScreenIdentifier = MetricsScreen.screenIdentifier()
+) :
+  IScreen,
+  SettingsIdentifier(screenIdentifier, groupIdentifier, settingIdentifier) {
+
+  sealed class LoadingGroup(
+    settingsId: String,
+    groupIdentifier: GroupIdentifier = LoadingGroup.getGroupIdentifier()
+  ) :
+    IGroup,
+    MetricsScreen(groupIdentifier, SettingIdentifier(settingsId)) {
+
+    object Network : LoadingGroup("loading_network")
+    object ReadJson : LoadingGroup("loading_read_json")
+    object Parse : LoadingGroup("loading_parse")
+    object Filter : LoadingGroup("loading_filter")
+    object Store : LoadingGroup("loading_store")
+    object LocalTotal : LoadingGroup("loading_local_total")
+    object Counters : LoadingGroup("loading_counters")
+
+    companion object : IGroupIdentifier() {
+      override fun screenIdentifier(): ScreenIdentifier = MetricsScreen.screenIdentifier()
+      override fun getGroupIdentifier(): GroupIdentifier = GroupIdentifier("loading_group")
+    }
+  }
+
+  sealed class BookmarkWatcherGroup(
+    settingsId: String,
+    groupIdentifier: GroupIdentifier = BookmarkWatcherGroup.getGroupIdentifier()
+  ) :
+    IGroup,
+    MetricsScreen(groupIdentifier, SettingIdentifier(settingsId)) {
+
+    object Update : BookmarkWatcherGroup("bookmark_watcher_update")
+    object Counters : BookmarkWatcherGroup("bookmark_watcher_counters")
+
+    companion object : IGroupIdentifier() {
+      override fun screenIdentifier(): ScreenIdentifier = MetricsScreen.screenIdentifier()
+      override fun getGroupIdentifier(): GroupIdentifier = GroupIdentifier("bookmark_watcher_group")
+    }
+  }
+
+  sealed class FileCacheGroup(
+    settingsId: String,
+    groupIdentifier: GroupIdentifier = FileCacheGroup.getGroupIdentifier()
+  ) :
+    IGroup,
+    MetricsScreen(groupIdentifier, SettingIdentifier(settingsId)) {
+
+    object Download : FileCacheGroup("file_cache_download")
+    object Counters : FileCacheGroup("file_cache_counters")
+
+    companion object : IGroupIdentifier() {
+      override fun screenIdentifier(): ScreenIdentifier = MetricsScreen.screenIdentifier()
+      override fun getGroupIdentifier(): GroupIdentifier = GroupIdentifier("file_cache_group")
+    }
+  }
+
+  sealed class ActionsGroup(
+    settingsId: String,
+    groupIdentifier: GroupIdentifier = ActionsGroup.getGroupIdentifier()
+  ) :
+    IGroup,
+    MetricsScreen(groupIdentifier, SettingIdentifier(settingsId)) {
+
+    object CopyToClipboard : ActionsGroup("copy_to_clipboard")
+    object Reset : ActionsGroup("reset")
+
+    companion object : IGroupIdentifier() {
+      override fun screenIdentifier(): ScreenIdentifier = MetricsScreen.screenIdentifier()
+      override fun getGroupIdentifier(): GroupIdentifier = GroupIdentifier("actions_group")
+    }
+  }
+
+  companion object : IScreenIdentifier() {
+    override fun screenIdentifier(): ScreenIdentifier = ScreenIdentifier("metrics_screen")
+  }
+}
+
 // =========================================================
 // ================= WatcherScreen ===================
 // =========================================================
@@ -685,7 +772,6 @@ sealed class CachingScreen(
     CachingScreen(groupIdentifier, SettingIdentifier(settingsId)) {
 
     data class ClearFileCache(val cacheFileTypeName: String) : CacheGroup("clear_file_cache_${cacheFileTypeName}")
-    object ClearExoPlayerCache : CacheGroup("clear_exo_player_cache")
     object ThreadDownloadCacheSize : CacheGroup("thread_download_cache_size")
 
     companion object : IGroupIdentifier() {
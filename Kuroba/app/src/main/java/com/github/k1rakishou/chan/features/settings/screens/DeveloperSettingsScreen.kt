@@ -7,6 +7,7 @@ import com.github.k1rakishou.chan.R
 import com.github.k1rakishou.chan.activity.StartActivity
 import com.github.k1rakishou.chan.features.settings.DatabaseSummaryScreen
 import com.github.k1rakishou.chan.features.settings.DeveloperScreen
+import com.github.k1rakishou.chan.features.settings.MetricsScreen
 import com.github.k1rakishou.chan.features.settings.SettingClickAction
 import com.github.k1rakishou.chan.features.settings.SettingsGroup
 import com.github.k1rakishou.chan.features.settings.setting.BooleanSettingV2
@@ -112,6 +113,16 @@ class DeveloperSettingsScreen(
           }
         )
 
+        group += LinkSettingV2.createBuilder(
+          context = context,
+          identifier = DeveloperScreen.MainGroup.ShowMetrics,
+          topDescriptionIdFunc = { R.string.settings_metrics },
+          bottomDescriptionIdFunc = { R.string.settings_metrics_description },
+          callbackWithClickAction = {
+            SettingClickAction.OpenScreen(MetricsScreen)
+          }
+        )
+
         group += LinkSettingV2.createBuilder(
           context = context,
           identifier = DeveloperScreen.MainGroup.ResetThreadOpenCounter,
@@ -0,0 +1,210 @@
+package com.github.k1rakishou.chan.features.settings.screens
+
+import android.content.Context
+import com.github.k1rakishou.chan.R
+import com.github.k1rakishou.chan.core.diagnostics.MetricsRegistry
+import com.github.k1rakishou.chan.features.settings.MetricsScreen
+import com.github.k1rakishou.chan.features.settings.SettingsGroup
+import com.github.k1rakishou.chan.features.settings.SettingsIdentifier
+import com.github.k1rakishou.chan.features.settings.setting.LinkSettingV2
+import com.github.k1rakishou.chan.features.settings.setting.SettingV2Builder
+import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils.showToast
+import com.github.k1rakishou.common.AndroidUtils
+
+class MetricsSettingsScreen(
+  context: Context,
+  private val metricsRegistry: MetricsRegistry
+) : BaseSettingsScreen(
+  context,
+  MetricsScreen,
+  R.string.settings_metrics
+) {
+
+  override suspend fun buildGroups(): List<SettingsGroup.SettingsGroupBuilder> {
+    return listOf(
+      buildLoadingGroup(),
+      buildBookmarkWatcherGroup(),
+      buildFileCacheGroup(),
+      buildActionsGroup()
+    )
+  }
+
+  private fun buildLoadingGroup(): SettingsGroup.SettingsGroupBuilder {
+    val identifier = MetricsScreen.LoadingGroup
+
+    return SettingsGroup.SettingsGroupBuilder(
+      groupIdentifier = identifier,
+      buildFunction = {
+        val group = SettingsGroup(
+          groupTitle = context.getString(R.string.settings_metrics_group_loading),
+          groupIdentifier = identifier
+        )
+
+        group += histogramSetting(MetricsScreen.LoadingGroup.Network, MetricsRegistry.LOAD_NETWORK)
+        group += histogramSetting(MetricsScreen.LoadingGroup.ReadJson, MetricsRegistry.LOAD_READ_JSON)
+        group += histogramSetting(MetricsScreen.LoadingGroup.Parse, MetricsRegistry.LOAD_PARSE)
+        group += histogramSetting(MetricsScreen.LoadingGroup.Filter, MetricsRegistry.LOAD_FILTER)
+        group += histogramSetting(MetricsScreen.LoadingGroup.Store, MetricsRegistry.LOAD_STORE)
+        group += histogramSetting(MetricsScreen.LoadingGroup.LocalTotal, MetricsRegistry.LOAD_LOCAL_TOTAL)
+
+        group += countersSetting(
+          identifier = MetricsScreen.LoadingGroup.Counters,
+          names = listOf(
+            MetricsRegistry.LOAD_REQUESTS,
+            MetricsRegistry.LOAD_NOT_MODIFIED,
+            MetricsRegistry.LOAD_ERRORS,
+            MetricsRegistry.LOAD_PARSED_POSTS,
+            MetricsRegistry.LOAD_STORED_POSTS
+          )
+        )
+
+        group
+      }
+    )
+  }
+
+  private fun buildBookmarkWatcherGroup(): SettingsGroup.SettingsGroupBuilder {
+    val identifier = MetricsScreen.BookmarkWatcherGroup
+
+    return SettingsGroup.SettingsGroupBuilder(
+      groupIdentifier = identifier,
+      buildFunction = {
+        val group = SettingsGroup(
+          groupTitle = context.getString(R.string.settings_metrics_group_bookmark_watcher),
+          groupIdentifier = identifier
+        )
+
+        group += histogramSetting(
+          identifier = MetricsScreen.BookmarkWatcherGroup.Update,
+          name = MetricsRegistry.BOOKMARK_WATCHER_UPDATE
+        )
+
+        group += countersSetting(
+          identifier = MetricsScreen.BookmarkWatcherGroup.Counters,
+          names = listOf(
+            MetricsRegistry.BOOKMARK_WATCHER_FETCHED,
+            MetricsRegistry.BOOKMARK_WATCHER_NOT_MODIFIED,
+            MetricsRegistry.BOOKMARK_WATCHER_ERRORS
+          )
+        )
+
+        group
+      }
+    )
+  }
+
+  private fun buildFileCacheGroup(): SettingsGroup.SettingsGroupBuilder {
+    val identifier = MetricsScreen.FileCacheGroup
+
+    return SettingsGroup.SettingsGroupBuilder(
+      groupIdentifier = identifier,
+      buildFunction = {
+        val group = SettingsGroup(
+          groupTitle = context.getString(R.string.settings_metrics_group_file_cache),
+          groupIdentifier = identifier
+        )
+
+        group += histogramSetting(
+          identifier = MetricsScreen.FileCacheGroup.Download,
+          name = MetricsRegistry.FILE_CACHE_DOWNLOAD
+        )
+
+        group += countersSetting(
+          identifier = MetricsScreen.FileCacheGroup.Counters,
+          names = listOf(
+            MetricsRegistry.FILE_CACHE_HITS,
+            MetricsRegistry.FILE_CACHE_MISSES,
+            MetricsRegistry.FILE_CACHE_ERRORS,
+            MetricsRegistry.FILE_CACHE_DOWNLOADED_BYTES
+          )
+        )
+
+        group
+      }
+    )
+  }
+
+  private fun buildActionsGroup(): SettingsGroup.SettingsGroupBuilder {
+    val identifier = MetricsScreen.ActionsGroup
+
+    return SettingsGroup.SettingsGroupBuilder(
+      groupIdentifier = identifier,
+      buildFunction = {
+        val group = SettingsGroup(
+          groupIdentifier = identifier
+        )
+
+        group += LinkSettingV2.createBuilder(
+          context = context,
+          identifier = MetricsScreen.ActionsGroup.CopyToClipboard,
+          topDescriptionIdFunc = { R.string.settings_metrics_copy_to_clipboard },
+          callback = {
+            AndroidUtils.setClipboardContent("Metrics", metricsRegistry.dump())
+            showToast(context, R.string.settings_logs_copied_to_clipboard)
+          }
+        )
+
+        group += LinkSettingV2.createBuilder(
+          context = context,
+          identifier = MetricsScreen.ActionsGroup.Reset,
+          topDescriptionIdFunc = { R.string.settings_metrics_reset },
+          callback = {
+            metricsRegistry.reset()
+            showToast(context, "Done")
+          }
+        )
+
+        group
+      }
+    )
+  }
+
+  private suspend fun histogramSetting(
+    identifier: SettingsIdentifier,
+    name: String
+  ): SettingV2Builder {
+    return LinkSettingV2.createBuilder(
+      context = context,
+      identifier = identifier,
+      topDescriptionStringFunc = { name },
+      bottomDescriptionStringFunc = {
+        val histogramEntries = metricsRegistry.snapshot().histogramsOf(name)
+        if (histogramEntries.isEmpty()) {
+          return@createBuilder NO_DATA
+        }
+
+        return@createBuilder histogramEntries.joinToString(separator = "\n") { histogramEntry ->
+          "${histogramEntry.site}: ${MetricsRegistry.formatHistogram(histogramEntry.snapshot)}"
+        }
+      }
+    )
+  }
+
+  private suspend fun countersSetting(
+    identifier: SettingsIdentifier,
+    names: List<String>
+  ): SettingV2Builder {
+    return LinkSettingV2.createBuilder(
+      context = context,
+      identifier = identifier,
+      topDescriptionIdFunc = { R.string.settings_metrics_counters },
+      bottomDescriptionStringFunc = {
+        val snapshot = metricsRegistry.snapshot()
+        val counterEntries = names.flatMap { name -> snapshot.countersOf(name) }
+
+        if (counterEntries.isEmpty()) {
+          return@createBuilder NO_DATA
+        }
+
+        return@createBuilder counterEntries.joinToString(separator = "\n") { counterEntry ->
+          "${counterEntry.name} [${counterEntry.site}]: ${counterEntry.value}"
+        }
+      }
+    )
+  }
+
+  companion object {
+    private const val NO_DATA = "No data yet"
+  }
+
+}
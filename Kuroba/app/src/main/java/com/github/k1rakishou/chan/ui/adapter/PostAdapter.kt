@@ -328,7 +328,7 @@ class PostAdapter(
   ) {
     BackgroundUtils.ensureMainThread()
 
-    threadCellData.updateThreadData(
+    val diffResult = threadCellData.updateThreadData(
       postCellCallback = postCellCallback,
       chanDescriptor = chanDescriptor,
       postIndexedList = postIndexedList,
@@ -343,9 +343,14 @@ class PostAdapter(
       )
     }
 
-    notifyDataSetChanged()
+    if (diffResult == null) {
+      notifyDataSetChanged()
+      Logger.d(TAG, "setThread() notifyDataSetChanged called, postIndexedList.size=" + postIndexedList.size)
+      return
+    }
 
-    Logger.d(TAG, "setThread() notifyDataSetChanged called, postIndexedList.size=" + postIndexedList.size)
+    diffResult.dispatchUpdatesTo(this)
+    Logger.d(TAG, "setThread() diff dispatched, postIndexedList.size=" + postIndexedList.size)
   }
 
   fun cleanup() {
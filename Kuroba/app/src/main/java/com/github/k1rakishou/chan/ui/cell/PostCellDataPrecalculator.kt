@@ -0,0 +1,66 @@
+package com.github.k1rakishou.chan.ui.cell
+
+import com.github.k1rakishou.common.bidirectionalSequence
+import com.github.k1rakishou.common.parallelMapOrdered
+import com.github.k1rakishou.core_logger.Logger
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+
+/**
+ * Precalculates [PostCellData] (title/comment spans, file info etc.) of a whole thread using up to
+ * [parallelism] workers. Posts are handed out to the workers in the order of their distance from the
+ * starting position (the one the user will see first) so the posts around the viewport are always
+ * calculated first, no matter how many workers there are. Calculating a post that is already being
+ * calculated (by another worker or by the main thread during binding) just waits for it because
+ * [ThreadCellData.PostCellDataLazy] is synchronized.
+ *
+ * Cancelling the calling coroutine stops all the workers after they finish their current post.
+ * */
+class PostCellDataPrecalculator(
+  private val parallelism: Int = DEFAULT_PARALLELISM,
+  private val dispatcher: CoroutineDispatcher = Dispatchers.Default
+) {
+
+  init {
+    require(parallelism > 0) { "Bad parallelism: $parallelism" }
+  }
+
+  suspend fun precalculate(
+    postCellDataLazyList: List<ThreadCellData.PostCellDataLazy>,
+    startingPosition: Int
+  ): Int {
+    if (postCellDataLazyList.isEmpty()) {
+      return 0
+    }
+
+    // parallelMapOrdered hands the elements out to the workers in the order of the list
+    val postCellDataLazyListByDistance = postCellDataLazyList
+      .bidirectionalSequence(startingPosition.coerceIn(0, postCellDataLazyList.lastIndex))
+      .toList()
+
+    Logger.d(TAG, "precalculate() startingPosition=$startingPosition, " +
+      "postsCount=${postCellDataLazyList.size}, parallelism=$parallelism")
+
+    val calculatedList = parallelMapOrdered(
+      dataList = postCellDataLazyListByDistance,
+      parallelism = parallelism,
+      dispatcher = dispatcher
+    ) { postCellDataLazy ->
+      if (postCellDataLazy.isInitialized) {
+        return@parallelMapOrdered false
+      }
+
+      postCellDataLazy.getOrCalculate(isPrecalculating = true)
+      return@parallelMapOrdered true
+    }
+
+    return calculatedList.count { calculated -> calculated }
+  }
+
+  companion object {
+    private const val TAG = "PostCellDataPrecalculator"
+
+    // Leave one core for the main thread, it's the one binding (and waiting for) the cells.
+    val DEFAULT_PARALLELISM = (Runtime.getRuntime().availableProcessors() - 1).coerceIn(1, 8)
+  }
+}
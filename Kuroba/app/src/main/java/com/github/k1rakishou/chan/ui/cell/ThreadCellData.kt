@@ -1,5 +1,7 @@
 package com.github.k1rakishou.chan.ui.cell
 
+import androidx.annotation.VisibleForTesting
+import androidx.recyclerview.widget.DiffUtil
 import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.core.base.KurobaCoroutineScope
 import com.github.k1rakishou.chan.core.manager.ChanThreadViewableInfoManager
@@ -10,7 +12,6 @@ import com.github.k1rakishou.chan.ui.adapter.PostsFilter
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils.isDevBuild
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils.isTablet
 import com.github.k1rakishou.chan.utils.BackgroundUtils
-import com.github.k1rakishou.common.bidirectionalSequenceIndexed
 import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.common.mutableMapWithCap
 import com.github.k1rakishou.core_logger.Logger
@@ -18,13 +19,13 @@ import com.github.k1rakishou.core_themes.ChanTheme
 import com.github.k1rakishou.model.data.board.pages.BoardPages
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.filter.HighlightFilterKeyword
+import com.github.k1rakishou.model.data.post.ChanOriginalPost
 import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.data.post.PostIndexed
 import dagger.Lazy
-import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
-import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import kotlin.time.ExperimentalTime
@@ -43,7 +44,15 @@ class ThreadCellData(
   private var _chanDescriptor: ChanDescriptor? = null
   private var postCellCallback: PostCellInterface.PostCellCallback? = null
   private var currentTheme: ChanTheme = initialTheme
+  private val postCellDataPrecalculator = PostCellDataPrecalculator()
   private var lazyCalculationJob: Job? = null
+  // Set every time the posts are replaced, used to log how many cells were already precalculated by
+  // the time the first one got bound
+  private var reportReadyCellsOnNextBind = false
+  private var currentSettings: PostCellDataSettings? = null
+  // Incremented every time postCellDataLazyList is replaced so that a diff that was calculated in the
+  // background is not applied on top of a list it wasn't calculated for
+  private var listVersion = 0
 
   var postViewMode: PostCellData.PostViewMode = PostCellData.PostViewMode.Normal
   var defaultIsCompact: Boolean = false
@@ -83,15 +92,21 @@ class ThreadCellData(
         val postCellData = postCellDataLazy.getOrCalculate()
         val postIndexed = PostIndexed(updatedPost, postCellData.postIndex)
 
-        val updatedPostCellData = postIndexedListToLazyPostCellDataList(
+        val settings = createPostCellDataSettings(
           postCellCallback = postCellCallback!!,
           chanDescriptor = chanDescriptor!!,
           theme = currentTheme,
-          postIndexedList = listOf(postIndexed),
-          postDescriptors = listOf(updatedPost.postDescriptor),
           postCellDataWidthNoPaddings = postCellData.postCellDataWidthNoPaddings
         )
 
+        val updatedPostCellData = postIndexedListToLazyPostCellDataList(
+          postCellCallback = postCellCallback!!,
+          chanDescriptor = chanDescriptor!!,
+          settings = settings,
+          postIndexedList = listOf(postIndexed),
+          postDescriptors = listOf(updatedPost.postDescriptor)
+        )
+
         // precalculate right away
         updatedPostCellData.forEach { postCellDataLazy -> postCellDataLazy.getOrCalculate(isPrecalculating = true) }
 
@@ -108,12 +123,20 @@ class ThreadCellData(
       }
 
       postCellDataLazyList[postCellDataIndex] = updatedPostCellData.first()
+      ++listVersion
       updatedAtLeastOne = true
     }
 
     return updatedAtLeastOne
   }
 
+  /**
+   * Replaces the current posts with [postIndexedList]. When the same thread is updated with the same
+   * settings (the usual auto-refresh case) the [PostCellData] of posts that did not change (including
+   * their already calculated comment spans) is reused and a diff between the old and the new adapter
+   * items is returned so that only the affected cells get rebound. Returns null when everything has
+   * to be rebound.
+   * */
   @OptIn(ExperimentalTime::class)
   suspend fun updateThreadData(
     postCellCallback: PostCellInterface.PostCellCallback,
@@ -122,33 +145,82 @@ class ThreadCellData(
     postCellDataWidthNoPaddings: Int,
     theme: ChanTheme,
     prevScrollPositionData: PreviousThreadScrollPositionData? = null
-  ) {
+  ): DiffUtil.DiffResult? {
     require(postCellDataWidthNoPaddings > 0) { "Bad postCellDataWidthNoPaddings: ${postCellDataWidthNoPaddings}" }
     BackgroundUtils.ensureMainThread()
 
+    val newSettings = createPostCellDataSettings(
+      postCellCallback = postCellCallback,
+      chanDescriptor = chanDescriptor,
+      theme = theme,
+      postCellDataWidthNoPaddings = postCellDataWidthNoPaddings
+    )
+
+    val canUpdateIncrementally = chanDescriptor is ChanDescriptor.ThreadDescriptor
+      && postCellDataLazyList.isNotEmpty()
+      && newSettings == currentSettings
+
+    val oldListVersion = listVersion
+    val oldAdapterItems = if (canUpdateIncrementally) {
+      toAdapterItems(postCellDataLazyList, lastSeenIndicatorPosition, showStatusView())
+    } else {
+      null
+    }
+    val reusablePostCellDataMap = if (canUpdateIncrementally) {
+      postCellDataLazyList.associateByTo(mutableMapWithCap(postCellDataLazyList.size)) { it.postDescriptor }
+    } else {
+      null
+    }
+
     this._chanDescriptor = chanDescriptor
     this.postCellCallback = postCellCallback
     this.currentTheme = theme
+    this.currentSettings = newSettings
 
     val postDescriptors = postIndexedList.map { postIndexed -> postIndexed.post.postDescriptor }
 
-    val newPostCellDataLazyList = withContext(Dispatchers.Default) {
-      return@withContext postIndexedListToLazyPostCellDataList(
+    val (newPostCellDataLazyList, newLastSeenIndicatorPosition, diffResult) = withContext(Dispatchers.Default) {
+      val newPostCellDataLazyList = postIndexedListToLazyPostCellDataList(
         postCellCallback = postCellCallback,
         chanDescriptor = chanDescriptor,
-        theme = theme,
+        settings = newSettings,
         postIndexedList = postIndexedList,
         postDescriptors = postDescriptors,
-        postCellDataWidthNoPaddings = postCellDataWidthNoPaddings
+        reusablePostCellDataMap = reusablePostCellDataMap
       )
+
+      val newLastSeenIndicatorPosition = if (postViewMode.canShowLastSeenIndicator()) {
+        getLastSeenIndicatorPosition(chanDescriptor, newPostCellDataLazyList) ?: -1
+      } else {
+        lastSeenIndicatorPosition
+      }
+
+      val diffResult = if (oldAdapterItems != null) {
+        val newAdapterItems = toAdapterItems(
+          postCellDataLazyList = newPostCellDataLazyList,
+          lastSeenIndicatorPosition = newLastSeenIndicatorPosition,
+          showStatusView = showStatusView()
+        )
+
+        DiffUtil.calculateDiff(AdapterItemsDiffCallback(oldAdapterItems, newAdapterItems), false)
+      } else {
+        null
+      }
+
+      return@withContext Triple(newPostCellDataLazyList, newLastSeenIndicatorPosition, diffResult)
     }
 
     if (newPostCellDataLazyList.isNotEmpty()) {
       lazyCalculationJob?.cancel()
-      lazyCalculationJob = coroutineScope.launch(Dispatchers.IO) {
+      lazyCalculationJob = coroutineScope.launch(Dispatchers.Default) {
         Logger.d(TAG, "runPreloading() start")
-        val preloadingDuration = measureTime { runPreloadingTask(prevScrollPositionData, newPostCellDataLazyList) }
-        Logger.d(TAG, "runPreloading() end, took $preloadingDuration")
+
+        var calculatedCount = 0
+        val preloadingDuration = measureTime {
+          calculatedCount = runPreloadingTask(prevScrollPositionData, newPostCellDataLazyList)
+        }
+
+        Logger.d(TAG, "runPreloading() end, calculated ${calculatedCount} posts, took $preloadingDuration")
       }
     }
 
@@ -156,16 +228,23 @@ class ThreadCellData(
 
     this.postCellDataLazyList.clear()
     this.postCellDataLazyList.addAll(newPostCellDataLazyList)
+    this.lastSeenIndicatorPosition = newLastSeenIndicatorPosition
+    this.reportReadyCellsOnNextBind = true
 
-    if (postViewMode.canShowLastSeenIndicator()) {
-      this.lastSeenIndicatorPosition = getLastSeenIndicatorPosition(chanDescriptor) ?: -1
+    if (listVersion != oldListVersion) {
+      // The list was replaced while we were calculating the diff, it's not valid anymore
+      ++listVersion
+      return null
     }
+
+    ++listVersion
+    return diffResult
   }
 
-  private fun CoroutineScope.runPreloadingTask(
+  private suspend fun runPreloadingTask(
     prevScrollPositionData: PreviousThreadScrollPositionData?,
     newPostCellDataLazyList: List<PostCellDataLazy>
-  ) {
+  ): Int {
     var startingPosition = 0
 
     if (prevScrollPositionData != null) {
@@ -185,27 +264,58 @@ class ThreadCellData(
       }
     }
 
-    if (newPostCellDataLazyList.isEmpty()) {
-      return
-    }
+    return postCellDataPrecalculator.precalculate(newPostCellDataLazyList, startingPosition)
+  }
 
-    Logger.d(TAG, "runPreloading() startingPosition=$startingPosition, dataListSize=${newPostCellDataLazyList.size}")
+  private fun createPostCellDataSettings(
+    postCellCallback: PostCellInterface.PostCellCallback,
+    chanDescriptor: ChanDescriptor,
+    theme: ChanTheme,
+    postCellDataWidthNoPaddings: Int
+  ): PostCellDataSettings {
+    val postAlignmentMode = when (chanDescriptor) {
+      is ChanDescriptor.CatalogDescriptor,
+      is ChanDescriptor.CompositeCatalogDescriptor -> ChanSettings.catalogPostAlignmentMode.get()
+      is ChanDescriptor.ThreadDescriptor -> ChanSettings.threadPostAlignmentMode.get()
+    }
 
-    newPostCellDataLazyList
-      .bidirectionalSequenceIndexed(startingPosition.coerceIn(0, newPostCellDataLazyList.lastIndex))
-      .forEach { (_, newPostCellDataLazy) ->
-        ensureActive()
-        newPostCellDataLazy.getOrCalculate(isPrecalculating = true)
-      }
+    return PostCellDataSettings(
+      postCellCallback = postCellCallback,
+      chanDescriptor = chanDescriptor,
+      theme = theme,
+      postCellDataWidthNoPaddings = postCellDataWidthNoPaddings,
+      postViewMode = postViewMode,
+      markedPostNo = defaultMarkedNo,
+      searchQuery = defaultSearchQuery,
+      compact = defaultIsCompact,
+      boardPostViewMode = defaultBoardPostViewMode,
+      textSizeSp = ChanSettings.fontSize.get().toInt(),
+      detailsSizeSp = ChanSettings.detailsSizeSp(),
+      boardPostsSortOrder = PostsFilter.Order.find(ChanSettings.boardOrder.get()),
+      neverShowPages = ChanSettings.neverShowPages.get(),
+      tapNoReply = ChanSettings.tapNoReply.get(),
+      postFullDate = ChanSettings.postFullDate.get(),
+      shiftPostComment = ChanSettings.shiftPostComment.get(),
+      forceShiftPostComment = ChanSettings.forceShiftPostComment.get(),
+      textOnly = ChanSettings.textOnly.get(),
+      showPostFileInfo = ChanSettings.postFileInfo.get(),
+      markUnseenPosts = ChanSettings.markUnseenPosts.get() && chanDescriptor.isThreadDescriptor(),
+      markSeenThreads = ChanSettings.markSeenThreads.get() && chanDescriptor.isCatalogDescriptor(),
+      postMultipleImagesCompactMode = ChanSettings.postMultipleImagesCompactMode.get(),
+      postCellThumbnailSizePercents = ChanSettings.postCellThumbnailSizePercents.get(),
+      postAlignmentMode = postAlignmentMode,
+      isTablet = isTablet(),
+      isSplitLayout = ChanSettings.isSplitLayoutMode()
+    )
   }
 
   private suspend fun postIndexedListToLazyPostCellDataList(
     postCellCallback: PostCellInterface.PostCellCallback,
     chanDescriptor: ChanDescriptor,
-    theme: ChanTheme,
+    settings: PostCellDataSettings,
     postIndexedList: List<PostIndexed>,
     postDescriptors: List<PostDescriptor>,
-    postCellDataWidthNoPaddings: Int
+    reusablePostCellDataMap: Map<PostDescriptor, PostCellDataLazy>? = null
   ): List<PostCellDataLazy> {
     BackgroundUtils.ensureBackgroundThread()
 
@@ -216,29 +326,9 @@ class ThreadCellData(
     val totalPostsCount = postIndexedList.size
     val resultList = mutableListWithCap<PostCellDataLazy>(totalPostsCount)
 
-    val textSizeSp = ChanSettings.fontSize.get().toInt()
-    val detailsSizeSp = ChanSettings.detailsSizeSp()
-    val boardPostsSortOrder = PostsFilter.Order.find(ChanSettings.boardOrder.get())
-    val neverShowPages = ChanSettings.neverShowPages.get()
-    val tapNoReply = ChanSettings.tapNoReply.get()
-    val postFullDate = ChanSettings.postFullDate.get()
-    val shiftPostComment = ChanSettings.shiftPostComment.get()
-    val forceShiftPostComment = ChanSettings.forceShiftPostComment.get()
-    val textOnly = ChanSettings.textOnly.get()
-    val showPostFileInfo = ChanSettings.postFileInfo.get()
-    val markUnseenPosts = ChanSettings.markUnseenPosts.get() && chanDescriptor.isThreadDescriptor()
-    val markSeenThreads = ChanSettings.markSeenThreads.get() && chanDescriptor.isCatalogDescriptor()
-    val chanTheme = theme.fullCopy()
-    val postCellThumbnailSizePercents = ChanSettings.postCellThumbnailSizePercents.get()
-    val boardPages = getBoardPages(chanDescriptor, neverShowPages, postCellCallback)
-    val isTablet = isTablet()
-    val isSplitLayout = ChanSettings.isSplitLayoutMode()
-
-    val postAlignmentMode = when (chanDescriptor) {
-      is ChanDescriptor.CatalogDescriptor,
-      is ChanDescriptor.CompositeCatalogDescriptor -> ChanSettings.catalogPostAlignmentMode.get()
-      is ChanDescriptor.ThreadDescriptor -> ChanSettings.threadPostAlignmentMode.get()
-    }
+    val chanTheme = settings.theme.fullCopy()
+    val boardPages = getBoardPages(chanDescriptor, settings.neverShowPages, postCellCallback)
+    var reusedCount = 0
 
     val filterHashMap = postFilterManager.getManyFilterHashes(postDescriptors)
     val filterStubMap = postFilterManager.getManyFilterStubs(postDescriptors)
@@ -255,53 +345,71 @@ class ThreadCellData(
     val highlightFilterKeywordMap = postFilterHighlightManager.getHighlightFilterKeywordForDescriptor(postDescriptors)
 
     postIndexedList.forEachIndexed { orderInList, postIndexed ->
-      val lazyFunc = lazy {
-        val postDescriptor = postIndexed.post.postDescriptor
+      val post = postIndexed.post
+      val postDescriptor = post.postDescriptor
+
+      val postCellState = PostCellState(
+        postIndex = postIndexed.postIndex,
+        showDivider = defaultShowDividerFunc.invoke(orderInList, totalPostsCount),
+        stub = filterStubMap[postDescriptor] ?: false,
+        filterHash = filterHashMap[postDescriptor] ?: 0,
+        keywordsToHighlight = highlightFilterKeywordMap[postDescriptor] ?: emptySet(),
+        isReplyToSavedReply = post.repliesTo.any { replyTo -> threadPostReplyMap[replyTo] == true },
+        isDeleted = post.isDeleted,
+        repliesFromCount = post.repliesFromCount
+      )
 
-        val postMultipleImagesCompactMode = ChanSettings.postMultipleImagesCompactMode.get()
+      val reusablePostCellDataLazy = reusablePostCellDataMap?.get(postDescriptor)
+      if (reusablePostCellDataLazy != null && reusablePostCellDataLazy.canBeReusedFor(post, postCellState)) {
+        resultList += reusablePostCellDataLazy
+        ++reusedCount
+        return@forEachIndexed
+      }
+
+      val lazyFunc = lazy {
+        val postMultipleImagesCompactMode = settings.postMultipleImagesCompactMode
           && postViewMode != PostCellData.PostViewMode.Search
-          && postIndexed.post.postImages.size > 1
+          && post.postImages.size > 1
 
         val boardPage = boardPages?.boardPages
           ?.firstOrNull { boardPage -> boardPage.threads[postDescriptor.threadDescriptor()] != null }
 
         val postCellData = PostCellData(
           chanDescriptor = chanDescriptor,
-          post = postIndexed.post,
-          postImages = postIndexed.post.postImages,
-          postIndex = postIndexed.postIndex,
-          postCellDataWidthNoPaddings = postCellDataWidthNoPaddings,
-          textSizeSp = textSizeSp,
-          detailsSizeSp = detailsSizeSp,
+          post = post,
+          postImages = post.postImages,
+          postIndex = postCellState.postIndex,
+          postCellDataWidthNoPaddings = settings.postCellDataWidthNoPaddings,
+          textSizeSp = settings.textSizeSp,
+          detailsSizeSp = settings.detailsSizeSp,
           theme = chanTheme,
-          postViewMode = postViewMode,
-          markedPostNo = defaultMarkedNo,
-          showDivider = defaultShowDividerFunc.invoke(orderInList, totalPostsCount),
-          compact = defaultIsCompact,
-          boardPostViewMode = defaultBoardPostViewMode,
-          boardPostsSortOrder = boardPostsSortOrder,
+          postViewMode = settings.postViewMode,
+          markedPostNo = settings.markedPostNo,
+          showDivider = postCellState.showDivider,
+          compact = settings.compact,
+          boardPostViewMode = settings.boardPostViewMode,
+          boardPostsSortOrder = settings.boardPostsSortOrder,
           boardPage = boardPage,
-          neverShowPages = neverShowPages,
-          tapNoReply = tapNoReply,
-          postFullDate = postFullDate,
-          shiftPostComment = shiftPostComment,
-          forceShiftPostComment = forceShiftPostComment,
+          neverShowPages = settings.neverShowPages,
+          tapNoReply = settings.tapNoReply,
+          postFullDate = settings.postFullDate,
+          shiftPostComment = settings.shiftPostComment,
+          forceShiftPostComment = settings.forceShiftPostComment,
           postMultipleImagesCompactMode = postMultipleImagesCompactMode,
-          textOnly = textOnly,
-          showPostFileInfo = showPostFileInfo,
-          markUnseenPosts = markUnseenPosts,
-          markSeenThreads = markSeenThreads,
-          stub = filterStubMap[postDescriptor] ?: false,
-          filterHash = filterHashMap[postDescriptor] ?: 0,
-          searchQuery = defaultSearchQuery,
-          keywordsToHighlight = highlightFilterKeywordMap[postDescriptor] ?: emptySet(),
-          postAlignmentMode = postAlignmentMode,
-          postCellThumbnailSizePercents = postCellThumbnailSizePercents,
-          isSavedReply = postIndexed.post.isSavedReply,
-          isReplyToSavedReply = postIndexed.post.repliesTo
-            .any { replyTo -> threadPostReplyMap[replyTo] == true },
-          isTablet = isTablet,
-          isSplitLayout = isSplitLayout,
+          textOnly = settings.textOnly,
+          showPostFileInfo = settings.showPostFileInfo,
+          markUnseenPosts = settings.markUnseenPosts,
+          markSeenThreads = settings.markSeenThreads,
+          stub = postCellState.stub,
+          filterHash = postCellState.filterHash,
+          searchQuery = settings.searchQuery,
+          keywordsToHighlight = postCellState.keywordsToHighlight,
+          postAlignmentMode = settings.postAlignmentMode,
+          postCellThumbnailSizePercents = settings.postCellThumbnailSizePercents,
+          isSavedReply = post.isSavedReply,
+          isReplyToSavedReply = postCellState.isReplyToSavedReply,
+          isTablet = settings.isTablet,
+          isSplitLayout = settings.isSplitLayout,
         )
 
         postCellData.postCellCallback = postCellCallback
@@ -311,13 +419,18 @@ class ThreadCellData(
       }
 
       val postCellDataLazy = PostCellDataLazy(
-        post = postIndexed.post,
+        post = post,
+        postCellState = postCellState,
         lazyDataCalcFunc = lazyFunc
       )
 
       resultList += postCellDataLazy
     }
 
+    if (reusablePostCellDataMap != null) {
+      Logger.d(TAG, "postIndexedListToLazyPostCellDataList() reused ${reusedCount} out of ${totalPostsCount} posts")
+    }
+
     return resultList
   }
 
@@ -346,6 +459,7 @@ class ThreadCellData(
   fun cleanup() {
     lazyCalculationJob?.cancel()
     lazyCalculationJob = null
+    reportReadyCellsOnNextBind = false
 
     coroutineScope.cancelChildren()
 
@@ -356,11 +470,13 @@ class ThreadCellData(
     }
 
     postCellDataLazyList.clear()
+    ++listVersion
 
     lastSeenIndicatorPosition = -1
     defaultMarkedNo = null
     error = null
     postCellCallback = null
+    currentSettings = null
     _chanDescriptor = null
   }
 
@@ -422,13 +538,26 @@ class ThreadCellData(
   }
 
   fun getPostCellDataSafe(index: Int): PostCellData? {
+    reportReadyCellsIfNeeded()
     return postCellDataLazyList.getOrNull(getPostPosition(index))?.getOrCalculate()
   }
 
   fun getPostCellData(index: Int): PostCellData {
+    reportReadyCellsIfNeeded()
     return postCellDataLazyList.get(getPostPosition(index)).getOrCalculate()
   }
 
+  private fun reportReadyCellsIfNeeded() {
+    if (!reportReadyCellsOnNextBind) {
+      return
+    }
+
+    reportReadyCellsOnNextBind = false
+
+    val readyCellsCount = postCellDataLazyList.count { postCellDataLazy -> postCellDataLazy.isInitialized }
+    Logger.d(TAG, "First bind: ${readyCellsCount} out of ${postCellDataLazyList.size} cells were already precalculated")
+  }
+
   fun getPostCellDataIndexes(postDescriptors: List<PostDescriptor>): IntRange? {
     if (postDescriptors.isEmpty()) {
       return null
@@ -530,7 +659,39 @@ class ThreadCellData(
     return postPosition
   }
 
-  private fun getLastSeenIndicatorPosition(chanDescriptor: ChanDescriptor?): Int? {
+  /**
+   * Mirrors the way [PostAdapter] lays out its items (see [postsCount] and [getPostPosition]).
+   * */
+  private fun toAdapterItems(
+    postCellDataLazyList: List<PostCellDataLazy>,
+    lastSeenIndicatorPosition: Int,
+    showStatusView: Boolean
+  ): List<AdapterItem> {
+    val adapterItems = mutableListWithCap<AdapterItem>(postCellDataLazyList.size + 2)
+
+    postCellDataLazyList.forEachIndexed { index, postCellDataLazy ->
+      if (index == lastSeenIndicatorPosition) {
+        adapterItems += AdapterItem.LastSeenIndicator
+      }
+
+      adapterItems += AdapterItem.Post(postCellDataLazy)
+    }
+
+    if (lastSeenIndicatorPosition >= postCellDataLazyList.size) {
+      adapterItems += AdapterItem.LastSeenIndicator
+    }
+
+    if (showStatusView) {
+      adapterItems += AdapterItem.Status
+    }
+
+    return adapterItems
+  }
+
+  private fun getLastSeenIndicatorPosition(
+    chanDescriptor: ChanDescriptor?,
+    postCellDataLazyList: List<PostCellDataLazy>
+  ): Int? {
     if (chanDescriptor == null) {
       return null
     }
@@ -561,6 +722,7 @@ class ThreadCellData(
 
   class PostCellDataLazy(
     val post: ChanPost,
+    private val postCellState: PostCellState,
     private val lazyDataCalcFunc: kotlin.Lazy<PostCellData>
   ) {
     val postDescriptor: PostDescriptor
@@ -587,6 +749,19 @@ class ThreadCellData(
       return calculatedValue
     }
 
+    /**
+     * The post is compared by its content (ChanPost.equals) because posts that were merged after a
+     * refresh are new objects even when nothing has changed. Original posts are never reused since
+     * their thread status/counters are not part of ChanPost.equals.
+     * */
+    fun canBeReusedFor(newPost: ChanPost, newPostCellState: PostCellState): Boolean {
+      if (newPost is ChanOriginalPost) {
+        return false
+      }
+
+      return postCellState == newPostCellState && post == newPost
+    }
+
     override fun equals(other: Any?): Boolean {
       if (this === other) return true
       if (javaClass != other?.javaClass) return false
@@ -614,6 +789,94 @@ class ThreadCellData(
 
   }
 
+  /**
+   * Everything that goes into [PostCellData] that is specific to a post (and may change between
+   * updates without the post itself changing).
+   * */
+  data class PostCellState(
+    val postIndex: Int,
+    val showDivider: Boolean,
+    val stub: Boolean,
+    val filterHash: Int,
+    val keywordsToHighlight: Set<HighlightFilterKeyword>,
+    val isReplyToSavedReply: Boolean,
+    val isDeleted: Boolean,
+    val repliesFromCount: Int
+  )
+
+  /**
+   * Everything that goes into [PostCellData] that is shared by all the posts. [PostCellData] can only
+   * be reused between updates when these are the same.
+   * */
+  private data class PostCellDataSettings(
+    val postCellCallback: PostCellInterface.PostCellCallback,
+    val chanDescriptor: ChanDescriptor,
+    val theme: ChanTheme,
+    val postCellDataWidthNoPaddings: Int,
+    val postViewMode: PostCellData.PostViewMode,
+    val markedPostNo: Long?,
+    val searchQuery: PostCellData.SearchQuery,
+    val compact: Boolean,
+    val boardPostViewMode: ChanSettings.BoardPostViewMode,
+    val textSizeSp: Int,
+    val detailsSizeSp: Int,
+    val boardPostsSortOrder: PostsFilter.Order,
+    val neverShowPages: Boolean,
+    val tapNoReply: Boolean,
+    val postFullDate: Boolean,
+    val shiftPostComment: Boolean,
+    val forceShiftPostComment: Boolean,
+    val textOnly: Boolean,
+    val showPostFileInfo: Boolean,
+    val markUnseenPosts: Boolean,
+    val markSeenThreads: Boolean,
+    val postMultipleImagesCompactMode: Boolean,
+    val postCellThumbnailSizePercents: Int,
+    val postAlignmentMode: ChanSettings.PostAlignmentMode,
+    val isTablet: Boolean,
+    val isSplitLayout: Boolean
+  )
+
+  @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
+  internal sealed class AdapterItem {
+    class Post(val postCellDataLazy: PostCellDataLazy) : AdapterItem()
+    object LastSeenIndicator : AdapterItem()
+    object Status : AdapterItem()
+  }
+
+  @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
+  internal class AdapterItemsDiffCallback(
+    private val oldItems: List<AdapterItem>,
+    private val newItems: List<AdapterItem>
+  ) : DiffUtil.Callback() {
+    override fun getOldListSize(): Int = oldItems.size
+    override fun getNewListSize(): Int = newItems.size
+
+    override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
+      val oldItem = oldItems[oldItemPosition]
+      val newItem = newItems[newItemPosition]
+
+      if (oldItem is AdapterItem.Post && newItem is AdapterItem.Post) {
+        return oldItem.postCellDataLazy.postDescriptor == newItem.postCellDataLazy.postDescriptor
+      }
+
+      return oldItem === newItem
+    }
+
+    override fun areContentsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
+      val oldItem = oldItems[oldItemPosition]
+      val newItem = newItems[newItemPosition]
+
+      if (oldItem is AdapterItem.Post && newItem is AdapterItem.Post) {
+        // Reused PostCellData means that nothing has changed
+        return oldItem.postCellDataLazy === newItem.postCellDataLazy
+      }
+
+      // The status cell shows the thread stats which change with every update
+      return oldItem !== AdapterItem.Status
+    }
+  }
+
   companion object {
     private const val TAG = "ThreadCellData"
   }
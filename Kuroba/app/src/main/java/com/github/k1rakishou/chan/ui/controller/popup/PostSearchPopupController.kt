@@ -22,14 +22,11 @@ import com.github.k1rakishou.chan.utils.RecyclerUtils
 import com.github.k1rakishou.chan.utils.RecyclerUtils.restoreScrollPosition
 import com.github.k1rakishou.chan.utils.awaitUntilGloballyLaidOut
 import com.github.k1rakishou.common.AndroidUtils
-import com.github.k1rakishou.common.StringUtils
-import com.github.k1rakishou.common.isNotNullNorBlank
 import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.common.updatePaddings
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.post.ChanPost
-import com.github.k1rakishou.model.data.post.ChanPostImage
 import com.github.k1rakishou.model.data.post.PostIndexed
 import com.github.k1rakishou.model.util.ChanPostUtils
 import com.github.k1rakishou.persist_state.IndexAndTop
@@ -200,7 +197,14 @@ class PostSearchPopupController(
       val resultPosts = mutableListWithCap<PostIndexed>(128)
       var postIndex = 0
 
-      chanThreadManager.iteratePostsWhile(data.descriptor) { chanPost ->
+      // Only the posts that have all the query trigrams need to be checked (null means all of them)
+      val candidates = if (query.length >= MIN_QUERY_LENGTH) {
+        chanThreadManager.findPostSearchCandidates(data.descriptor, searchQuery)
+      } else {
+        null
+      }
+
+      chanThreadManager.iteratePostsWhile(data.descriptor, candidates) { chanPost ->
         if (!isActive) {
           return@iteratePostsWhile false
         }
@@ -264,7 +268,7 @@ class PostSearchPopupController(
 
     if (chanPost.postImages.isNotEmpty()) {
       for (postImage in chanPost.postImages) {
-        val filename = formatImageInfoForSearch(postImage)
+        val filename = ChanPostUtils.formatImageInfoForSearch(postImage)
         if (filename.contains(query, ignoreCase = true)) {
           return true
         }
@@ -274,32 +278,6 @@ class PostSearchPopupController(
     return false
   }
 
-  private fun formatImageInfoForSearch(chanPostImage: ChanPostImage): String {
-    return buildString {
-      if (chanPostImage.serverFilename.isNotNullNorBlank()) {
-        append(chanPostImage.serverFilename)
-        append(' ')
-      }
-
-      if (chanPostImage.filename.isNotNullNorBlank()) {
-        append(chanPostImage.filename)
-        append(' ')
-      }
-
-      if (chanPostImage.extension.isNotNullNorBlank()) {
-        append(chanPostImage.extension!!.toUpperCase(Locale.ENGLISH))
-        append(' ')
-      }
-
-      append(StringUtils.UNBREAKABLE_SPACE_SYMBOL)
-      append("${chanPostImage.imageWidth}x${chanPostImage.imageHeight}")
-
-      append(StringUtils.UNBREAKABLE_SPACE_SYMBOL)
-      append(ChanPostUtils.getReadableFileSize(chanPostImage.size)
-        .replace(' ', StringUtils.UNBREAKABLE_SPACE_SYMBOL))
-    }
-  }
-
   private fun storeScrollPosition() {
     if (!postsViewInitialized) {
       return
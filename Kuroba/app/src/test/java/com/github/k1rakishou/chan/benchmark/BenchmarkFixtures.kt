@@ -0,0 +1,235 @@
+package com.github.k1rakishou.chan.benchmark
+
+import com.github.k1rakishou.chan.core.manager.ArchivesManager
+import com.github.k1rakishou.chan.core.manager.BoardManager
+import com.github.k1rakishou.chan.core.manager.SiteManager
+import com.github.k1rakishou.chan.core.site.Site
+import com.github.k1rakishou.chan.core.site.SiteEndpoints
+import com.github.k1rakishou.chan.core.site.common.CommonSite
+import com.github.k1rakishou.chan.core.site.common.DefaultPostParser
+import com.github.k1rakishou.chan.core.site.common.FutabaChanReader
+import com.github.k1rakishou.chan.core.site.common.vichan.VichanApi
+import com.github.k1rakishou.chan.core.site.common.vichan.VichanCommentParser
+import com.github.k1rakishou.chan.core.site.parser.ChanReader
+import com.github.k1rakishou.chan.core.site.parser.CommentParser
+import com.github.k1rakishou.chan.core.site.parser.PostParser
+import com.github.k1rakishou.chan.core.site.parser.processor.ChanReaderProcessor
+import com.github.k1rakishou.chan.core.site.sites.dvach.DvachApiV2
+import com.github.k1rakishou.chan.core.site.sites.dvach.DvachCommentParser
+import com.github.k1rakishou.chan.core.site.sites.dvach.DvachPostParser
+import com.github.k1rakishou.chan.core.site.sites.foolfuuka.FoolFuukaApi
+import com.github.k1rakishou.chan.core.site.sites.foolfuuka.FoolFuukaCommentParser
+import com.github.k1rakishou.model.data.board.ChanBoard
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.options.ChanLoadOptions
+import com.github.k1rakishou.model.data.options.ChanReadOptions
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import com.github.k1rakishou.model.repository.ChanPostRepository
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.whenever
+import com.squareup.moshi.Moshi
+import dagger.Lazy
+import kotlinx.coroutines.runBlocking
+import okhttp3.HttpUrl
+import org.mockito.Mockito
+import java.io.ByteArrayInputStream
+
+/**
+ * Recorded site responses used by the benchmarks. The fixtures live in
+ * app/src/test/resources/fixtures/<site>/ and follow the exact json format of each site's API.
+ * */
+internal enum class FixtureSite(
+  val siteName: String,
+  val boardCode: String,
+  val threadNo: Long,
+  val threadFixture: String,
+  val catalogFixture: String?
+) {
+  Chan4("4chan", "g", 85000000L, "fixtures/chan4/g_thread.json", "fixtures/chan4/g_catalog.json"),
+  Dvach("2ch", "b", 259000000L, "fixtures/dvach/b_thread.json", "fixtures/dvach/b_catalog.json"),
+  Lainchan("Lainchan", "tech", 40000L, "fixtures/lainchan/tech_thread.json", "fixtures/lainchan/tech_catalog.json"),
+  // FoolFuuka archives have no catalog
+  FoolFuuka("archived.moe", "a", 230000000L, "fixtures/foolfuuka/a_thread.json", null);
+
+  val threadDescriptor: ChanDescriptor.ThreadDescriptor
+    get() = ChanDescriptor.ThreadDescriptor.create(siteName, boardCode, threadNo)
+
+  val catalogDescriptor: ChanDescriptor.CatalogDescriptor
+    get() = ChanDescriptor.CatalogDescriptor.create(siteName, boardCode)
+}
+
+/**
+ * Everything the site readers and post parsers need, with the managers replaced by mocks so that
+ * only the parsing code itself is measured.
+ * */
+internal class BenchmarkEnvironment {
+  val archivesManager: ArchivesManager = Mockito.mock(ArchivesManager::class.java)
+  val siteManager: SiteManager = Mockito.mock(SiteManager::class.java)
+  val boardManager: BoardManager = Mockito.mock(BoardManager::class.java)
+  val chanPostRepository: ChanPostRepository = Mockito.mock(ChanPostRepository::class.java)
+
+  private val moshi = Moshi.Builder().build()
+  private val commonSite = Mockito.mock(CommonSite::class.java)
+  private val fixtureCache = mutableMapOf<String, ByteArray>()
+
+  init {
+    val site = Mockito.mock(Site::class.java)
+    whenever(site.endpoints()).thenReturn(FixtureSiteEndpoints)
+
+    whenever(siteManager.bySiteDescriptor(any())).thenReturn(site)
+    whenever(boardManager.byBoardDescriptor(any())).thenAnswer { invocation ->
+      ChanBoard(invocation.getArgument(0))
+    }
+  }
+
+  fun chanReader(fixtureSite: FixtureSite): ChanReader {
+    return when (fixtureSite) {
+      FixtureSite.Chan4 -> FutabaChanReader(archivesManager, siteManager, boardManager)
+      FixtureSite.Dvach -> DvachApiV2(Lazy { moshi }, siteManager, boardManager, commonSite)
+      FixtureSite.Lainchan -> VichanApi(siteManager, boardManager, commonSite)
+      FixtureSite.FoolFuuka -> FoolFuukaApi(commonSite)
+    }
+  }
+
+  /**
+   * The same parsers the sites install in CommonSite.setParser()/FutabaChanReader.getParser().
+   * */
+  fun postParser(fixtureSite: FixtureSite): PostParser {
+    return when (fixtureSite) {
+      FixtureSite.Chan4 -> DefaultPostParser(CommentParser().addDefaultRules(), archivesManager)
+      FixtureSite.Dvach -> DvachPostParser(DvachCommentParser(), archivesManager)
+      FixtureSite.Lainchan -> DefaultPostParser(VichanCommentParser(), archivesManager)
+      FixtureSite.FoolFuuka -> DefaultPostParser(FoolFuukaCommentParser(archivesManager), archivesManager)
+    }
+  }
+
+  fun fixture(path: String): ByteArray {
+    return fixtureCache.getOrPut(path) {
+      val stream = requireNotNull(javaClass.classLoader?.getResourceAsStream(path)) {
+        "Fixture not found: $path"
+      }
+
+      stream.use { it.readBytes() }
+    }
+  }
+
+  fun readThread(fixtureSite: FixtureSite, chanReader: ChanReader = chanReader(fixtureSite)): List<ChanPostBuilder> {
+    val threadDescriptor = fixtureSite.threadDescriptor
+    val chanReaderProcessor = createChanReaderProcessor(threadDescriptor)
+
+    return runBlocking {
+      chanReader.loadThreadFresh(
+        requestUrl = FixtureSiteEndpoints.thread(threadDescriptor).toString(),
+        responseBodyStream = ByteArrayInputStream(fixture(fixtureSite.threadFixture)),
+        chanReaderProcessor = chanReaderProcessor
+      )
+
+      chanReaderProcessor.getToParse()
+    }
+  }
+
+  fun readCatalog(fixtureSite: FixtureSite, chanReader: ChanReader = chanReader(fixtureSite)): List<ChanPostBuilder> {
+    val catalogFixture = requireNotNull(fixtureSite.catalogFixture) { "$fixtureSite has no catalog" }
+    val catalogDescriptor = fixtureSite.catalogDescriptor
+    val chanReaderProcessor = createChanReaderProcessor(catalogDescriptor)
+
+    return runBlocking {
+      chanReader.loadCatalog(
+        requestUrl = FixtureSiteEndpoints.catalog(catalogDescriptor.boardDescriptor).toString(),
+        responseBodyStream = ByteArrayInputStream(fixture(catalogFixture)),
+        chanReaderProcessor = chanReaderProcessor
+      )
+
+      chanReaderProcessor.getToParse()
+    }
+  }
+
+  fun parsePosts(
+    postParser: PostParser,
+    postBuilders: List<ChanPostBuilder>,
+    isParsingCatalog: Boolean
+  ): List<ChanPost> {
+    val internalIds = postBuilders.mapTo(hashSetOf()) { postBuilder -> postBuilder.id }
+
+    val callback = object : PostParser.Callback {
+      override fun isSaved(postNo: Long, postSubNo: Long): Boolean = false
+      override fun isInternal(postNo: Long): Boolean = internalIds.contains(postNo)
+      override fun isParsingCatalogPosts(): Boolean = isParsingCatalog
+    }
+
+    return postBuilders.map { postBuilder -> postParser.parseFull(postBuilder, callback) }
+  }
+
+  private fun createChanReaderProcessor(chanDescriptor: ChanDescriptor): ChanReaderProcessor {
+    // isDownloadingThread makes the processor skip the post cache lookups so every post gets parsed
+    return ChanReaderProcessor(
+      page = null,
+      chanPostRepository = chanPostRepository,
+      chanReadOptions = ChanReadOptions.default(),
+      chanLoadOptions = ChanLoadOptions.retainAll(),
+      options = ChanReaderProcessor.Options(isDownloadingThread = true),
+      chanDescriptor = chanDescriptor
+    )
+  }
+
+}
+
+/**
+ * Builds urls the same way real endpoints do (one HttpUrl per call, arguments become path segments)
+ * without depending on any site settings.
+ * */
+private object FixtureSiteEndpoints : SiteEndpoints {
+  private val root = HttpUrl.Builder().scheme("https").host("fixtures.kuroba").build()
+
+  override fun catalog(boardDescriptor: BoardDescriptor): HttpUrl {
+    return root.newBuilder().addPathSegment(boardDescriptor.boardCode).addPathSegment("catalog.json").build()
+  }
+
+  override fun thread(threadDescriptor: ChanDescriptor.ThreadDescriptor): HttpUrl {
+    return root.newBuilder()
+      .addPathSegment(threadDescriptor.boardCode())
+      .addPathSegment("thread")
+      .addPathSegment("${threadDescriptor.threadNo}.json")
+      .build()
+  }
+
+  override fun imageUrl(boardDescriptor: BoardDescriptor, arg: Map<String, String>): HttpUrl {
+    return withArguments(boardDescriptor.boardCode, "image", arg)
+  }
+
+  override fun thumbnailUrl(
+    boardDescriptor: BoardDescriptor,
+    spoiler: Boolean,
+    customSpoilers: Int,
+    arg: Map<String, String>
+  ): HttpUrl {
+    if (spoiler) {
+      return root.newBuilder().addPathSegment("spoiler.png").build()
+    }
+
+    return withArguments(boardDescriptor.boardCode, "thumb", arg)
+  }
+
+  override fun icon(icon: String, arg: Map<String, String>?): HttpUrl {
+    return withArguments("icon", icon, arg ?: emptyMap())
+  }
+
+  override fun pages(board: ChanBoard): HttpUrl {
+    return root.newBuilder().addPathSegment(board.boardCode()).addPathSegment("threads.json").build()
+  }
+
+  override fun reply(chanDescriptor: ChanDescriptor): HttpUrl = root
+  override fun delete(post: ChanPost): HttpUrl = root
+  override fun login(): HttpUrl = root
+
+  private fun withArguments(first: String, second: String, arg: Map<String, String>): HttpUrl {
+    val builder = root.newBuilder()
+      .addPathSegment(first)
+      .addPathSegment(second)
+
+    arg.values.forEach { value -> builder.addPathSegment(value) }
+    return builder.build()
+  }
+}
@@ -0,0 +1,100 @@
+package com.github.k1rakishou.chan.benchmark
+
+import org.junit.Assume
+import java.util.Locale
+
+/**
+ * A tiny JMH-like harness for the load pipeline benchmarks. Every iteration gets a fresh state from
+ * [run]'s setUp (which is not measured) so that benchmarks that mutate their inputs (parsers,
+ * ChanThread) measure the same amount of work every time. Results of the measured block are consumed
+ * by [blackhole] so that the JIT can't throw the work away.
+ *
+ * Benchmarks are skipped unless the tests are started with -Pbenchmark (see app/build.gradle).
+ * */
+internal object BenchmarkRunner {
+  private const val BENCHMARK_PROPERTY = "kuroba.benchmark"
+  private const val DEFAULT_WARMUP_ITERATIONS = 10
+  private const val DEFAULT_MEASUREMENT_ITERATIONS = 20
+
+  @Volatile
+  private var blackholeSink = 0
+
+  fun assumeEnabled() {
+    Assume.assumeTrue(
+      "Benchmarks are disabled, run with -Pbenchmark to enable them",
+      System.getProperty(BENCHMARK_PROPERTY)?.toBoolean() == true
+    )
+  }
+
+  fun blackhole(value: Any?) {
+    blackholeSink = blackholeSink xor System.identityHashCode(value)
+  }
+
+  fun <S> run(
+    name: String,
+    warmupIterations: Int = DEFAULT_WARMUP_ITERATIONS,
+    measurementIterations: Int = DEFAULT_MEASUREMENT_ITERATIONS,
+    setUp: () -> S,
+    measure: (S) -> Any?
+  ): BenchmarkResult {
+    repeat(warmupIterations) {
+      blackhole(measure(setUp()))
+    }
+
+    val timings = LongArray(measurementIterations)
+
+    for (iteration in 0 until measurementIterations) {
+      val state = setUp()
+
+      val start = System.nanoTime()
+      val result = measure(state)
+      timings[iteration] = System.nanoTime() - start
+
+      blackhole(result)
+    }
+
+    val result = BenchmarkResult(name, timings)
+    println(result.format())
+
+    return result
+  }
+
+  class BenchmarkResult(
+    val name: String,
+    timingsNanos: LongArray
+  ) {
+    private val sortedTimings = timingsNanos.sortedArray()
+
+    val minNanos: Long
+      get() = sortedTimings.first()
+    val meanNanos: Long
+      get() = sortedTimings.average().toLong()
+    val medianNanos: Long
+      get() = percentile(0.5)
+    val p90Nanos: Long
+      get() = percentile(0.9)
+
+    private fun percentile(percentile: Double): Long {
+      val index = ((sortedTimings.size - 1) * percentile).toInt()
+      return sortedTimings[index]
+    }
+
+    fun format(): String {
+      return String.format(
+        Locale.ENGLISH,
+        "[benchmark] %-56s min=%8.3fms mean=%8.3fms median=%8.3fms p90=%8.3fms (n=%d)",
+        name,
+        minNanos / NANOS_IN_MILLI,
+        meanNanos / NANOS_IN_MILLI,
+        medianNanos / NANOS_IN_MILLI,
+        p90Nanos / NANOS_IN_MILLI,
+        sortedTimings.size
+      )
+    }
+
+    companion object {
+      private const val NANOS_IN_MILLI = 1_000_000.0
+    }
+  }
+
+}
@@ -0,0 +1,61 @@
+package com.github.k1rakishou.chan.benchmark
+
+import com.github.k1rakishou.common.AndroidUtils
+import junit.framework.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.shadows.ShadowLog
+
+/**
+ * Measures reading of the recorded site responses into post builders (json reading + the
+ * ChanReaderProcessor bookkeeping), i.e. everything a thread/catalog load does before the posts are
+ * parsed.
+ * */
+@RunWith(RobolectricTestRunner::class)
+class ChanReaderBenchmark {
+  private lateinit var environment: BenchmarkEnvironment
+
+  @Before
+  fun init() {
+    BenchmarkRunner.assumeEnabled()
+
+    AndroidUtils.init(RuntimeEnvironment.application)
+    ShadowLog.stream = System.out
+
+    environment = BenchmarkEnvironment()
+  }
+
+  @Test
+  fun `read thread`() {
+    FixtureSite.values().forEach { fixtureSite ->
+      val chanReader = environment.chanReader(fixtureSite)
+      assertTrue(environment.readThread(fixtureSite, chanReader).isNotEmpty())
+
+      BenchmarkRunner.run(
+        name = "${fixtureSite.name} read thread",
+        setUp = { Unit },
+        measure = { environment.readThread(fixtureSite, chanReader) }
+      )
+    }
+  }
+
+  @Test
+  fun `read catalog`() {
+    FixtureSite.values()
+      .filter { fixtureSite -> fixtureSite.catalogFixture != null }
+      .forEach { fixtureSite ->
+        val chanReader = environment.chanReader(fixtureSite)
+        assertTrue(environment.readCatalog(fixtureSite, chanReader).isNotEmpty())
+
+        BenchmarkRunner.run(
+          name = "${fixtureSite.name} read catalog",
+          setUp = { Unit },
+          measure = { environment.readCatalog(fixtureSite, chanReader) }
+        )
+      }
+  }
+
+}
@@ -0,0 +1,114 @@
+package com.github.k1rakishou.chan.benchmark
+
+import com.github.k1rakishou.common.AndroidUtils
+import com.github.k1rakishou.model.data.PostsFromServerData
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.thread.ChanThread
+import junit.framework.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.shadows.ShadowLog
+
+/**
+ * Measures merging of parsed posts into [ChanThread] (sorting, post indexes, reply graph, deleted
+ * posts detection) for the three cases a thread load ends up with: the first load, a full refresh
+ * where (almost) nothing has changed and an incremental update with a couple of new posts.
+ * */
+@RunWith(RobolectricTestRunner::class)
+class ChanThreadBenchmark {
+  private lateinit var environment: BenchmarkEnvironment
+
+  @Before
+  fun init() {
+    BenchmarkRunner.assumeEnabled()
+
+    AndroidUtils.init(RuntimeEnvironment.application)
+    ShadowLog.stream = System.out
+
+    environment = BenchmarkEnvironment()
+  }
+
+  @Test
+  fun `add posts into empty thread`() {
+    FixtureSite.values().forEach { fixtureSite ->
+      BenchmarkRunner.run(
+        name = "${fixtureSite.name} ChanThread first load",
+        setUp = { parseThreadPosts(fixtureSite) },
+        measure = { posts ->
+          val chanThread = ChanThread(false, fixtureSite.threadDescriptor, System.currentTimeMillis())
+          chanThread.addOrUpdatePosts(posts, fromServer(posts, isIncrementalUpdate = false))
+
+          assertEquals(posts.size, chanThread.postsCount)
+          chanThread
+        }
+      )
+    }
+  }
+
+  @Test
+  fun `update all posts of a thread`() {
+    FixtureSite.values().forEach { fixtureSite ->
+      BenchmarkRunner.run(
+        name = "${fixtureSite.name} ChanThread full refresh",
+        setUp = {
+          val chanThread = ChanThread(false, fixtureSite.threadDescriptor, System.currentTimeMillis())
+          val posts = parseThreadPosts(fixtureSite)
+          chanThread.addOrUpdatePosts(posts, fromServer(posts, isIncrementalUpdate = false))
+
+          // The same thread loaded again, new post objects with the same content
+          Pair(chanThread, parseThreadPosts(fixtureSite))
+        },
+        measure = { (chanThread, posts) ->
+          chanThread.addOrUpdatePosts(posts, fromServer(posts, isIncrementalUpdate = false))
+
+          assertEquals(posts.size, chanThread.postsCount)
+          chanThread
+        }
+      )
+    }
+  }
+
+  @Test
+  fun `add new posts incrementally`() {
+    FixtureSite.values().forEach { fixtureSite ->
+      BenchmarkRunner.run(
+        name = "${fixtureSite.name} ChanThread incremental update (+$NEW_POSTS_COUNT posts)",
+        setUp = {
+          val posts = parseThreadPosts(fixtureSite)
+          val oldPosts = posts.dropLast(NEW_POSTS_COUNT)
+          val newPosts = posts.takeLast(NEW_POSTS_COUNT)
+
+          val chanThread = ChanThread(false, fixtureSite.threadDescriptor, System.currentTimeMillis())
+          chanThread.addOrUpdatePosts(oldPosts, fromServer(oldPosts, isIncrementalUpdate = false))
+
+          Pair(chanThread, newPosts)
+        },
+        measure = { (chanThread, newPosts) ->
+          chanThread.addOrUpdatePosts(newPosts, fromServer(newPosts, isIncrementalUpdate = true))
+          chanThread
+        }
+      )
+    }
+  }
+
+  private fun parseThreadPosts(fixtureSite: FixtureSite): List<ChanPost> {
+    val postBuilders = environment.readThread(fixtureSite)
+    return environment.parsePosts(environment.postParser(fixtureSite), postBuilders, false)
+  }
+
+  private fun fromServer(posts: List<ChanPost>, isIncrementalUpdate: Boolean): PostsFromServerData {
+    return PostsFromServerData(
+      allPostDescriptors = posts.mapTo(hashSetOf()) { chanPost -> chanPost.postDescriptor },
+      isIncrementalUpdate = isIncrementalUpdate,
+      isUpdatingDataFromTheServer = true
+    )
+  }
+
+  companion object {
+    private const val NEW_POSTS_COUNT = 5
+  }
+
+}
@@ -0,0 +1,116 @@
+package com.github.k1rakishou.chan.benchmark
+
+import com.github.k1rakishou.chan.core.cache.downloader.ChunkMerger
+import junit.framework.Assert.assertEquals
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+import kotlin.random.Random
+
+/**
+ * Measures merging of downloaded chunk files into the cache file for big (webm/mp4 sized) files. The
+ * stream copy is how ChunkMerger used to merge chunks and is kept here as the baseline.
+ * */
+class ChunkMergerBenchmark {
+  private lateinit var tempDir: File
+
+  @Before
+  fun init() {
+    BenchmarkRunner.assumeEnabled()
+
+    tempDir = Files.createTempDirectory("chunk_merger_benchmark").toFile()
+  }
+
+  @After
+  fun tearDown() {
+    if (::tempDir.isInitialized) {
+      tempDir.deleteRecursively()
+    }
+  }
+
+  @Test
+  fun `merge chunks with stream copy`() {
+    FILE_SIZES_MB.forEach { fileSizeMb ->
+      val chunkFiles = createChunkFiles(fileSizeMb)
+      val output = File(tempDir, "output_stream_$fileSizeMb")
+
+      BenchmarkRunner.run(
+        name = "Stream copy merge ${fileSizeMb}MB ($CHUNKS_COUNT chunks)",
+        warmupIterations = WARMUP_ITERATIONS,
+        measurementIterations = MEASUREMENT_ITERATIONS,
+        setUp = { output.delete() },
+        measure = {
+          output.outputStream().use { outputStream ->
+            chunkFiles.forEach { chunkFile ->
+              chunkFile.inputStream().use { inputStream -> inputStream.copyTo(outputStream) }
+            }
+
+            outputStream.flush()
+          }
+
+          assertEquals(fileSizeMb * ONE_MEGABYTE, output.length())
+          output
+        }
+      )
+
+      chunkFiles.forEach { chunkFile -> chunkFile.delete() }
+      output.delete()
+    }
+  }
+
+  @Test
+  fun `merge chunks with file channel transfer`() {
+    FILE_SIZES_MB.forEach { fileSizeMb ->
+      val chunkFiles = createChunkFiles(fileSizeMb)
+      val output = File(tempDir, "output_channel_$fileSizeMb")
+
+      BenchmarkRunner.run(
+        name = "FileChannel merge ${fileSizeMb}MB ($CHUNKS_COUNT chunks)",
+        warmupIterations = WARMUP_ITERATIONS,
+        measurementIterations = MEASUREMENT_ITERATIONS,
+        setUp = { output.delete() },
+        measure = {
+          ChunkMerger.mergeChunkFiles(chunkFiles, output)
+
+          assertEquals(fileSizeMb * ONE_MEGABYTE, output.length())
+          output
+        }
+      )
+
+      chunkFiles.forEach { chunkFile -> chunkFile.delete() }
+      output.delete()
+    }
+  }
+
+  private fun createChunkFiles(fileSizeMb: Long): List<File> {
+    val random = Random(fileSizeMb)
+    val buffer = ByteArray(ONE_MEGABYTE.toInt())
+    val chunkSizeMb = fileSizeMb / CHUNKS_COUNT
+
+    return (0 until CHUNKS_COUNT).map { chunkIndex ->
+      val chunkFile = File(tempDir, "chunk_${fileSizeMb}_$chunkIndex")
+      val isLastChunk = chunkIndex == CHUNKS_COUNT - 1
+      val megabytes = if (isLastChunk) fileSizeMb - (chunkSizeMb * (CHUNKS_COUNT - 1)) else chunkSizeMb
+
+      chunkFile.outputStream().use { outputStream ->
+        repeat(megabytes.toInt()) {
+          random.nextBytes(buffer)
+          outputStream.write(buffer)
+        }
+      }
+
+      return@map chunkFile
+    }
+  }
+
+  companion object {
+    private const val ONE_MEGABYTE = 1024L * 1024L
+    private const val CHUNKS_COUNT = 4
+    private const val WARMUP_ITERATIONS = 2
+    private const val MEASUREMENT_ITERATIONS = 5
+
+    private val FILE_SIZES_MB = listOf(50L, 100L, 200L)
+  }
+}
@@ -0,0 +1,157 @@
+package com.github.k1rakishou.chan.benchmark
+
+import com.github.k1rakishou.chan.core.helper.FilterEngine
+import com.github.k1rakishou.chan.core.manager.ChanFilterManager
+import com.github.k1rakishou.common.AndroidUtils
+import com.github.k1rakishou.model.data.filter.ChanFilter
+import com.github.k1rakishou.model.data.filter.FilterAction
+import com.github.k1rakishou.model.data.filter.FilterType
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import junit.framework.Assert.assertEquals
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.shadows.ShadowLog
+
+/**
+ * Measures matching of a realistic filter list (plain keywords, wildcards and regexes over different
+ * post fields) against every post of the recorded threads, once filter-by-filter with
+ * [FilterEngine.matches] and once with the compiled filter set.
+ * */
+@RunWith(RobolectricTestRunner::class)
+class FilterEngineBenchmark {
+  private lateinit var environment: BenchmarkEnvironment
+  private lateinit var filterEngine: FilterEngine
+
+  @Before
+  fun init() {
+    BenchmarkRunner.assumeEnabled()
+
+    AndroidUtils.init(RuntimeEnvironment.application)
+    ShadowLog.stream = System.out
+
+    environment = BenchmarkEnvironment()
+
+    // Cancelled scope so that FilterEngine doesn't start listening for filter changes
+    val cancelledScope = CoroutineScope(Job().apply { cancel() })
+    filterEngine = FilterEngine(cancelledScope, false, Mockito.mock(ChanFilterManager::class.java))
+  }
+
+  @Test
+  fun `match filters against thread posts`() {
+    FixtureSite.values().forEach { fixtureSite ->
+      val postBuilders = parsedThreadPosts(fixtureSite)
+      val boardDescriptor = fixtureSite.threadDescriptor.boardDescriptor
+      val compiledFilterSet = filterEngine.getOrCompileFilterSet(boardDescriptor, FILTERS)
+
+      // Both ways of matching must agree, otherwise we are comparing different amounts of work
+      postBuilders.forEach { postBuilder ->
+        val expected = FILTERS.indices.filter { index -> filterEngine.matches(FILTERS[index], postBuilder) }
+        val matchingFilters = compiledFilterSet.findMatchingFilters(postBuilder)
+        val actual = FILTERS.indices.filter { index -> matchingFilters.get(index) }
+
+        assertEquals(expected, actual)
+      }
+
+      BenchmarkRunner.run(
+        name = "${fixtureSite.name} ${FILTERS.size} filters x ${postBuilders.size} posts, per filter",
+        setUp = { postBuilders },
+        measure = { builders -> matchFilterByFilter(builders) }
+      )
+
+      BenchmarkRunner.run(
+        name = "${fixtureSite.name} ${FILTERS.size} filters x ${postBuilders.size} posts, compiled",
+        setUp = { postBuilders },
+        measure = { builders ->
+          val filterSet = filterEngine.getOrCompileFilterSet(boardDescriptor, FILTERS)
+          builders.sumOf { postBuilder -> filterSet.findMatchingFilters(postBuilder).cardinality() }
+        }
+      )
+    }
+  }
+
+  private fun matchFilterByFilter(postBuilders: List<ChanPostBuilder>): Int {
+    var matches = 0
+
+    postBuilders.forEach { postBuilder ->
+      FILTERS.forEach { chanFilter ->
+        if (filterEngine.matches(chanFilter, postBuilder)) {
+          ++matches
+        }
+      }
+    }
+
+    return matches
+  }
+
+  private fun parsedThreadPosts(fixtureSite: FixtureSite): List<ChanPostBuilder> {
+    val postBuilders = environment.readThread(fixtureSite)
+    environment.parsePosts(environment.postParser(fixtureSite), postBuilders, false)
+
+    return postBuilders
+  }
+
+  companion object {
+    private val COMMENT_AND_SUBJECT = FilterType.COMMENT.flag or FilterType.SUBJECT.flag
+
+    private val FILTERS = listOf(
+      filter(COMMENT_AND_SUBJECT, "cringe"),
+      filter(COMMENT_AND_SUBJECT, "based"),
+      filter(COMMENT_AND_SUBJECT, "sovl"),
+      filter(COMMENT_AND_SUBJECT, "kino"),
+      filter(COMMENT_AND_SUBJECT, "literally"),
+      filter(COMMENT_AND_SUBJECT, "genuinely"),
+      filter(COMMENT_AND_SUBJECT, "desu"),
+      filter(COMMENT_AND_SUBJECT, "sauce"),
+      filter(COMMENT_AND_SUBJECT, "bump"),
+      filter(COMMENT_AND_SUBJECT, "webm"),
+      filter(COMMENT_AND_SUBJECT, "general"),
+      filter(COMMENT_AND_SUBJECT, "battery"),
+      filter(COMMENT_AND_SUBJECT, "privacy"),
+      filter(COMMENT_AND_SUBJECT, "windows"),
+      filter(COMMENT_AND_SUBJECT, "rust"),
+      filter(COMMENT_AND_SUBJECT, "\"kernel driver\""),
+      filter(COMMENT_AND_SUBJECT, "\"memory cache\""),
+      filter(COMMENT_AND_SUBJECT, "proxy browser extension"),
+      filter(COMMENT_AND_SUBJECT, "screen*"),
+      filter(COMMENT_AND_SUBJECT, "*pol*"),
+      filter(COMMENT_AND_SUBJECT, "bench*"),
+      filter(COMMENT_AND_SUBJECT, "anime manga"),
+      filter(COMMENT_AND_SUBJECT, "/\\bl+o+l+\\b/i"),
+      filter(COMMENT_AND_SUBJECT, "/(?:you|u) +(?:are|r) +retarded/i"),
+      filter(COMMENT_AND_SUBJECT, "/\\d{3,}\\s*fps/i"),
+      filter(COMMENT_AND_SUBJECT, "/^same$/i"),
+      filter(COMMENT_AND_SUBJECT, "/youtube\\.com\\/watch\\?v=/"),
+      filter(COMMENT_AND_SUBJECT, "/(?:discord|telegram)\\.(?:gg|me)/i"),
+      filter(FilterType.COMMENT.flag, "/(.)\\1{7,}/"),
+      filter(FilterType.SUBJECT.flag, "/general/i"),
+      filter(FilterType.NAME.flag, "Based Department"),
+      filter(FilterType.NAME.flag, "/^Nameless$/"),
+      filter(FilterType.TRIPCODE.flag, "!Ep8pui8Vw2"),
+      filter(FilterType.TRIPCODE.flag, "!!tripfag"),
+      filter(FilterType.ID.flag, "Zx9Yw8Vu"),
+      filter(FilterType.ID.flag, "Pp7Aa8Ss"),
+      filter(FilterType.FILENAME.flag, "screenshot*"),
+      filter(FilterType.FILENAME.flag, "/^IMG_\\d+/"),
+      filter(FilterType.COUNTRY_CODE.flag, "BR"),
+      filter(FilterType.COUNTRY_CODE.flag, "RU"),
+      filter(FilterType.IMAGE.flag, "aGVsbG8gd29ybGQgaGFzaA=="),
+      filter(FilterType.COMMENT.flag or FilterType.NAME.flag or FilterType.FILENAME.flag, "unknown")
+    )
+
+    private fun filter(type: Int, pattern: String): ChanFilter {
+      return ChanFilter(
+        enabled = true,
+        type = type,
+        pattern = pattern,
+        action = FilterAction.HIDE.id
+      )
+    }
+  }
+
+}
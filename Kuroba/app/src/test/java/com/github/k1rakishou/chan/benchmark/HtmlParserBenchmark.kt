@@ -0,0 +1,60 @@
+package com.github.k1rakishou.chan.benchmark
+
+import com.github.k1rakishou.common.AndroidUtils
+import com.github.k1rakishou.core_parser.comment.HtmlParser
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.shadows.ShadowLog
+
+/**
+ * Measures HtmlParser.parse() (the html comment tokenizer used by the comment parsers) alone over the
+ * raw comments of every post of the recorded responses.
+ * */
+@RunWith(RobolectricTestRunner::class)
+class HtmlParserBenchmark {
+  private lateinit var environment: BenchmarkEnvironment
+
+  @Before
+  fun init() {
+    BenchmarkRunner.assumeEnabled()
+
+    AndroidUtils.init(RuntimeEnvironment.application)
+    ShadowLog.stream = System.out
+
+    environment = BenchmarkEnvironment()
+  }
+
+  @Test
+  fun `parse thread comments`() {
+    FixtureSite.values().forEach { fixtureSite ->
+      val comments = environment.readThread(fixtureSite)
+        .map { postBuilder -> postBuilder.postCommentBuilder.getComment().toString() }
+
+      benchmarkParsing("${fixtureSite.name} parse ${comments.size} thread comments", comments)
+    }
+  }
+
+  @Test
+  fun `parse catalog comments`() {
+    FixtureSite.values()
+      .filter { fixtureSite -> fixtureSite.catalogFixture != null }
+      .forEach { fixtureSite ->
+        val comments = environment.readCatalog(fixtureSite)
+          .map { postBuilder -> postBuilder.postCommentBuilder.getComment().toString() }
+
+        benchmarkParsing("${fixtureSite.name} parse ${comments.size} catalog comments", comments)
+      }
+  }
+
+  private fun benchmarkParsing(name: String, comments: List<String>) {
+    BenchmarkRunner.run(
+      name = name,
+      setUp = { HtmlParser() },
+      measure = { htmlParser -> comments.sumOf { comment -> htmlParser.parse(comment).nodes.size } }
+    )
+  }
+
+}
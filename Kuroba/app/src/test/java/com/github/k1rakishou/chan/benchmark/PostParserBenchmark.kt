@@ -0,0 +1,67 @@
+package com.github.k1rakishou.chan.benchmark
+
+import com.github.k1rakishou.common.AndroidUtils
+import junit.framework.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.shadows.ShadowLog
+
+/**
+ * Measures PostParser.parseFull() (html comment parsing into spans, name/subject/tripcode parsing)
+ * for every post of the recorded responses. parseFull() mutates the builders so every iteration
+ * reads the fixture again in its (not measured) setUp.
+ * */
+@RunWith(RobolectricTestRunner::class)
+class PostParserBenchmark {
+  private lateinit var environment: BenchmarkEnvironment
+
+  @Before
+  fun init() {
+    BenchmarkRunner.assumeEnabled()
+
+    AndroidUtils.init(RuntimeEnvironment.application)
+    ShadowLog.stream = System.out
+
+    environment = BenchmarkEnvironment()
+  }
+
+  @Test
+  fun `parse thread posts`() {
+    FixtureSite.values().forEach { fixtureSite ->
+      val chanReader = environment.chanReader(fixtureSite)
+      val postParser = environment.postParser(fixtureSite)
+
+      val postBuilders = environment.readThread(fixtureSite, chanReader)
+      assertEquals(postBuilders.size, environment.parsePosts(postParser, postBuilders, false).size)
+
+      BenchmarkRunner.run(
+        name = "${fixtureSite.name} parse ${postBuilders.size} thread posts",
+        setUp = { environment.readThread(fixtureSite, chanReader) },
+        measure = { builders -> environment.parsePosts(postParser, builders, false) }
+      )
+    }
+  }
+
+  @Test
+  fun `parse catalog posts`() {
+    FixtureSite.values()
+      .filter { fixtureSite -> fixtureSite.catalogFixture != null }
+      .forEach { fixtureSite ->
+        val chanReader = environment.chanReader(fixtureSite)
+        val postParser = environment.postParser(fixtureSite)
+
+        val postBuilders = environment.readCatalog(fixtureSite, chanReader)
+        assertEquals(postBuilders.size, environment.parsePosts(postParser, postBuilders, true).size)
+
+        BenchmarkRunner.run(
+          name = "${fixtureSite.name} parse ${postBuilders.size} catalog posts",
+          setUp = { environment.readCatalog(fixtureSite, chanReader) },
+          measure = { builders -> environment.parsePosts(postParser, builders, true) }
+        )
+      }
+  }
+
+}
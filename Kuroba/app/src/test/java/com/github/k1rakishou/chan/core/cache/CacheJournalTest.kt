@@ -0,0 +1,118 @@
+package com.github.k1rakishou.chan.core.cache
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+
+class CacheJournalTest {
+  private lateinit var tempDir: File
+  private lateinit var journalFile: File
+
+  @Before
+  fun setUp() {
+    tempDir = Files.createTempDirectory("cache_journal_test").toFile()
+    journalFile = File(tempDir, "journal")
+  }
+
+  @After
+  fun tearDown() {
+    tempDir.deleteRecursively()
+  }
+
+  @Test
+  fun `test missing journal needs to be rebuilt`() {
+    assertFalse(CacheJournal(journalFile).load())
+  }
+
+  @Test
+  fun `test operations are replayed on load`() {
+    val journal = CacheJournal(journalFile)
+    journal.rewrite(emptyList())
+
+    journal.put(entry("a", size = 0, isDownloaded = false))
+    journal.put(entry("b", size = 200, isDownloaded = true))
+    journal.put(entry("a", size = 100, isDownloaded = true))
+    journal.markAccessed("b", CacheJournal.ACCESS_TIME_GRANULARITY_MS + 10)
+    journal.put(entry("c", size = 300, isDownloaded = true))
+    journal.remove("c")
+
+    val loadedJournal = CacheJournal(journalFile)
+    assertTrue(loadedJournal.load())
+
+    assertEquals(2, loadedJournal.size())
+    assertEquals(300L, loadedJournal.totalSize())
+    assertEquals(entry("a", size = 100, isDownloaded = true), loadedJournal.get("a"))
+    assertEquals(CacheJournal.ACCESS_TIME_GRANULARITY_MS + 10, loadedJournal.get("b")!!.lastAccess)
+    assertNull(loadedJournal.get("c"))
+  }
+
+  @Test
+  fun `test frequent accesses are not persisted`() {
+    val journal = CacheJournal(journalFile)
+    journal.rewrite(listOf(entry("a", size = 100, isDownloaded = true)))
+    val journalLength = journalFile.length()
+
+    journal.markAccessed("a", CacheJournal.ACCESS_TIME_GRANULARITY_MS - 1)
+
+    assertEquals(journalLength, journalFile.length())
+    assertEquals(0L, journal.get("a")!!.lastAccess)
+  }
+
+  @Test
+  fun `test partially written last operation is skipped`() {
+    val journal = CacheJournal(journalFile)
+    journal.rewrite(emptyList())
+    journal.put(entry("a", size = 100, isDownloaded = true))
+
+    journalFile.appendText("P b 0 0 20")
+
+    val loadedJournal = CacheJournal(journalFile)
+    assertTrue(loadedJournal.load())
+    assertEquals(listOf(entry("a", size = 100, isDownloaded = true)), loadedJournal.snapshot())
+
+    // The broken line must be gone so that new operations are not appended to it
+    loadedJournal.put(entry("c", size = 10, isDownloaded = true))
+
+    val reloadedJournal = CacheJournal(journalFile)
+    assertTrue(reloadedJournal.load())
+    assertEquals(2, reloadedJournal.size())
+  }
+
+  @Test
+  fun `test compaction keeps only the latest state`() {
+    val journal = CacheJournal(journalFile)
+    journal.rewrite(emptyList())
+
+    repeat(3000) { index ->
+      journal.put(entry("a", size = index.toLong(), isDownloaded = true))
+    }
+
+    assertTrue(journal.needsCompaction())
+    val journalLength = journalFile.length()
+
+    journal.compact()
+
+    assertFalse(journal.needsCompaction())
+    assertTrue(journalFile.length() < journalLength)
+
+    val loadedJournal = CacheJournal(journalFile)
+    assertTrue(loadedJournal.load())
+    assertEquals(listOf(entry("a", size = 2999, isDownloaded = true)), loadedJournal.snapshot())
+  }
+
+  private fun entry(key: String, size: Long, isDownloaded: Boolean): CacheJournal.Entry {
+    return CacheJournal.Entry(
+      key = key,
+      createdOn = 0L,
+      lastAccess = 0L,
+      size = size,
+      isDownloaded = isDownloaded
+    )
+  }
+}
@@ -0,0 +1,98 @@
+package com.github.k1rakishou.chan.core.cache
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.file.Files
+
+class PackedSegmentStoreTest {
+  private lateinit var segmentsDir: File
+
+  @Before
+  fun setUp() {
+    segmentsDir = File(Files.createTempDirectory("packed_segment_store_test").toFile(), "segments")
+  }
+
+  @After
+  fun tearDown() {
+    segmentsDir.parentFile.deleteRecursively()
+  }
+
+  @Test
+  fun `test entries survive reopening`() {
+    val store = createStore()
+    store.put("a", data(100, 1))
+    store.put("b", data(200, 2))
+    store.put("a", data(50, 3))
+    store.remove("b")
+
+    val reopenedStore = createStore()
+    reopenedStore.ensureLoaded()
+
+    assertEquals(1, reopenedStore.entriesCount())
+    assertTrue(data(50, 3).contentEquals(reopenedStore.get("a")))
+    assertNull(reopenedStore.get("b"))
+  }
+
+  @Test
+  fun `test partially written last record is cut off`() {
+    val store = createStore()
+    store.put("a", data(100, 1))
+    store.put("b", data(100, 2))
+
+    val segmentFile = segmentsDir.listFiles()!!.single()
+    RandomAccessFile(segmentFile, "rw").use { raf -> raf.setLength(raf.length() - 10) }
+
+    val reopenedStore = createStore()
+    reopenedStore.ensureLoaded()
+
+    assertTrue(data(100, 1).contentEquals(reopenedStore.get("a")))
+    assertFalse(reopenedStore.contains("b"))
+
+    reopenedStore.put("c", data(100, 3))
+
+    val reopenedAgainStore = createStore()
+    reopenedAgainStore.ensureLoaded()
+    assertTrue(data(100, 3).contentEquals(reopenedAgainStore.get("c")))
+  }
+
+  @Test
+  fun `test oldest segment is evicted and accessed entries are kept`() {
+    val store = createStore(maxSizeBytes = 3000, segmentMaxSizeBytes = 1000)
+
+    store.put("a", data(400, 1))
+    store.put("b", data(400, 2))
+    store.get("a")
+
+    // Each segment holds two entries, the fourth segment pushes the total size over the limit
+    for (index in 0 until 6) {
+      store.put("filler_$index", data(400, 10 + index))
+    }
+
+    assertTrue(store.totalSize() <= 3000)
+    assertTrue(data(400, 1).contentEquals(store.get("a")))
+    assertNull(store.get("b"))
+
+    val reopenedStore = createStore(maxSizeBytes = 3000, segmentMaxSizeBytes = 1000)
+    reopenedStore.ensureLoaded()
+    assertEquals(store.entriesCount(), reopenedStore.entriesCount())
+    assertTrue(data(400, 1).contentEquals(reopenedStore.get("a")))
+  }
+
+  private fun createStore(
+    maxSizeBytes: Long = 1024 * 1024,
+    segmentMaxSizeBytes: Long = PackedSegmentStore.DEFAULT_SEGMENT_MAX_SIZE_BYTES
+  ): PackedSegmentStore {
+    return PackedSegmentStore(segmentsDir, maxSizeBytes, segmentMaxSizeBytes)
+  }
+
+  private fun data(size: Int, value: Int): ByteArray {
+    return ByteArray(size) { value.toByte() }
+  }
+}
@@ -0,0 +1,81 @@
+package com.github.k1rakishou.chan.core.diagnostics
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+
+class LatencyHistogramTest {
+
+  @Test
+  fun `test every value falls into the bucket that covers it`() {
+    var value = 0L
+
+    while (value <= LatencyHistogram.MAX_TRACKABLE_MICROS) {
+      val index = LatencyHistogram.bucketIndex(value)
+
+      assertTrue(index in 0 until LatencyHistogram.BUCKETS_COUNT)
+      assertTrue(value <= LatencyHistogram.bucketHighestValue(index))
+
+      if (index > 0) {
+        assertTrue(value > LatencyHistogram.bucketHighestValue(index - 1))
+      }
+
+      value = value * 9 / 8 + 1
+    }
+  }
+
+  @Test
+  fun `test percentiles are within the bucket precision`() {
+    val histogram = LatencyHistogram()
+
+    for (micros in 1L..10_000L) {
+      histogram.recordMicros(micros)
+    }
+
+    val snapshot = histogram.snapshot()
+
+    assertEquals(10_000L, snapshot.count)
+    assertEquals(10_000L, snapshot.maxMicros)
+    assertEquals(5000L, snapshot.meanMicros)
+    assertWithinPrecision(5000L, snapshot.p50Micros)
+    assertWithinPrecision(9500L, snapshot.p95Micros)
+    assertWithinPrecision(9900L, snapshot.p99Micros)
+  }
+
+  @Test
+  fun `test empty and reset histograms`() {
+    val histogram = LatencyHistogram()
+    assertEquals(LatencyHistogram.Snapshot.EMPTY, histogram.snapshot())
+
+    histogram.recordNanos(5_000_000L)
+    assertEquals(5000L, histogram.snapshot().maxMicros)
+
+    histogram.reset()
+    assertEquals(LatencyHistogram.Snapshot.EMPTY, histogram.snapshot())
+  }
+
+  @Test
+  fun `test registry records per site and for all sites`() {
+    val metricsRegistry = MetricsRegistry()
+
+    metricsRegistry.recordMillis(MetricsRegistry.LOAD_PARSE, "4chan", 10L)
+    metricsRegistry.recordMillis(MetricsRegistry.LOAD_PARSE, "2ch", 30L)
+    metricsRegistry.increment(MetricsRegistry.LOAD_REQUESTS, "4chan")
+    metricsRegistry.increment(MetricsRegistry.LOAD_REQUESTS, null)
+
+    val snapshot = metricsRegistry.snapshot()
+    val histograms = snapshot.histogramsOf(MetricsRegistry.LOAD_PARSE)
+
+    assertEquals(listOf(MetricsRegistry.ALL_SITES, "2ch", "4chan"), histograms.map { it.site })
+    assertEquals(2L, histograms.first().snapshot.count)
+
+    val counters = snapshot.countersOf(MetricsRegistry.LOAD_REQUESTS).associate { it.site to it.value }
+    assertEquals(mapOf(MetricsRegistry.ALL_SITES to 2L, "4chan" to 1L), counters)
+  }
+
+  private fun assertWithinPrecision(expected: Long, actual: Long) {
+    // Buckets are 1/16 of a power of two wide
+    assertTrue("expected ~$expected but was $actual", Math.abs(actual - expected) <= expected / 8)
+  }
+
+}
@@ -0,0 +1,219 @@
+package com.github.k1rakishou.chan.core.helper
+
+import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient
+import com.github.k1rakishou.chan.core.manager.SiteManager
+import com.github.k1rakishou.chan.core.site.Site
+import com.github.k1rakishou.chan.core.site.SiteEndpoints
+import com.github.k1rakishou.chan.core.site.SiteRequestModifier
+import com.github.k1rakishou.common.AndroidUtils
+import com.github.k1rakishou.common.AppConstants
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.google.gson.stream.JsonReader
+import com.nhaarman.mockitokotlin2.whenever
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import kotlinx.coroutines.runBlocking
+import okhttp3.OkHttpClient
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.shadows.ShadowLog
+import java.io.StringReader
+
+@RunWith(RobolectricTestRunner::class)
+class BoardThreadsLastModifiedPollerTest {
+  private lateinit var server: MockWebServer
+  private lateinit var poller: BoardThreadsLastModifiedPoller
+
+  @Before
+  fun init() {
+    AndroidUtils.init(RuntimeEnvironment.application)
+    ShadowLog.stream = System.out
+
+    server = MockWebServer()
+    server.start()
+
+    val appConstants = Mockito.mock(AppConstants::class.java)
+    whenever(appConstants.userAgent).thenReturn("test")
+
+    val siteEndpoints = Mockito.mock(SiteEndpoints::class.java)
+    whenever(siteEndpoints.threadsLastModified(BOARD_DESCRIPTOR)).thenReturn(server.url("/g/threads.json"))
+
+    val site = Mockito.mock(Site::class.java)
+    whenever(site.endpoints()).thenReturn(siteEndpoints)
+    whenever(site.requestModifier()).thenReturn(object : SiteRequestModifier<Site>(site, appConstants) {})
+
+    val siteManager = Mockito.mock(SiteManager::class.java)
+    whenever(siteManager.bySiteDescriptor(BOARD_DESCRIPTOR.siteDescriptor)).thenReturn(site)
+
+    val proxiedOkHttpClient = Mockito.mock(ProxiedOkHttpClient::class.java)
+    whenever(proxiedOkHttpClient.okHttpClient()).thenReturn(OkHttpClient())
+
+    poller = BoardThreadsLastModifiedPoller(
+      verboseLogsEnabled = false,
+      proxiedOkHttpClient = { proxiedOkHttpClient },
+      siteManager = siteManager
+    )
+  }
+
+  @After
+  fun tearDown() {
+    server.shutdown()
+  }
+
+  @Test
+  fun `test threads json is parsed`() {
+    val threadsJson = """
+      [
+        {
+          "page": 1,
+          "threads": [
+            {"no": 1, "last_modified": 1000, "replies": 10},
+            {"no": 2, "last_modified": 2000, "extra": {"no": 100, "last_modified": 100}}
+          ]
+        },
+        {
+          "page": 2,
+          "threads": [
+            {"no": 3, "last_modified": 3000},
+            {"no": 4},
+            {"last_modified": 5000}
+          ]
+        },
+        {
+          "page": 3,
+          "threads": []
+        }
+      ]
+    """.trimIndent()
+
+    val threadsLastModified = JsonReader(StringReader(threadsJson)).use { jsonReader ->
+      poller.readThreadsLastModified(jsonReader)
+    }
+
+    assertEquals(mapOf(1L to 1000L, 2L to 2000L, 3L to 3000L), threadsLastModified)
+  }
+
+  @Test
+  fun `test only threads that have not changed since the last successful fetch are skipped`() = runBlocking<Unit> {
+    val threads = listOf(THREAD_1, THREAD_2, THREAD_3)
+
+    enqueueThreadsJson(1L to 1000L, 2L to 2000L, 3L to 3000L)
+    // Never fetched before
+    assertTrue(poller.findUnchangedThreads(threads).isEmpty())
+    threads.forEach { threadDescriptor -> poller.onThreadFetched(threadDescriptor, success = true) }
+
+    enqueueThreadsJson(1L to 1000L, 2L to 2000L, 3L to 3000L)
+    assertEquals(threads.toSet(), poller.findUnchangedThreads(threads))
+
+    enqueueThreadsJson(1L to 1500L, 2L to 2000L)
+    // Thread 1 has new posts, thread 3 is not on the board anymore (archived or deleted)
+    assertEquals(setOf(THREAD_2), poller.findUnchangedThreads(threads))
+  }
+
+  @Test
+  fun `test threads that failed to be fetched are not skipped`() = runBlocking<Unit> {
+    val threads = listOf(THREAD_1, THREAD_2)
+
+    enqueueThreadsJson(1L to 1000L, 2L to 2000L)
+    poller.findUnchangedThreads(threads)
+    poller.onThreadFetched(THREAD_1, success = true)
+    poller.onThreadFetched(THREAD_2, success = false)
+
+    enqueueThreadsJson(1L to 1000L, 2L to 2000L)
+    assertEquals(setOf(THREAD_1), poller.findUnchangedThreads(threads))
+  }
+
+  @Test
+  fun `test skipped thread that is fetched anyway stays unchanged`() = runBlocking<Unit> {
+    val threads = listOf(THREAD_1, THREAD_2)
+
+    enqueueThreadsJson(1L to 1000L, 2L to 2000L)
+    poller.findUnchangedThreads(threads)
+    threads.forEach { threadDescriptor -> poller.onThreadFetched(threadDescriptor, success = true) }
+
+    enqueueThreadsJson(1L to 1000L, 2L to 2000L)
+    assertEquals(threads.toSet(), poller.findUnchangedThreads(threads))
+    // E.g. the bookmark was never fetched successfully so the watcher fetches it anyway
+    poller.onThreadFetched(THREAD_1, success = true)
+
+    enqueueThreadsJson(1L to 1000L, 2L to 2000L)
+    assertEquals(threads.toSet(), poller.findUnchangedThreads(threads))
+  }
+
+  @Test
+  fun `test not modified board json reuses the previous board json`() = runBlocking<Unit> {
+    val threads = listOf(THREAD_1, THREAD_2)
+
+    server.enqueue(threadsJsonResponse(1L to 1000L, 2L to 2000L).setHeader("ETag", "\"board\""))
+    poller.findUnchangedThreads(threads)
+    threads.forEach { threadDescriptor -> poller.onThreadFetched(threadDescriptor, success = true) }
+
+    server.enqueue(MockResponse().setResponseCode(304))
+    assertEquals(threads.toSet(), poller.findUnchangedThreads(threads))
+
+    assertNull(server.takeRequest().getHeader("If-None-Match"))
+    assertEquals("\"board\"", server.takeRequest().getHeader("If-None-Match"))
+  }
+
+  @Test
+  fun `test board json is not requested for a single thread of a board`() = runBlocking<Unit> {
+    assertTrue(poller.findUnchangedThreads(listOf(THREAD_1)).isEmpty())
+    assertEquals(0, server.requestCount)
+  }
+
+  @Test
+  fun `test states of threads that are not retained are forgotten`() = runBlocking<Unit> {
+    val threads = listOf(THREAD_1, THREAD_2)
+
+    server.enqueue(threadsJsonResponse(1L to 1000L, 2L to 2000L).setHeader("ETag", "\"board\""))
+    poller.findUnchangedThreads(threads)
+    threads.forEach { threadDescriptor -> poller.onThreadFetched(threadDescriptor, success = true) }
+
+    // Thread 2 bookmark was deleted
+    poller.retainThreads(setOf(THREAD_1))
+
+    server.enqueue(MockResponse().setResponseCode(304))
+    assertEquals(setOf(THREAD_1), poller.findUnchangedThreads(threads))
+
+    // No threads of the board are left so the board json validators are forgotten as well
+    poller.retainThreads(emptySet())
+
+    enqueueThreadsJson(1L to 1000L, 2L to 2000L)
+    assertTrue(poller.findUnchangedThreads(threads).isEmpty())
+
+    server.takeRequest()
+    server.takeRequest()
+    assertNull(server.takeRequest().getHeader("If-None-Match"))
+  }
+
+  private fun enqueueThreadsJson(vararg threads: Pair<Long, Long>) {
+    server.enqueue(threadsJsonResponse(*threads))
+  }
+
+  private fun threadsJsonResponse(vararg threads: Pair<Long, Long>): MockResponse {
+    val threadsJson = threads.joinToString(separator = ",") { (threadNo, lastModified) ->
+      "{\"no\": $threadNo, \"last_modified\": $lastModified}"
+    }
+
+    return MockResponse()
+      .setResponseCode(200)
+      .setBody("[{\"page\": 1, \"threads\": [$threadsJson]}]")
+  }
+
+  companion object {
+    private val BOARD_DESCRIPTOR = BoardDescriptor.create("test", "g")
+    private val THREAD_1 = ChanDescriptor.ThreadDescriptor.create(BOARD_DESCRIPTOR, 1L)
+    private val THREAD_2 = ChanDescriptor.ThreadDescriptor.create(BOARD_DESCRIPTOR, 2L)
+    private val THREAD_3 = ChanDescriptor.ThreadDescriptor.create(BOARD_DESCRIPTOR, 3L)
+  }
+
+}
@@ -0,0 +1,163 @@
+package com.github.k1rakishou.chan.core.helper
+
+import com.github.k1rakishou.chan.core.manager.ChanFilterManager
+import com.github.k1rakishou.common.AndroidUtils
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.filter.ChanFilter
+import com.github.k1rakishou.model.data.filter.FilterAction
+import com.github.k1rakishou.model.data.filter.FilterType
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import com.github.k1rakishou.model.data.post.ChanPostHttpIcon
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNotSame
+import junit.framework.Assert.assertSame
+import junit.framework.Assert.assertTrue
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.shadows.ShadowLog
+
+@RunWith(RobolectricTestRunner::class)
+class CompiledFilterSetTest {
+  private lateinit var filterEngine: FilterEngine
+
+  @Before
+  fun init() {
+    AndroidUtils.init(RuntimeEnvironment.application)
+    ShadowLog.stream = System.out
+
+    // Cancelled scope so that FilterEngine doesn't start listening for filter changes
+    val cancelledScope = CoroutineScope(Job().apply { cancel() })
+    filterEngine = FilterEngine(cancelledScope, false, Mockito.mock(ChanFilterManager::class.java))
+  }
+
+  @Test
+  fun `test compiled set matches the same filters as matching them one by one`() {
+    val compiledFilterSet = filterEngine.getOrCompileFilterSet(BOARD_DESCRIPTOR, FILTERS)
+    var totalMatches = 0
+
+    for (post in createPosts()) {
+      val expected = FILTERS.indices.filter { index -> filterEngine.matches(FILTERS[index], post) }
+      val matchedFilters = compiledFilterSet.findMatchingFilters(post)
+      val actual = FILTERS.indices.filter { index -> matchedFilters.get(index) }
+
+      assertEquals(post.toString(), expected, actual)
+      totalMatches += actual.size
+    }
+
+    // Make sure the posts actually exercise the filters
+    assertTrue(totalMatches > FILTERS.size)
+  }
+
+  @Test
+  fun `test compiled set is reused while filters stay the same`() {
+    val compiledFilterSet = filterEngine.getOrCompileFilterSet(BOARD_DESCRIPTOR, FILTERS)
+
+    assertSame(compiledFilterSet, filterEngine.getOrCompileFilterSet(BOARD_DESCRIPTOR, FILTERS.toList()))
+    assertNotSame(compiledFilterSet, filterEngine.getOrCompileFilterSet(BOARD_DESCRIPTOR, FILTERS.drop(1)))
+  }
+
+  private fun createPosts(): List<ChanPostBuilder> {
+    val comments = listOf(
+      "",
+      "Rust is based",
+      "I don't trust rusty code",
+      "CRINGE and BASED",
+      "the kernel driver crashed again",
+      "kernel and driver but not together",
+      "screenshots or it didn't happen",
+      "you are retarded",
+      "lol lol",
+      "loooool",
+      "same",
+      "same thing",
+      "aaaaaaaaaa",
+      "check https://www.youtube.com/watch?v=abc",
+      "discord.gg/invite",
+      "unknown",
+      "proxy",
+      "browser extension proxy"
+    )
+
+    val posts = mutableListOf<ChanPostBuilder>()
+
+    comments.forEachIndexed { index, comment ->
+      posts += post(index, comment)
+      posts += post(index, comment).op(true).subject("General thread")
+      posts += post(index, comment).isSavedReply(true).name("Based Department")
+      posts += post(index, comment).tripcode("!Ep8pui8Vw2").posterId("Zx9Yw8Vu")
+      posts += post(index, comment).addHttpIcon(ChanPostHttpIcon(ICON_URL, "Brazil/BR"))
+      posts += post(index, comment).addHttpIcon(ChanPostHttpIcon(ICON_URL, "Russia/ru"))
+      posts += post(index, comment).sticky(true)
+      posts += post(index, comment).moderatorCapcode("mod")
+    }
+
+    return posts
+  }
+
+  private fun post(index: Int, comment: String): ChanPostBuilder {
+    return ChanPostBuilder()
+      .boardDescriptor(BOARD_DESCRIPTOR)
+      .id(index + 1L)
+      .opId(1L)
+      .comment(comment)
+  }
+
+  companion object {
+    private val BOARD_DESCRIPTOR = BoardDescriptor.create("test", "g")
+    private val ICON_URL = "https://test.com/flag.png".toHttpUrl()
+    private val COMMENT_AND_SUBJECT = FilterType.COMMENT.flag or FilterType.SUBJECT.flag
+
+    private val FILTERS = listOf(
+      filter(COMMENT_AND_SUBJECT, "cringe"),
+      filter(COMMENT_AND_SUBJECT, "based"),
+      filter(COMMENT_AND_SUBJECT, "rust"),
+      filter(COMMENT_AND_SUBJECT, "\"kernel driver\""),
+      filter(COMMENT_AND_SUBJECT, "proxy browser extension"),
+      filter(COMMENT_AND_SUBJECT, "screen*"),
+      filter(COMMENT_AND_SUBJECT, "*ust*"),
+      filter(COMMENT_AND_SUBJECT, "/\\bl+o+l+\\b/i"),
+      filter(COMMENT_AND_SUBJECT, "/(?:you|u) +(?:are|r) +retarded/i"),
+      filter(COMMENT_AND_SUBJECT, "/^same$/i"),
+      filter(COMMENT_AND_SUBJECT, "/youtube\\.com\\/watch\\?v=/"),
+      filter(COMMENT_AND_SUBJECT, "/(?:discord|telegram)\\.(?:gg|me)/i"),
+      filter(FilterType.COMMENT.flag, "/(.)\\1{7,}/"),
+      filter(FilterType.SUBJECT.flag, "/general/i"),
+      filter(FilterType.NAME.flag, "Based Department"),
+      filter(FilterType.TRIPCODE.flag, "!Ep8pui8Vw2"),
+      filter(FilterType.ID.flag, "Zx9Yw8Vu"),
+      filter(FilterType.COUNTRY_CODE.flag, "BR"),
+      filter(FilterType.COUNTRY_CODE.flag, "RU"),
+      filter(FilterType.COMMENT.flag or FilterType.NAME.flag, "unknown"),
+      filter(COMMENT_AND_SUBJECT, "based", onlyOnOP = true),
+      filter(COMMENT_AND_SUBJECT, "based", applyToSaved = true),
+      filter(COMMENT_AND_SUBJECT, "nothing", applyToEmptyComments = true),
+      filter(COMMENT_AND_SUBJECT, "nothing", applyToEmptyComments = true, onlyOnOP = true)
+    )
+
+    private fun filter(
+      type: Int,
+      pattern: String,
+      onlyOnOP: Boolean = false,
+      applyToSaved: Boolean = false,
+      applyToEmptyComments: Boolean = false
+    ): ChanFilter {
+      return ChanFilter(
+        enabled = true,
+        type = type,
+        pattern = pattern,
+        action = FilterAction.HIDE.id,
+        onlyOnOP = onlyOnOP,
+        applyToSaved = applyToSaved,
+        applyToEmptyComments = applyToEmptyComments
+      )
+    }
+  }
+
+}
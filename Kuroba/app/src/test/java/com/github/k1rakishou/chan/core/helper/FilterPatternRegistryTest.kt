@@ -0,0 +1,96 @@
+package com.github.k1rakishou.chan.core.helper
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNotNull
+import junit.framework.Assert.assertSame
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.regex.Pattern
+import kotlin.concurrent.thread
+
+@RunWith(RobolectricTestRunner::class)
+class FilterPatternRegistryTest {
+  private val compiler: (String?, Int) -> Pattern? = { patternRaw, _ -> patternRaw?.let { Pattern.compile(it) } }
+
+  @Test
+  fun `test rebuild reuses already compiled patterns`() {
+    val registry = FilterPatternRegistry(collectStats = true)
+    registry.rebuild(listOf("a" to 0, "b" to 0), compiler)
+
+    val patternA = registry.get("a")
+    registry.rebuild(listOf("a" to 0, "c" to 0), compiler)
+
+    assertSame(patternA, registry.get("a"))
+    assertEquals(null, registry.get("b"))
+    assertEquals(3L, registry.stats().compiledPatterns)
+  }
+
+  @Test
+  fun `test patterns compiled on demand are bounded`() {
+    val registry = FilterPatternRegistry(collectStats = true)
+    registry.rebuild(listOf("filter" to 0), compiler)
+
+    repeat(1000) { index ->
+      assertNotNull(registry.getOrCompile("pattern_$index", 0, compiler))
+    }
+
+    val stats = registry.stats()
+    assertEquals(1, stats.patternsCount)
+    assertTrue(stats.onDemandPatternsCount < 1000)
+
+    // The most recently compiled pattern is still cached
+    val compiledPatterns = stats.compiledPatterns
+    registry.getOrCompile("pattern_999", 0, compiler)
+    assertEquals(compiledPatterns, registry.stats().compiledPatterns)
+  }
+
+  @Test
+  fun `test stats from all threads are counted`() {
+    val registry = FilterPatternRegistry(collectStats = true)
+    registry.rebuild(listOf("a+" to 0), compiler)
+    val pattern = registry.get("a+")!!
+
+    val threads = (0 until THREADS_COUNT).map {
+      thread {
+        repeat(ITERATIONS) {
+          registry.get("a+")
+          registry.get("missing")
+          registry.withMatcher(pattern, "aaa") { matcher -> matcher.find() }
+        }
+      }
+    }
+
+    threads.forEach { thread -> thread.join() }
+
+    val stats = registry.stats()
+    // +1 for the get() above
+    assertEquals(THREADS_COUNT * ITERATIONS + 1L, stats.hits)
+    assertEquals(THREADS_COUNT * ITERATIONS.toLong(), stats.misses)
+    // The first call on every thread creates the matcher
+    assertEquals(THREADS_COUNT * (ITERATIONS - 1L), stats.matcherReuses)
+  }
+
+  @Test
+  fun `test lookups are not counted when stats are disabled`() {
+    val registry = FilterPatternRegistry(collectStats = false)
+    registry.rebuild(listOf("a+" to 0), compiler)
+    val pattern = registry.get("a+")!!
+
+    registry.get("missing")
+    registry.withMatcher(pattern, "aaa") { matcher -> matcher.find() }
+    registry.withMatcher(pattern, "aaa") { matcher -> matcher.find() }
+
+    val stats = registry.stats()
+    assertEquals(0L, stats.hits)
+    assertEquals(0L, stats.misses)
+    assertEquals(0L, stats.matcherReuses)
+    assertEquals(1L, stats.compiledPatterns)
+  }
+
+  companion object {
+    private const val THREADS_COUNT = 8
+    private const val ITERATIONS = 1000
+  }
+}
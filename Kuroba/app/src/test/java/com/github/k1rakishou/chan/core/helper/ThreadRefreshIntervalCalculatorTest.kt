@@ -0,0 +1,55 @@
+package com.github.k1rakishou.chan.core.helper
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+
+class ThreadRefreshIntervalCalculatorTest {
+  private val calculator = ThreadRefreshIntervalCalculator()
+  private val config = calculator.config
+  private val now = 1_000_000L
+
+  @Test
+  fun `test not enough posts to estimate`() {
+    assertNull(calculator.calculateIntervalSeconds(longArrayOf(now - 10), now, false))
+  }
+
+  @Test
+  fun `test fast thread is refreshed often`() {
+    // A post every 2 seconds
+    val timestamps = postsEvery(seconds = 2, count = 20)
+
+    assertEquals(config.minIntervalSec, calculator.calculateIntervalSeconds(timestamps, now, false))
+  }
+
+  @Test
+  fun `test interval targets new posts per refresh`() {
+    // A post every 30 seconds, 5 posts per refresh -> 150 seconds
+    val timestamps = postsEvery(seconds = 30, count = 20)
+
+    assertEquals(150L, calculator.calculateIntervalSeconds(timestamps, now, false))
+  }
+
+  @Test
+  fun `test slow and stale threads back off`() {
+    val timestamps = postsEvery(seconds = 30, count = 20)
+
+    val quietFor5Minutes = calculator.calculateIntervalSeconds(timestamps, now + 300, false)!!
+    assertTrue(quietFor5Minutes > 150L)
+
+    val stale = calculator.calculateIntervalSeconds(timestamps, now + config.staleThreadSeconds, false)
+    assertEquals(config.maxIntervalSec, stale)
+  }
+
+  @Test
+  fun `test bump limited threads back off`() {
+    val timestamps = postsEvery(seconds = 30, count = 20)
+
+    assertEquals(450L, calculator.calculateIntervalSeconds(timestamps, now, true))
+  }
+
+  private fun postsEvery(seconds: Long, count: Int): LongArray {
+    return LongArray(count) { index -> now - (count - 1 - index) * seconds }
+  }
+}
@@ -0,0 +1,211 @@
+package com.github.k1rakishou.chan.core.manager
+
+import com.github.k1rakishou.common.AndroidUtils
+import com.github.k1rakishou.common.ModularResult
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanSavedReply
+import com.github.k1rakishou.model.repository.ChanSavedReplyRepository
+import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.argumentCaptor
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.whenever
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertNotNull
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeoutOrNull
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.shadows.ShadowLog
+
+@RunWith(RobolectricTestRunner::class)
+class SavedReplyManagerTest {
+  private lateinit var chanThreadsCache: ChanThreadsCache
+  private lateinit var savedReplyRepository: ChanSavedReplyRepository
+  private lateinit var savedReplyManager: SavedReplyManager
+
+  @Before
+  fun init() {
+    AndroidUtils.init(RuntimeEnvironment.application)
+    ShadowLog.stream = System.out
+
+    chanThreadsCache = Mockito.mock(ChanThreadsCache::class.java)
+    savedReplyRepository = Mockito.mock(ChanSavedReplyRepository::class.java)
+
+    runBlocking {
+      whenever(savedReplyRepository.savePost(any())).thenReturn(ModularResult.value(Unit))
+      whenever(savedReplyRepository.unsavePosts(any())).thenReturn(ModularResult.value(Unit))
+      whenever(savedReplyRepository.preloadForThread(any())).thenReturn(ModularResult.value(emptyList()))
+    }
+
+    savedReplyManager = SavedReplyManager(
+      verboseLogsEnabled = false,
+      chanThreadsCache = chanThreadsCache,
+      savedReplyRepository = savedReplyRepository
+    )
+  }
+
+  @Test
+  fun `test saved replies are looked up by post no and post sub no`() = runBlocking<Unit> {
+    preload(THREAD_1, postDescriptor(THREAD_1, 1L), postDescriptor(THREAD_1, 5L), postDescriptor(THREAD_1, 5L, 2L))
+
+    assertTrue(savedReplyManager.isSaved(THREAD_1, 5L, 0L))
+    assertTrue(savedReplyManager.isSaved(THREAD_1, 5L, 2L))
+    assertFalse(savedReplyManager.isSaved(THREAD_1, 5L, 1L))
+    assertFalse(savedReplyManager.isSaved(THREAD_1, 6L, 0L))
+    assertFalse(savedReplyManager.isSaved(THREAD_2, 5L, 0L))
+
+    // Catalog posts are original posts of threads
+    val catalogDescriptor = ChanDescriptor.CatalogDescriptor.create("test", "g")
+    assertTrue(savedReplyManager.isSaved(catalogDescriptor, THREAD_1.threadNo, 0L))
+    assertFalse(savedReplyManager.isSaved(catalogDescriptor, THREAD_2.threadNo, 0L))
+
+    assertTrue(savedReplyManager.isSaved(postDescriptor(THREAD_1, 5L, 2L)))
+    assertFalse(savedReplyManager.isSaved(postDescriptor(THREAD_2, 5L, 2L)))
+    assertEquals(postDescriptor(THREAD_1, 5L, 2L), savedReplyManager.getSavedReply(postDescriptor(THREAD_1, 5L, 2L))?.postDescriptor)
+    assertNull(savedReplyManager.getSavedReply(postDescriptor(THREAD_1, 5L, 1L)))
+
+    assertEquals(
+      listOf(postDescriptor(THREAD_1, 5L), postDescriptor(THREAD_1, 5L, 2L)),
+      savedReplyManager.retainSavedPostNoMap(
+        listOf(postDescriptor(THREAD_1, 4L), postDescriptor(THREAD_1, 5L), postDescriptor(THREAD_1, 5L, 2L)),
+        THREAD_1
+      )
+    )
+  }
+
+  @Test
+  fun `test concurrent saves and unsaves are not lost and old snapshots are not modified`() = runBlocking<Unit>(Dispatchers.Default) {
+    preload(THREAD_1, postDescriptor(THREAD_1, 1L))
+
+    val postDescriptors = (2L..201L).map { postNo -> postDescriptor(THREAD_1, postNo) }
+
+    postDescriptors
+      .chunked(20)
+      .map { chunk -> async { chunk.forEach { postDescriptor -> savedReplyManager.savePost(postDescriptor) } } }
+      .awaitAll()
+
+    val snapshot = savedReplyManager.getThreadSavedReplies(THREAD_1)
+    assertEquals(201, snapshot.size)
+    assertEquals(201, snapshot.map { chanSavedReply -> chanSavedReply.postDescriptor }.toSet().size)
+
+    val toUnsave = postDescriptors.filter { postDescriptor -> postDescriptor.postNo % 2 == 0L }
+
+    val readers = (0 until 4).map {
+      async {
+        repeat(100) {
+          val savedReplies = savedReplyManager.getThreadSavedReplies(THREAD_1)
+          assertEquals(savedReplies.size, savedReplies.map { chanSavedReply -> chanSavedReply.postDescriptor }.toSet().size)
+          // The original post is never unsaved
+          assertTrue(savedReplyManager.isSaved(THREAD_1, 1L, 0L))
+        }
+      }
+    }
+
+    val writers = toUnsave
+      .chunked(10)
+      .map { chunk -> async { chunk.forEach { postDescriptor -> savedReplyManager.unsavePost(postDescriptor) } } }
+
+    (readers + writers).awaitAll()
+
+    assertEquals(201 - toUnsave.size, savedReplyManager.getThreadSavedReplies(THREAD_1).size)
+    toUnsave.forEach { postDescriptor -> assertFalse(savedReplyManager.isSaved(postDescriptor)) }
+    postDescriptors.minus(toUnsave).forEach { postDescriptor -> assertTrue(savedReplyManager.isSaved(postDescriptor)) }
+
+    // Snapshots that were handed out before are immutable
+    assertEquals(201, snapshot.size)
+  }
+
+  @Test
+  fun `test saving a reply notifies the listeners`() = runBlocking<Unit> {
+    preload(THREAD_1)
+
+    var update = awaitUpdate()
+    savedReplyManager.saveReply(ChanSavedReply(postDescriptor(THREAD_1, 2L)))
+    assertNotNull(withTimeoutOrNull(1000) { update.await() })
+
+    // Already saved
+    update = awaitUpdate()
+    savedReplyManager.saveReply(ChanSavedReply(postDescriptor(THREAD_1, 2L)))
+    assertNull(withTimeoutOrNull(100) { update.await() })
+    update.cancel()
+
+    update = awaitUpdate()
+    savedReplyManager.unsavePost(postDescriptor(THREAD_1, 2L))
+    assertNotNull(withTimeoutOrNull(1000) { update.await() })
+  }
+
+  @Test
+  fun `test saving a reply of a thread that is not preloaded notifies the listeners`() = runBlocking<Unit> {
+    val update = awaitUpdate()
+    savedReplyManager.saveReply(ChanSavedReply(postDescriptor(THREAD_2, 2L)))
+    assertNotNull(withTimeoutOrNull(1000) { update.await() })
+
+    // It's loaded from the database together with the rest of the saved replies of the thread
+    assertTrue(savedReplyManager.getThreadSavedReplies(THREAD_2).isEmpty())
+    preload(THREAD_2, postDescriptor(THREAD_2, 2L))
+    assertTrue(savedReplyManager.isSaved(THREAD_2, 2L, 0L))
+  }
+
+  @Test
+  fun `test saved replies of removed thread posts are forgotten except the original post`() = runBlocking<Unit> {
+    preload(THREAD_1, postDescriptor(THREAD_1, 1L), postDescriptor(THREAD_1, 2L))
+    preload(THREAD_2, postDescriptor(THREAD_2, 3L))
+
+    val listenerCaptor = argumentCaptor<(ChanThreadsCache.ThreadDeleteEvent) -> Unit>()
+    verify(chanThreadsCache).addChanThreadDeleteEventListener(listenerCaptor.capture())
+
+    listenerCaptor.firstValue.invoke(
+      ChanThreadsCache.ThreadDeleteEvent.RemoveThreadPostsExceptOP(
+        listOf(ChanThreadsCache.ThreadDeleteEvent.RemoveThreadPostsExceptOP.Entry(THREAD_1, postDescriptor(THREAD_1, 1L)))
+      )
+    )
+
+    assertTrue(savedReplyManager.isSaved(THREAD_1, 1L, 0L))
+    assertFalse(savedReplyManager.isSaved(THREAD_1, 2L, 0L))
+    assertTrue(savedReplyManager.isSaved(THREAD_2, 3L, 0L))
+
+    listenerCaptor.firstValue.invoke(ChanThreadsCache.ThreadDeleteEvent.RemoveThreads(setOf(THREAD_2)))
+    assertFalse(savedReplyManager.isSaved(THREAD_2, 3L, 0L))
+  }
+
+  private fun CoroutineScope.awaitUpdate(): Deferred<Unit> {
+    return async(start = CoroutineStart.UNDISPATCHED) { savedReplyManager.savedRepliesUpdateFlow.first() }
+  }
+
+  private suspend fun preload(threadDescriptor: ChanDescriptor.ThreadDescriptor, vararg postDescriptors: PostDescriptor) {
+    val savedReplies = postDescriptors.map { postDescriptor -> ChanSavedReply(postDescriptor) }
+    whenever(savedReplyRepository.preloadForThread(threadDescriptor)).thenReturn(ModularResult.value(savedReplies))
+
+    savedReplyManager.preloadForThread(threadDescriptor)
+  }
+
+  private fun postDescriptor(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    postNo: Long,
+    postSubNo: Long = 0L
+  ): PostDescriptor {
+    return PostDescriptor.create(threadDescriptor, threadDescriptor.threadNo, postNo, postSubNo)
+  }
+
+  companion object {
+    private val THREAD_1 = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+    private val THREAD_2 = ChanDescriptor.ThreadDescriptor.create("test", "g", 2L)
+  }
+
+}
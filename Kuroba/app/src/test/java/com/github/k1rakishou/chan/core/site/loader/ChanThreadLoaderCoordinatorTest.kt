@@ -0,0 +1,232 @@
+package com.github.k1rakishou.chan.core.site.loader
+
+import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient
+import com.github.k1rakishou.chan.core.diagnostics.MetricsRegistry
+import com.github.k1rakishou.chan.core.helper.ChanLoadProgressNotifier
+import com.github.k1rakishou.chan.core.manager.BoardManager
+import com.github.k1rakishou.chan.core.manager.ThreadDownloadManager
+import com.github.k1rakishou.chan.core.site.Site
+import com.github.k1rakishou.chan.core.site.SiteEndpoints
+import com.github.k1rakishou.chan.core.site.SiteRequestModifier
+import com.github.k1rakishou.chan.core.site.SiteResolver
+import com.github.k1rakishou.chan.core.site.loader.internal.usecase.ParsePostsV1UseCase
+import com.github.k1rakishou.chan.core.site.parser.ChanReader
+import com.github.k1rakishou.common.AndroidUtils
+import com.github.k1rakishou.common.AppConstants
+import com.github.k1rakishou.common.ModularResult
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.options.ChanCacheOptions
+import com.github.k1rakishou.model.data.options.ChanCacheUpdateOptions
+import com.github.k1rakishou.model.data.options.ChanLoadOptions
+import com.github.k1rakishou.model.data.options.ChanReadOptions
+import com.github.k1rakishou.model.repository.ChanCatalogSnapshotRepository
+import com.github.k1rakishou.model.repository.ChanPostRepository
+import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache
+import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.whenever
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNotNull
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runBlocking
+import okhttp3.HttpUrl
+import okhttp3.OkHttpClient
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.shadows.ShadowLog
+import java.util.concurrent.LinkedBlockingQueue
+
+@RunWith(RobolectricTestRunner::class)
+class ChanThreadLoaderCoordinatorTest {
+  private lateinit var server: MockWebServer
+  private lateinit var threadUrl: HttpUrl
+  private lateinit var site: Site
+  private lateinit var chanPostRepository: ChanPostRepository
+  private lateinit var chanThreadsCache: ChanThreadsCache
+  private lateinit var coordinator: ChanThreadLoaderCoordinator
+
+  private val responses = LinkedBlockingQueue<() -> MockResponse>()
+
+  @Volatile
+  private var cachedPostsCount = 0
+
+  @Before
+  fun init() {
+    AndroidUtils.init(RuntimeEnvironment.application)
+    ShadowLog.stream = System.out
+
+    server = MockWebServer()
+    server.dispatcher = object : Dispatcher() {
+      override fun dispatch(request: RecordedRequest): MockResponse {
+        return responses.poll()?.invoke() ?: MockResponse().setResponseCode(500)
+      }
+    }
+    server.start()
+
+    threadUrl = server.url("/g/thread/1.json")
+
+    val appConstants = Mockito.mock(AppConstants::class.java)
+    whenever(appConstants.userAgent).thenReturn("test")
+
+    val siteEndpoints = Mockito.mock(SiteEndpoints::class.java)
+    whenever(siteEndpoints.thread(THREAD_DESCRIPTOR)).thenReturn(threadUrl)
+
+    site = Mockito.mock(Site::class.java)
+    whenever(site.endpoints()).thenReturn(siteEndpoints)
+    whenever(site.chanReader()).thenReturn(Mockito.mock(ChanReader::class.java))
+    whenever(site.requestModifier()).thenReturn(object : SiteRequestModifier<Site>(site, appConstants) {})
+
+    val siteResolver = Mockito.mock(SiteResolver::class.java)
+    whenever(siteResolver.findSiteForUrl(any())).thenReturn(site)
+
+    val proxiedOkHttpClient = Mockito.mock(ProxiedOkHttpClient::class.java)
+    whenever(proxiedOkHttpClient.okHttpClient()).thenReturn(OkHttpClient())
+
+    chanThreadsCache = Mockito.mock(ChanThreadsCache::class.java)
+    whenever(chanThreadsCache.getThreadPostsCount(THREAD_DESCRIPTOR)).thenAnswer { cachedPostsCount }
+
+    chanPostRepository = Mockito.mock(ChanPostRepository::class.java)
+    val threadDownloadManager = Mockito.mock(ThreadDownloadManager::class.java)
+
+    runBlocking {
+      whenever(threadDownloadManager.isThreadFullyDownloaded(THREAD_DESCRIPTOR)).thenReturn(false)
+      whenever(chanPostRepository.updateThreadState(any(), any(), any(), any())).thenReturn(ModularResult.value(Unit))
+      whenever(chanPostRepository.preloadForThread(THREAD_DESCRIPTOR)).thenReturn(ModularResult.value(Unit))
+      whenever(chanPostRepository.getThreadPosts(THREAD_DESCRIPTOR)).thenReturn(ModularResult.value(emptyList()))
+    }
+
+    coordinator = ChanThreadLoaderCoordinator(
+      proxiedOkHttpClient = proxiedOkHttpClient,
+      chanPostRepository = chanPostRepository,
+      chanCatalogSnapshotRepository = Mockito.mock(ChanCatalogSnapshotRepository::class.java),
+      appConstants = appConstants,
+      boardManager = Mockito.mock(BoardManager::class.java),
+      siteResolver = siteResolver,
+      chanLoadProgressNotifier = ChanLoadProgressNotifier(),
+      chanThreadsCache = chanThreadsCache,
+      chanCatalogSnapshotCache = Mockito.mock(ChanCatalogSnapshotCache::class.java),
+      threadDownloadManager = threadDownloadManager,
+      parsePostsV1UseCase = Mockito.mock(ParsePostsV1UseCase::class.java),
+      metricsRegistry = MetricsRegistry()
+    )
+  }
+
+  @After
+  fun tearDown() {
+    server.shutdown()
+  }
+
+  @Test
+  fun `test not modified response of a conditional request is returned as NotModified`() = runBlocking<Unit>(Dispatchers.Default) {
+    cachedPostsCount = 10
+    storeValidators(cachedPostsCount = 10)
+    responses.add { MockResponse().setResponseCode(304) }
+
+    val threadLoadResult = loadThread().unwrap()
+
+    assertTrue(threadLoadResult is ThreadLoadResult.NotModified)
+    assertEquals(1, server.requestCount)
+
+    val request = server.takeRequest()
+    assertEquals(VALIDATORS.eTag, request.getHeader("If-None-Match"))
+    assertEquals(VALIDATORS.lastModified, request.getHeader("If-Modified-Since"))
+
+    // The validators are still good for the next request
+    assertNotNull(getStoredValidators())
+  }
+
+  @Test
+  fun `test validators are not sent when the cache lost some of the posts`() = runBlocking<Unit>(Dispatchers.Default) {
+    cachedPostsCount = 5
+    storeValidators(cachedPostsCount = 10)
+    responses.add { MockResponse().setResponseCode(500) }
+
+    val threadLoadResult = loadThread()
+
+    assertNotNull(threadLoadResult.errorOrNull())
+    assertEquals(1, server.requestCount)
+
+    val request = server.takeRequest()
+    assertNull(request.getHeader("If-None-Match"))
+    assertNull(request.getHeader("If-Modified-Since"))
+  }
+
+  @Test
+  fun `test thread is reloaded without validators when the cache was cleared while waiting for the response`() = runBlocking<Unit>(Dispatchers.Default) {
+    cachedPostsCount = 10
+    storeValidators(cachedPostsCount = 10)
+
+    responses.add {
+      // The thread gets evicted from the cache while the request is in flight
+      cachedPostsCount = 0
+      MockResponse().setResponseCode(304)
+    }
+    responses.add { MockResponse().setResponseCode(500) }
+
+    val threadLoadResult = loadThread()
+
+    // Nothing in the cache and nothing in the database so the error of the second request is returned
+    assertNotNull(threadLoadResult.errorOrNull())
+    assertEquals(2, server.requestCount)
+
+    val conditionalRequest = server.takeRequest()
+    assertEquals(VALIDATORS.eTag, conditionalRequest.getHeader("If-None-Match"))
+
+    val retryRequest = server.takeRequest()
+    assertEquals(threadUrl, retryRequest.requestUrl)
+    assertNull(retryRequest.getHeader("If-None-Match"))
+    assertNull(retryRequest.getHeader("If-Modified-Since"))
+
+    assertNull(getStoredValidators())
+  }
+
+  private suspend fun loadThread(): ModularResult<ThreadLoadResult> {
+    return coordinator.loadThreadOrCatalog(
+      page = null,
+      site = site,
+      compositeCatalogDescriptor = null,
+      chanDescriptor = THREAD_DESCRIPTOR,
+      chanCacheOptions = ChanCacheOptions.onlyCacheInMemory(),
+      chanCacheUpdateOptions = ChanCacheUpdateOptions.UpdateCache,
+      chanReadOptions = ChanReadOptions.default(),
+      chanLoadOptions = ChanLoadOptions.retainAll()
+    )
+  }
+
+  private fun storeValidators(cachedPostsCount: Int) {
+    coordinator.conditionalRequestValidatorStore.put(
+      chanDescriptor = THREAD_DESCRIPTOR,
+      url = threadUrl,
+      cachedPostsCount = cachedPostsCount,
+      validators = VALIDATORS
+    )
+  }
+
+  private fun getStoredValidators(): ConditionalRequestValidators? {
+    return coordinator.conditionalRequestValidatorStore.get(
+      chanDescriptor = THREAD_DESCRIPTOR,
+      url = threadUrl,
+      cachedPostsCount = Int.MAX_VALUE
+    )
+  }
+
+  companion object {
+    private val THREAD_DESCRIPTOR = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+    private val VALIDATORS = ConditionalRequestValidators(
+      eTag = "\"5f8a2c1b\"",
+      lastModified = "Sat, 17 Oct 2026 10:00:00 GMT"
+    )
+  }
+
+}
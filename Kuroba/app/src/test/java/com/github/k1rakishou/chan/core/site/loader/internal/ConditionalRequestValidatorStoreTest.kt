@@ -0,0 +1,130 @@
+package com.github.k1rakishou.chan.core.site.loader.internal
+
+import com.github.k1rakishou.chan.core.site.loader.ConditionalRequestValidators
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNull
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import org.junit.Test
+
+class ConditionalRequestValidatorStoreTest {
+
+  @Test
+  fun `test stored validators are returned for the same url`() {
+    val store = ConditionalRequestValidatorStore()
+    store.put(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 10, validators = VALIDATORS)
+
+    assertEquals(VALIDATORS, store.get(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 10))
+    // New posts were added to the cache since then
+    assertEquals(VALIDATORS, store.get(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 15))
+    assertNull(store.get(OTHER_THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 10))
+  }
+
+  @Test
+  fun `test validators are not returned for a different url`() {
+    val store = ConditionalRequestValidatorStore()
+    store.put(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 10, validators = VALIDATORS)
+
+    assertNull(store.get(THREAD_DESCRIPTOR, THREAD_PARTIAL_URL, cachedPostsCount = 10))
+  }
+
+  @Test
+  fun `test validators are not returned once the cache lost some of the posts`() {
+    val store = ConditionalRequestValidatorStore()
+    store.put(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 10, validators = VALIDATORS)
+
+    assertNull(store.get(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 9))
+    assertNull(store.get(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 0))
+  }
+
+  @Test
+  fun `test storing no validators or an empty cache invalidates the stored validators`() {
+    val store = ConditionalRequestValidatorStore()
+
+    store.put(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 10, validators = VALIDATORS)
+    store.put(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 10, validators = null)
+    assertNull(store.get(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 10))
+
+    store.put(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 10, validators = VALIDATORS)
+    store.put(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 10, validators = ConditionalRequestValidators("", null))
+    assertNull(store.get(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 10))
+
+    store.put(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 10, validators = VALIDATORS)
+    store.put(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 0, validators = VALIDATORS)
+    assertNull(store.get(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 10))
+  }
+
+  @Test
+  fun `test remove invalidates the stored validators`() {
+    val store = ConditionalRequestValidatorStore()
+    store.put(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 10, validators = VALIDATORS)
+    store.put(OTHER_THREAD_DESCRIPTOR, OTHER_THREAD_URL, cachedPostsCount = 10, validators = VALIDATORS)
+
+    store.remove(THREAD_DESCRIPTOR)
+
+    assertNull(store.get(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 10))
+    assertEquals(VALIDATORS, store.get(OTHER_THREAD_DESCRIPTOR, OTHER_THREAD_URL, cachedPostsCount = 10))
+  }
+
+  @Test
+  fun `test least recently used validators are evicted`() {
+    val store = ConditionalRequestValidatorStore(maxSize = 2)
+    val thirdThreadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "g", 3L)
+    val thirdThreadUrl = "https://example.com/g/thread/3.json".toHttpUrl()
+
+    store.put(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 10, validators = VALIDATORS)
+    store.put(OTHER_THREAD_DESCRIPTOR, OTHER_THREAD_URL, cachedPostsCount = 10, validators = VALIDATORS)
+    // Makes the other thread the least recently used one
+    store.get(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 10)
+    store.put(thirdThreadDescriptor, thirdThreadUrl, cachedPostsCount = 10, validators = VALIDATORS)
+
+    assertEquals(VALIDATORS, store.get(THREAD_DESCRIPTOR, THREAD_URL, cachedPostsCount = 10))
+    assertNull(store.get(OTHER_THREAD_DESCRIPTOR, OTHER_THREAD_URL, cachedPostsCount = 10))
+    assertEquals(VALIDATORS, store.get(thirdThreadDescriptor, thirdThreadUrl, cachedPostsCount = 10))
+  }
+
+  @Test
+  fun `test validators are read from the response and applied to the request`() {
+    val response = Response.Builder()
+      .request(Request.Builder().url(THREAD_URL).build())
+      .protocol(Protocol.HTTP_1_1)
+      .code(200)
+      .message("OK")
+      .header("ETag", VALIDATORS.eTag!!)
+      .header("Last-Modified", VALIDATORS.lastModified!!)
+      .build()
+
+    val validators = ConditionalRequestValidators.fromResponse(response)
+    assertEquals(VALIDATORS, validators)
+
+    val requestBuilder = Request.Builder().url(THREAD_URL)
+    validators!!.applyTo(requestBuilder)
+    val request = requestBuilder.build()
+
+    assertEquals(VALIDATORS.eTag, request.header("If-None-Match"))
+    assertEquals(VALIDATORS.lastModified, request.header("If-Modified-Since"))
+
+    val responseWithoutValidators = response.newBuilder()
+      .removeHeader("ETag")
+      .removeHeader("Last-Modified")
+      .build()
+
+    assertNull(ConditionalRequestValidators.fromResponse(responseWithoutValidators))
+  }
+
+  companion object {
+    private val THREAD_DESCRIPTOR = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+    private val OTHER_THREAD_DESCRIPTOR = ChanDescriptor.ThreadDescriptor.create("test", "g", 2L)
+    private val THREAD_URL = "https://example.com/g/thread/1.json".toHttpUrl()
+    private val THREAD_PARTIAL_URL = "https://example.com/g/thread/1.json?last_post=100".toHttpUrl()
+    private val OTHER_THREAD_URL = "https://example.com/g/thread/2.json".toHttpUrl()
+    private val VALIDATORS = ConditionalRequestValidators(
+      eTag = "\"5f8a2c1b\"",
+      lastModified = "Sat, 17 Oct 2026 10:00:00 GMT"
+    )
+  }
+
+}
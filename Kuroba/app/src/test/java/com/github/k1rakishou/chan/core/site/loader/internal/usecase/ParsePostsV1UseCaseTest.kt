@@ -0,0 +1,146 @@
+package com.github.k1rakishou.chan.core.site.loader.internal.usecase
+
+import android.text.Spannable
+import com.github.k1rakishou.chan.core.helper.ChanLoadProgressNotifier
+import com.github.k1rakishou.chan.core.helper.FilterEngine
+import com.github.k1rakishou.chan.core.manager.BoardManager
+import com.github.k1rakishou.chan.core.manager.PostFilterManager
+import com.github.k1rakishou.chan.core.manager.SavedReplyManager
+import com.github.k1rakishou.chan.core.site.parser.PostParser
+import com.github.k1rakishou.chan.core.site.parser.processor.PostParsePipeline
+import com.github.k1rakishou.common.AndroidUtils
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import com.github.k1rakishou.model.repository.ChanPostRepository
+import com.nhaarman.mockitokotlin2.whenever
+import junit.framework.Assert.assertEquals
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runBlocking
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.shadows.ShadowLog
+import java.util.concurrent.ConcurrentHashMap
+
+@RunWith(RobolectricTestRunner::class)
+class ParsePostsV1UseCaseTest {
+  private lateinit var chanPostRepository: ChanPostRepository
+  private lateinit var parsePostsV1UseCase: ParsePostsV1UseCase
+
+  @Before
+  fun init() {
+    AndroidUtils.init(RuntimeEnvironment.application)
+    ShadowLog.stream = System.out
+
+    chanPostRepository = Mockito.mock(ChanPostRepository::class.java)
+
+    parsePostsV1UseCase = ParsePostsV1UseCase(
+      verboseLogsEnabled = false,
+      chanPostRepository = chanPostRepository,
+      filterEngine = Mockito.mock(FilterEngine::class.java),
+      postFilterManager = Mockito.mock(PostFilterManager::class.java),
+      savedReplyManager = Mockito.mock(SavedReplyManager::class.java),
+      boardManager = Mockito.mock(BoardManager::class.java),
+      chanLoadProgressNotifier = ChanLoadProgressNotifier()
+    )
+  }
+
+  @Test
+  fun `test catalog OP quoting an OP that comes later in the catalog is internal`() = runBlocking<Unit>(Dispatchers.Default) {
+    // Catalogs are sorted by bump order so the quoted OP may come after the OP that quotes it
+    val postParser = QuoteRecordingPostParser(quotes = mapOf(10L to 20L, 20L to 30L))
+
+    parsePostsV1UseCase.parseNewPostsPosts(
+      chanDescriptor = CATALOG_DESCRIPTOR,
+      postParser = postParser,
+      postBuildersToParse = listOf(originalPost(10L), originalPost(20L))
+    )
+
+    assertEquals(true, postParser.isInternalResults[10L])
+    // Not in the catalog
+    assertEquals(false, postParser.isInternalResults[20L])
+    assertEquals(true, postParser.isParsingCatalog)
+  }
+
+  @Test
+  fun `test thread post quoting read or cached posts is internal when parsed while reading`() = runBlocking<Unit>(Dispatchers.Default) {
+    whenever(chanPostRepository.getCachedThreadPostsNos(THREAD_DESCRIPTOR)).thenReturn(setOf(1L, 2L))
+
+    val postParser = QuoteRecordingPostParser(quotes = mapOf(3L to 2L, 4L to 3L, 5L to 100L))
+    val postParsePipeline = PostParsePipeline()
+
+    postParsePipeline.onPostRead(threadPost(2L), needsParsing = false)
+    postParsePipeline.onPostRead(threadPost(3L), needsParsing = true)
+    postParsePipeline.onPostRead(threadPost(4L), needsParsing = true)
+    postParsePipeline.onPostRead(threadPost(5L), needsParsing = true)
+    postParsePipeline.onReadingFinished()
+
+    parsePostsV1UseCase.parsePostsPipelined(
+      threadDescriptor = THREAD_DESCRIPTOR,
+      postParser = postParser,
+      postParsePipeline = postParsePipeline
+    )
+
+    assertEquals(true, postParser.isInternalResults[3L])
+    assertEquals(true, postParser.isInternalResults[4L])
+    // Cross-thread quote
+    assertEquals(false, postParser.isInternalResults[5L])
+    assertEquals(false, postParser.isParsingCatalog)
+  }
+
+  private fun originalPost(postNo: Long): ChanPostBuilder {
+    return ChanPostBuilder()
+      .boardDescriptor(CATALOG_DESCRIPTOR.boardDescriptor)
+      .id(postNo)
+      .opId(postNo)
+      .op(true)
+  }
+
+  private fun threadPost(postNo: Long): ChanPostBuilder {
+    return ChanPostBuilder()
+      .boardDescriptor(THREAD_DESCRIPTOR.boardDescriptor)
+      .id(postNo)
+      .opId(THREAD_DESCRIPTOR.threadNo)
+  }
+
+  /**
+   * Instead of parsing the comments asks whether the post quoted by every parsed post (see [quotes]) is
+   * internal and remembers the answer.
+   * */
+  private class QuoteRecordingPostParser(
+    private val quotes: Map<Long, Long>
+  ) : PostParser {
+    val isInternalResults = ConcurrentHashMap<Long, Boolean>()
+
+    @Volatile
+    var isParsingCatalog: Boolean? = null
+
+    override fun parseNameAndSubject(builder: ChanPostBuilder) {
+    }
+
+    override fun parseFull(builder: ChanPostBuilder, callback: PostParser.Callback): ChanPost? {
+      isParsingCatalog = callback.isParsingCatalogPosts()
+
+      val quotedPostNo = quotes[builder.id]
+      if (quotedPostNo != null) {
+        isInternalResults[builder.id] = callback.isInternal(quotedPostNo)
+      }
+
+      return null
+    }
+
+    override fun parseComment(post: ChanPostBuilder, commentRaw: CharSequence, callback: PostParser.Callback): Spannable {
+      throw UnsupportedOperationException()
+    }
+  }
+
+  companion object {
+    private val CATALOG_DESCRIPTOR = ChanDescriptor.CatalogDescriptor.create("test", "g")
+    private val THREAD_DESCRIPTOR = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+  }
+
+}
@@ -0,0 +1,145 @@
+package com.github.k1rakishou.chan.core.site.parser.processor
+
+import com.github.k1rakishou.common.AndroidUtils
+import com.github.k1rakishou.common.MurmurHashUtils
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.options.ChanLoadOptions
+import com.github.k1rakishou.model.data.options.ChanReadOptions
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import com.github.k1rakishou.model.data.post.PostComment
+import com.github.k1rakishou.model.repository.ChanPostRepository
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.never
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.whenever
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import kotlinx.coroutines.runBlocking
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.shadows.ShadowLog
+
+@RunWith(RobolectricTestRunner::class)
+class ChanReaderProcessorTest {
+  private lateinit var chanPostRepository: ChanPostRepository
+
+  @Before
+  fun init() {
+    AndroidUtils.init(RuntimeEnvironment.application)
+    ShadowLog.stream = System.out
+
+    chanPostRepository = Mockito.mock(ChanPostRepository::class.java)
+  }
+
+  @Test
+  fun `test post that did not change since it was stored is not parsed again`() = runBlocking<Unit> {
+    // The state after the posts and their hashes were loaded from the database into the cache
+    // (ChanPostRepository.putThreadPostsFromDatabaseIntoCache)
+    cachePost(postNo = 2L, rawComment = "unchanged comment")
+
+    val processor = createProcessor()
+    processor.addPost(postBuilder(postNo = 2L, rawComment = "unchanged comment"))
+
+    assertTrue(processor.getToParse().isEmpty())
+    assertEquals(1, processor.getTotalPostsCount())
+    verify(chanPostRepository, never()).putPostHash(any(), any())
+  }
+
+  @Test
+  fun `test post that was edited on the server is parsed again`() = runBlocking<Unit> {
+    cachePost(postNo = 2L, rawComment = "original comment")
+
+    val processor = createProcessor()
+    val postBuilder = postBuilder(postNo = 2L, rawComment = "edited comment")
+    processor.addPost(postBuilder)
+
+    assertEquals(listOf(postBuilder), processor.getToParse())
+    verify(chanPostRepository).putPostHash(postDescriptor(2L), MurmurHashUtils.murmurhash3_x64_128("edited comment"))
+  }
+
+  @Test
+  fun `test post without a stored hash is parsed again`() = runBlocking<Unit> {
+    // Posts that were stored before the hashes were persisted have no hash
+    cachePost(postNo = 2L, rawComment = "comment", storeHash = false)
+
+    val processor = createProcessor()
+    val postBuilder = postBuilder(postNo = 2L, rawComment = "comment")
+    processor.addPost(postBuilder)
+
+    assertEquals(listOf(postBuilder), processor.getToParse())
+    verify(chanPostRepository).putPostHash(postDescriptor(2L), postBuilder.getPostHash)
+  }
+
+  @Test
+  fun `test only changed and new posts are parsed`() = runBlocking<Unit> {
+    cachePost(postNo = 2L, rawComment = "same")
+    cachePost(postNo = 3L, rawComment = "before")
+
+    val processor = createProcessor()
+    val changed = postBuilder(postNo = 3L, rawComment = "after")
+    val new = postBuilder(postNo = 4L, rawComment = "new")
+
+    processor.addManyPosts(listOf(postBuilder(postNo = 2L, rawComment = "same"), changed, new))
+
+    assertEquals(listOf(changed, new), processor.getToParse())
+    assertEquals(3, processor.getTotalPostsCount())
+  }
+
+  private fun cachePost(postNo: Long, rawComment: String, storeHash: Boolean = true) {
+    val postDescriptor = postDescriptor(postNo)
+
+    val chanPost = ChanPost(
+      chanPostId = postNo,
+      postDescriptor = postDescriptor,
+      _postImages = mutableListOf(),
+      postIcons = emptyList(),
+      repliesTo = emptySet(),
+      postComment = PostComment("parsed $rawComment", rawComment, emptyList()),
+      subject = null,
+      tripcode = null,
+      isSavedReply = false,
+      isSage = false,
+      deleted = false,
+      posterIdColor = 0
+    )
+
+    whenever(chanPostRepository.getCachedPost(postDescriptor)).thenReturn(chanPost)
+
+    if (storeHash) {
+      whenever(chanPostRepository.getPostHash(postDescriptor))
+        .thenReturn(MurmurHashUtils.murmurhash3_x64_128(rawComment))
+    }
+  }
+
+  private fun createProcessor(): ChanReaderProcessor {
+    return ChanReaderProcessor(
+      page = null,
+      chanPostRepository = chanPostRepository,
+      chanReadOptions = ChanReadOptions.default(),
+      chanLoadOptions = ChanLoadOptions.retainAll(),
+      options = ChanReaderProcessor.Options(),
+      chanDescriptor = THREAD_DESCRIPTOR
+    )
+  }
+
+  private fun postBuilder(postNo: Long, rawComment: String): ChanPostBuilder {
+    return ChanPostBuilder()
+      .boardDescriptor(THREAD_DESCRIPTOR.boardDescriptor)
+      .id(postNo)
+      .opId(THREAD_DESCRIPTOR.threadNo)
+      .comment(rawComment)
+  }
+
+  private fun postDescriptor(postNo: Long): PostDescriptor = PostDescriptor.create(THREAD_DESCRIPTOR, postNo)
+
+  companion object {
+    private val THREAD_DESCRIPTOR = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+  }
+
+}
@@ -0,0 +1,226 @@
+package com.github.k1rakishou.chan.features.media_viewer.helper
+
+import android.net.Uri
+import com.github.k1rakishou.chan.core.cache.CacheFileType
+import com.github.k1rakishou.chan.core.cache.CacheHandler
+import com.github.k1rakishou.chan.core.cache.FileCacheV2
+import com.github.k1rakishou.common.AndroidUtils
+import com.google.android.exoplayer2.C
+import com.google.android.exoplayer2.upstream.DataSource
+import com.google.android.exoplayer2.upstream.DataSpec
+import com.google.android.exoplayer2.upstream.TransferListener
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.eq
+import com.nhaarman.mockitokotlin2.never
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.whenever
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertTrue
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.shadows.ShadowLog
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.nio.file.Files
+
+@RunWith(RobolectricTestRunner::class)
+class CacheHandlerDataSourceTest {
+  private lateinit var tempDir: File
+  private lateinit var cacheHandler: CacheHandler
+  private lateinit var fileCacheV2: FileCacheV2
+  private lateinit var chunkFile: File
+  private lateinit var cacheFile: File
+
+  private val content = ByteArray(1000) { index -> index.toByte() }
+
+  @Before
+  fun init() {
+    AndroidUtils.init(RuntimeEnvironment.application)
+    ShadowLog.stream = System.out
+
+    tempDir = Files.createTempDirectory("cache_handler_data_source").toFile()
+    chunkFile = File(tempDir, "chunk")
+    cacheFile = File(tempDir, "cache_file")
+
+    cacheHandler = Mockito.mock(CacheHandler::class.java)
+    fileCacheV2 = Mockito.mock(FileCacheV2::class.java)
+
+    whenever(cacheHandler.getMaxSize(CACHE_FILE_TYPE)).thenReturn(Long.MAX_VALUE)
+    whenever(cacheHandler.getOrCreateChunkCacheFile(eq(CACHE_FILE_TYPE), eq(0L), any(), eq(URL)))
+      .thenAnswer { chunkFile.apply { createNewFile() } }
+    whenever(cacheHandler.getOrCreateCacheFile(CACHE_FILE_TYPE, URL)).thenReturn(cacheFile)
+    whenever(cacheHandler.markFileDownloaded(CACHE_FILE_TYPE, cacheFile)).thenReturn(true)
+  }
+
+  @After
+  fun tearDown() {
+    tempDir.deleteRecursively()
+  }
+
+  @Test
+  fun `test already cached file is played from the cache`() {
+    val cachedFile = File(tempDir, "cached").apply { writeBytes(content) }
+    whenever(cacheHandler.getCacheFileOrNull(CACHE_FILE_TYPE, URL)).thenReturn(cachedFile)
+
+    val upstream = FakeHttpDataSource(content, mapOf("Content-Length" to listOf(content.size.toString())))
+    val dataSource = createDataSource(upstream)
+
+    assertEquals(content.size.toLong(), dataSource.open(DataSpec(Uri.parse(URL))))
+    assertTrue(content.contentEquals(readFully(dataSource)))
+    dataSource.close()
+
+    assertFalse(upstream.opened)
+    verify(cacheHandler, never()).getOrCreateChunkCacheFile(any(), any(), any(), any())
+  }
+
+  @Test
+  fun `test completely streamed file is put into the cache`() {
+    val upstream = FakeHttpDataSource(content, mapOf("content-length" to listOf(content.size.toString())))
+    val dataSource = createDataSource(upstream)
+
+    dataSource.open(DataSpec(Uri.parse(URL)))
+    assertTrue(content.contentEquals(readFully(dataSource)))
+    dataSource.close()
+
+    assertTrue(content.contentEquals(cacheFile.readBytes()))
+    assertFalse(chunkFile.exists())
+    verify(cacheHandler).markFileDownloaded(CACHE_FILE_TYPE, cacheFile)
+    verify(cacheHandler).fileWasAdded(CACHE_FILE_TYPE, content.size.toLong())
+  }
+
+  @Test
+  fun `test file that was not streamed to the end is not put into the cache`() {
+    val upstream = FakeHttpDataSource(content, mapOf("Content-Length" to listOf(content.size.toString())))
+    val dataSource = createDataSource(upstream)
+
+    dataSource.open(DataSpec(Uri.parse(URL)))
+    dataSource.read(ByteArray(100), 0, 100)
+    dataSource.close()
+
+    assertFalse(cacheFile.exists())
+    assertFalse(chunkFile.exists())
+    verify(cacheHandler, never()).markFileDownloaded(any(), any())
+  }
+
+  @Test
+  fun `test partial reads are not put into the cache`() {
+    // Seek into the middle of the file
+    val seekUpstream = FakeHttpDataSource(content, mapOf("Content-Range" to listOf("bytes 500-999/1000")))
+    val seekDataSource = createDataSource(seekUpstream)
+
+    seekDataSource.open(DataSpec(Uri.parse(URL), 500L, C.LENGTH_UNSET.toLong()))
+    assertEquals(500, readFully(seekDataSource).size)
+    seekDataSource.close()
+
+    // A range request from the beginning of the file that doesn't cover the whole file
+    val rangeUpstream = FakeHttpDataSource(content, mapOf("Content-Range" to listOf("bytes 0-499/1000")))
+    val rangeDataSource = createDataSource(rangeUpstream)
+
+    rangeDataSource.open(DataSpec(Uri.parse(URL), 0L, 500L))
+    assertEquals(500, readFully(rangeDataSource).size)
+    rangeDataSource.close()
+
+    assertFalse(cacheFile.exists())
+    verify(cacheHandler, never()).getOrCreateChunkCacheFile(any(), any(), any(), any())
+    verify(cacheHandler, never()).markFileDownloaded(any(), any())
+  }
+
+  @Test
+  fun `test resource length is parsed from the response headers`() {
+    assertEquals(1000L, CacheHandlerDataSource.getResourceLength(mapOf("Content-Range" to listOf("bytes 0-499/1000"))))
+    assertEquals(1000L, CacheHandlerDataSource.getResourceLength(mapOf("Content-Length" to listOf("1000"))))
+    // The range header wins over the length of the range
+    assertEquals(
+      1000L,
+      CacheHandlerDataSource.getResourceLength(
+        mapOf("Content-Length" to listOf("500"), "Content-Range" to listOf("bytes 500-999/1000"))
+      )
+    )
+
+    assertEquals(C.LENGTH_UNSET.toLong(), CacheHandlerDataSource.getResourceLength(mapOf("Content-Range" to listOf("bytes 0-499/*"))))
+    assertEquals(C.LENGTH_UNSET.toLong(), CacheHandlerDataSource.getResourceLength(emptyMap()))
+  }
+
+  private fun createDataSource(upstream: FakeHttpDataSource): CacheHandlerDataSource {
+    return CacheHandlerDataSource(cacheHandler, fileCacheV2, DataSource.Factory { upstream })
+  }
+
+  private fun readFully(dataSource: DataSource): ByteArray {
+    val outputStream = ByteArrayOutputStream()
+    val buffer = ByteArray(64)
+
+    while (true) {
+      val read = dataSource.read(buffer, 0, buffer.size)
+      if (read == C.RESULT_END_OF_INPUT) {
+        break
+      }
+
+      outputStream.write(buffer, 0, read)
+    }
+
+    return outputStream.toByteArray()
+  }
+
+  private class FakeHttpDataSource(
+    private val content: ByteArray,
+    private val responseHeaders: Map<String, List<String>>
+  ) : DataSource {
+    private var uri: Uri? = null
+    private var position = 0
+    private var bytesRemaining = 0
+
+    var opened = false
+      private set
+
+    override fun addTransferListener(transferListener: TransferListener) {
+    }
+
+    override fun open(dataSpec: DataSpec): Long {
+      opened = true
+      uri = dataSpec.uri
+      position = dataSpec.position.toInt()
+
+      bytesRemaining = if (dataSpec.length == C.LENGTH_UNSET.toLong()) {
+        content.size - position
+      } else {
+        dataSpec.length.toInt()
+      }
+
+      return bytesRemaining.toLong()
+    }
+
+    override fun read(buffer: ByteArray, offset: Int, length: Int): Int {
+      if (bytesRemaining == 0) {
+        return C.RESULT_END_OF_INPUT
+      }
+
+      val toRead = minOf(length, bytesRemaining)
+      System.arraycopy(content, position, buffer, offset, toRead)
+
+      position += toRead
+      bytesRemaining -= toRead
+
+      return toRead
+    }
+
+    override fun getUri(): Uri? = uri
+
+    override fun getResponseHeaders(): Map<String, List<String>> = responseHeaders
+
+    override fun close() {
+      uri = null
+    }
+  }
+
+  companion object {
+    private const val URL = "https://example.com/video.webm"
+    private val CACHE_FILE_TYPE = CacheFileType.PostMediaFull
+  }
+
+}
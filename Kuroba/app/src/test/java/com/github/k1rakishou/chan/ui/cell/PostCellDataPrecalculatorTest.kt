@@ -0,0 +1,134 @@
+package com.github.k1rakishou.chan.ui.cell
+
+import com.github.k1rakishou.common.AndroidUtils
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.PostComment
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.shadows.ShadowLog
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.math.abs
+
+@RunWith(RobolectricTestRunner::class)
+class PostCellDataPrecalculatorTest {
+  private val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+  private val postCellData = Mockito.mock(PostCellData::class.java)
+
+  @Before
+  fun init() {
+    AndroidUtils.init(RuntimeEnvironment.application)
+    ShadowLog.stream = System.out
+  }
+
+  @Test
+  fun `test posts are calculated in the order of their distance from the starting position`() = runBlocking<Unit> {
+    val calculatedIndexes = Collections.synchronizedList(mutableListOf<Int>())
+    val postCellDataLazyList = (0 until 10).map { index ->
+      postCellDataLazy(index) {
+        calculatedIndexes += index
+        postCellData
+      }
+    }
+
+    val precalculator = PostCellDataPrecalculator(parallelism = 1, dispatcher = Dispatchers.Default)
+    assertEquals(10, precalculator.precalculate(postCellDataLazyList, startingPosition = 3))
+
+    assertEquals(10, calculatedIndexes.size)
+    assertEquals(3, calculatedIndexes.first())
+
+    calculatedIndexes.zipWithNext().forEach { (prevIndex, index) ->
+      assertTrue("$calculatedIndexes", abs(prevIndex - 3) <= abs(index - 3))
+    }
+  }
+
+  @Test
+  fun `test already calculated posts are skipped`() = runBlocking<Unit> {
+    val postCellDataLazyList = (0 until 10).map { index -> postCellDataLazy(index) { postCellData } }
+    postCellDataLazyList[0].getOrCalculate(isPrecalculating = true)
+    postCellDataLazyList[5].getOrCalculate(isPrecalculating = true)
+
+    val precalculator = PostCellDataPrecalculator(parallelism = 4, dispatcher = Dispatchers.Default)
+    // Out of bounds starting position is clamped
+    assertEquals(8, precalculator.precalculate(postCellDataLazyList, startingPosition = 100))
+
+    assertTrue(postCellDataLazyList.all { postCellDataLazy -> postCellDataLazy.isInitialized })
+  }
+
+  @Test
+  fun `test cancellation stops precalculation after the current post`() = runBlocking<Unit> {
+    val calculationStarted = CountDownLatch(1)
+    val continueCalculation = CountDownLatch(1)
+
+    val postCellDataLazyList = (0 until 10).map { index ->
+      postCellDataLazy(index) {
+        if (index == 0) {
+          calculationStarted.countDown()
+          continueCalculation.await(5, TimeUnit.SECONDS)
+        }
+
+        postCellData
+      }
+    }
+
+    val precalculator = PostCellDataPrecalculator(parallelism = 1, dispatcher = Dispatchers.Default)
+    val job = launch(Dispatchers.Default) { precalculator.precalculate(postCellDataLazyList, startingPosition = 0) }
+
+    assertTrue(calculationStarted.await(5, TimeUnit.SECONDS))
+    job.cancel()
+    continueCalculation.countDown()
+    job.cancelAndJoin()
+
+    assertTrue(postCellDataLazyList[0].isInitialized)
+    assertTrue(postCellDataLazyList.drop(1).none { postCellDataLazy -> postCellDataLazy.isInitialized })
+  }
+
+  private fun postCellDataLazy(index: Int, calcFunc: () -> PostCellData): ThreadCellData.PostCellDataLazy {
+    val postNo = index + 1L
+
+    val post = ChanPost(
+      chanPostId = postNo,
+      postDescriptor = PostDescriptor.create(threadDescriptor, postNo),
+      _postImages = mutableListOf(),
+      postIcons = emptyList(),
+      repliesTo = emptySet(),
+      postComment = PostComment("comment", "comment", emptyList()),
+      subject = null,
+      tripcode = null,
+      isSavedReply = false,
+      isSage = false,
+      deleted = false,
+      posterIdColor = 0
+    )
+
+    val postCellState = ThreadCellData.PostCellState(
+      postIndex = index,
+      showDivider = true,
+      stub = false,
+      filterHash = 0,
+      keywordsToHighlight = emptySet(),
+      isReplyToSavedReply = false,
+      isDeleted = false,
+      repliesFromCount = 0
+    )
+
+    return ThreadCellData.PostCellDataLazy(
+      post = post,
+      postCellState = postCellState,
+      lazyDataCalcFunc = lazy(calcFunc)
+    )
+  }
+}
@@ -0,0 +1,187 @@
+package com.github.k1rakishou.chan.ui.cell
+
+import androidx.recyclerview.widget.DiffUtil
+import androidx.recyclerview.widget.ListUpdateCallback
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanOriginalPost
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.PostComment
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+
+class ThreadCellDataTest {
+  private val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+
+  @Test
+  fun `test unchanged post can be reused`() {
+    val postCellDataLazy = postCellDataLazy(post(2L, "comment"), postCellState(1))
+
+    // Posts are recreated on every refresh so they must be compared by their content
+    assertTrue(postCellDataLazy.canBeReusedFor(post(2L, "comment"), postCellState(1)))
+  }
+
+  @Test
+  fun `test changed post or post state can't be reused`() {
+    val postCellDataLazy = postCellDataLazy(post(2L, "comment"), postCellState(1))
+
+    assertFalse(postCellDataLazy.canBeReusedFor(post(2L, "edited comment"), postCellState(1)))
+    assertFalse(postCellDataLazy.canBeReusedFor(post(2L, "comment"), postCellState(1, repliesFromCount = 1)))
+    assertFalse(postCellDataLazy.canBeReusedFor(post(2L, "comment"), postCellState(1, isDeleted = true)))
+    assertFalse(postCellDataLazy.canBeReusedFor(post(2L, "comment"), postCellState(2)))
+  }
+
+  @Test
+  fun `test original post is never reused`() {
+    val originalPost = originalPost("op comment")
+    val postCellDataLazy = postCellDataLazy(originalPost, postCellState(0))
+
+    assertFalse(postCellDataLazy.canBeReusedFor(originalPost, postCellState(0)))
+    assertFalse(postCellDataLazy.canBeReusedFor(originalPost("op comment"), postCellState(0)))
+  }
+
+  @Test
+  fun `test only new and changed posts are updated`() {
+    val op = postCellDataLazy(originalPost("op comment"), postCellState(0))
+    val unchanged = postCellDataLazy(post(2L, "unchanged"), postCellState(1))
+    val changed = postCellDataLazy(post(3L, "before edit"), postCellState(2))
+
+    val oldItems = listOf(
+      ThreadCellData.AdapterItem.Post(op),
+      ThreadCellData.AdapterItem.Post(unchanged),
+      ThreadCellData.AdapterItem.Post(changed),
+      ThreadCellData.AdapterItem.Status
+    )
+
+    // The OP is recreated on every update even when its content is the same, the unchanged post is reused
+    val newOp = postCellDataLazy(originalPost("op comment"), postCellState(0))
+    val newChanged = postCellDataLazy(post(3L, "after edit"), postCellState(2))
+    val added = postCellDataLazy(post(4L, "new post"), postCellState(3))
+
+    val newItems = listOf(
+      ThreadCellData.AdapterItem.Post(newOp),
+      ThreadCellData.AdapterItem.Post(unchanged),
+      ThreadCellData.AdapterItem.Post(newChanged),
+      ThreadCellData.AdapterItem.Post(added),
+      ThreadCellData.AdapterItem.Status
+    )
+
+    val updates = calculateUpdates(oldItems, newItems)
+
+    // The OP, the edited post and the status cell
+    assertEquals(3, updates.changed)
+    assertEquals(1, updates.inserted)
+    assertEquals(0, updates.removed)
+  }
+
+  @Test
+  fun `test status is always rebound and last seen indicator never`() {
+    val items = listOf(ThreadCellData.AdapterItem.LastSeenIndicator, ThreadCellData.AdapterItem.Status)
+    val callback = ThreadCellData.AdapterItemsDiffCallback(items, items)
+
+    assertTrue(callback.areItemsTheSame(0, 0))
+    assertTrue(callback.areContentsTheSame(0, 0))
+    assertTrue(callback.areItemsTheSame(1, 1))
+    assertFalse(callback.areContentsTheSame(1, 1))
+    assertFalse(callback.areItemsTheSame(0, 1))
+  }
+
+  private fun calculateUpdates(
+    oldItems: List<ThreadCellData.AdapterItem>,
+    newItems: List<ThreadCellData.AdapterItem>
+  ): Updates {
+    val updates = Updates()
+
+    DiffUtil.calculateDiff(ThreadCellData.AdapterItemsDiffCallback(oldItems, newItems), false)
+      .dispatchUpdatesTo(updates)
+
+    return updates
+  }
+
+  private fun postCellDataLazy(post: ChanPost, postCellState: ThreadCellData.PostCellState): ThreadCellData.PostCellDataLazy {
+    return ThreadCellData.PostCellDataLazy(
+      post = post,
+      postCellState = postCellState,
+      lazyDataCalcFunc = lazy { throw IllegalStateException("PostCellData must not be calculated") }
+    )
+  }
+
+  private fun postCellState(
+    postIndex: Int,
+    repliesFromCount: Int = 0,
+    isDeleted: Boolean = false
+  ): ThreadCellData.PostCellState {
+    return ThreadCellData.PostCellState(
+      postIndex = postIndex,
+      showDivider = true,
+      stub = false,
+      filterHash = 0,
+      keywordsToHighlight = emptySet(),
+      isReplyToSavedReply = false,
+      isDeleted = isDeleted,
+      repliesFromCount = repliesFromCount
+    )
+  }
+
+  private fun post(postNo: Long, comment: String): ChanPost {
+    return ChanPost(
+      chanPostId = postNo,
+      postDescriptor = PostDescriptor.create(threadDescriptor, postNo),
+      _postImages = mutableListOf(),
+      postIcons = emptyList(),
+      repliesTo = emptySet(),
+      postComment = PostComment(comment, comment, emptyList()),
+      subject = null,
+      tripcode = null,
+      isSavedReply = false,
+      isSage = false,
+      deleted = false,
+      posterIdColor = 0
+    )
+  }
+
+  private fun originalPost(comment: String): ChanOriginalPost {
+    return ChanOriginalPost(
+      chanPostId = 1L,
+      postDescriptor = PostDescriptor.create(threadDescriptor, 1L),
+      postImages = emptyList(),
+      postIcons = emptyList(),
+      repliesTo = emptySet(),
+      postComment = PostComment(comment, comment, emptyList()),
+      isSavedReply = false,
+      lastModified = -1L,
+      sticky = false,
+      closed = false,
+      archived = false,
+      endless = false,
+      isSage = false,
+      deleted = false,
+      posterIdColor = 0
+    )
+  }
+
+  private class Updates : ListUpdateCallback {
+    var changed = 0
+    var inserted = 0
+    var removed = 0
+
+    override fun onInserted(position: Int, count: Int) {
+      inserted += count
+    }
+
+    override fun onRemoved(position: Int, count: Int) {
+      removed += count
+    }
+
+    override fun onMoved(fromPosition: Int, toPosition: Int) {
+      throw IllegalStateException("Moves are not detected")
+    }
+
+    override fun onChanged(position: Int, count: Int, payload: Any?) {
+      changed += count
+    }
+  }
+
+}
@@ -8,6 +8,7 @@ import android.webkit.WebSettings
 import com.github.k1rakishou.core_logger.Logger
 import okhttp3.HttpUrl.Companion.toHttpUrl
 import java.io.File
+import kotlin.concurrent.thread
 
 open class AppConstants(
   context: Context,
@@ -17,7 +18,7 @@ open class AppConstants(
   maxPostsInDatabaseSettingValue: Int,
   maxThreadsInDatabaseSettingValue: Int
 ) {
-  val maxPostsCountInPostsCache: Int
+  val postsCacheMaxSizeBytes: Long
   val maxAmountOfPostsInDatabase: Int = maxPostsInDatabaseSettingValue
   val maxAmountOfThreadsInDatabase: Int = maxThreadsInDatabaseSettingValue
   val userAgent: String
@@ -31,8 +32,6 @@ open class AppConstants(
   val isDebuggerAttached: Boolean
     get() = Debug.isDebuggerConnected()
 
-  // 128MB
-  val exoPlayerDiskCacheMaxSize = 128L * 1024 * 1024
   val mpvDemuxerCacheMaxSize: Long
 
   val replyDraftsDir: File
@@ -75,16 +74,6 @@ open class AppConstants(
       return field
     }
 
-  val exoPlayerCacheDir: File
-    get() {
-      if (field.exists()) {
-        return field
-      }
-
-      check(field.mkdir()) { "Failed to create ExoPlayer cache directory! exoPlayerCacheDir=${field.absolutePath}" }
-      return field
-    }
-
   val threadDownloaderCacheDir: File
     get() {
       if (field.exists()) {
@@ -150,7 +139,7 @@ open class AppConstants(
     val activityManager = context.getSystemService(Context.ACTIVITY_SERVICE) as? ActivityManager
 
     mpvDemuxerCacheMaxSize = calculateMpvDemuxerCacheSize(activityManager)
-    maxPostsCountInPostsCache = calculatePostsCountForPostsCacheDependingOnDeviceRam(activityManager).toInt()
+    postsCacheMaxSizeBytes = calculatePostsCacheSizeDependingOnDeviceRam(activityManager)
 
     userAgent = try {
       WebSettings.getDefaultUserAgent(context)
@@ -192,7 +181,15 @@ open class AppConstants(
       oldFileCacheChunksDir.deleteRecursively()
     }
 
-    exoPlayerCacheDir = File(context.cacheDir, EXO_PLAYER_CACHE_DIR_NAME)
+    // ExoPlayer's own cache is not used anymore, videos are cached in the disk cache. The directory
+    // may be pretty big so it's deleted in the background.
+    val oldExoPlayerCacheDir = File(context.cacheDir, OLD_EXO_PLAYER_CACHE_DIR_NAME)
+    if (oldExoPlayerCacheDir.exists()) {
+      thread(name = "DeleteOldExoPlayerCacheDir") {
+        Logger.d(TAG, "Deleting oldExoPlayerCacheDir: '${oldExoPlayerCacheDir.absolutePath}'")
+        oldExoPlayerCacheDir.deleteRecursively()
+      }
+    }
   }
 
   private fun calculateMpvDemuxerCacheSize(activityManager: ActivityManager?): Long {
@@ -203,15 +200,19 @@ open class AppConstants(
     return 64 * ONE_MEGABYTE
   }
 
-  private fun calculatePostsCountForPostsCacheDependingOnDeviceRam(activityManager: ActivityManager?): Long {
-    if (isLowRamDevice || activityManager == null) {
-      return MINIMUM_POSTS_CACHE_POSTS_COUNT
+  private fun calculatePostsCacheSizeDependingOnDeviceRam(activityManager: ActivityManager?): Long {
+    if (activityManager == null) {
+      return MINIMUM_POSTS_CACHE_SIZE
     }
 
-    val memoryChunk = ((activityManager.memoryClass * ONE_MEGABYTE) / 100) * RAM_PERCENT_FOR_POSTS_CACHE
-    val cachePostsCount = memoryChunk / AVERAGE_POST_MEMORY_SIZE
+    val ramPercent = if (isLowRamDevice) {
+      RAM_PERCENT_FOR_POSTS_CACHE_LOW_RAM
+    } else {
+      RAM_PERCENT_FOR_POSTS_CACHE
+    }
 
-    return cachePostsCount.coerceIn(MINIMUM_POSTS_CACHE_POSTS_COUNT, MAX_POSTS_CACHE_COUNT)
+    val memoryChunk = ((activityManager.memoryClass * ONE_MEGABYTE) / 100) * ramPercent
+    return memoryChunk.coerceIn(MINIMUM_POSTS_CACHE_SIZE, MAX_POSTS_CACHE_SIZE)
   }
 
   companion object {
@@ -219,13 +220,13 @@ open class AppConstants(
 
     const val loggingInterceptorEnabled = false
 
-    // 10 percents of the app's available memory (not device's)
+    // Percents of the app's available memory (not device's)
     private const val RAM_PERCENT_FOR_POSTS_CACHE = 10
+    private const val RAM_PERCENT_FOR_POSTS_CACHE_LOW_RAM = 5
     private const val ONE_MEGABYTE = 1L * 1024 * 1024
-    private const val AVERAGE_POST_MEMORY_SIZE = 2048
 
-    private const val MINIMUM_POSTS_CACHE_POSTS_COUNT = 5000L
-    private const val MAX_POSTS_CACHE_COUNT = 16000L
+    private const val MINIMUM_POSTS_CACHE_SIZE = 8 * ONE_MEGABYTE
+    private const val MAX_POSTS_CACHE_SIZE = 96 * ONE_MEGABYTE
 
     private const val USER_AGENT_FORMAT =
       "Mozilla/5.0 (Linux; Android %s; %s) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/85.0.4183.127 Mobile Safari/537.36"
@@ -240,7 +241,6 @@ open class AppConstants(
     private const val THREAD_DOWNLOADER_DIR_NAME = "thread_downloader_storage"
     private const val MPV_NATIVE_LIBS_DIR_NAME = "mpv_native_libs"
     private const val MPV_CERT_DIR_NAME = "certs/mpv"
-    private const val EXO_PLAYER_CACHE_DIR_NAME = "exo_player_cache"
     private const val CRASH_LOGS_DIR_NAME = "crashlogs"
     private const val ANRS_DIR_NAME = "anrs"
 
@@ -248,6 +248,7 @@ open class AppConstants(
     @Deprecated("Use DISK_CACHE_DIR_NAME") private const val OLD_FILE_CACHE_DIR = "filecache"
     // TODO(KurobaEx): remove me in v1.5.0
     @Deprecated("Moved into InnerCache") private const val OLD_FILE_CHUNKS_CACHE_DIR = "file_chunks_cache"
+    @Deprecated("Videos are cached in DISK_CACHE_DIR_NAME") private const val OLD_EXO_PLAYER_CACHE_DIR_NAME = "exo_player_cache"
 
     const val DISK_CACHE_DIR_NAME = "disk_cache"
 
@@ -1168,6 +1168,10 @@ inline fun <T, reified R> List<T>.mapArray(mapper: (T) -> R): Array<R> {
   return array as Array<R>
 }
 
+/**
+ * Errors thrown by [processFunc] are converted into nulls and nulls are filtered out of the result.
+ * Prefer [parallelMapOrdered] when errors need to be handled.
+ * */
 suspend fun <T, R> processDataCollectionConcurrently(
   dataList: Collection<T>,
   batchCount: Int = Runtime.getRuntime().availableProcessors(),
@@ -1178,25 +1182,15 @@ suspend fun <T, R> processDataCollectionConcurrently(
     return emptyList()
   }
 
-  return supervisorScope {
-    return@supervisorScope dataList
-      .chunked(batchCount)
-      .flatMap { dataChunk ->
-        return@flatMap dataChunk
-          .map { data ->
-            return@map async(dispatcher) {
-              try {
-                ensureActive()
-                return@async processFunc(data)
-              } catch (error: Throwable) {
-                return@async null
-              }
-            }
-          }
-          .awaitAll()
-          .filterNotNull()
-      }
-  }
+  val dataAsList = if (dataList is List<T>) dataList else dataList.toList()
+
+  return parallelMapOrdered(dataAsList, batchCount, dispatcher) { data ->
+    try {
+      return@parallelMapOrdered processFunc(data)
+    } catch (error: Throwable) {
+      return@parallelMapOrdered null
+    }
+  }.filterNotNull()
 }
 
 /**
@@ -0,0 +1,72 @@
+package com.github.k1rakishou.common
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Applies [processFunc] to every element of [dataList] using a fixed pool of at most [parallelism]
+ * worker coroutines. Workers pull the index of the next element from a shared counter, so a slow
+ * element only occupies one worker instead of stalling a whole batch, and there is one coroutine per
+ * worker instead of one per element.
+ *
+ * Elements are started in the order of [dataList] (the completion order is of course not guaranteed)
+ * so callers may put the most important elements first. The returned list has the same size and
+ * order as [dataList].
+ *
+ * Errors are not swallowed: the first exception thrown by [processFunc] cancels the other workers and
+ * is rethrown to the caller. Return a [ModularResult] (or any other result type) from [processFunc]
+ * when errors need to be handled per element.
+ * */
+suspend fun <T, R> parallelMapOrdered(
+  dataList: List<T>,
+  parallelism: Int = Runtime.getRuntime().availableProcessors(),
+  dispatcher: CoroutineDispatcher = Dispatchers.Default,
+  processFunc: suspend (T) -> R
+): List<R> {
+  require(parallelism > 0) { "Bad parallelism: $parallelism" }
+
+  if (dataList.isEmpty()) {
+    return emptyList()
+  }
+
+  val results = arrayOfNulls<Any?>(dataList.size)
+  val nextIndex = AtomicInteger(0)
+  val workersCount = parallelism.coerceAtMost(dataList.size)
+
+  coroutineScope {
+    repeat(workersCount) {
+      launch(dispatcher) {
+        while (true) {
+          ensureActive()
+
+          val index = nextIndex.getAndIncrement()
+          if (index >= dataList.size) {
+            break
+          }
+
+          results[index] = try {
+            processFunc(dataList[index])
+          } catch (error: CancellationException) {
+            if (!isActive) {
+              throw error
+            }
+
+            // Not our cancellation (e.g. a timeout inside of processFunc). Rethrowing it as is would only
+            // silently stop this worker so convert it into a regular error instead.
+            throw IllegalStateException("processFunc threw CancellationException", error)
+          }
+        }
+      }
+    }
+  }
+
+  // coroutineScope only returns once all workers have completed so all the results are visible here
+  @Suppress("UNCHECKED_CAST")
+  return results.asList() as List<R>
+}
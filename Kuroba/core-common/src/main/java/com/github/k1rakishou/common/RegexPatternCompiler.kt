@@ -129,6 +129,43 @@ object RegexPatternCompiler {
     }
   }
 
+  /**
+   * Returns the keywords of a pattern that doesn't need a regex engine to be matched (a quoted exact
+   * sentence or a list of words without wildcards) or null when [compile] must be used instead. The
+   * keywords must be matched case-insensitively and, when [PlainKeywords.wholeWords] is true, only
+   * between word boundaries. An empty list of keywords means the pattern never matches anything.
+   * */
+  @AnyThread
+  fun extractPlainKeywords(rawPattern: String?): PlainKeywords? {
+    if (rawPattern.isNullOrEmpty()) {
+      return PlainKeywords(emptyList(), wholeWords = false)
+    }
+
+    if (isRegexPattern.matcher(rawPattern).matches()) {
+      return null
+    }
+
+    if (rawPattern.length >= 2 && rawPattern[0] == '"' && rawPattern[rawPattern.length - 1] == '"') {
+      val text = rawPattern.substring(1, rawPattern.length - 1)
+      if (text.isEmpty()) {
+        return PlainKeywords(emptyList(), wholeWords = false)
+      }
+
+      return PlainKeywords(listOf(text), wholeWords = false)
+    }
+
+    val words = rawPattern
+      .split(" ")
+      .map { word -> word.trim() }
+      .filter { word -> word.isNotEmpty() }
+
+    if (words.any { word -> word.contains('*') }) {
+      return null
+    }
+
+    return PlainKeywords(words, wholeWords = true)
+  }
+
   private fun escapeRegex(filthy: String): String {
     // Escape regex special characters with a \
     return filterFilthyPattern.matcher(filthy).replaceAll("\\\\$1")
@@ -149,6 +186,11 @@ object RegexPatternCompiler {
     data class Error(val errorMessage: String) : PatternCompilationResult()
   }
 
+  class PlainKeywords(
+    val keywords: List<String>,
+    val wholeWords: Boolean
+  )
+
   enum class RegexMode {
     EmptyPattern,
     Pattern,
@@ -0,0 +1,210 @@
+package com.github.k1rakishou.common.datastructure
+
+import java.util.*
+
+/**
+ * Finds all occurrences of a set of keywords in a text in a single pass over that text. Matching is
+ * case-insensitive. Every keyword has an int value attached to it (usually an index into some other
+ * collection) which is passed into [MatchListener] once the keyword is found. Keywords marked as
+ * "whole word" are only reported when they are surrounded by word boundaries (the same way "\b" works
+ * in regex patterns).
+ *
+ * Immutable and thread safe once built.
+ * */
+class AhoCorasickAutomaton private constructor(
+  private val transitionChars: Array<CharArray>,
+  private val transitionTargets: Array<IntArray>,
+  private val failLinks: IntArray,
+  private val outputLinks: IntArray,
+  private val nodeKeywords: Array<IntArray>,
+  private val keywordLengths: IntArray,
+  private val keywordValues: IntArray,
+  private val keywordWholeWord: BooleanArray
+) {
+
+  val keywordsCount: Int
+    get() = keywordValues.size
+
+  fun isEmpty(): Boolean = keywordValues.isEmpty()
+
+  fun findAll(text: CharSequence, matchListener: MatchListener) {
+    if (text.isEmpty() || isEmpty()) {
+      return
+    }
+
+    var state = ROOT
+
+    for (index in 0 until text.length) {
+      val ch = foldCase(text[index])
+
+      var nextState = nextState(state, ch)
+      while (nextState < 0 && state != ROOT) {
+        state = failLinks[state]
+        nextState = nextState(state, ch)
+      }
+
+      state = if (nextState < 0) ROOT else nextState
+
+      var outputNode = if (nodeKeywords[state].isNotEmpty()) state else outputLinks[state]
+      while (outputNode > ROOT) {
+        for (keywordIndex in nodeKeywords[outputNode]) {
+          val start = index - keywordLengths[keywordIndex] + 1
+
+          if (keywordWholeWord[keywordIndex] && !isWholeWord(text, start, index)) {
+            continue
+          }
+
+          matchListener.onMatch(keywordValues[keywordIndex])
+        }
+
+        outputNode = outputLinks[outputNode]
+      }
+    }
+  }
+
+  private fun nextState(state: Int, ch: Char): Int {
+    val chars = transitionChars[state]
+    if (chars.isEmpty()) {
+      return -1
+    }
+
+    val index = Arrays.binarySearch(chars, ch)
+    if (index < 0) {
+      return -1
+    }
+
+    return transitionTargets[state][index]
+  }
+
+  private fun isWholeWord(text: CharSequence, start: Int, end: Int): Boolean {
+    val prevIsWordChar = start > 0 && isWordChar(text[start - 1])
+    if (prevIsWordChar == isWordChar(text[start])) {
+      return false
+    }
+
+    val nextIsWordChar = end + 1 < text.length && isWordChar(text[end + 1])
+    if (nextIsWordChar == isWordChar(text[end])) {
+      return false
+    }
+
+    return true
+  }
+
+  fun interface MatchListener {
+    fun onMatch(value: Int)
+  }
+
+  class Builder {
+    private val keywords = mutableListOf<String>()
+    private val values = mutableListOf<Int>()
+    private val wholeWords = mutableListOf<Boolean>()
+
+    fun addKeyword(keyword: String, value: Int, wholeWord: Boolean): Builder {
+      if (keyword.isEmpty()) {
+        return this
+      }
+
+      keywords += keyword
+      values += value
+      wholeWords += wholeWord
+
+      return this
+    }
+
+    fun build(): AhoCorasickAutomaton {
+      val transitions = mutableListOf<TreeMap<Char, Int>>()
+      val nodeKeywordsList = mutableListOf<MutableList<Int>>()
+
+      transitions += TreeMap()
+      nodeKeywordsList += mutableListOf<Int>()
+
+      keywords.forEachIndexed { keywordIndex, keyword ->
+        var node = ROOT
+
+        for (rawCh in keyword) {
+          val ch = foldCase(rawCh)
+          var next = transitions[node][ch]
+
+          if (next == null) {
+            next = transitions.size
+            transitions += TreeMap()
+            nodeKeywordsList += mutableListOf<Int>()
+            transitions[node][ch] = next
+          }
+
+          node = next
+        }
+
+        nodeKeywordsList[node].add(keywordIndex)
+      }
+
+      val nodesCount = transitions.size
+      val transitionChars = Array(nodesCount) { node -> transitions[node].keys.toCharArray() }
+      val transitionTargets = Array(nodesCount) { node -> transitions[node].values.toIntArray() }
+      val failLinks = IntArray(nodesCount)
+      val outputLinks = IntArray(nodesCount) { -1 }
+
+      // Breadth-first traversal so that fail links of shallower nodes are always known
+      val queue = ArrayDeque<Int>()
+      for (child in transitions[ROOT].values) {
+        failLinks[child] = ROOT
+        queue.add(child)
+      }
+
+      while (queue.isNotEmpty()) {
+        val node = queue.poll()!!
+
+        for ((ch, child) in transitions[node]) {
+          var fail = failLinks[node]
+          while (fail != ROOT && transitions[fail][ch] == null) {
+            fail = failLinks[fail]
+          }
+
+          val failTarget = transitions[fail][ch]
+          failLinks[child] = if (failTarget != null && failTarget != child) failTarget else ROOT
+
+          val childFail = failLinks[child]
+          outputLinks[child] = if (nodeKeywordsList[childFail].isNotEmpty()) childFail else outputLinks[childFail]
+
+          queue.add(child)
+        }
+      }
+
+      return AhoCorasickAutomaton(
+        transitionChars = transitionChars,
+        transitionTargets = transitionTargets,
+        failLinks = failLinks,
+        outputLinks = outputLinks,
+        nodeKeywords = Array(nodesCount) { node -> nodeKeywordsList[node].toIntArray() },
+        keywordLengths = keywords.map { keyword -> keyword.length }.toIntArray(),
+        keywordValues = values.toIntArray(),
+        keywordWholeWord = wholeWords.toBooleanArray()
+      )
+    }
+  }
+
+  companion object {
+    private const val ROOT = 0
+
+    // Case folding that matches case-insensitive regex matching closely enough while preserving the
+    // length of the text (so that match offsets stay valid).
+    private fun foldCase(ch: Char): Char {
+      return Character.toLowerCase(Character.toUpperCase(ch))
+    }
+
+    private fun isWordChar(ch: Char): Boolean {
+      if (ch == '_' || Character.isLetterOrDigit(ch)) {
+        return true
+      }
+
+      return when (Character.getType(ch).toByte()) {
+        Character.NON_SPACING_MARK,
+        Character.ENCLOSING_MARK,
+        Character.COMBINING_SPACING_MARK,
+        Character.CONNECTOR_PUNCTUATION -> true
+        else -> false
+      }
+    }
+  }
+
+}
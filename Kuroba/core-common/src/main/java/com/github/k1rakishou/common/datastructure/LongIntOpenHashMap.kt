@@ -0,0 +1,247 @@
+package com.github.k1rakishou.common.datastructure
+
+/**
+ * A long -> int hash map that stores keys and values in primitive arrays (open addressing with
+ * linear probing) so there are no boxed keys or entry objects. Missing keys are reported as
+ * [noValue]. Not thread safe.
+ * */
+class LongIntOpenHashMap(
+  expectedSize: Int = DEFAULT_EXPECTED_SIZE,
+  val noValue: Int = -1
+) {
+  private var keys: LongArray
+  private var values: IntArray
+  private var mask: Int
+  private var resizeAt: Int
+
+  // Zero is used as the "free slot" marker in [keys] so the zero key itself is stored separately
+  private var hasZeroKey = false
+  private var zeroKeyValue = noValue
+  private var assigned = 0
+
+  val size: Int
+    get() = assigned + if (hasZeroKey) 1 else 0
+
+  init {
+    require(expectedSize >= 0) { "Bad expectedSize: $expectedSize" }
+
+    val capacity = capacityFor(expectedSize)
+    keys = LongArray(capacity)
+    values = IntArray(capacity)
+    mask = capacity - 1
+    resizeAt = resizeThreshold(capacity)
+  }
+
+  fun isEmpty(): Boolean = size == 0
+
+  fun containsKey(key: Long): Boolean {
+    if (key == 0L) {
+      return hasZeroKey
+    }
+
+    return findSlot(key) >= 0
+  }
+
+  operator fun get(key: Long): Int {
+    if (key == 0L) {
+      return if (hasZeroKey) zeroKeyValue else noValue
+    }
+
+    val slot = findSlot(key)
+    if (slot < 0) {
+      return noValue
+    }
+
+    return values[slot]
+  }
+
+  /**
+   * Returns the previous value or [noValue] if there was no value for this key.
+   * */
+  fun put(key: Long, value: Int): Int {
+    if (key == 0L) {
+      val prevValue = if (hasZeroKey) zeroKeyValue else noValue
+
+      hasZeroKey = true
+      zeroKeyValue = value
+
+      return prevValue
+    }
+
+    var slot = slotOf(key)
+
+    while (true) {
+      val existingKey = keys[slot]
+
+      if (existingKey == 0L) {
+        keys[slot] = key
+        values[slot] = value
+
+        if (++assigned >= resizeAt) {
+          rehash(keys.size shl 1)
+        }
+
+        return noValue
+      }
+
+      if (existingKey == key) {
+        val prevValue = values[slot]
+        values[slot] = value
+
+        return prevValue
+      }
+
+      slot = (slot + 1) and mask
+    }
+  }
+
+  operator fun set(key: Long, value: Int) {
+    put(key, value)
+  }
+
+  /**
+   * Returns the removed value or [noValue] if there was no value for this key.
+   * */
+  fun remove(key: Long): Int {
+    if (key == 0L) {
+      if (!hasZeroKey) {
+        return noValue
+      }
+
+      hasZeroKey = false
+      return zeroKeyValue.also { zeroKeyValue = noValue }
+    }
+
+    val slot = findSlot(key)
+    if (slot < 0) {
+      return noValue
+    }
+
+    val removedValue = values[slot]
+    shiftKeysBack(slot)
+    --assigned
+
+    return removedValue
+  }
+
+  fun clear() {
+    keys.fill(0L)
+    assigned = 0
+    hasZeroKey = false
+    zeroKeyValue = noValue
+  }
+
+  fun forEach(func: (key: Long, value: Int) -> Unit) {
+    if (hasZeroKey) {
+      func(0L, zeroKeyValue)
+    }
+
+    for (slot in keys.indices) {
+      val key = keys[slot]
+      if (key != 0L) {
+        func(key, values[slot])
+      }
+    }
+  }
+
+  private fun findSlot(key: Long): Int {
+    var slot = slotOf(key)
+
+    while (true) {
+      val existingKey = keys[slot]
+
+      if (existingKey == 0L) {
+        return -1
+      }
+
+      if (existingKey == key) {
+        return slot
+      }
+
+      slot = (slot + 1) and mask
+    }
+  }
+
+  /**
+   * Backward shift deletion: moves the following keys of the same probe chain into the freed slot so
+   * that lookups never need tombstones.
+   * */
+  private fun shiftKeysBack(removedSlot: Int) {
+    var freeSlot = removedSlot
+    var slot = (removedSlot + 1) and mask
+
+    while (true) {
+      val key = keys[slot]
+      if (key == 0L) {
+        break
+      }
+
+      val idealSlot = slotOf(key)
+
+      // The key can be moved into the free slot only if the free slot is not located between its
+      // ideal slot and the slot it currently occupies
+      if (((slot - idealSlot) and mask) >= ((slot - freeSlot) and mask)) {
+        keys[freeSlot] = key
+        values[freeSlot] = values[slot]
+        freeSlot = slot
+      }
+
+      slot = (slot + 1) and mask
+    }
+
+    keys[freeSlot] = 0L
+  }
+
+  private fun rehash(newCapacity: Int) {
+    val oldKeys = keys
+    val oldValues = values
+
+    keys = LongArray(newCapacity)
+    values = IntArray(newCapacity)
+    mask = newCapacity - 1
+    resizeAt = resizeThreshold(newCapacity)
+
+    for (oldSlot in oldKeys.indices) {
+      val key = oldKeys[oldSlot]
+      if (key == 0L) {
+        continue
+      }
+
+      var slot = slotOf(key)
+      while (keys[slot] != 0L) {
+        slot = (slot + 1) and mask
+      }
+
+      keys[slot] = key
+      values[slot] = oldValues[oldSlot]
+    }
+  }
+
+  private fun slotOf(key: Long): Int {
+    val hash = key * GOLDEN_RATIO_64
+    return (hash xor (hash ushr 32)).toInt() and mask
+  }
+
+  companion object {
+    private const val DEFAULT_EXPECTED_SIZE = 16
+    private const val MIN_CAPACITY = 4
+    private const val MAX_CAPACITY = 1 shl 30
+    private const val LOAD_FACTOR = 0.75f
+    private const val GOLDEN_RATIO_64 = -7046029254386353131L
+
+    private fun capacityFor(expectedSize: Int): Int {
+      val minCapacity = Math.ceil(expectedSize / LOAD_FACTOR.toDouble()).toLong() + 1
+      var capacity = MIN_CAPACITY
+
+      while (capacity < minCapacity && capacity < MAX_CAPACITY) {
+        capacity = capacity shl 1
+      }
+
+      return capacity
+    }
+
+    private fun resizeThreshold(capacity: Int): Int {
+      return Math.min(capacity - 1, (capacity * LOAD_FACTOR).toInt())
+    }
+  }
+}
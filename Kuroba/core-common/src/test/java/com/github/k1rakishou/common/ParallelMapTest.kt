@@ -0,0 +1,95 @@
+package com.github.k1rakishou.common
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import junit.framework.Assert.fail
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+class ParallelMapTest {
+
+  @Test
+  fun `test results preserve input order`() = runBlocking {
+    val input = (0 until 1000).toList()
+
+    val results = parallelMapOrdered(input, parallelism = 8, dispatcher = Dispatchers.Default) { value ->
+      if (value % 7 == 0) {
+        delay(1)
+      }
+
+      return@parallelMapOrdered value * 2
+    }
+
+    assertEquals(input.map { value -> value * 2 }, results)
+  }
+
+  @Test
+  fun `test no more than parallelism elements are processed at the same time`() = runBlocking {
+    val inFlight = AtomicInteger(0)
+    val maxInFlight = AtomicInteger(0)
+
+    parallelMapOrdered((0 until 100).toList(), parallelism = 3, dispatcher = Dispatchers.Default) {
+      val current = inFlight.incrementAndGet()
+      maxInFlight.updateAndGet { prev -> maxOf(prev, current) }
+
+      delay(2)
+      inFlight.decrementAndGet()
+    }
+
+    assertTrue(maxInFlight.get() in 1..3)
+  }
+
+  @Test
+  fun `test slow element does not stall other elements`() = runBlocking {
+    val processedWhileSlowWasRunning = AtomicInteger(0)
+    val slowFinished = AtomicInteger(0)
+
+    parallelMapOrdered((0 until 50).toList(), parallelism = 2, dispatcher = Dispatchers.Default) { value ->
+      if (value == 0) {
+        delay(200)
+        slowFinished.set(1)
+        return@parallelMapOrdered
+      }
+
+      if (slowFinished.get() == 0) {
+        processedWhileSlowWasRunning.incrementAndGet()
+      }
+    }
+
+    assertEquals(49, processedWhileSlowWasRunning.get())
+  }
+
+  @Test
+  fun `test errors are propagated`() = runBlocking {
+    try {
+      parallelMapOrdered((0 until 100).toList(), parallelism = 4, dispatcher = Dispatchers.Default) { value ->
+        if (value == 42) {
+          throw IllegalArgumentException("Bad value")
+        }
+
+        return@parallelMapOrdered value
+      }
+
+      fail("Exception expected")
+    } catch (error: IllegalArgumentException) {
+      assertEquals("Bad value", error.message)
+    }
+  }
+
+  @Test
+  fun `test processDataCollectionConcurrently still skips errors`() = runBlocking {
+    val results = processDataCollectionConcurrently((0 until 10).toList(), 3, Dispatchers.Default) { value ->
+      if (value % 2 == 0) {
+        throw IllegalStateException()
+      }
+
+      return@processDataCollectionConcurrently value
+    }
+
+    assertEquals(listOf(1, 3, 5, 7, 9), results)
+  }
+
+}
@@ -0,0 +1,86 @@
+package com.github.k1rakishou.common.datastructure
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+
+class AhoCorasickAutomatonTest {
+
+  @Test
+  fun `test empty automaton matches nothing`() {
+    val automaton = AhoCorasickAutomaton.Builder().build()
+
+    assertTrue(automaton.isEmpty())
+    assertEquals(emptyList<Int>(), findAll(automaton, "some text"))
+  }
+
+  @Test
+  fun `test overlapping keywords are all found`() {
+    val automaton = AhoCorasickAutomaton.Builder()
+      .addKeyword("he", 0, wholeWord = false)
+      .addKeyword("she", 1, wholeWord = false)
+      .addKeyword("his", 2, wholeWord = false)
+      .addKeyword("hers", 3, wholeWord = false)
+      .build()
+
+    assertEquals(listOf(1, 0, 3), findAll(automaton, "ushers"))
+    assertEquals(listOf(2), findAll(automaton, "this"))
+  }
+
+  @Test
+  fun `test matching is case insensitive`() {
+    val automaton = AhoCorasickAutomaton.Builder()
+      .addKeyword("Linux", 0, wholeWord = false)
+      .addKeyword("тред", 1, wholeWord = false)
+      .build()
+
+    assertEquals(listOf(0, 1), findAll(automaton, "LINUX ТРЕД"))
+  }
+
+  @Test
+  fun `test whole word keywords respect word boundaries`() {
+    val automaton = AhoCorasickAutomaton.Builder()
+      .addKeyword("cat", 0, wholeWord = true)
+      .addKeyword("dog", 1, wholeWord = false)
+      .build()
+
+    assertEquals(emptyList<Int>(), findAll(automaton, "concatenate"))
+    assertEquals(listOf(0), findAll(automaton, "a cat."))
+    assertEquals(listOf(0), findAll(automaton, "cat"))
+    assertEquals(listOf(1), findAll(automaton, "hotdogs"))
+  }
+
+  @Test
+  fun `test the same results as regex based matching`() {
+    val words = listOf("rust", "c++", "go")
+    val texts = listOf(
+      "rust is great",
+      "I write c++ and go",
+      "gopher",
+      "trusted",
+      "(rust)",
+      "c++11"
+    )
+
+    val automatonBuilder = AhoCorasickAutomaton.Builder()
+    words.forEachIndexed { index, word -> automatonBuilder.addKeyword(word, index, wholeWord = true) }
+    val automaton = automatonBuilder.build()
+
+    for (text in texts) {
+      val expected = words.indices.filter { index ->
+        val pattern = "\\b" + Regex.escape(words[index]) + "\\b"
+        Regex(pattern, RegexOption.IGNORE_CASE).containsMatchIn(text)
+      }
+
+      assertEquals(text, expected, findAll(automaton, text).distinct().sorted())
+    }
+  }
+
+  private fun findAll(automaton: AhoCorasickAutomaton, text: String): List<Int> {
+    val result = mutableListOf<Int>()
+    automaton.findAll(text) { value -> result += value }
+
+    return result
+  }
+
+}
@@ -0,0 +1,98 @@
+package com.github.k1rakishou.common.datastructure
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class LongIntOpenHashMapTest {
+
+  @Test
+  fun `test put get and overwrite`() {
+    val map = LongIntOpenHashMap()
+
+    assertTrue(map.isEmpty())
+    assertEquals(-1, map[123L])
+
+    assertEquals(-1, map.put(123L, 1))
+    assertEquals(1, map.put(123L, 2))
+    assertEquals(2, map[123L])
+    assertEquals(1, map.size)
+  }
+
+  @Test
+  fun `test zero and negative keys`() {
+    val map = LongIntOpenHashMap()
+
+    map[0L] = 10
+    map[-1L] = 20
+    map[Long.MIN_VALUE] = 30
+
+    assertEquals(3, map.size)
+    assertEquals(10, map[0L])
+    assertEquals(20, map[-1L])
+    assertEquals(30, map[Long.MIN_VALUE])
+
+    assertEquals(10, map.remove(0L))
+    assertFalse(map.containsKey(0L))
+    assertEquals(2, map.size)
+  }
+
+  @Test
+  fun `test grows past the expected size`() {
+    val map = LongIntOpenHashMap(expectedSize = 2)
+
+    for (index in 0 until 10_000) {
+      map[index.toLong() shl 16] = index
+    }
+
+    assertEquals(10_000, map.size)
+
+    for (index in 0 until 10_000) {
+      assertEquals(index, map[index.toLong() shl 16])
+    }
+  }
+
+  @Test
+  fun `test removals keep probe chains intact`() {
+    val map = LongIntOpenHashMap()
+    val reference = HashMap<Long, Int>()
+    val random = Random(1234)
+
+    repeat(50_000) { iteration ->
+      // Small key range so that there are a lot of collisions, removals and re-insertions
+      val key = random.nextLong(0, 2048)
+
+      if (random.nextInt(3) == 0) {
+        assertEquals(reference.remove(key) ?: -1, map.remove(key))
+      } else {
+        assertEquals(reference.put(key, iteration) ?: -1, map.put(key, iteration))
+      }
+    }
+
+    assertEquals(reference.size, map.size)
+
+    for (key in 0L until 2048L) {
+      assertEquals(reference[key] ?: -1, map[key])
+    }
+
+    val iterated = HashMap<Long, Int>()
+    map.forEach { key, value -> iterated[key] = value }
+    assertEquals(reference, iterated)
+  }
+
+  @Test
+  fun `test clear`() {
+    val map = LongIntOpenHashMap()
+
+    map[0L] = 1
+    map[1L] = 2
+    map.clear()
+
+    assertTrue(map.isEmpty())
+    assertEquals(-1, map[0L])
+    assertEquals(-1, map[1L])
+  }
+
+}
@@ -25,6 +25,7 @@ import com.github.k1rakishou.model.dao.ChanPostHideDao
 import com.github.k1rakishou.model.dao.ChanPostHttpIconDao
 import com.github.k1rakishou.model.dao.ChanPostImageDao
 import com.github.k1rakishou.model.dao.ChanPostReplyDao
+import com.github.k1rakishou.model.dao.ChanPostSearchDao
 import com.github.k1rakishou.model.dao.ChanSavedReplyDao
 import com.github.k1rakishou.model.dao.ChanSiteDao
 import com.github.k1rakishou.model.dao.ChanTextSpanDao
@@ -59,6 +60,7 @@ import com.github.k1rakishou.model.entity.chan.post.ChanPostHttpIconEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostIdEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostImageEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostReplyEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostSearchEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanSavedReplyEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanTextSpanEntity
 import com.github.k1rakishou.model.entity.chan.site.ChanSiteEntity
@@ -103,6 +105,8 @@ import com.github.k1rakishou.model.migrations.Migration_v36_to_v37
 import com.github.k1rakishou.model.migrations.Migration_v37_to_v38
 import com.github.k1rakishou.model.migrations.Migration_v38_to_v39
 import com.github.k1rakishou.model.migrations.Migration_v39_to_v40
+import com.github.k1rakishou.model.migrations.Migration_v40_to_v41
+import com.github.k1rakishou.model.migrations.Migration_v41_to_v42
 import com.github.k1rakishou.model.migrations.Migration_v3_to_v4
 import com.github.k1rakishou.model.migrations.Migration_v4_to_v5
 import com.github.k1rakishou.model.migrations.Migration_v5_to_v6
@@ -128,6 +132,7 @@ import java.util.concurrent.atomic.AtomicInteger
     ChanPostHttpIconEntity::class,
     ChanTextSpanEntity::class,
     ChanPostReplyEntity::class,
+    ChanPostSearchEntity::class,
     ChanSavedReplyEntity::class,
     ChanPostHideEntity::class,
     ChanThreadViewableInfoEntity::class,
@@ -151,7 +156,7 @@ import java.util.concurrent.atomic.AtomicInteger
     ChanThreadsWithPosts::class,
     OldChanPostThread::class
   ],
-  version = 40,
+  version = 42,
   exportSchema = true
 )
 @TypeConverters(
@@ -179,6 +184,7 @@ abstract class KurobaDatabase : RoomDatabase() {
   abstract fun chanPostHttpIconDao(): ChanPostHttpIconDao
   abstract fun chanTextSpanDao(): ChanTextSpanDao
   abstract fun chanPostReplyDao(): ChanPostReplyDao
+  abstract fun chanPostSearchDao(): ChanPostSearchDao
   abstract fun navHistoryDao(): NavHistoryDao
   abstract fun threadBookmarkDao(): ThreadBookmarkDao
   abstract fun threadBookmarkReplyDao(): ThreadBookmarkReplyDao
@@ -283,6 +289,8 @@ abstract class KurobaDatabase : RoomDatabase() {
           Migration_v37_to_v38(),
           Migration_v38_to_v39(),
           Migration_v39_to_v40(),
+          Migration_v40_to_v41(),
+          Migration_v41_to_v42(),
         )
         .fallbackToDestructiveMigrationOnDowngrade()
         .build()
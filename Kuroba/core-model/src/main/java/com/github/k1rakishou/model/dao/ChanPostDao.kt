@@ -7,6 +7,7 @@ import androidx.room.OnConflictStrategy
 import androidx.room.Query
 import androidx.room.RewriteQueriesToDropUnusedColumns
 import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.entity.chan.board.ChanBoardIdEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostFull
@@ -126,6 +127,22 @@ abstract class ChanPostDao {
     threadId: Long
   ): List<PostDescriptorDatabaseObject>
 
+  @Query("""
+    SELECT 
+        post_ids.${ChanPostIdEntity.POST_NO_COLUMN_NAME},
+        post_ids.${ChanPostIdEntity.POST_SUB_NO_COLUMN_NAME},
+        posts.${ChanPostEntity.POST_HASH_VAL1_COLUMN_NAME},
+        posts.${ChanPostEntity.POST_HASH_VAL2_COLUMN_NAME}
+    FROM ${ChanPostIdEntity.TABLE_NAME} post_ids
+    INNER JOIN ${ChanPostEntity.TABLE_NAME} posts
+        ON posts.${ChanPostEntity.CHAN_POST_ID_COLUMN_NAME} = post_ids.${ChanPostIdEntity.POST_ID_COLUMN_NAME}
+    WHERE 
+        post_ids.${ChanPostIdEntity.OWNER_THREAD_ID_COLUMN_NAME} = :ownerThreadId
+    AND 
+        (posts.${ChanPostEntity.POST_HASH_VAL1_COLUMN_NAME} != 0 OR posts.${ChanPostEntity.POST_HASH_VAL2_COLUMN_NAME} != 0)
+  """)
+  abstract suspend fun selectPostHashesByThreadId(ownerThreadId: Long): List<PostHashDatabaseObject>
+
   @RewriteQueriesToDropUnusedColumns
   @Query("""
         SELECT *
@@ -220,6 +237,17 @@ abstract class ChanPostDao {
   @Query("SELECT * FROM ${ChanPostEntity.TABLE_NAME}")
   abstract suspend fun testGetAllChanPosts(): List<ChanPostEntity>
 
+  data class PostHashDatabaseObject(
+    @ColumnInfo(name = ChanPostIdEntity.POST_NO_COLUMN_NAME)
+    val postNo: Long,
+    @ColumnInfo(name = ChanPostIdEntity.POST_SUB_NO_COLUMN_NAME)
+    val postSubNo: Long,
+    @ColumnInfo(name = ChanPostEntity.POST_HASH_VAL1_COLUMN_NAME)
+    val postHashVal1: Long,
+    @ColumnInfo(name = ChanPostEntity.POST_HASH_VAL2_COLUMN_NAME)
+    val postHashVal2: Long
+  )
+
   data class PostDescriptorDatabaseObject(
     @ColumnInfo(name = ChanPostIdEntity.POST_ID_COLUMN_NAME)
     val postDatabaseId: Long,
@@ -233,6 +261,18 @@ abstract class ChanPostDao {
     val boardCode: String,
     @ColumnInfo(name = ChanSiteIdEntity.SITE_NAME_COLUMN_NAME)
     val siteName: String
-  )
+  ) {
+
+    fun toPostDescriptor(): PostDescriptor {
+      return PostDescriptor.create(
+        siteName = siteName,
+        boardCode = boardCode,
+        threadNo = threadNo,
+        postNo = postNo,
+        postSubNo = postSubNo
+      )
+    }
+
+  }
 
 }
\ No newline at end of file
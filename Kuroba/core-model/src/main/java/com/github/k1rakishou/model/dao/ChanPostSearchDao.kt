@@ -0,0 +1,147 @@
+package com.github.k1rakishou.model.dao
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.Query
+import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.entity.chan.board.ChanBoardIdEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostIdEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostSearchEntity
+import com.github.k1rakishou.model.entity.chan.site.ChanSiteIdEntity
+import com.github.k1rakishou.model.entity.chan.thread.ChanThreadEntity
+import com.github.k1rakishou.model.entity.download.ThreadDownloadEntity
+
+@Dao
+abstract class ChanPostSearchDao {
+
+  suspend fun insertOrReplaceMany(chanPostSearchEntityList: List<ChanPostSearchEntity>) {
+    if (chanPostSearchEntityList.isEmpty()) {
+      return
+    }
+
+    // FTS tables ignore conflict resolution so the old rows have to be deleted manually
+    chanPostSearchEntityList
+      .map { chanPostSearchEntity -> chanPostSearchEntity.ownerPostId }
+      .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
+      .forEach { chunk -> deleteManyByOwnerPostIds(chunk) }
+
+    insertMany(chanPostSearchEntityList)
+  }
+
+  @Insert
+  protected abstract suspend fun insertMany(chanPostSearchEntityList: List<ChanPostSearchEntity>)
+
+  @Query("""
+    DELETE FROM ${ChanPostSearchEntity.TABLE_NAME}
+    WHERE ${ChanPostSearchEntity.ROW_ID_COLUMN_NAME} IN (:ownerPostIds)
+  """)
+  protected abstract suspend fun deleteManyByOwnerPostIds(ownerPostIds: List<Long>)
+
+  /**
+   * Deletes the rows of posts that do not exist anymore.
+   * */
+  @Query("""
+    DELETE FROM ${ChanPostSearchEntity.TABLE_NAME}
+    WHERE ${ChanPostSearchEntity.ROW_ID_COLUMN_NAME} NOT IN (
+      SELECT ${ChanPostIdEntity.POST_ID_COLUMN_NAME}
+      FROM ${ChanPostIdEntity.TABLE_NAME}
+    )
+  """)
+  abstract suspend fun deleteOrphaned(): Int
+
+  @Query("DELETE FROM ${ChanPostSearchEntity.TABLE_NAME}")
+  abstract suspend fun deleteAll(): Int
+
+  @Query("""
+    SELECT 
+        post_ids.${ChanPostIdEntity.POST_ID_COLUMN_NAME},
+        post_ids.${ChanPostIdEntity.POST_NO_COLUMN_NAME},
+        post_ids.${ChanPostIdEntity.POST_SUB_NO_COLUMN_NAME},
+        threads.${ChanThreadEntity.THREAD_NO_COLUMN_NAME},
+        boards.${ChanBoardIdEntity.BOARD_CODE_COLUMN_NAME},
+        sites.${ChanSiteIdEntity.SITE_NAME_COLUMN_NAME}
+    FROM ${ChanPostSearchEntity.TABLE_NAME} post_search
+    INNER JOIN ${ChanPostIdEntity.TABLE_NAME} post_ids 
+        ON post_ids.${ChanPostIdEntity.POST_ID_COLUMN_NAME} = post_search.${ChanPostSearchEntity.ROW_ID_COLUMN_NAME}
+    INNER JOIN ${ChanThreadEntity.TABLE_NAME} threads 
+        ON threads.${ChanThreadEntity.THREAD_ID_COLUMN_NAME} = post_ids.${ChanPostIdEntity.OWNER_THREAD_ID_COLUMN_NAME}
+    INNER JOIN ${ChanBoardIdEntity.TABLE_NAME} boards 
+        ON boards.${ChanBoardIdEntity.BOARD_ID_COLUMN_NAME} = threads.${ChanThreadEntity.OWNER_BOARD_ID_COLUMN_NAME}
+    INNER JOIN ${ChanSiteIdEntity.TABLE_NAME} sites 
+        ON sites.${ChanSiteIdEntity.SITE_NAME_COLUMN_NAME} = boards.${ChanBoardIdEntity.OWNER_SITE_NAME_COLUMN_NAME}
+    WHERE post_search MATCH :matchQuery
+    ORDER BY post_ids.${ChanPostIdEntity.POST_ID_COLUMN_NAME} DESC
+    LIMIT :count OFFSET :offset
+  """)
+  abstract suspend fun searchPosts(
+    matchQuery: String,
+    offset: Int,
+    count: Int
+  ): List<ChanPostDao.PostDescriptorDatabaseObject>
+
+  @Query("""
+    SELECT 
+        post_ids.${ChanPostIdEntity.POST_ID_COLUMN_NAME},
+        post_ids.${ChanPostIdEntity.POST_NO_COLUMN_NAME},
+        post_ids.${ChanPostIdEntity.POST_SUB_NO_COLUMN_NAME},
+        threads.${ChanThreadEntity.THREAD_NO_COLUMN_NAME},
+        boards.${ChanBoardIdEntity.BOARD_CODE_COLUMN_NAME},
+        sites.${ChanSiteIdEntity.SITE_NAME_COLUMN_NAME}
+    FROM ${ChanPostSearchEntity.TABLE_NAME} post_search
+    INNER JOIN ${ChanPostIdEntity.TABLE_NAME} post_ids 
+        ON post_ids.${ChanPostIdEntity.POST_ID_COLUMN_NAME} = post_search.${ChanPostSearchEntity.ROW_ID_COLUMN_NAME}
+    INNER JOIN ${ThreadDownloadEntity.TABLE_NAME} thread_downloads
+        ON thread_downloads.${ThreadDownloadEntity.OWNER_THREAD_DATABASE_ID_COLUMN_NAME} = post_ids.${ChanPostIdEntity.OWNER_THREAD_ID_COLUMN_NAME}
+    INNER JOIN ${ChanThreadEntity.TABLE_NAME} threads 
+        ON threads.${ChanThreadEntity.THREAD_ID_COLUMN_NAME} = post_ids.${ChanPostIdEntity.OWNER_THREAD_ID_COLUMN_NAME}
+    INNER JOIN ${ChanBoardIdEntity.TABLE_NAME} boards 
+        ON boards.${ChanBoardIdEntity.BOARD_ID_COLUMN_NAME} = threads.${ChanThreadEntity.OWNER_BOARD_ID_COLUMN_NAME}
+    INNER JOIN ${ChanSiteIdEntity.TABLE_NAME} sites 
+        ON sites.${ChanSiteIdEntity.SITE_NAME_COLUMN_NAME} = boards.${ChanBoardIdEntity.OWNER_SITE_NAME_COLUMN_NAME}
+    WHERE post_search MATCH :matchQuery
+    ORDER BY post_ids.${ChanPostIdEntity.POST_ID_COLUMN_NAME} DESC
+    LIMIT :count OFFSET :offset
+  """)
+  abstract suspend fun searchDownloadedThreadPosts(
+    matchQuery: String,
+    offset: Int,
+    count: Int
+  ): List<ChanPostDao.PostDescriptorDatabaseObject>
+
+  // "SELECT *" does not return the rowid of an FTS table
+  @Query("""
+    SELECT
+        ${ChanPostSearchEntity.ROW_ID_COLUMN_NAME},
+        ${ChanPostSearchEntity.COMMENT_COLUMN_NAME},
+        ${ChanPostSearchEntity.SUBJECT_COLUMN_NAME},
+        ${ChanPostSearchEntity.NAME_COLUMN_NAME},
+        ${ChanPostSearchEntity.FILE_NAMES_COLUMN_NAME}
+    FROM ${ChanPostSearchEntity.TABLE_NAME}
+    ORDER BY ${ChanPostSearchEntity.ROW_ID_COLUMN_NAME} ASC
+  """)
+  abstract suspend fun testGetAll(): List<ChanPostSearchEntity>
+
+  companion object {
+    /**
+     * Converts user input into an FTS MATCH expression where every word is matched as a prefix and
+     * all of them must be present in the post. Every word is quoted so that FTS operators (OR, NOT,
+     * NEAR, -, *, column filters etc.) typed by the user are treated as plain text. Returns null when
+     * there is nothing to search for.
+     * */
+    fun createMatchQuery(query: String): String? {
+      val tokens = query
+        .split(WHITESPACE_REGEX)
+        .map { token -> token.replace("\"", "") }
+        .filter { token -> token.isNotBlank() }
+
+      if (tokens.isEmpty()) {
+        return null
+      }
+
+      return tokens.joinToString(separator = " ") { token -> "\"$token\"*" }
+    }
+
+    private val WHITESPACE_REGEX = "\\s+".toRegex()
+  }
+
+}
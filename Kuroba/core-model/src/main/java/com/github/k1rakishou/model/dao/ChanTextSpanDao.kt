@@ -4,6 +4,7 @@ import androidx.room.Dao
 import androidx.room.Insert
 import androidx.room.OnConflictStrategy
 import androidx.room.Query
+import androidx.room.Update
 import com.github.k1rakishou.model.entity.chan.post.ChanTextSpanEntity
 
 @Dao
@@ -21,6 +22,9 @@ abstract class ChanTextSpanDao {
     ownerPostIdList: List<Long>
   ): List<ChanTextSpanEntity>
 
+  @Update(onConflict = OnConflictStrategy.IGNORE)
+  abstract suspend fun updateMany(chanTextSpanEntityList: List<ChanTextSpanEntity>)
+
   @Query("SELECT * FROM ${ChanTextSpanEntity.TABLE_NAME}")
   abstract suspend fun testGetAll(): List<ChanTextSpanEntity>
 }
\ No newline at end of file
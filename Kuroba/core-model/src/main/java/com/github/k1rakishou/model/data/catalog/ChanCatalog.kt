@@ -4,6 +4,7 @@ import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.post.ChanOriginalPost
 import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.util.ChanPostUtils
 import java.util.concurrent.locks.ReentrantReadWriteLock
 import kotlin.concurrent.read
 import kotlin.concurrent.write
@@ -76,41 +77,21 @@ class ChanCatalog(
     }
   }
 
-  fun findPostWithRepliesRecursive(
+  fun findPostWithReplies(
     postDescriptor: PostDescriptor,
     postsSet: MutableSet<ChanPost>
   ): Boolean {
-    val postsToCheck = mutableListOf<ChanPost>()
-
-    val found = lock.read {
-      var found = false
-
-      for (post in originalPosts) {
-        if (post.postDescriptor != postDescriptor || postsSet.contains(post)) {
-          continue
-        }
-
-        found = true
-        postsToCheck.add(post)
+    return lock.read {
+      if (!postMap.containsKey(postDescriptor)) {
+        return@read false
       }
 
-      return@read found
-    }
-
-    for (post in postsToCheck) {
-      if (postsSet.contains(post)) {
-        continue
+      ChanPostUtils.findPostWithReplies(postDescriptor, postsSet) { lookUpPostDescriptor ->
+        postMap[lookUpPostDescriptor]
       }
 
-      postsSet.add(post)
-      val repliesFromCopy = post.repliesFromCopy
-
-      repliesFromCopy.forEach { lookUpPostDescriptor ->
-        findPostWithRepliesRecursive(lookUpPostDescriptor, postsSet)
-      }
+      return@read true
     }
-
-    return found
   }
 
   fun getPost(postDescriptor: PostDescriptor): ChanOriginalPost? {
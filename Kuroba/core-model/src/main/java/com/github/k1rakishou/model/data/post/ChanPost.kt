@@ -234,7 +234,7 @@ open class ChanPost(
       return false
     }
 
-    if (!onDemandContentLoadedMapsDiffer(onDemandContentLoadedArray, other.onDemandContentLoadedArray)) {
+    if (onDemandContentLoadedMapsDiffer(onDemandContentLoadedArray, other.onDemandContentLoadedArray)) {
       return false
     }
 
@@ -3,7 +3,6 @@ package com.github.k1rakishou.model.data.thread
 import androidx.annotation.GuardedBy
 import com.github.k1rakishou.common.MurmurHashUtils
 import com.github.k1rakishou.common.hashSetWithCap
-import com.github.k1rakishou.common.mutableIteration
 import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.PostsFromServerData
@@ -15,12 +14,12 @@ import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.data.post.ChanPostImage
 import com.github.k1rakishou.model.data.post.LoaderType
 import com.github.k1rakishou.model.data.post.PostComment
+import com.github.k1rakishou.model.util.ChanPostSizeEstimator
 import com.github.k1rakishou.model.util.ChanPostUtils
 import okhttp3.HttpUrl
 import java.util.*
 import java.util.concurrent.locks.ReentrantReadWriteLock
 import kotlin.Comparator
-import kotlin.collections.ArrayList
 import kotlin.collections.component1
 import kotlin.collections.component2
 import kotlin.collections.set
@@ -39,12 +38,20 @@ class ChanThread(
   @GuardedBy("lock")
   private val threadPosts = mutableListOf<ChanPost>()
   @GuardedBy("lock")
-  private val postsByPostDescriptors = mutableMapOf<PostDescriptor, ChanPost>()
+  // Positions of posts in threadPosts
+  private val postIndexes = ThreadPostIndex(threadDescriptor)
   @GuardedBy("lock")
   // Stores hashes of unparsed post comments, the way we got the from the server, without any spans added yet.
   private val rawPostHashesMap = mutableMapOf<PostDescriptor, MurmurHashUtils.Murmur3Hash>()
   @GuardedBy("lock")
+  // Built on the first search and then kept up to date with every change of threadPosts
+  private var searchIndex: PostSearchIndex? = null
+  @GuardedBy("lock")
   private var lastAccessTime = initialLastAccessTime
+  // Estimated amount of heap taken by threadPosts, -1 means it needs to be recalculated. Written under
+  // both the read lock (when recalculating) and the write lock (when invalidating)
+  @Volatile
+  private var estimatedSizeBytes = -1L
   @GuardedBy("lock")
   private var lastUpdateTime = 0L
 
@@ -130,6 +137,14 @@ class ChanThread(
     lock.write { rawPostHashesMap[postDescriptor] = hash }
   }
 
+  fun putManyPostHashes(postHashes: Map<PostDescriptor, MurmurHashUtils.Murmur3Hash>) {
+    if (postHashes.isEmpty()) {
+      return
+    }
+
+    lock.write { rawPostHashesMap.putAll(postHashes) }
+  }
+
   fun getPostHash(postDescriptor: PostDescriptor): MurmurHashUtils.Murmur3Hash? {
     return lock.read { rawPostHashesMap[postDescriptor] }
   }
@@ -140,7 +155,7 @@ class ChanThread(
 
   fun getPostImage(postDescriptor: PostDescriptor, imageUrl: HttpUrl): ChanPostImage? {
     return lock.read {
-      return@read postsByPostDescriptors[postDescriptor]
+      return@read getPostInternal(postDescriptor)
         ?.firstPostImageOrNull { chanPostImage -> chanPostImage.imageUrl == imageUrl }
     }
   }
@@ -150,7 +165,7 @@ class ChanThread(
       val posts = mutableListWithCap<ChanPost>(postDescriptors.size)
 
       postDescriptors.forEach { postDescriptor ->
-        posts += postsByPostDescriptors[postDescriptor]
+        posts += getPostInternal(postDescriptor)
           ?: return@forEach
       }
 
@@ -170,6 +185,7 @@ class ChanThread(
 
     return lock.write {
       require(newChanPosts.isNotEmpty()) { "newPosts are empty!" }
+      estimatedSizeBytes = -1L
 
       if (threadPosts.isNotEmpty()) {
         require(threadPosts.first() is ChanOriginalPost) {
@@ -184,15 +200,22 @@ class ChanThread(
       var updatedPostsCount = 0
       var deletedPostsCount = 0
 
+      // Reply edges are applied after all the posts are added because a post may quote another
+      // post that comes later in newChanPosts
+      val postRepliesToUpdate = mutableListWithCap<PostRepliesUpdate>(newChanPosts.size)
+
       newChanPosts.forEach { newChanPost ->
         require(newChanPost.postDescriptor.descriptor is ChanDescriptor.ThreadDescriptor) {
           "postDescriptor.descriptor must be thread ThreadDescriptor"
         }
 
         // We don't have this post, just add it at the end
-        if (!postsByPostDescriptors.containsKey(newChanPost.postDescriptor)) {
+        val oldChanPostIndex = postIndexes.indexOf(newChanPost.postDescriptor)
+        if (oldChanPostIndex < 0) {
           threadPosts.add(newChanPost)
-          postsByPostDescriptors[newChanPost.postDescriptor] = newChanPost
+          postIndexes.put(newChanPost.postDescriptor, threadPosts.lastIndex)
+          postRepliesToUpdate += PostRepliesUpdate(newChanPost, emptySet())
+          searchIndex?.addOrUpdate(newChanPost)
 
           addedOrUpdatedOrDeletedPosts = true
           addedPostsCount++
@@ -200,10 +223,6 @@ class ChanThread(
           return@forEach
         }
 
-        val oldChanPostIndex = threadPosts
-          .indexOfFirst { post -> post.postDescriptor == newChanPost.postDescriptor }
-        check(oldChanPostIndex >= 0) { "Bad oldChanPostIndex: $oldChanPostIndex" }
-
         val oldChanPost = threadPosts[oldChanPostIndex]
 
         if (oldChanPost is ChanOriginalPost && newChanPost is ChanOriginalPost) {
@@ -215,7 +234,8 @@ class ChanThread(
         val mergedPost = mergePosts(oldChanPost, newChanPost, deletedPostsSet)
 
         threadPosts[oldChanPostIndex] = mergedPost
-        postsByPostDescriptors[newChanPost.postDescriptor] = mergedPost
+        postRepliesToUpdate += PostRepliesUpdate(mergedPost, oldChanPost.repliesTo)
+        searchIndex?.addOrUpdate(mergedPost)
 
         addedOrUpdatedOrDeletedPosts = true
         ++updatedPostsCount
@@ -223,8 +243,7 @@ class ChanThread(
 
       if (deletedPostsSet != null && deletedPostsSet.isNotEmpty()) {
         deletedPostsSet.forEach { deletedPostDescriptor ->
-          val oldChanPostIndex = threadPosts
-            .indexOfFirst { post -> post.postDescriptor == deletedPostDescriptor }
+          val oldChanPostIndex = postIndexes.indexOf(deletedPostDescriptor)
 
           if (oldChanPostIndex < 0) {
             return@forEach
@@ -240,7 +259,6 @@ class ChanThread(
           val updatedPost = oldPost.deepCopy(overrideDeleted = true)
 
           threadPosts[oldChanPostIndex] = updatedPost
-          postsByPostDescriptors[updatedPost.postDescriptor] = updatedPost
 
           addedOrUpdatedOrDeletedPosts = true
           ++deletedPostsCount
@@ -252,13 +270,15 @@ class ChanThread(
           if (!postsAreSorted()) {
             Logger.d(TAG, "addOrUpdatePosts() posts need to be sorted")
             threadPosts.sortWith(POSTS_COMPARATOR)
+            rebuildPostIndexes()
           }
 
-          recalculatePostReplies(newChanPosts)
+          updatePostReplies(postRepliesToUpdate)
         }
       }
 
       deletedPostsForUi += deletedPostsCount
+      compactSearchIndexIfNeeded()
       checkPostsConsistency()
 
       Logger.d(TAG, "Thread cache (${threadDescriptor}) Added ${addedPostsCount} new posts, " +
@@ -271,6 +291,7 @@ class ChanThread(
 
   fun setOrUpdateOriginalPost(newChanOriginalPost: ChanOriginalPost) {
     lock.write {
+      estimatedSizeBytes = -1L
       val oldPostDescriptor = threadPosts.firstOrNull()?.postDescriptor
       val newPostDescriptor = newChanOriginalPost.postDescriptor
 
@@ -304,15 +325,21 @@ class ChanThread(
         val mergedChanOriginalPost = mergePosts(oldChanOriginalPost, newChanOriginalPost, null)
 
         threadPosts[0] = mergedChanOriginalPost
-        postsByPostDescriptors[newChanOriginalPost.postDescriptor] = mergedChanOriginalPost
+        searchIndex?.addOrUpdate(mergedChanOriginalPost)
+
+        updatePostReplies(listOf(PostRepliesUpdate(mergedChanOriginalPost, oldChanOriginalPost.repliesTo)))
       } else {
         threadPosts.add(newChanOriginalPost)
-        postsByPostDescriptors[newChanOriginalPost.postDescriptor] = newChanOriginalPost
+        postIndexes.put(newChanOriginalPost.postDescriptor, threadPosts.lastIndex)
+        searchIndex?.addOrUpdate(newChanOriginalPost)
 
         if (!postsAreSorted()) {
           Logger.d(TAG, "setOrUpdateOriginalPost() posts need to be sorted")
           threadPosts.sortWith(POSTS_COMPARATOR)
+          rebuildPostIndexes()
         }
+
+        updatePostReplies(listOf(PostRepliesUpdate(newChanOriginalPost, emptySet())))
       }
 
       checkPostsConsistency()
@@ -371,6 +398,23 @@ class ChanThread(
     return lock.read { lastAccessTime }
   }
 
+  /**
+   * See [ChanPostSizeEstimator]. The estimation is cached until the posts of this thread change.
+   * */
+  fun getEstimatedSizeBytes(): Long {
+    val cachedSize = estimatedSizeBytes
+    if (cachedSize >= 0) {
+      return cachedSize
+    }
+
+    return lock.read {
+      val size = threadPosts.sumOf { chanPost -> ChanPostSizeEstimator.estimatePostSize(chanPost) }
+      estimatedSizeBytes = size
+
+      return@read size
+    }
+  }
+
   fun cacheNeedsUpdate(chanCacheUpdateOption: ChanCacheUpdateOptions): Boolean {
     return lock.read { chanCacheUpdateOption.canUpdate(lastUpdateTime) }
   }
@@ -442,8 +486,53 @@ class ChanThread(
     return lock.read { threadPosts.lastOrNull() }
   }
 
+  /**
+   * Timestamps (unix seconds, oldest first) of up to [count] last posts of this thread. Posts without
+   * a timestamp are skipped.
+   * */
+  fun lastPostTimestamps(count: Int): LongArray {
+    return lock.read {
+      val timestamps = ArrayList<Long>(count)
+
+      for (index in threadPosts.indices.reversed()) {
+        if (timestamps.size >= count) {
+          break
+        }
+
+        val timestamp = threadPosts[index].timestamp
+        if (timestamp > 0) {
+          timestamps += timestamp
+        }
+      }
+
+      timestamps.reverse()
+      return@read timestamps.toLongArray()
+    }
+  }
+
   fun getPost(postDescriptor: PostDescriptor): ChanPost? {
-    return lock.read { postsByPostDescriptors[postDescriptor] }
+    return lock.read { getPostInternal(postDescriptor) }
+  }
+
+  /**
+   * Returns the posts (in thread order) that may contain [query] (case insensitive), the caller must
+   * still check them. Returns null when the query can't be looked up in the index, in which case all
+   * the posts have to be checked.
+   * */
+  fun findPostSearchCandidates(query: CharSequence): List<PostDescriptor>? {
+    if (!PostSearchIndex.canSearch(query)) {
+      return null
+    }
+
+    val candidates = lock.read { searchIndex?.findCandidates(query) }
+      ?: lock.write { getOrBuildSearchIndex().findCandidates(query) }
+      ?: return null
+
+    return lock.read {
+      candidates
+        .filter { postDescriptor -> postDescriptor in postIndexes }
+        .sortedBy { postDescriptor -> postIndexes.indexOf(postDescriptor) }
+    }
   }
 
   fun <T> iteratePostIndexes(
@@ -461,9 +550,7 @@ class ChanThread(
             "postDescriptor.threadDescriptor=${postDescriptor.threadDescriptor()}"
         }
 
-        val postIndex = threadPosts
-          .indexOfFirst { chanPost -> chanPost.postDescriptor == postDescriptor }
-
+        val postIndex = postIndexes.indexOf(postDescriptor)
         if (postIndex < 0) {
           return@forEach
         }
@@ -480,58 +567,52 @@ class ChanThread(
     return lock.read { threadPosts.count { chanPost -> chanPost.postNo() > lastPostNo } }
   }
 
-  fun findPostWithRepliesRecursive(
+  fun findPostWithReplies(
     postDescriptor: PostDescriptor,
     postsSet: MutableSet<ChanPost>
   ) {
-    val postsToCheck = mutableListOf<ChanPost>()
-
     lock.read {
-      for (post in threadPosts) {
-        if (post.postDescriptor != postDescriptor || postsSet.contains(post)) {
-          continue
-        }
-
-        postsToCheck.add(post)
-      }
-    }
-
-    for (post in postsToCheck) {
-      if (postsSet.contains(post)) {
-        continue
-      }
-
-      postsSet.add(post)
-      val repliesFromCopy = post.repliesFromCopy
-
-      repliesFromCopy.forEach { lookUpPostDescriptor ->
-        findPostWithRepliesRecursive(lookUpPostDescriptor, postsSet)
+      ChanPostUtils.findPostWithReplies(postDescriptor, postsSet) { lookUpPostDescriptor ->
+        getPostInternal(lookUpPostDescriptor)
       }
     }
   }
 
   fun deletePosts(postDescriptors: Collection<PostDescriptor>) {
     lock.write {
+      estimatedSizeBytes = -1L
       require(threadPosts.isNotEmpty()) { "posts are empty!" }
       require(threadPosts.first() is ChanOriginalPost) {
         "First post is not an original post! post=${threadPosts.first()}"
       }
 
+      var postsDeleted = false
+
       postDescriptors.forEach { postDescriptor ->
         if (postDescriptor.isOP()) {
           Logger.e(TAG, "Deleting original post ${postDescriptor}!!! This may end up very badly!")
         }
 
-        val postIndex = threadPosts.indexOfFirst { chanPost ->
-          chanPost.postDescriptor == postDescriptor
-        }
+        rawPostHashesMap.remove(postDescriptor)
 
-        if (postIndex >= 0) {
-          threadPosts.removeAt(postIndex)
+        val postIndex = postIndexes.remove(postDescriptor)
+        if (postIndex < 0) {
+          return@forEach
         }
 
-        rawPostHashesMap.remove(postDescriptor)
-        postsByPostDescriptors.remove(postDescriptor)
+        val deletedPost = threadPosts[postIndex]
+        removePostReplies(deletedPost.postDescriptor, deletedPost.repliesTo)
+        searchIndex?.remove(deletedPost.postDescriptor)
+
+        // Posts are removed from threadPosts all at once below to avoid shifting the list (and
+        // reindexing it) for every deleted post
+        postsDeleted = true
+      }
+
+      if (postsDeleted) {
+        threadPosts.removeAll { chanPost -> chanPost.postDescriptor !in postIndexes }
+        rebuildPostIndexes()
+        compactSearchIndexIfNeeded()
       }
 
       checkPostsConsistency()
@@ -575,7 +656,7 @@ class ChanThread(
     check(rightCount >= 0) { "Bad right count: $rightCount" }
 
     return lock.read {
-      val indexOfPost = threadPosts.indexOfFirst { post -> post.postDescriptor == postDescriptor }
+      val indexOfPost = postIndexes.indexOf(postDescriptor)
       if (indexOfPost < 0) {
         return@read emptyList()
       }
@@ -628,7 +709,7 @@ class ChanThread(
 
   fun getPostDescriptorRelativeTo(postDescriptor: PostDescriptor, offset: Int): PostDescriptor? {
     return lock.read {
-      val currentPostIndex = threadPosts.indexOfFirst { post -> post.postDescriptor == postDescriptor }
+      val currentPostIndex = postIndexes.indexOf(postDescriptor)
       if (currentPostIndex < 0) {
         return@read null
       }
@@ -643,7 +724,7 @@ class ChanThread(
     iterator: (ChanPostImage) -> Unit
   ): Boolean {
     return lock.read {
-      val post = postsByPostDescriptors[postDescriptor]
+      val post = getPostInternal(postDescriptor)
         ?: return@read false
 
       post.iteratePostImages { postImage -> iterator(postImage) }
@@ -666,7 +747,7 @@ class ChanThread(
 
   fun postHasImages(postDescriptor: PostDescriptor): Boolean {
     return lock.read {
-      return@read postsByPostDescriptors[postDescriptor]?.postImages?.isNotEmpty()
+      return@read getPostInternal(postDescriptor)?.postImages?.isNotEmpty()
         ?: false
     }
   }
@@ -677,10 +758,14 @@ class ChanThread(
 
   fun cleanup() {
     lock.write {
+      estimatedSizeBytes = -1L
+      // Evicted threads are rarely searched again, rebuild the index if they are
+      searchIndex = null
+
       val chanOriginalPost = threadPosts.firstOrNull()
       if (chanOriginalPost == null) {
         threadPosts.clear()
-        postsByPostDescriptors.clear()
+        postIndexes.clear()
         rawPostHashesMap.clear()
 
         return@write
@@ -691,30 +776,16 @@ class ChanThread(
         return@write
       }
 
-      threadPosts.mutableIteration { mutableIterator, chanPost ->
-        if (chanPost !== chanOriginalPost) {
-          mutableIterator.remove()
-        }
+      val originalPostHash = rawPostHashesMap[chanOriginalPost.postDescriptor]
 
-        return@mutableIteration true
-      }
+      threadPosts.clear()
+      threadPosts.add(chanOriginalPost)
+      rebuildPostIndexes()
 
-      postsByPostDescriptors.mutableIteration { mutableIterator, entry ->
-        val chanPost = entry.value
-        if (chanPost !== chanOriginalPost) {
-          mutableIterator.remove()
-        }
+      rawPostHashesMap.clear()
 
-        return@mutableIteration true
-      }
-
-      rawPostHashesMap.mutableIteration { mutableIterator, entry ->
-        val postDescriptor = entry.key
-        if (postDescriptor != chanOriginalPost.postDescriptor) {
-          mutableIterator.remove()
-        }
-
-        return@mutableIteration true
+      if (originalPostHash != null) {
+        rawPostHashesMap[chanOriginalPost.postDescriptor] = originalPostHash
       }
     }
   }
@@ -914,36 +985,136 @@ class ChanThread(
     }
   }
 
-  private fun recalculatePostReplies(newChanPosts: List<ChanPost>) {
+  /**
+   * Updates the reply graph (the [ChanPost.repliesFrom] of the quoted posts) using only the
+   * posts that were just added or updated instead of going through the whole thread. Edges that
+   * are no longer present in the new [ChanPost.repliesTo] of an updated post are removed. If the
+   * graph around the touched posts turns out to be inconsistent it's rebuilt from scratch.
+   * */
+  private fun updatePostReplies(postRepliesUpdates: List<PostRepliesUpdate>) {
+    require(lock.isWriteLocked) { "Lock must be write locked!" }
+
+    if (postRepliesUpdates.isEmpty()) {
+      return
+    }
+
+    val touchedPostDescriptors = hashSetWithCap<PostDescriptor>(postRepliesUpdates.size * 2)
+
+    for (postRepliesUpdate in postRepliesUpdates) {
+      val sourcePostDescriptor = postRepliesUpdate.chanPost.postDescriptor
+      val newRepliesTo = postRepliesUpdate.chanPost.repliesTo
+
+      removePostReplies(
+        sourcePostDescriptor = sourcePostDescriptor,
+        repliesTo = postRepliesUpdate.oldRepliesTo.filter { replyTo -> replyTo !in newRepliesTo }
+      )
+
+      for (replyTo in newRepliesTo) {
+        getPostInternal(replyTo)?.repliesFrom?.add(sourcePostDescriptor)
+      }
+
+      touchedPostDescriptors += sourcePostDescriptor
+      touchedPostDescriptors.addAll(postRepliesUpdate.oldRepliesTo)
+      touchedPostDescriptors.addAll(newRepliesTo)
+    }
+
+    if (!postRepliesAreConsistent(touchedPostDescriptors)) {
+      Logger.e(TAG, "updatePostReplies() reply graph of ${threadDescriptor} is inconsistent, rebuilding it")
+      rebuildPostReplies()
+    }
+  }
+
+  private fun removePostReplies(sourcePostDescriptor: PostDescriptor, repliesTo: Collection<PostDescriptor>) {
     require(lock.isWriteLocked) { "Lock must be write locked!" }
 
-    val replies = HashMap<PostDescriptor, MutableList<PostDescriptor>>(threadPosts.size)
+    for (replyTo in repliesTo) {
+      getPostInternal(replyTo)?.repliesFrom?.remove(sourcePostDescriptor)
+    }
+  }
+
+  private fun postRepliesAreConsistent(postDescriptors: Collection<PostDescriptor>): Boolean {
+    require(lock.isWriteLocked) { "Lock must be write locked!" }
 
-    for (newChanPost in newChanPosts) {
-      val sourcePost = postsByPostDescriptors[newChanPost.postDescriptor]
+    for (postDescriptor in postDescriptors) {
+      val chanPost = getPostInternal(postDescriptor)
         ?: continue
 
-      for (replyTo in sourcePost.repliesTo) {
-        if (postsByPostDescriptors[replyTo]?.repliesFrom?.contains(sourcePost.postDescriptor) == true) {
-          // Already processed
-          continue
+      for (replyTo in chanPost.repliesTo) {
+        val quotedPost = getPostInternal(replyTo)
+          ?: continue
+
+        if (postDescriptor !in quotedPost.repliesFrom) {
+          return false
         }
+      }
 
-        var value = replies[replyTo]
+      for (replyFrom in chanPost.repliesFrom) {
+        val replyingPost = getPostInternal(replyFrom)
+          ?: continue
 
-        if (value == null) {
-          value = ArrayList(3)
-          replies[replyTo] = value
+        if (postDescriptor !in replyingPost.repliesTo) {
+          return false
         }
+      }
+    }
 
-        value.add(sourcePost.postDescriptor)
+    return true
+  }
+
+  private fun rebuildPostReplies() {
+    require(lock.isWriteLocked) { "Lock must be write locked!" }
+
+    threadPosts.forEach { chanPost -> chanPost.repliesFrom.clear() }
+
+    threadPosts.forEach { sourcePost ->
+      for (replyTo in sourcePost.repliesTo) {
+        getPostInternal(replyTo)?.repliesFrom?.add(sourcePost.postDescriptor)
       }
     }
+  }
 
-    for ((postNo, replyList) in replies) {
-      val subject = postsByPostDescriptors[postNo]
+  private fun getPostInternal(postDescriptor: PostDescriptor): ChanPost? {
+    val postIndex = postIndexes.indexOf(postDescriptor)
+    if (postIndex < 0) {
+      return null
+    }
 
-      subject?.repliesFrom?.addAll(replyList)
+    return threadPosts[postIndex]
+  }
+
+  private fun getOrBuildSearchIndex(): PostSearchIndex {
+    require(lock.isWriteLocked) { "Lock must be write locked!" }
+
+    val existingSearchIndex = searchIndex
+    if (existingSearchIndex != null) {
+      return existingSearchIndex
+    }
+
+    val newSearchIndex = PostSearchIndex(threadDescriptor)
+    newSearchIndex.rebuild(threadPosts)
+
+    searchIndex = newSearchIndex
+    return newSearchIndex
+  }
+
+  private fun compactSearchIndexIfNeeded() {
+    require(lock.isWriteLocked) { "Lock must be write locked!" }
+
+    val currentSearchIndex = searchIndex
+      ?: return
+
+    if (currentSearchIndex.needsCompaction) {
+      currentSearchIndex.rebuild(threadPosts)
+    }
+  }
+
+  private fun rebuildPostIndexes() {
+    require(lock.isWriteLocked) { "Lock must be write locked!" }
+
+    postIndexes.clear()
+
+    threadPosts.forEachIndexed { index, chanPost ->
+      postIndexes.put(chanPost.postDescriptor, index)
     }
   }
 
@@ -953,13 +1124,13 @@ class ChanThread(
     }
 
     lock.read {
-      check(threadPosts.size == postsByPostDescriptors.size) {
+      check(threadPosts.size == postIndexes.size) {
         "Sizes do not match (threadPosts.size=${threadPosts.size}, " +
-          "postsByPostDescriptors.size=${postsByPostDescriptors.size}"
+          "postIndexes.size=${postIndexes.size}"
       }
 
       threadPosts.forEach { chanPost1 ->
-        val chanPost2 = postsByPostDescriptors[chanPost1.postDescriptor]
+        val chanPost2 = getPostInternal(chanPost1.postDescriptor)
 
         if (chanPost1 is ChanOriginalPost) {
           check(chanPost1.lastModified >= 0L) { "Bad lastModified" }
@@ -969,7 +1140,7 @@ class ChanThread(
           check(chanPost2.lastModified >= 0L) { "Bad lastModified" }
         }
 
-        checkNotNull(chanPost2) { "postsByPostDescriptors does not contain $chanPost1" }
+        checkNotNull(chanPost2) { "postIndexes does not contain $chanPost1" }
         check(chanPost1 == chanPost2) { "Posts do not match (chanPost1=$chanPost1, chanPost2=$chanPost2)" }
 
         check(chanPost1.postDescriptor.descriptor is ChanDescriptor.ThreadDescriptor) {
@@ -1037,7 +1208,7 @@ class ChanThread(
 
   fun getPostWithRepliesToThisPost(postDescriptor: PostDescriptor): List<PostDescriptor> {
     return lock.read {
-      val chanPost = postsByPostDescriptors[postDescriptor]
+      val chanPost = getPostInternal(postDescriptor)
         ?: return@read emptyList()
 
       val resultPosts = mutableListOf<PostDescriptor>()
@@ -1053,13 +1224,24 @@ class ChanThread(
 
   fun addImage(chanPostImage: ChanPostImage) {
     lock.write {
-      val chanPost = postsByPostDescriptors[chanPostImage.ownerPostDescriptor]
+      val chanPost = getPostInternal(chanPostImage.ownerPostDescriptor)
         ?: return@write false
 
-      return@write chanPost.addImage(chanPostImage)
+      val added = chanPost.addImage(chanPostImage)
+      if (added) {
+        searchIndex?.addOrUpdate(chanPost)
+        estimatedSizeBytes = -1L
+      }
+
+      return@write added
     }
   }
 
+  private class PostRepliesUpdate(
+    val chanPost: ChanPost,
+    val oldRepliesTo: Set<PostDescriptor>
+  )
+
   companion object {
     private const val TAG = "ChanThread"
 
@@ -0,0 +1,253 @@
+package com.github.k1rakishou.model.data.thread
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.util.ChanPostUtils
+
+/**
+ * Trigram index over the searchable fields of the posts of a single thread (comment, post number,
+ * subject, name and image info, see [forEachSearchableField]). Every char is case-folded the same way
+ * String.contains(ignoreCase = true) compares chars so every post that contains the query (ignoring
+ * case) has all of the query trigrams in its postings. The opposite is not true, so the results of
+ * [findCandidates] must still be verified by the caller.
+ *
+ * Every indexed version of a post gets a new document id. Document ids only grow, so the postings are
+ * always sorted and can be intersected linearly. When a post changes, its old document is just marked
+ * as dead and filtered out during the search, the dead documents are dropped by [rebuild] once there
+ * are too many of them (see [needsCompaction]).
+ *
+ * Not thread safe, [ChanThread] guards it with its lock.
+ * */
+internal class PostSearchIndex(
+  private val threadDescriptor: ChanDescriptor.ThreadDescriptor
+) {
+  // PostDescriptor -> the current (live) document id of that post
+  private val documentIds = ThreadPostIndex(threadDescriptor)
+  // document id -> PostDescriptor, null for dead documents
+  private val documents = mutableListOf<PostDescriptor?>()
+  // document id -> hash of the indexed text, used to skip re-indexing posts that did not change
+  private val documentTextHashes = mutableListOf<Long>()
+  private val postings = HashMap<Long, PostingList>()
+  private var deadDocumentsCount = 0
+
+  val needsCompaction: Boolean
+    get() = deadDocumentsCount > MIN_DEAD_DOCUMENTS_TO_COMPACT && deadDocumentsCount > documentIds.size
+
+  fun addOrUpdate(chanPost: ChanPost) {
+    val text = buildSearchableText(chanPost)
+    val textHash = hashText(text)
+    val postDescriptor = chanPost.postDescriptor
+
+    val oldDocumentId = documentIds.indexOf(postDescriptor)
+    if (oldDocumentId >= 0) {
+      if (documentTextHashes[oldDocumentId] == textHash) {
+        return
+      }
+
+      markDead(oldDocumentId)
+    }
+
+    val documentId = documents.size
+    documents += postDescriptor
+    documentTextHashes += textHash
+    documentIds.put(postDescriptor, documentId)
+
+    forEachTrigram(text) { trigram ->
+      postings.getOrPut(trigram) { PostingList() }.add(documentId)
+    }
+  }
+
+  fun remove(postDescriptor: PostDescriptor) {
+    val documentId = documentIds.remove(postDescriptor)
+    if (documentId < 0) {
+      return
+    }
+
+    markDead(documentId)
+  }
+
+  fun rebuild(chanPosts: Collection<ChanPost>) {
+    clear()
+    chanPosts.forEach { chanPost -> addOrUpdate(chanPost) }
+  }
+
+  fun clear() {
+    documentIds.clear()
+    documents.clear()
+    documentTextHashes.clear()
+    postings.clear()
+    deadDocumentsCount = 0
+  }
+
+  /**
+   * Returns the posts that may contain [query] (in no particular order) or null when the query is
+   * too short to be looked up in the index, in which case every post is a candidate.
+   * */
+  fun findCandidates(query: CharSequence): List<PostDescriptor>? {
+    if (!canSearch(query)) {
+      return null
+    }
+
+    val queryPostings = mutableListOf<PostingList>()
+    var missingTrigram = false
+
+    forEachTrigram(query) { trigram ->
+      val postingList = postings[trigram]
+      if (postingList == null) {
+        missingTrigram = true
+        return@forEachTrigram
+      }
+
+      queryPostings += postingList
+    }
+
+    if (missingTrigram || queryPostings.isEmpty()) {
+      return emptyList()
+    }
+
+    // Start with the rarest trigram so that the intermediate results stay as small as possible
+    queryPostings.sortBy { postingList -> postingList.size }
+
+    val candidates = queryPostings.first().toIntArray()
+    var candidatesCount = candidates.size
+
+    for (index in 1 until queryPostings.size) {
+      candidatesCount = queryPostings[index].retainAll(candidates, candidatesCount)
+      if (candidatesCount == 0) {
+        return emptyList()
+      }
+    }
+
+    val result = ArrayList<PostDescriptor>(candidatesCount)
+    for (index in 0 until candidatesCount) {
+      val postDescriptor = documents[candidates[index]]
+        ?: continue
+
+      result += postDescriptor
+    }
+
+    return result
+  }
+
+  private fun markDead(documentId: Int) {
+    documents[documentId] = null
+    ++deadDocumentsCount
+  }
+
+  private class PostingList {
+    private var documentIds = IntArray(INITIAL_POSTING_LIST_CAPACITY)
+
+    var size = 0
+      private set
+
+    fun add(documentId: Int) {
+      // Trigrams repeat within the same document and documents are always added in ascending order
+      if (size > 0 && documentIds[size - 1] == documentId) {
+        return
+      }
+
+      if (size == documentIds.size) {
+        documentIds = documentIds.copyOf(size * 2)
+      }
+
+      documentIds[size++] = documentId
+    }
+
+    fun toIntArray(): IntArray = documentIds.copyOf(size)
+
+    /**
+     * Keeps only the first [count] elements of [sortedDocumentIds] that are also in this list (in
+     * place) and returns how many were kept.
+     * */
+    fun retainAll(sortedDocumentIds: IntArray, count: Int): Int {
+      var left = 0
+      var right = 0
+      var retained = 0
+
+      while (left < count && right < size) {
+        val leftId = sortedDocumentIds[left]
+        val rightId = documentIds[right]
+
+        when {
+          leftId < rightId -> ++left
+          leftId > rightId -> ++right
+          else -> {
+            sortedDocumentIds[retained++] = leftId
+            ++left
+            ++right
+          }
+        }
+      }
+
+      return retained
+    }
+  }
+
+  companion object {
+    private const val TRIGRAM_LENGTH = 3
+    private const val INITIAL_POSTING_LIST_CAPACITY = 4
+    private const val MIN_DEAD_DOCUMENTS_TO_COMPACT = 256
+    // Never appears in any of the fields so trigrams never span two fields
+    private const val FIELD_SEPARATOR = '\u0000'
+
+    fun canSearch(query: CharSequence): Boolean = query.length >= TRIGRAM_LENGTH
+
+    /**
+     * Must match the fields PostSearchPopupController.matchesQuery() checks.
+     * */
+    fun forEachSearchableField(chanPost: ChanPost, func: (CharSequence) -> Unit) {
+      func(chanPost.postComment.originalComment())
+      func(chanPost.postDescriptor.postNo.toString())
+      chanPost.subject?.let { subject -> func(subject) }
+      chanPost.name?.let { name -> func(name) }
+
+      chanPost.postImages.forEach { postImage ->
+        func(ChanPostUtils.formatImageInfoForSearch(postImage))
+      }
+    }
+
+    private fun buildSearchableText(chanPost: ChanPost): String {
+      return buildString {
+        forEachSearchableField(chanPost) { field ->
+          append(field)
+          append(FIELD_SEPARATOR)
+        }
+      }
+    }
+
+    // Same case folding as CharSequence.regionMatches(ignoreCase = true)
+    private fun foldCase(char: Char): Char = Character.toLowerCase(Character.toUpperCase(char))
+
+    private inline fun forEachTrigram(text: CharSequence, func: (Long) -> Unit) {
+      if (text.length < TRIGRAM_LENGTH) {
+        return
+      }
+
+      var first = foldCase(text[0])
+      var second = foldCase(text[1])
+
+      for (index in 2 until text.length) {
+        val third = foldCase(text[index])
+
+        if (first != FIELD_SEPARATOR && second != FIELD_SEPARATOR && third != FIELD_SEPARATOR) {
+          func((first.code.toLong() shl 32) or (second.code.toLong() shl 16) or third.code.toLong())
+        }
+
+        first = second
+        second = third
+      }
+    }
+
+    // 64-bit FNV-1a
+    private fun hashText(text: String): Long {
+      var hash = -0x340d631b7bdddcdbL
+
+      for (char in text) {
+        hash = (hash xor char.code.toLong()) * 0x100000001b3L
+      }
+
+      return hash
+    }
+  }
+}
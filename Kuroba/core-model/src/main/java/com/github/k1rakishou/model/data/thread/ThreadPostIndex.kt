@@ -0,0 +1,107 @@
+package com.github.k1rakishou.model.data.thread
+
+import com.github.k1rakishou.common.datastructure.LongIntOpenHashMap
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+
+/**
+ * Maps posts of a single thread to int indexes (positions in some dense array owned by the caller).
+ * Since all the posts of a thread share the same site/board/thread descriptors, only (postNo, postSubNo)
+ * packed into a long is used as the key so there is no need to hash (and to keep boxed) the whole
+ * [PostDescriptor]. Descriptors that belong to other threads or have numbers that do not fit into the
+ * packed key go into a regular map (should never happen in practice).
+ *
+ * Not thread safe, [ChanThread] guards it with its lock (SavedReplyManager never modifies it after creation).
+ * */
+class ThreadPostIndex(
+  private val threadDescriptor: ChanDescriptor.ThreadDescriptor,
+  expectedSize: Int = DEFAULT_EXPECTED_SIZE
+) {
+  private val packedIndexes = LongIntOpenHashMap(expectedSize, NO_INDEX)
+  private var fallbackIndexes: MutableMap<PostDescriptor, Int>? = null
+
+  val size: Int
+    get() = packedIndexes.size + (fallbackIndexes?.size ?: 0)
+
+  fun indexOf(postDescriptor: PostDescriptor): Int {
+    val packedKey = packedKeyOrNull(postDescriptor)
+    if (packedKey == null) {
+      return fallbackIndexes?.get(postDescriptor) ?: NO_INDEX
+    }
+
+    return packedIndexes[packedKey]
+  }
+
+  /**
+   * Same as [indexOf] for a post of [threadDescriptor] but without the need to create a [PostDescriptor].
+   * */
+  fun indexOf(postNo: Long, postSubNo: Long): Int {
+    val packedKey = packedKeyOrNull(postNo, postSubNo)
+    if (packedKey == null) {
+      val postDescriptor = PostDescriptor.create(threadDescriptor, threadDescriptor.threadNo, postNo, postSubNo)
+      return fallbackIndexes?.get(postDescriptor) ?: NO_INDEX
+    }
+
+    return packedIndexes[packedKey]
+  }
+
+  operator fun contains(postDescriptor: PostDescriptor): Boolean {
+    return indexOf(postDescriptor) != NO_INDEX
+  }
+
+  fun put(postDescriptor: PostDescriptor, index: Int) {
+    require(index >= 0) { "Bad index: $index" }
+
+    val packedKey = packedKeyOrNull(postDescriptor)
+    if (packedKey == null) {
+      val indexes = fallbackIndexes ?: mutableMapOf<PostDescriptor, Int>().also { fallbackIndexes = it }
+      indexes[postDescriptor] = index
+      return
+    }
+
+    packedIndexes[packedKey] = index
+  }
+
+  /**
+   * Returns the index of the removed post or [NO_INDEX].
+   * */
+  fun remove(postDescriptor: PostDescriptor): Int {
+    val packedKey = packedKeyOrNull(postDescriptor)
+    if (packedKey == null) {
+      return fallbackIndexes?.remove(postDescriptor) ?: NO_INDEX
+    }
+
+    return packedIndexes.remove(packedKey)
+  }
+
+  fun clear() {
+    packedIndexes.clear()
+    fallbackIndexes = null
+  }
+
+  private fun packedKeyOrNull(postDescriptor: PostDescriptor): Long? {
+    val descriptor = postDescriptor.descriptor
+    if (descriptor !== threadDescriptor && descriptor != threadDescriptor) {
+      return null
+    }
+
+    return packedKeyOrNull(postDescriptor.postNo, postDescriptor.postSubNo)
+  }
+
+  private fun packedKeyOrNull(postNo: Long, postSubNo: Long): Long? {
+    if (postNo < 0L || postNo > MAX_POST_NO || postSubNo < 0L || postSubNo > MAX_POST_SUB_NO) {
+      return null
+    }
+
+    return (postNo shl POST_SUB_NO_BITS) or postSubNo
+  }
+
+  companion object {
+    const val NO_INDEX = -1
+
+    private const val DEFAULT_EXPECTED_SIZE = 64
+    private const val POST_SUB_NO_BITS = 16
+    private const val MAX_POST_SUB_NO = (1L shl POST_SUB_NO_BITS) - 1
+    private const val MAX_POST_NO = (1L shl (63 - POST_SUB_NO_BITS)) - 1
+  }
+}
@@ -120,8 +120,7 @@ class ModelModule {
   ): ChanThreadsCache {
     return ChanThreadsCache(
       dependencies.isDevFlavor,
-      dependencies.isLowRamDevice,
-      dependencies.appConstants.maxPostsCountInPostsCache,
+      dependencies.appConstants.postsCacheMaxSizeBytes,
       chanCatalogSnapshotCache
     )
   }
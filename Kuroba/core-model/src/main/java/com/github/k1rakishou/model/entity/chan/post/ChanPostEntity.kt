@@ -38,7 +38,13 @@ data class ChanPostEntity(
   @ColumnInfo(name = IS_SAVED_REPLY_COLUMN_NAME)
   val isSavedReply: Boolean = false,
   @ColumnInfo(name = IS_SAGE_COLUMN_NAME)
-  val isSage: Boolean = false
+  val isSage: Boolean = false,
+  // Hash of the raw post data we got from the server (see ChanPostBuilder.getPostHash), both 0 when
+  // unknown
+  @ColumnInfo(name = POST_HASH_VAL1_COLUMN_NAME, defaultValue = "0")
+  val postHashVal1: Long = 0L,
+  @ColumnInfo(name = POST_HASH_VAL2_COLUMN_NAME, defaultValue = "0")
+  val postHashVal2: Long = 0L
 ) {
   companion object {
     const val TABLE_NAME = "chan_post"
@@ -53,5 +59,7 @@ data class ChanPostEntity(
     const val IS_OP_COLUMN_NAME = "is_op"
     const val IS_SAVED_REPLY_COLUMN_NAME = "is_saved_reply"
     const val IS_SAGE_COLUMN_NAME = "is_sage"
+    const val POST_HASH_VAL1_COLUMN_NAME = "post_hash_val1"
+    const val POST_HASH_VAL2_COLUMN_NAME = "post_hash_val2"
   }
 }
\ No newline at end of file
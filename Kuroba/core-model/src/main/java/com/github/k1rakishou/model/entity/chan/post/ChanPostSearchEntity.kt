@@ -0,0 +1,40 @@
+package com.github.k1rakishou.model.entity.chan.post
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Fts4
+import androidx.room.FtsOptions
+import androidx.room.PrimaryKey
+
+/**
+ * Full text search index over the posts stored in the database. The rowid is the id of the post in
+ * chan_post_id. It's a virtual table so there are no foreign keys, rows of posts that were deleted
+ * (or re-inserted with a new id) stay here until [com.github.k1rakishou.model.dao.ChanPostSearchDao.deleteOrphaned]
+ * is called, but they are never returned from searches since those are joined with chan_post_id.
+ * */
+@Fts4(tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity(tableName = ChanPostSearchEntity.TABLE_NAME)
+data class ChanPostSearchEntity(
+  @PrimaryKey
+  @ColumnInfo(name = ROW_ID_COLUMN_NAME)
+  val ownerPostId: Long,
+  @ColumnInfo(name = COMMENT_COLUMN_NAME)
+  val comment: String,
+  @ColumnInfo(name = SUBJECT_COLUMN_NAME)
+  val subject: String,
+  @ColumnInfo(name = NAME_COLUMN_NAME)
+  val name: String,
+  @ColumnInfo(name = FILE_NAMES_COLUMN_NAME)
+  val fileNames: String
+) {
+
+  companion object {
+    const val TABLE_NAME = "chan_post_search"
+
+    const val ROW_ID_COLUMN_NAME = "rowid"
+    const val COMMENT_COLUMN_NAME = "comment"
+    const val SUBJECT_COLUMN_NAME = "subject"
+    const val NAME_COLUMN_NAME = "name"
+    const val FILE_NAMES_COLUMN_NAME = "file_names"
+  }
+}
@@ -2,6 +2,7 @@ package com.github.k1rakishou.model.mapper
 
 import android.text.SpannableString
 import androidx.core.text.toSpanned
+import com.github.k1rakishou.common.MurmurHashUtils
 import com.github.k1rakishou.core_spannable.ParcelableSpannableString
 import com.github.k1rakishou.core_spannable.PostLinkable
 import com.github.k1rakishou.core_spannable.parcelable_spannable_string.ParcelableSpannableStringMapper
@@ -20,7 +21,8 @@ object ChanPostEntityMapper {
 
   fun toEntity(
     chanPostId: Long,
-    chanPost: ChanPost
+    chanPost: ChanPost,
+    postHash: MurmurHashUtils.Murmur3Hash? = null
   ): ChanPostEntity {
     return ChanPostEntity(
       chanPostId = chanPostId,
@@ -32,7 +34,9 @@ object ChanPostEntityMapper {
       moderatorCapcode = chanPost.moderatorCapcode,
       isOp = chanPost is ChanOriginalPost,
       isSavedReply = chanPost.isSavedReply,
-      isSage = chanPost.isSage
+      isSage = chanPost.isSage,
+      postHashVal1 = postHash?.val1 ?: 0L,
+      postHashVal2 = postHash?.val2 ?: 0L
     )
   }
 
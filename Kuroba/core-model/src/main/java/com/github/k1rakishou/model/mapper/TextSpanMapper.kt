@@ -1,15 +1,11 @@
 package com.github.k1rakishou.model.mapper
 
-import com.github.k1rakishou.common.errorMessageOrClassName
-import com.github.k1rakishou.common.marshall
-import com.github.k1rakishou.common.unmarshall
-import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.core_spannable.ParcelableSpannableString
 import com.github.k1rakishou.core_spannable.ParcelableSpans
+import com.github.k1rakishou.core_spannable.parcelable_spannable_string.ParcelableSpannableStringMapper
 import com.github.k1rakishou.model.entity.chan.post.ChanTextSpanEntity
 
 object TextSpanMapper {
-  private const val TAG = "TextSpanMapper"
 
   fun toEntity(
     ownerPostId: Long,
@@ -26,7 +22,7 @@ object TextSpanMapper {
       ownerPostId = ownerPostId,
       parsedText = parcelableSpannableString.text,
       unparsedText = originalUnparsedComment,
-      spanInfoBytes = parcelableSpannableString.parcelableSpans.marshall(),
+      spanInfoBytes = ParcelableSpannableStringMapper.spansToBytes(parcelableSpannableString.parcelableSpans),
       textType = chanTextType
     )
   }
@@ -54,9 +50,7 @@ object TextSpanMapper {
 
     val textSpanEntity = filteredTextSpanEntityList.first()
 
-    val parcelableSpans = textSpanEntity.spanInfoBytes.unmarshall(ParcelableSpans.CREATOR)
-      .peekError { error -> Logger.e(TAG, "fromEntity() error: ${error.errorMessageOrClassName()}") }
-      .valueOrNull()
+    val parcelableSpans = ParcelableSpannableStringMapper.spansFromBytes(textSpanEntity.spanInfoBytes)
       ?: ParcelableSpans()
 
     return ParcelableSpannableString(
@@ -65,4 +59,23 @@ object TextSpanMapper {
     )
   }
 
+  /**
+   * Returns a copy of [chanTextSpanEntity] with spans rewritten into the current storage format or
+   * null if it already uses it (or if the old spans can't be read).
+   * */
+  fun migrateToCurrentFormat(chanTextSpanEntity: ChanTextSpanEntity): ChanTextSpanEntity? {
+    if (!ParcelableSpannableStringMapper.isLegacySpansBytes(chanTextSpanEntity.spanInfoBytes)) {
+      return null
+    }
+
+    val parcelableSpans = ParcelableSpannableStringMapper.spansFromBytes(chanTextSpanEntity.spanInfoBytes)
+      ?: return null
+
+    val spanInfoBytes = ParcelableSpannableStringMapper.spansToBytes(
+      ParcelableSpannableStringMapper.upgradeSpans(parcelableSpans)
+    )
+
+    return chanTextSpanEntity.copy(spanInfoBytes = spanInfoBytes)
+  }
+
 }
\ No newline at end of file
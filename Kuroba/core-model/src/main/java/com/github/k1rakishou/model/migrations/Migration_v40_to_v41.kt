@@ -0,0 +1,39 @@
+package com.github.k1rakishou.model.migrations
+
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+class Migration_v40_to_v41 : Migration(40, 41) {
+
+  override fun migrate(database: SupportSQLiteDatabase) {
+    database.doWithoutForeignKeys {
+      database.execSQL("""
+        CREATE VIRTUAL TABLE IF NOT EXISTS `chan_post_search` 
+        USING FTS4(
+          `comment` TEXT NOT NULL, 
+          `subject` TEXT NOT NULL, 
+          `name` TEXT NOT NULL, 
+          `file_names` TEXT NOT NULL, 
+          tokenize=unicode61
+        )
+      """.trimIndent())
+
+      // Index the posts that are already in the database (text_type: 0 - PostComment, 1 - Subject)
+      database.execSQL("""
+        INSERT INTO `chan_post_search` (`rowid`, `comment`, `subject`, `name`, `file_names`)
+        SELECT 
+          post.`chan_post_id`,
+          IFNULL((SELECT span.`parsed_text` FROM `chan_text_span` span WHERE span.`owner_post_id` = post.`chan_post_id` AND span.`text_type` = 0 LIMIT 1), ''),
+          IFNULL((SELECT span.`parsed_text` FROM `chan_text_span` span WHERE span.`owner_post_id` = post.`chan_post_id` AND span.`text_type` = 1 LIMIT 1), ''),
+          IFNULL(post.`name`, ''),
+          IFNULL((
+            SELECT group_concat(IFNULL(image.`filename`, '') || ' ' || image.`server_filename`, ' ') 
+            FROM `chan_post_image` image 
+            WHERE image.`owner_post_id` = post.`chan_post_id` AND image.`is_inlined` = 0
+          ), '')
+        FROM `chan_post` post
+      """.trimIndent())
+    }
+  }
+
+}
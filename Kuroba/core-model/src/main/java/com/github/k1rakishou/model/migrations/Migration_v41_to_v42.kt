@@ -0,0 +1,15 @@
+package com.github.k1rakishou.model.migrations
+
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+class Migration_v41_to_v42 : Migration(41, 42) {
+
+  override fun migrate(database: SupportSQLiteDatabase) {
+    database.doWithoutForeignKeys {
+      database.execSQL("ALTER TABLE chan_post ADD COLUMN post_hash_val1 INTEGER NOT NULL DEFAULT 0")
+      database.execSQL("ALTER TABLE chan_post ADD COLUMN post_hash_val2 INTEGER NOT NULL DEFAULT 0")
+    }
+  }
+
+}
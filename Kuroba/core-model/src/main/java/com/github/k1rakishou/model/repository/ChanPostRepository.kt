@@ -272,6 +272,26 @@ class ChanPostRepository(
     chanThreadsCache.clearPostHashes()
   }
 
+  /**
+   * Full text search over every post stored in the database (including downloaded threads). Does not
+   * touch the network and does not load the posts themselves, only their descriptors.
+   * */
+  suspend fun searchLocalPosts(
+    query: String,
+    offset: Int,
+    count: Int
+  ): ModularResult<List<PostDescriptor>> {
+    check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
+    require(offset >= 0) { "Bad offset param: $offset" }
+    require(count > 0) { "Bad count param: $count" }
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        return@tryWithTransaction localSource.searchPosts(query, offset, count)
+      }
+    }
+  }
+
   suspend fun getCatalogOriginalPosts(
     descriptor: ChanDescriptor.CatalogDescriptor,
     count: Int
@@ -374,13 +394,7 @@ class ChanPostRepository(
           Logger.d(TAG, "preloadForThread($threadDescriptor) got ${postsFromDatabase.size} from DB")
 
           if (postsFromDatabase.isNotEmpty()) {
-            chanThreadsCache.putManyThreadPostsIntoCache(
-              threadDescriptor = threadDescriptor,
-              parsedPosts = postsFromDatabase,
-              cacheOptions = ChanCacheOptions.onlyCacheInMemory(),
-              chanCacheUpdateOptions = ChanCacheUpdateOptions.UpdateCache,
-              postsFromServerData = null
-            )
+            putThreadPostsFromDatabaseIntoCache(threadDescriptor, postsFromDatabase)
           }
         }
 
@@ -490,14 +504,7 @@ class ChanPostRepository(
           return@tryWithTransaction emptyList()
         }
 
-        chanThreadsCache.putManyThreadPostsIntoCache(
-          threadDescriptor = threadDescriptor,
-          parsedPosts = postsFromDatabase,
-          cacheOptions = ChanCacheOptions.onlyCacheInMemory(),
-          chanCacheUpdateOptions = ChanCacheUpdateOptions.UpdateCache,
-          postsFromServerData = null
-        )
-
+        putThreadPostsFromDatabaseIntoCache(threadDescriptor, postsFromDatabase)
         return@tryWithTransaction postsFromDatabase
       }
     }
@@ -674,19 +681,42 @@ class ChanPostRepository(
     return postsThatDifferWithCache.size
   }
 
+  /**
+   * [postHashes] are the hashes of the raw server data of the [posts] (see ChanPostBuilder.getPostHash),
+   * they are stored along with the posts so that the posts that didn't change on the server are not
+   * parsed again after the posts are loaded back from the database.
+   * */
   suspend fun insertOrUpdatePostsInDatabase(
     ownerThreadId: Long,
-    posts: List<ChanPost>
+    posts: List<ChanPost>,
+    postHashes: Map<PostDescriptor, MurmurHashUtils.Murmur3Hash> = emptyMap()
   ): ModularResult<Unit> {
     check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
 
     return applicationScope.dbCall {
       return@dbCall tryWithTransaction {
-        return@tryWithTransaction localSource.insertThreadPosts(ownerThreadId, posts)
+        return@tryWithTransaction localSource.insertThreadPosts(ownerThreadId, posts, postHashes)
       }
     }
   }
 
+  private suspend fun putThreadPostsFromDatabaseIntoCache(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    postsFromDatabase: List<ChanPost>
+  ) {
+    chanThreadsCache.putManyThreadPostsIntoCache(
+      threadDescriptor = threadDescriptor,
+      parsedPosts = postsFromDatabase,
+      cacheOptions = ChanCacheOptions.onlyCacheInMemory(),
+      chanCacheUpdateOptions = ChanCacheUpdateOptions.UpdateCache,
+      postsFromServerData = null
+    )
+
+    // Without the hashes every one of these posts would be considered changed and parsed again
+    // during the next thread update
+    chanThreadsCache.putManyPostHashes(threadDescriptor, localSource.getThreadPostHashes(threadDescriptor))
+  }
+
   suspend fun getThreadOriginalPostsByDatabaseId(
     threadDatabaseIds: Collection<Long>
   ): ModularResult<List<ChanOriginalPost>> {
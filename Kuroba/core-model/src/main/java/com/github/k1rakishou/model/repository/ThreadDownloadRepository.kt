@@ -2,6 +2,7 @@ package com.github.k1rakishou.model.repository
 
 import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.thread.ThreadDownload
 import com.github.k1rakishou.model.source.local.ThreadDownloadLocalSource
 import kotlinx.coroutines.CoroutineScope
@@ -46,6 +47,24 @@ class ThreadDownloadRepository(
     }
   }
 
+  /**
+   * Same as ChanPostRepository.searchLocalPosts() but only searches the posts of downloaded threads.
+   * */
+  suspend fun searchDownloadedThreadPosts(
+    query: String,
+    offset: Int,
+    count: Int
+  ): ModularResult<List<PostDescriptor>> {
+    require(offset >= 0) { "Bad offset param: $offset" }
+    require(count > 0) { "Bad count param: $count" }
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        return@tryWithTransaction localSource.searchDownloadedThreadPosts(query, offset, count)
+      }
+    }
+  }
+
   private val TAG = "ThreadDownloadingRepository"
 
 }
\ No newline at end of file
@@ -25,21 +25,39 @@ import java.util.concurrent.atomic.AtomicLong
 import kotlin.time.ExperimentalTime
 import kotlin.time.measureTime
 
+/**
+ * In-memory cache of thread posts. The cache is bounded by the estimated amount of heap the posts take
+ * ([maxCacheSizeBytes], see ChanPostSizeEstimator) and not by the amount of posts since a post on a
+ * text board and a post with a wall of text, a bunch of images and dozens of replies may differ in
+ * size by an order of magnitude. See [ThreadEvictionPolicy] for how the threads to evict are picked.
+ * */
 class ChanThreadsCache(
   private val isDevBuild: Boolean,
-  private val isLowRamDevice: Boolean,
-  private val maxCacheSize: Int,
+  private val maxCacheSizeBytes: Long,
   private val chanCatalogSnapshotCache: ChanCatalogSnapshotCache
 ) {
   private val chanThreads = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, ChanThread>(128)
   private val lastEvictInvokeTime = AtomicLong(0L)
   private val oneYearPeriodMillis by lazy { Period.years(1).millis }
   private val chanThreadDeleteEventListeners = CopyOnWriteArrayList<(ThreadDeleteEvent) -> Unit>()
+  private val accessFrequencySketch = ThreadAccessFrequencySketch(EXPECTED_THREADS_COUNT)
+  private val threadEvictionPolicy = ThreadEvictionPolicy()
+
+  @Volatile
+  private var evictionProtectedThreadChecker: ((ChanDescriptor.ThreadDescriptor) -> Boolean)? = null
 
   fun addChanThreadDeleteEventListener(listener: (ThreadDeleteEvent) -> Unit) {
     chanThreadDeleteEventListeners += listener
   }
 
+  /**
+   * [checker] tells whether a thread must never have its posts evicted (e.g. it's bookmarked or
+   * currently opened). Called during the eviction, on a background thread.
+   * */
+  fun setEvictionProtectedThreadChecker(checker: (ChanDescriptor.ThreadDescriptor) -> Boolean) {
+    evictionProtectedThreadChecker = checker
+  }
+
   fun isThreadLockCurrentlyLocked(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
     return chanThreads[threadDescriptor]?.isThreadLockCurrentlyLocked() ?: false
   }
@@ -48,6 +66,13 @@ class ChanThreadsCache(
     chanThreads[postDescriptor.threadDescriptor()]?.putPostHash(postDescriptor, hash)
   }
 
+  fun putManyPostHashes(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    postHashes: Map<PostDescriptor, MurmurHashUtils.Murmur3Hash>
+  ) {
+    chanThreads[threadDescriptor]?.putManyPostHashes(postHashes)
+  }
+
   fun getPostHash(postDescriptor: PostDescriptor): MurmurHashUtils.Murmur3Hash? {
     return chanThreads[postDescriptor.threadDescriptor()]?.getPostHash(postDescriptor)
   }
@@ -140,6 +165,10 @@ class ChanThreadsCache(
       )
     })
 
+    if (cacheOptions.canAddInFrontOfTheMemoryCache()) {
+      accessFrequencySketch.increment(threadDescriptor)
+    }
+
     if (cacheOptions.canStoreInMemory()) {
       chanThread.addOrUpdatePosts(parsedPosts, postsFromServerData)
     } else if (firstPost != null && firstPost is ChanOriginalPost) {
@@ -203,6 +232,41 @@ class ChanThreadsCache(
     return chanThreads[threadDescriptor]
   }
 
+  /**
+   * See [ChanThread.findPostSearchCandidates]. For catalogs only the original posts of the catalog
+   * threads are returned (in catalog order).
+   * */
+  fun findPostSearchCandidates(chanDescriptor: ChanDescriptor, query: CharSequence): List<PostDescriptor>? {
+    if (chanDescriptor is ChanDescriptor.ThreadDescriptor) {
+      return chanThreads[chanDescriptor]?.findPostSearchCandidates(query)
+    }
+
+    chanDescriptor as ChanDescriptor.ICatalogDescriptor
+
+    val threadDescriptors = chanCatalogSnapshotCache.get(chanDescriptor)
+      ?.catalogThreadDescriptorList
+      ?: return null
+
+    val candidates = mutableListWithCap<PostDescriptor>(threadDescriptors.size)
+
+    for (threadDescriptor in threadDescriptors) {
+      val chanThread = chanThreads[threadDescriptor]
+        ?: continue
+
+      val threadCandidates = chanThread.findPostSearchCandidates(query)
+        ?: return null
+
+      // Candidates are sorted so the original post is always the first one
+      val originalPostDescriptor = threadCandidates.firstOrNull()
+        ?.takeIf { postDescriptor -> postDescriptor.isOP() }
+        ?: continue
+
+      candidates += originalPostDescriptor
+    }
+
+    return candidates
+  }
+
   fun contains(chanDescriptor: ChanDescriptor): Boolean {
     when (chanDescriptor) {
       is ChanDescriptor.ThreadDescriptor -> {
@@ -237,6 +301,10 @@ class ChanThreadsCache(
     return chanThreads.values.sumBy { chanThread -> chanThread.postsCount }
   }
 
+  fun getTotalEstimatedSizeBytes(): Long {
+    return chanThreads.values.sumOf { chanThread -> chanThread.getEstimatedSizeBytes() }
+  }
+
   fun getLastPost(threadDescriptor: ChanDescriptor.ThreadDescriptor): ChanPost? {
     return chanThreads[threadDescriptor]?.lastPost()
   }
@@ -289,6 +357,7 @@ class ChanThreadsCache(
   }
 
   fun updateLastAccessTime(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
+    accessFrequencySketch.increment(threadDescriptor)
     chanThreads[threadDescriptor]?.updateLastAccessTime()
   }
 
@@ -346,6 +415,7 @@ class ChanThreadsCache(
   fun deleteAll() {
     lastEvictInvokeTime.set(0)
     chanThreads.clear()
+    accessFrequencySketch.clear()
 
     notifyChanThreadDeleteEventListeners(ThreadDeleteEvent.ClearAll)
   }
@@ -372,78 +442,47 @@ class ChanThreadsCache(
       return
     }
 
-    val currentTotalPostsCount = getTotalCachedPostsCount()
-    if (currentTotalPostsCount <= maxCacheSize) {
+    val currentTotalSizeBytes = getTotalEstimatedSizeBytes()
+    if (currentTotalSizeBytes <= maxCacheSizeBytes) {
       return
     }
 
-    val amountOfThreadsWithMoreThanOnPost = getThreadsWithMoreThanOnePostCount()
-    val actualImmuneThreadsCount = immuneThreadsCount(isLowRamDevice)
+    Logger.d(TAG, "evictOld start (currentTotalSize: ${currentTotalSizeBytes} / max: ${maxCacheSizeBytes}, " +
+      "posts: ${getTotalCachedPostsCount()}, threads with posts: ${getThreadsWithMoreThanOnePostCount()} / " +
+      "total threads: ${getCachedThreadsCount()})")
 
-    if (amountOfThreadsWithMoreThanOnPost <= actualImmuneThreadsCount) {
-      return
-    }
+    val time = measureTime { evictOld() }
 
-    val amountToEvict = (currentTotalPostsCount - maxCacheSize) + (maxCacheSize / 2)
-    if (amountToEvict > 0) {
-      Logger.d(TAG, "evictOld start (immuneThreadsCount=${actualImmuneThreadsCount}, " +
-        "currentTotalPostsCount: ${currentTotalPostsCount} / max:${maxCacheSize}, " +
-        "threads with posts: ${amountOfThreadsWithMoreThanOnPost} / total threads: ${getCachedThreadsCount()})")
-
-      val time = measureTime {
-        evictOld(immuneThreadsCount = actualImmuneThreadsCount, amountToEvictParam = amountToEvict)
-      }
-
-      Logger.d(TAG, "evictOld end (immuneThreadsCount=${actualImmuneThreadsCount}, " +
-        "currentTotalPostsCount: ${getTotalCachedPostsCount()} / max:${maxCacheSize}), " +
-        "threads with posts: ${getThreadsWithMoreThanOnePostCount()}) / total threads: ${getCachedThreadsCount()} " +
-        "took ${time}")
-    }
+    Logger.d(TAG, "evictOld end (currentTotalSize: ${getTotalEstimatedSizeBytes()} / max: ${maxCacheSizeBytes}, " +
+      "posts: ${getTotalCachedPostsCount()}, threads with posts: ${getThreadsWithMoreThanOnePostCount()} / " +
+      "total threads: ${getCachedThreadsCount()}) took ${time}")
 
     lastEvictInvokeTime.set(System.currentTimeMillis())
   }
 
-  private fun evictOld(immuneThreadsCount: Int, amountToEvictParam: Int) {
-    require(amountToEvictParam > 0) { "amountToEvictParam is too small: $amountToEvictParam" }
+  private fun evictOld() {
+    val protectedThreadChecker = evictionProtectedThreadChecker
 
-    val accessTimes = chanThreads.entries
-      .map { (threadDescriptor, chanThread) -> threadDescriptor to chanThread.getLastAccessTime() }
-    val totalPostsCount = getTotalCachedPostsCount()
-
-    val threadDescriptorsSorted = accessTimes
-      // We will get the oldest accessed key in the beginning of the list
-      .sortedBy { (_, lastAccessTime) -> lastAccessTime }
-      .dropLast(immuneThreadsCount)
-      .map { (threadDescriptor, _) -> threadDescriptor }
-
-    if (threadDescriptorsSorted.isEmpty()) {
-      Logger.d(TAG, "threadDescriptorsSorted is empty, accessTimes size=${accessTimes.size}")
-      return
+    val candidates = chanThreads.entries.map { (threadDescriptor, chanThread) ->
+      return@map ThreadEvictionPolicy.Candidate(
+        threadDescriptor = threadDescriptor,
+        sizeBytes = chanThread.getEstimatedSizeBytes(),
+        lastAccessTime = chanThread.getLastAccessTime(),
+        frequency = accessFrequencySketch.frequency(threadDescriptor),
+        isProtected = protectedThreadChecker?.invoke(threadDescriptor) ?: false
+      )
     }
 
-    Logger.d(TAG, "threadDescriptorsSorted size=${threadDescriptorsSorted.size}, " +
-        "accessTimes size=${accessTimes.size}, " +
-        "totalPostsCount=${totalPostsCount}")
-
-    val threadDescriptorsToClean = mutableListOf<ChanDescriptor.ThreadDescriptor>()
-    var amountOfPostsToEvict = amountToEvictParam
-
-    for (threadDescriptor in threadDescriptorsSorted) {
-      if (amountOfPostsToEvict <= 0) {
-        break
-      }
-
-      val count = chanThreads[threadDescriptor]?.postsCount ?: 0
-
-      threadDescriptorsToClean += threadDescriptor
-      amountOfPostsToEvict -= count
-    }
+    val threadDescriptorsToClean = threadEvictionPolicy.selectThreadsToEvict(
+      candidates = candidates,
+      maxSizeBytes = maxCacheSizeBytes
+    )
 
-    Logger.d(TAG, "Evicting ${threadDescriptorsToClean.size} threads, " +
-        "postsToEvict=${amountToEvictParam - amountOfPostsToEvict}")
+    Logger.d(TAG, "Evicting ${threadDescriptorsToClean.size} threads out of ${candidates.size}, " +
+      "protected threads: ${candidates.count { candidate -> candidate.isProtected }}")
 
     if (threadDescriptorsToClean.isEmpty()) {
-      Logger.d(TAG, "threadDescriptorsToDelete is empty")
+      Logger.d(TAG, "threadDescriptorsToClean is empty")
       return
     }
 
@@ -518,23 +557,10 @@ class ChanThreadsCache(
   companion object {
     private const val TAG = "ChanThreadsCache"
 
-    // The freshest N threads that will never have their posts evicted from the cache. Let's say we
-    // have 16 threads in the cache and we want to delete such amount of posts that it will delete
-    // posts from 10 threads. Without considering the immune threads it will evict posts for 10
-    // threads and will leave 6 threads in the cache. But with immune threads it will only evict
-    // posts for 6 oldest threads, always leaving the freshest 10 untouched.
-    private const val IMMUNE_THREADS_COUNT = 8
-    private const val IMMUNE_THREADS_LOW_RAM_COUNT = 5
+    // Only used to size the access frequency sketch, it works fine with more threads
+    private const val EXPECTED_THREADS_COUNT = 512
 
     // 15 seconds
     private val EVICTION_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(15)
-
-    fun immuneThreadsCount(isLowRamDevice: Boolean): Int {
-      return if (isLowRamDevice) {
-        IMMUNE_THREADS_LOW_RAM_COUNT
-      } else {
-        IMMUNE_THREADS_COUNT
-      }
-    }
   }
 }
\ No newline at end of file
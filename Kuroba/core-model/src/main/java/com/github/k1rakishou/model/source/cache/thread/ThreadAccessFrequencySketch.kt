@@ -0,0 +1,96 @@
+package com.github.k1rakishou.model.source.cache.thread
+
+/**
+ * Count-min sketch of how often threads are accessed (the TinyLFU part of W-TinyLFU). Every counter is
+ * capped at [MAX_FREQUENCY] and once [sampleSize] accesses are recorded all counters are halved so
+ * that the threads that were popular a long time ago slowly lose their frequency.
+ *
+ * Uses a fixed amount of memory no matter how many threads were ever recorded, but the frequency of
+ * a thread may be overestimated because of hash collisions (it's never underestimated).
+ * */
+class ThreadAccessFrequencySketch(expectedThreadsCount: Int) {
+  private val width: Int
+  private val counters: ByteArray
+  private val sampleSize: Int
+  private var additions = 0
+
+  init {
+    require(expectedThreadsCount > 0) { "Bad expectedThreadsCount: $expectedThreadsCount" }
+
+    width = Integer.highestOneBit((expectedThreadsCount * 2 - 1).coerceAtLeast(MIN_WIDTH))
+      .coerceAtMost(MAX_WIDTH)
+    counters = ByteArray(width * DEPTH)
+    sampleSize = width * SAMPLE_SIZE_MULTIPLIER
+  }
+
+  @Synchronized
+  fun increment(key: Any) {
+    val hash = spread(key.hashCode())
+    var incremented = false
+
+    for (row in 0 until DEPTH) {
+      val index = indexOf(hash, row)
+      if (counters[index] < MAX_FREQUENCY) {
+        counters[index]++
+        incremented = true
+      }
+    }
+
+    if (incremented && ++additions >= sampleSize) {
+      reset()
+    }
+  }
+
+  @Synchronized
+  fun frequency(key: Any): Int {
+    val hash = spread(key.hashCode())
+    var frequency = MAX_FREQUENCY.toInt()
+
+    for (row in 0 until DEPTH) {
+      frequency = minOf(frequency, counters[indexOf(hash, row)].toInt())
+    }
+
+    return frequency
+  }
+
+  @Synchronized
+  fun clear() {
+    counters.fill(0)
+    additions = 0
+  }
+
+  private fun reset() {
+    for (index in counters.indices) {
+      counters[index] = (counters[index].toInt() ushr 1).toByte()
+    }
+
+    additions /= 2
+  }
+
+  private fun indexOf(hash: Int, row: Int): Int {
+    // Every row uses its own seed so that two keys that collide in one row most likely won't collide
+    // in the others
+    var rowHash = (hash + SEEDS[row]) * SEEDS[row]
+    rowHash += rowHash ushr 16
+
+    return row * width + (rowHash and (width - 1))
+  }
+
+  private fun spread(hashCode: Int): Int {
+    var hash = hashCode
+    hash = ((hash ushr 16) xor hash) * 0x45d9f3b
+    hash = ((hash ushr 16) xor hash) * 0x45d9f3b
+    return (hash ushr 16) xor hash
+  }
+
+  companion object {
+    const val MAX_FREQUENCY: Byte = 15
+
+    private const val DEPTH = 4
+    private const val MIN_WIDTH = 16
+    private const val MAX_WIDTH = 1 shl 16
+    private const val SAMPLE_SIZE_MULTIPLIER = 10
+
+    private val SEEDS = intArrayOf(0x97cb3127.toInt(), 0xb492b66f.toInt(), 0x9ae16a3b.toInt(), 0xc3a5c85c.toInt())
+  }
+}
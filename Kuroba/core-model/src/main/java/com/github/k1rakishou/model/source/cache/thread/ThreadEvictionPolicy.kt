@@ -0,0 +1,96 @@
+package com.github.k1rakishou.model.source.cache.thread
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+
+/**
+ * Picks which threads to evict from [ChanThreadsCache] once the estimated size of all cached threads
+ * goes over the budget. Simplified W-TinyLFU:
+ *
+ * - The most recently accessed threads that fit into [windowPercent] of the budget (the window) are
+ *   never evicted, so a freshly opened thread has time to build up its access frequency.
+ * - Everything else is evicted starting from the least frequently accessed threads (the least recently
+ *   accessed first when frequencies are equal) until the total size drops to [targetPercent] of the
+ *   budget (so that we don't have to run the eviction again right after the next thread load).
+ * - Protected threads (bookmarked, currently opened) are never evicted but are still counted towards
+ *   the budget.
+ * */
+class ThreadEvictionPolicy(
+  private val windowPercent: Int = DEFAULT_WINDOW_PERCENT,
+  private val targetPercent: Int = DEFAULT_TARGET_PERCENT
+) {
+
+  init {
+    require(windowPercent in 0..100) { "Bad windowPercent: $windowPercent" }
+    require(targetPercent in 0..100) { "Bad targetPercent: $targetPercent" }
+  }
+
+  fun selectThreadsToEvict(
+    candidates: List<Candidate>,
+    maxSizeBytes: Long
+  ): List<ChanDescriptor.ThreadDescriptor> {
+    val totalSizeBytes = candidates.sumOf { candidate -> candidate.sizeBytes }
+    if (totalSizeBytes <= maxSizeBytes) {
+      return emptyList()
+    }
+
+    val windowSizeBytes = (maxSizeBytes / 100) * windowPercent
+    val targetSizeBytes = (maxSizeBytes / 100) * targetPercent
+
+    val mainRegion = mutableListOf<Candidate>()
+    var currentWindowSizeBytes = 0L
+    var windowIsFull = false
+
+    candidates
+      .filter { candidate -> !candidate.isProtected }
+      .sortedByDescending { candidate -> candidate.lastAccessTime }
+      .forEach { candidate ->
+        if (!windowIsFull && currentWindowSizeBytes + candidate.sizeBytes <= windowSizeBytes) {
+          currentWindowSizeBytes += candidate.sizeBytes
+          return@forEach
+        }
+
+        // Once a thread does not fit into the window all the threads that were accessed before it go
+        // to the main region too, even the small ones
+        windowIsFull = true
+        mainRegion += candidate
+      }
+
+    if (mainRegion.isEmpty()) {
+      return emptyList()
+    }
+
+    mainRegion.sortWith(EVICTION_ORDER_COMPARATOR)
+
+    val threadsToEvict = mutableListOf<ChanDescriptor.ThreadDescriptor>()
+    var sizeBytesToEvict = totalSizeBytes - targetSizeBytes
+
+    for (candidate in mainRegion) {
+      if (sizeBytesToEvict <= 0) {
+        break
+      }
+
+      threadsToEvict += candidate.threadDescriptor
+      sizeBytesToEvict -= candidate.sizeBytes
+    }
+
+    return threadsToEvict
+  }
+
+  data class Candidate(
+    val threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    val sizeBytes: Long,
+    val lastAccessTime: Long,
+    val frequency: Int,
+    val isProtected: Boolean
+  )
+
+  companion object {
+    const val DEFAULT_WINDOW_PERCENT = 20
+    const val DEFAULT_TARGET_PERCENT = 75
+
+    private val EVICTION_ORDER_COMPARATOR = compareBy<Candidate>(
+      { candidate -> candidate.frequency },
+      { candidate -> candidate.lastAccessTime }
+    )
+  }
+}
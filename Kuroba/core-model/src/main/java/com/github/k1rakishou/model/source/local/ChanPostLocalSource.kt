@@ -1,20 +1,24 @@
 package com.github.k1rakishou.model.source.local
 
+import com.github.k1rakishou.common.MurmurHashUtils
 import com.github.k1rakishou.common.flatMapIndexed
 import com.github.k1rakishou.common.mutableMapWithCap
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.core_spannable.parcelable_spannable_string.ParcelableSpannableStringMapper
 import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.dao.ChanPostSearchDao
 import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.post.ChanOriginalPost
 import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.entity.chan.post.ChanPostEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostFull
 import com.github.k1rakishou.model.entity.chan.post.ChanPostHttpIconEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostIdEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostImageEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostReplyEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostSearchEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanTextSpanEntity
 import com.github.k1rakishou.model.entity.chan.thread.ChanThreadEntity
 import com.github.k1rakishou.model.entity.view.ChanThreadsWithPosts
@@ -37,6 +41,7 @@ class ChanPostLocalSource(
   private val chanPostHttpIconDao = database.chanPostHttpIconDao()
   private val chanTextSpanDao = database.chanTextSpanDao()
   private val chanPostReplyDao = database.chanPostReplyDao()
+  private val chanPostSearchDao = database.chanPostSearchDao()
 
   suspend fun insertEmptyThread(threadDescriptor: ChanDescriptor.ThreadDescriptor): Long? {
     ensureInTransaction()
@@ -149,7 +154,11 @@ class ChanPostLocalSource(
     insertPostsInternal(chanPostIdEntities, chanPostList)
   }
 
-  suspend fun insertThreadPosts(ownerThreadId: Long, chanPostList: List<ChanPost>) {
+  suspend fun insertThreadPosts(
+    ownerThreadId: Long,
+    chanPostList: List<ChanPost>,
+    postHashes: Map<PostDescriptor, MurmurHashUtils.Murmur3Hash> = emptyMap()
+  ) {
     ensureInTransaction()
 
     val chanPostIdEntities = chanPostList.map { chanPost ->
@@ -161,12 +170,13 @@ class ChanPostLocalSource(
       )
     }
 
-    insertPostsInternal(chanPostIdEntities, chanPostList)
+    insertPostsInternal(chanPostIdEntities, chanPostList, postHashes)
   }
 
   private suspend fun insertPostsInternal(
     chanPostIdEntities: List<ChanPostIdEntity>,
-    chanPostList: List<ChanPost>
+    chanPostList: List<ChanPost>,
+    postHashes: Map<PostDescriptor, MurmurHashUtils.Murmur3Hash> = emptyMap()
   ) {
     chanPostDao.insertOrReplaceManyIds(chanPostIdEntities).forEachIndexed { index, postDatabaseId ->
       chanPostIdEntities[index].postId = postDatabaseId
@@ -174,7 +184,8 @@ class ChanPostLocalSource(
 
     chanPostDao.insertOrReplaceManyPosts(
       chanPostIdEntities.mapIndexed { index, chanPostIdEntity ->
-        ChanPostEntityMapper.toEntity(chanPostIdEntity.postId, chanPostList[index])
+        val chanPost = chanPostList[index]
+        ChanPostEntityMapper.toEntity(chanPostIdEntity.postId, chanPost, postHashes[chanPost.postDescriptor])
       }
     )
 
@@ -220,6 +231,27 @@ class ChanPostLocalSource(
         }.toList()
       }
     )
+
+    chanPostSearchDao.insertOrReplaceMany(
+      chanPostIdEntities.mapIndexed { index, chanPostIdEntity ->
+        toSearchEntity(chanPostIdEntity.postId, chanPostList[index])
+      }
+    )
+  }
+
+  private fun toSearchEntity(postDatabaseId: Long, chanPost: ChanPost): ChanPostSearchEntity {
+    val fileNames = chanPost.postImages
+      .filter { postImage -> !postImage.isInlined }
+      .flatMap { postImage -> listOfNotNull(postImage.filename, postImage.serverFilename) }
+      .joinToString(separator = " ")
+
+    return ChanPostSearchEntity(
+      ownerPostId = postDatabaseId,
+      comment = chanPost.postComment.originalComment().toString(),
+      subject = chanPost.subject?.toString() ?: "",
+      name = chanPost.name ?: "",
+      fileNames = fileNames
+    )
   }
 
   private suspend fun insertPostSpannables(
@@ -404,10 +436,7 @@ class ChanPostLocalSource(
     }
 
     // Load posts' comments/subjects/tripcodes and other Spannables
-    val textSpansGroupedByPostId = postIdList
-      .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
-      .flatMap { chunk -> chanTextSpanDao.selectManyByOwnerPostIdList(chunk) }
-      .groupBy { chanTextSpanEntity -> chanTextSpanEntity.ownerPostId }
+    val textSpansGroupedByPostId = selectTextSpansGroupedByPostId(postIdList)
 
     val postAdditionalData = getPostsAdditionalData(postIdList)
 
@@ -432,12 +461,71 @@ class ChanPostLocalSource(
     }
   }
 
+  /**
+   * Text spans stored in an older format are rewritten in the current one as they are read so that
+   * the database is migrated gradually. All the migrated spans of a read are written at once.
+   * */
+  private suspend fun selectTextSpansGroupedByPostId(postIdList: List<Long>): Map<Long, List<ChanTextSpanEntity>> {
+    val chanTextSpanEntityList = postIdList
+      .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
+      .flatMap { chunk -> chanTextSpanDao.selectManyByOwnerPostIdList(chunk) }
+
+    val migratedTextSpanEntityList = mutableListOf<ChanTextSpanEntity>()
+
+    val resultList = chanTextSpanEntityList.map { chanTextSpanEntity ->
+      val migratedTextSpanEntity = TextSpanMapper.migrateToCurrentFormat(chanTextSpanEntity)
+        ?: return@map chanTextSpanEntity
+
+      migratedTextSpanEntityList += migratedTextSpanEntity
+      return@map migratedTextSpanEntity
+    }
+
+    if (migratedTextSpanEntityList.isNotEmpty()) {
+      chanTextSpanDao.updateMany(migratedTextSpanEntityList)
+
+      Logger.d(TAG, "selectTextSpansGroupedByPostId() migrated ${migratedTextSpanEntityList.size} " +
+        "text spans to the current format")
+    }
+
+    return resultList.groupBy { chanTextSpanEntity -> chanTextSpanEntity.ownerPostId }
+  }
+
   suspend fun countThreadPosts(threadDatabaseId: Long): Int {
     ensureInTransaction()
 
     return chanPostDao.countThreadPosts(threadDatabaseId)
   }
 
+  /**
+   * Hashes of the raw server data of the posts of a thread (only of the posts that were stored with
+   * one), see [ChanPostEntity.postHashVal1].
+   * */
+  suspend fun getThreadPostHashes(
+    descriptor: ChanDescriptor.ThreadDescriptor
+  ): Map<PostDescriptor, MurmurHashUtils.Murmur3Hash> {
+    ensureInTransaction()
+
+    val chanThreadEntity = getThreadByThreadDescriptor(descriptor)
+      ?: return emptyMap()
+
+    return chanPostDao.selectPostHashesByThreadId(chanThreadEntity.threadId)
+      .associate { postHashDatabaseObject ->
+        val postDescriptor = PostDescriptor.create(
+          chanDescriptor = descriptor,
+          threadNo = descriptor.threadNo,
+          postNo = postHashDatabaseObject.postNo,
+          postSubNo = postHashDatabaseObject.postSubNo
+        )
+
+        val postHash = MurmurHashUtils.Murmur3Hash(
+          postHashDatabaseObject.postHashVal1,
+          postHashDatabaseObject.postHashVal2
+        )
+
+        return@associate postDescriptor to postHash
+      }
+  }
+
   suspend fun getThreadPosts(descriptor: ChanDescriptor.ThreadDescriptor): List<ChanPost> {
     ensureInTransaction()
 
@@ -480,10 +568,7 @@ class ChanPostLocalSource(
     val postIdList = chanPostFullList.map { it.chanPostIdEntity.postId }
 
     // Load posts' comments/subjects/tripcodes and other Spannables
-    val textSpansGroupedByPostId = postIdList
-      .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
-      .flatMap { chunk -> chanTextSpanDao.selectManyByOwnerPostIdList(chunk) }
-      .groupBy { chanTextSpanEntity -> chanTextSpanEntity.ownerPostId }
+    val textSpansGroupedByPostId = selectTextSpansGroupedByPostId(postIdList)
 
     val postAdditionalData = getPostsAdditionalData(postIdList)
 
@@ -580,10 +665,7 @@ class ChanPostLocalSource(
     val postIdList = chanPostFullList.map { it.chanPostIdEntity.postId }
 
     // Load posts' comments/subjects/tripcodes and other Spannables
-    val textSpansGroupedByPostId = postIdList
-      .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
-      .flatMap { chunk -> chanTextSpanDao.selectManyByOwnerPostIdList(chunk) }
-      .groupBy { chanTextSpanEntity -> chanTextSpanEntity.ownerPostId }
+    val textSpansGroupedByPostId = selectTextSpansGroupedByPostId(postIdList)
 
     val postAdditionalData = getPostsAdditionalData(postIdList)
 
@@ -629,9 +711,25 @@ class ChanPostLocalSource(
   suspend fun deleteAll(): Int {
     ensureInTransaction()
 
+    chanPostSearchDao.deleteAll()
     return chanPostDao.deleteAll()
   }
 
+  /**
+   * Searches the comments, subjects, names and file names of all the posts stored in the database.
+   * Every word of [query] is matched as a prefix. Results are sorted from the most recently inserted
+   * posts to the oldest ones.
+   * */
+  suspend fun searchPosts(query: String, offset: Int, count: Int): List<PostDescriptor> {
+    ensureInTransaction()
+
+    val matchQuery = ChanPostSearchDao.createMatchQuery(query)
+      ?: return emptyList()
+
+    return chanPostSearchDao.searchPosts(matchQuery, offset, count)
+      .map { postDescriptorDatabaseObject -> postDescriptorDatabaseObject.toPostDescriptor() }
+  }
+
   suspend fun deleteThread(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
     ensureInTransaction()
 
@@ -738,6 +836,13 @@ class ChanPostLocalSource(
     ensureInTransaction()
     require(toDeleteCount > 0) { "Bad toDeleteCount: $toDeleteCount" }
 
+    val deleteResult = deleteOldPostsInternal(toDeleteCount)
+    deleteOrphanedSearchEntities()
+
+    return deleteResult
+  }
+
+  private suspend fun deleteOldPostsInternal(toDeleteCount: Int): DeleteResult {
     var deletedTotal = 0
     var skippedTotal = 0
     var offset = 0
@@ -806,6 +911,13 @@ class ChanPostLocalSource(
     ensureInTransaction()
     require(toDeleteCount > 0) { "Bad toDeleteCount: $toDeleteCount" }
 
+    val deleteResult = deleteOldThreadsInternal(toDeleteCount)
+    deleteOrphanedSearchEntities()
+
+    return deleteResult
+  }
+
+  private suspend fun deleteOldThreadsInternal(toDeleteCount: Int): DeleteResult {
     var deletedTotal = 0
     var skippedTotal = 0
     var offset = 0
@@ -867,6 +979,17 @@ class ChanPostLocalSource(
     return DeleteResult(deletedTotal, skippedTotal)
   }
 
+  /**
+   * The search table is virtual so it can't have foreign keys, the rows of the posts that were deleted
+   * (or re-inserted with new ids) have to be removed manually.
+   * */
+  private suspend fun deleteOrphanedSearchEntities() {
+    val deleted = chanPostSearchDao.deleteOrphaned()
+    if (deleted > 0) {
+      Logger.d(TAG, "deleteOrphanedSearchEntities() deleted $deleted entities")
+    }
+  }
+
   class PostAdditionalData(
     val postImageByPostIdMap: Map<Long, List<ChanPostImageEntity>>,
     val postIconsByPostIdMap: Map<Long, List<ChanPostHttpIconEntity>>,
@@ -1,6 +1,8 @@
 package com.github.k1rakishou.model.source.local
 
 import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.dao.ChanPostSearchDao
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.thread.ThreadDownload
 import com.github.k1rakishou.model.mapper.ThreadDownloadMapper
 
@@ -8,6 +10,7 @@ class ThreadDownloadLocalSource(
   database: KurobaDatabase,
 ) : AbstractLocalSource(database) {
   private val threadDownloadDao = database.threadDownloadDao()
+  private val chanPostSearchDao = database.chanPostSearchDao()
 
   suspend fun loadAll(): List<ThreadDownload> {
     ensureInTransaction()
@@ -40,5 +43,15 @@ class ThreadDownloadLocalSource(
     }
   }
 
+  suspend fun searchDownloadedThreadPosts(query: String, offset: Int, count: Int): List<PostDescriptor> {
+    ensureInTransaction()
+
+    val matchQuery = ChanPostSearchDao.createMatchQuery(query)
+      ?: return emptyList()
+
+    return chanPostSearchDao.searchDownloadedThreadPosts(matchQuery, offset, count)
+      .map { postDescriptorDatabaseObject -> postDescriptorDatabaseObject.toPostDescriptor() }
+  }
+
   private val TAG = "ThreadDownloadingLocalSource"
 }
\ No newline at end of file
@@ -0,0 +1,99 @@
+package com.github.k1rakishou.model.util
+
+import android.text.Spanned
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostImage
+import com.github.k1rakishou.model.data.post.PostComment
+import okhttp3.HttpUrl
+
+/**
+ * Rough estimation of how much heap a post takes. It doesn't need to be exact, it only needs to tell
+ * a thread full of long comments with lots of spans, images and replies from a thread of one-liners
+ * so that the posts cache can be bounded by the memory it uses and not by the amount of posts.
+ * */
+object ChanPostSizeEstimator {
+  // ChanPost itself, its PostDescriptor, PostComment, the on-demand content array and the empty
+  // collections every post has
+  private const val POST_BASE_SIZE = 384L
+  // Every char is stored as UTF-16
+  private const val CHAR_SIZE = 2L
+  // The span object itself plus the start/end/flags entry in the SpannableString
+  private const val SPAN_SIZE = 64L
+  // Hash set node + PostDescriptor
+  private const val REPLY_SIZE = 72L
+  // ChanPostImage with its fields, HttpUrl is parsed into a bunch of separate strings so it's
+  // counted separately
+  private const val IMAGE_BASE_SIZE = 256L
+  private const val HTTP_URL_BASE_SIZE = 128L
+  private const val ICON_BASE_SIZE = 48L
+
+  fun estimatePostSize(chanPost: ChanPost): Long {
+    var size = POST_BASE_SIZE
+
+    size += estimatePostCommentSize(chanPost.postComment)
+    size += estimateCharSequenceSize(chanPost.subject)
+    size += estimateCharSequenceSize(chanPost.tripcode)
+    size += estimateCharSequenceSize(chanPost.name)
+    size += estimateCharSequenceSize(chanPost.posterId)
+    size += estimateCharSequenceSize(chanPost.moderatorCapcode)
+
+    size += (chanPost.repliesTo.size + chanPost.repliesFromCount) * REPLY_SIZE
+
+    chanPost.postImages.forEach { chanPostImage -> size += estimatePostImageSize(chanPostImage) }
+    chanPost.postIcons.forEach { postIcon ->
+      size += ICON_BASE_SIZE + estimateHttpUrlSize(postIcon.iconUrl) + estimateCharSequenceSize(postIcon.iconName)
+    }
+
+    return size
+  }
+
+  fun estimatePostCommentSize(postComment: PostComment): Long {
+    val originalComment = postComment.originalComment()
+    val comment = postComment.comment()
+
+    var size = estimateCharSequenceSize(originalComment)
+    if (comment !== originalComment) {
+      size += estimateCharSequenceSize(comment)
+    }
+
+    size += estimateCharSequenceSize(postComment.originalUnparsedComment)
+    return size
+  }
+
+  fun estimateCharSequenceSize(charSequence: CharSequence?): Long {
+    if (charSequence == null) {
+      return 0L
+    }
+
+    var size = charSequence.length * CHAR_SIZE
+
+    if (charSequence is Spanned && charSequence.isNotEmpty()) {
+      size += charSequence.getSpans(0, charSequence.length, Any::class.java).size * SPAN_SIZE
+    }
+
+    return size
+  }
+
+  private fun estimatePostImageSize(chanPostImage: ChanPostImage): Long {
+    var size = IMAGE_BASE_SIZE
+
+    size += estimateHttpUrlSize(chanPostImage.imageUrl)
+    size += estimateHttpUrlSize(chanPostImage.actualThumbnailUrl)
+    size += estimateHttpUrlSize(chanPostImage.spoilerThumbnailUrl)
+    size += estimateCharSequenceSize(chanPostImage.serverFilename)
+    size += estimateCharSequenceSize(chanPostImage.filename)
+    size += estimateCharSequenceSize(chanPostImage.fileHash)
+
+    return size
+  }
+
+  private fun estimateHttpUrlSize(httpUrl: HttpUrl?): Long {
+    if (httpUrl == null) {
+      return 0L
+    }
+
+    // The full url string plus roughly the same amount for the host/path segments/query strings
+    return HTTP_URL_BASE_SIZE + (httpUrl.toString().length * CHAR_SIZE * 2)
+  }
+
+}
@@ -7,6 +7,7 @@ import androidx.core.text.PrecomputedTextCompat
 import androidx.core.widget.TextViewCompat
 import com.github.k1rakishou.common.MurmurHashUtils
 import com.github.k1rakishou.common.StringUtils
+import com.github.k1rakishou.common.isNotNullNorBlank
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor.CatalogDescriptor
@@ -25,11 +26,16 @@ import kotlin.math.min
 object ChanPostUtils {
   private const val TAG = "ChanPostUtils"
 
-  private val dateFormat = SimpleDateFormat.getDateTimeInstance(
-    DateFormat.SHORT,
-    DateFormat.MEDIUM,
-    Locale.ENGLISH
-  )
+  // SimpleDateFormat is not thread safe and post cells are precalculated on multiple threads
+  private val dateFormat = object : ThreadLocal<DateFormat>() {
+    override fun initialValue(): DateFormat {
+      return SimpleDateFormat.getDateTimeInstance(
+        DateFormat.SHORT,
+        DateFormat.MEDIUM,
+        Locale.ENGLISH
+      )
+    }
+  }
 
   @JvmStatic
   @SuppressLint("DefaultLocale")
@@ -150,7 +156,7 @@ object ChanPostUtils {
     tmpDate.time = post.timestamp * 1000L
 
     return try {
-      dateFormat.format(tmpDate)
+      dateFormat.get()!!.format(tmpDate)
     } catch (error: Throwable) {
       Logger.e(TAG, "Invalid time: ${tmpDate.time}")
       return "Unk"
@@ -268,31 +274,77 @@ object ChanPostUtils {
 
   @JvmStatic
   fun findPostWithReplies(postDescriptor: PostDescriptor, posts: Collection<ChanPost>): HashSet<ChanPost> {
+    return findPostWithReplies(postDescriptor, posts.associateBy { post -> post.postDescriptor })
+  }
+
+  @JvmStatic
+  fun findPostWithReplies(postDescriptor: PostDescriptor, posts: Map<PostDescriptor, ChanPost>): HashSet<ChanPost> {
     val postsSet = HashSet<ChanPost>()
-    findPostWithRepliesRecursive(postDescriptor, posts, postsSet)
+    findPostWithReplies(postDescriptor, postsSet) { lookUpPostDescriptor -> posts[lookUpPostDescriptor] }
     return postsSet
   }
 
   /**
-   * Finds a post by it's id and then finds all posts that has replied to this post recursively
+   * Finds a post by it's id and then all posts that have replied to this post, directly or through
+   * other replies, and adds them into [postsSet]. Breadth-first with every post visited only once so
+   * it's linear in the amount of found posts and replies and deep reply chains can't overflow the
+   * stack. Posts that are already in [postsSet] are not visited again, so it can be called multiple
+   * times with the same set. Replies [postLookup] can't find (cross-thread replies) are skipped.
    */
-  private fun findPostWithRepliesRecursive(
+  inline fun findPostWithReplies(
     postDescriptor: PostDescriptor,
-    posts: Collection<ChanPost>,
-    postsSet: MutableSet<ChanPost>
+    postsSet: MutableSet<ChanPost>,
+    postLookup: (PostDescriptor) -> ChanPost?
   ) {
-    for (post in posts) {
-      if (post.postDescriptor == postDescriptor && !postsSet.contains(post)) {
-        postsSet.add(post)
-        val repliesFromCopy = post.repliesFromCopy
+    val visited = hashSetOf(postDescriptor)
+    val queue = mutableListOf(postDescriptor)
+    var head = 0
 
-        repliesFromCopy.forEach { replyId ->
-          findPostWithRepliesRecursive(replyId, posts, postsSet)
+    while (head < queue.size) {
+      val post = postLookup(queue[head++])
+        ?: continue
+
+      if (!postsSet.add(post)) {
+        continue
+      }
+
+      post.repliesFromCopy.forEach { replyPostDescriptor ->
+        if (visited.add(replyPostDescriptor)) {
+          queue.add(replyPostDescriptor)
         }
       }
     }
   }
 
+  /**
+   * The image info the post search matches against (see PostSearchPopupController and PostSearchIndex).
+   * */
+  @JvmStatic
+  fun formatImageInfoForSearch(chanPostImage: ChanPostImage): String {
+    return buildString {
+      if (chanPostImage.serverFilename.isNotNullNorBlank()) {
+        append(chanPostImage.serverFilename)
+        append(' ')
+      }
+
+      if (chanPostImage.filename.isNotNullNorBlank()) {
+        append(chanPostImage.filename)
+        append(' ')
+      }
+
+      if (chanPostImage.extension.isNotNullNorBlank()) {
+        append(chanPostImage.extension!!.toUpperCase(Locale.ENGLISH))
+        append(' ')
+      }
+
+      append(StringUtils.UNBREAKABLE_SPACE_SYMBOL)
+      append("${chanPostImage.imageWidth}x${chanPostImage.imageHeight}")
+
+      append(StringUtils.UNBREAKABLE_SPACE_SYMBOL)
+      append(getReadableFileSize(chanPostImage.size).replace(' ', StringUtils.UNBREAKABLE_SPACE_SYMBOL))
+    }
+  }
+
   fun wrapTextIntoPrecomputedText(text: CharSequence?, textView: TextView) {
     if (text.isNullOrEmpty()) {
       textView.setText(text, TextView.BufferType.SPANNABLE)
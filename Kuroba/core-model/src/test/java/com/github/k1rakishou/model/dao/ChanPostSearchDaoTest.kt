@@ -0,0 +1,36 @@
+package com.github.k1rakishou.model.dao
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNull
+import org.junit.Test
+
+class ChanPostSearchDaoTest {
+
+  @Test
+  fun `test every word is matched as a quoted prefix`() {
+    assertEquals("\"hello\"*", ChanPostSearchDao.createMatchQuery("hello"))
+    assertEquals("\"hello\"* \"world\"*", ChanPostSearchDao.createMatchQuery("  hello \t\n world  "))
+    assertEquals("\"привет\"* \"мир\"*", ChanPostSearchDao.createMatchQuery("привет мир"))
+  }
+
+  @Test
+  fun `test fts operators are treated as plain text`() {
+    assertEquals("\"a\"* \"OR\"* \"b\"*", ChanPostSearchDao.createMatchQuery("a OR b"))
+    assertEquals("\"-excluded\"* \"comment:text\"* \"pre*\"*", ChanPostSearchDao.createMatchQuery("-excluded comment:text pre*"))
+    assertEquals("\"NEAR/2\"* \"(a\"* \"b)\"*", ChanPostSearchDao.createMatchQuery("NEAR/2 (a b)"))
+  }
+
+  @Test
+  fun `test quotes typed by the user are removed`() {
+    assertEquals("\"exact\"* \"phrase\"*", ChanPostSearchDao.createMatchQuery("\"exact phrase\""))
+    assertEquals("\"ab\"*", ChanPostSearchDao.createMatchQuery("a\"b"))
+  }
+
+  @Test
+  fun `test nothing to search for`() {
+    assertNull(ChanPostSearchDao.createMatchQuery(""))
+    assertNull(ChanPostSearchDao.createMatchQuery("   \t "))
+    assertNull(ChanPostSearchDao.createMatchQuery("\"\" \""))
+  }
+
+}
@@ -0,0 +1,234 @@
+package com.github.k1rakishou.model.data.thread
+
+import com.github.k1rakishou.common.MurmurHashUtils
+import com.github.k1rakishou.model.data.PostsFromServerData
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanOriginalPost
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.PostComment
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertSame
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class ChanThreadTest {
+  private val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+
+  @Test
+  fun `test replies of added posts`() {
+    val chanThread = createThread()
+
+    chanThread.addOrUpdatePosts(
+      listOf(
+        originalPost(),
+        // Quotes a post that comes later in the same batch
+        post(2L, repliesTo = setOf(1L, 3L)),
+        post(3L, repliesTo = setOf(1L)),
+        // Quotes a post that is not in the thread
+        post(4L, repliesTo = setOf(3L, 100L))
+      ),
+      null
+    )
+
+    assertRepliesMatchFullRebuild(chanThread)
+    assertEquals(setOf(postDescriptor(2L), postDescriptor(3L)), repliesFrom(chanThread, 1L))
+    assertEquals(setOf(postDescriptor(2L), postDescriptor(4L)), repliesFrom(chanThread, 3L))
+
+    // Incremental update with new posts only
+    chanThread.addOrUpdatePosts(listOf(post(5L, repliesTo = setOf(2L, 4L)), post(6L, repliesTo = setOf(5L))), null)
+
+    assertRepliesMatchFullRebuild(chanThread)
+    assertEquals(setOf(postDescriptor(5L)), repliesFrom(chanThread, 2L))
+    assertEquals(setOf(postDescriptor(6L)), repliesFrom(chanThread, 5L))
+  }
+
+  @Test
+  fun `test replies of updated posts`() {
+    val chanThread = createThread()
+
+    chanThread.addOrUpdatePosts(
+      listOf(
+        originalPost(),
+        post(2L, repliesTo = setOf(1L)),
+        post(3L, repliesTo = setOf(1L, 2L)),
+        post(4L)
+      ),
+      null
+    )
+
+    // Post 3 no longer quotes post 1 but quotes post 4 now, post 2 is updated without changes
+    chanThread.addOrUpdatePosts(
+      listOf(
+        post(2L, repliesTo = setOf(1L)),
+        post(3L, repliesTo = setOf(2L, 4L), comment = "edited")
+      ),
+      null
+    )
+
+    assertRepliesMatchFullRebuild(chanThread)
+    assertEquals(setOf(postDescriptor(2L)), repliesFrom(chanThread, 1L))
+    assertEquals(setOf(postDescriptor(3L)), repliesFrom(chanThread, 2L))
+    assertEquals(setOf(postDescriptor(3L)), repliesFrom(chanThread, 4L))
+  }
+
+  @Test
+  fun `test replies of posts that had to be sorted`() {
+    val chanThread = createThread()
+
+    chanThread.addOrUpdatePosts(listOf(originalPost(), post(2L), post(5L, repliesTo = setOf(2L))), null)
+    chanThread.addOrUpdatePosts(listOf(post(4L, repliesTo = setOf(2L, 5L)), post(3L, repliesTo = setOf(4L))), null)
+
+    assertEquals((1L..5L).toList(), chanThread.getAll().map { chanPost -> chanPost.postNo() })
+    assertRepliesMatchFullRebuild(chanThread)
+    assertEquals(setOf(postDescriptor(4L), postDescriptor(5L)), repliesFrom(chanThread, 2L))
+  }
+
+  @Test
+  fun `test replies of removed posts`() {
+    val chanThread = createThread()
+
+    chanThread.addOrUpdatePosts(
+      listOf(
+        originalPost(),
+        post(2L, repliesTo = setOf(1L)),
+        post(3L, repliesTo = setOf(1L, 2L)),
+        post(4L, repliesTo = setOf(3L))
+      ),
+      null
+    )
+
+    chanThread.deletePosts(listOf(postDescriptor(3L)))
+
+    assertRepliesMatchFullRebuild(chanThread)
+    assertEquals(setOf(postDescriptor(2L)), repliesFrom(chanThread, 1L))
+    assertTrue(repliesFrom(chanThread, 2L).isEmpty())
+
+    // Posts deleted on the server are only marked as deleted so their replies are kept
+    chanThread.addOrUpdatePosts(
+      listOf(originalPost(), post(4L, repliesTo = setOf(3L))),
+      PostsFromServerData(
+        allPostDescriptors = setOf(postDescriptor(1L), postDescriptor(4L)),
+        isIncrementalUpdate = false,
+        isUpdatingDataFromTheServer = true
+      )
+    )
+
+    assertTrue(chanThread.getPost(postDescriptor(2L))!!.isDeleted)
+    assertRepliesMatchFullRebuild(chanThread)
+    assertEquals(setOf(postDescriptor(2L)), repliesFrom(chanThread, 1L))
+  }
+
+  @Test
+  fun `test inconsistent replies are rebuilt`() {
+    val chanThread = createThread()
+
+    chanThread.addOrUpdatePosts(
+      listOf(
+        originalPost(),
+        post(2L, repliesTo = setOf(1L)),
+        post(3L)
+      ),
+      null
+    )
+
+    // Post 3 doesn't quote the OP
+    chanThread.getPost(postDescriptor(1L))!!.repliesFrom.add(postDescriptor(3L))
+
+    // Touches the OP
+    chanThread.addOrUpdatePosts(listOf(post(4L, repliesTo = setOf(1L))), null)
+
+    assertRepliesMatchFullRebuild(chanThread)
+    assertEquals(setOf(postDescriptor(2L), postDescriptor(4L)), repliesFrom(chanThread, 1L))
+  }
+
+  @Test
+  fun `test hashes of removed posts are removed`() {
+    val chanThread = createThread()
+    chanThread.addOrUpdatePosts(listOf(originalPost()) + (2L..10L).map { postNo -> post(postNo) }, null)
+
+    val postHashes = (1L..10L).associate { postNo -> postDescriptor(postNo) to MurmurHashUtils.Murmur3Hash(postNo, postNo) }
+    chanThread.putManyPostHashes(postHashes)
+
+    chanThread.deletePosts((2L..9L).map { postNo -> postDescriptor(postNo) })
+
+    assertNull(chanThread.getPostHash(postDescriptor(2L)))
+    assertSame(postHashes[postDescriptor(1L)], chanThread.getPostHash(postDescriptor(1L)))
+    assertSame(postHashes[postDescriptor(10L)], chanThread.getPostHash(postDescriptor(10L)))
+
+    val newPostHash = MurmurHashUtils.Murmur3Hash(11L, 11L)
+    chanThread.putPostHash(postDescriptor(2L), newPostHash)
+    assertSame(newPostHash, chanThread.getPostHash(postDescriptor(2L)))
+  }
+
+  private fun assertRepliesMatchFullRebuild(chanThread: ChanThread) {
+    val posts = chanThread.getAll()
+    val postDescriptors = posts.map { chanPost -> chanPost.postDescriptor }.toSet()
+    val expectedRepliesFrom = mutableMapOf<PostDescriptor, MutableSet<PostDescriptor>>()
+
+    posts.forEach { sourcePost ->
+      sourcePost.repliesTo
+        .filter { replyTo -> replyTo in postDescriptors }
+        .forEach { replyTo -> expectedRepliesFrom.getOrPut(replyTo) { mutableSetOf() } += sourcePost.postDescriptor }
+    }
+
+    posts.forEach { chanPost ->
+      assertEquals(
+        "repliesFrom of ${chanPost.postDescriptor}",
+        expectedRepliesFrom[chanPost.postDescriptor] ?: emptySet<PostDescriptor>(),
+        chanPost.repliesFromCopy
+      )
+    }
+  }
+
+  private fun repliesFrom(chanThread: ChanThread, postNo: Long): Set<PostDescriptor> {
+    return chanThread.getPost(postDescriptor(postNo))!!.repliesFromCopy
+  }
+
+  private fun createThread(): ChanThread {
+    return ChanThread(isDevBuild = true, threadDescriptor = threadDescriptor, initialLastAccessTime = 0L)
+  }
+
+  private fun postDescriptor(postNo: Long): PostDescriptor = PostDescriptor.create(threadDescriptor, postNo)
+
+  private fun originalPost(): ChanOriginalPost {
+    return ChanOriginalPost(
+      chanPostId = 1L,
+      postDescriptor = postDescriptor(1L),
+      postImages = emptyList(),
+      postIcons = emptyList(),
+      repliesTo = emptySet(),
+      postComment = PostComment("OP", "OP", emptyList()),
+      isSavedReply = false,
+      lastModified = 0L,
+      sticky = false,
+      closed = false,
+      archived = false,
+      endless = false,
+      isSage = false,
+      deleted = false,
+      posterIdColor = 0
+    )
+  }
+
+  private fun post(postNo: Long, repliesTo: Set<Long> = emptySet(), comment: String = "post $postNo"): ChanPost {
+    return ChanPost(
+      chanPostId = postNo,
+      postDescriptor = postDescriptor(postNo),
+      _postImages = mutableListOf(),
+      postIcons = emptyList(),
+      repliesTo = repliesTo.map { replyTo -> postDescriptor(replyTo) }.toSet(),
+      postComment = PostComment(comment, comment, emptyList()),
+      subject = null,
+      tripcode = null,
+      isSavedReply = false,
+      isSage = false,
+      deleted = false,
+      posterIdColor = 0
+    )
+  }
+}
@@ -0,0 +1,97 @@
+package com.github.k1rakishou.model.data.thread
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.PostComment
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+
+class PostSearchIndexTest {
+  private val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+
+  @Test
+  fun `test candidates are found ignoring case`() {
+    val index = PostSearchIndex(threadDescriptor)
+    index.addOrUpdate(post(1L, comment = "Hello World"))
+    index.addOrUpdate(post(2L, comment = "Goodbye world"))
+    index.addOrUpdate(post(3L, comment = "Nothing here", subject = "WORLDS apart"))
+    index.addOrUpdate(post(4L, comment = "Unrelated"))
+
+    assertEquals(setOf(1L, 2L, 3L), index.findCandidates("world")!!.postNos())
+    assertEquals(setOf(1L), index.findCandidates("HELLO")!!.postNos())
+    assertTrue(index.findCandidates("missing")!!.isEmpty())
+  }
+
+  @Test
+  fun `test queries shorter than a trigram are not looked up`() {
+    val index = PostSearchIndex(threadDescriptor)
+    index.addOrUpdate(post(1L, comment = "Hello"))
+
+    assertNull(index.findCandidates("he"))
+  }
+
+  @Test
+  fun `test trigrams do not span multiple fields`() {
+    val index = PostSearchIndex(threadDescriptor)
+    index.addOrUpdate(post(1L, comment = "abc", subject = "def"))
+
+    assertTrue(index.findCandidates("bcd")!!.isEmpty())
+    assertEquals(setOf(1L), index.findCandidates("def")!!.postNos())
+  }
+
+  @Test
+  fun `test updated and removed posts`() {
+    val index = PostSearchIndex(threadDescriptor)
+    index.addOrUpdate(post(1L, comment = "first version"))
+    index.addOrUpdate(post(2L, comment = "another post"))
+
+    index.addOrUpdate(post(1L, comment = "second edition"))
+    assertTrue(index.findCandidates("version")!!.isEmpty())
+    assertEquals(setOf(1L), index.findCandidates("edition")!!.postNos())
+
+    index.remove(postDescriptor(2L))
+    assertTrue(index.findCandidates("another")!!.isEmpty())
+  }
+
+  @Test
+  fun `test compaction keeps live posts`() {
+    val index = PostSearchIndex(threadDescriptor)
+    val posts = (1L..10L).map { postNo -> post(postNo, comment = "post number $postNo") }
+    posts.forEach { post -> index.addOrUpdate(post) }
+
+    repeat(100) { iteration ->
+      posts.forEach { post -> index.addOrUpdate(post(post.postNo(), comment = "edit $iteration")) }
+    }
+
+    assertTrue(index.needsCompaction)
+    index.rebuild(posts)
+
+    assertTrue(!index.needsCompaction)
+    assertEquals((1L..10L).toSet(), index.findCandidates("number")!!.postNos())
+    assertTrue(index.findCandidates("edit")!!.isEmpty())
+  }
+
+  private fun List<PostDescriptor>.postNos(): Set<Long> = map { postDescriptor -> postDescriptor.postNo }.toSet()
+
+  private fun postDescriptor(postNo: Long): PostDescriptor = PostDescriptor.create(threadDescriptor, postNo)
+
+  private fun post(postNo: Long, comment: String, subject: String? = null): ChanPost {
+    return ChanPost(
+      chanPostId = postNo,
+      postDescriptor = postDescriptor(postNo),
+      _postImages = mutableListOf(),
+      postIcons = emptyList(),
+      repliesTo = emptySet(),
+      postComment = PostComment(comment, comment, emptyList()),
+      subject = subject,
+      tripcode = null,
+      isSavedReply = false,
+      isSage = false,
+      deleted = false,
+      posterIdColor = 0
+    )
+  }
+}
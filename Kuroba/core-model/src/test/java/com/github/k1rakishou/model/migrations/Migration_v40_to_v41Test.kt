@@ -0,0 +1,144 @@
+package com.github.k1rakishou.model.migrations
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.github.k1rakishou.model.dao.ChanPostSearchDao
+import com.github.k1rakishou.model.entity.chan.post.ChanPostSearchEntity
+import junit.framework.Assert.assertEquals
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.shadows.ShadowLog
+
+@RunWith(RobolectricTestRunner::class)
+class Migration_v40_to_v41Test {
+  private lateinit var database: SupportSQLiteDatabase
+
+  @Before
+  fun setUp() {
+    ShadowLog.stream = System.out
+    database = SchemaTestHelper.createDatabase(40)
+  }
+
+  @After
+  fun tearDown() {
+    database.close()
+  }
+
+  @Test
+  fun `test search table is created and filled with the posts that are already in the database`() {
+    database.execSQL("INSERT INTO chan_site_id (site_name) VALUES ('test')")
+    database.execSQL("INSERT INTO chan_board_id (board_id, owner_site_name, board_code) VALUES (1, 'test', 'g')")
+    database.execSQL("""
+      INSERT INTO chan_thread (thread_id, thread_no, owner_board_id, last_modified, catalog_replies_count,
+        catalog_images_count, unique_ips, sticky, closed, archived)
+      VALUES (1, 100, 1, 0, 0, 0, 0, 0, 0, 0)
+    """.trimIndent())
+
+    insertPost(postId = 1L, postNo = 100L, name = "Anonymous")
+    insertPost(postId = 2L, postNo = 101L, name = null)
+
+    insertTextSpan(ownerPostId = 1L, parsedText = "Original post comment", textType = 0)
+    insertTextSpan(ownerPostId = 1L, parsedText = "Thread subject", textType = 1)
+    // Tripcode
+    insertTextSpan(ownerPostId = 1L, parsedText = "!tripcode", textType = 2)
+    insertTextSpan(ownerPostId = 2L, parsedText = "Reply comment", textType = 0)
+
+    insertImage(ownerPostId = 1L, filename = "cat", serverFilename = "1600000000001", isInlined = false)
+    insertImage(ownerPostId = 1L, filename = null, serverFilename = "1600000000002", isInlined = false)
+    insertImage(ownerPostId = 2L, filename = "inlined", serverFilename = "inlined_server", isInlined = true)
+
+    Migration_v40_to_v41().migrate(database)
+
+    assertEquals(
+      listOf(
+        listOf("1", "Original post comment", "Thread subject", "Anonymous", "cat 1600000000001  1600000000002"),
+        listOf("2", "Reply comment", "", "", "")
+      ),
+      selectSearchRows()
+    )
+
+    assertEquals(listOf(1L), search("cat"))
+    assertEquals(listOf(1L), search("subj"))
+    assertEquals(listOf(1L, 2L), search("comment"))
+    assertEquals(listOf(2L), search("reply comm"))
+    assertEquals(emptyList<Long>(), search("inlined"))
+    assertEquals(emptyList<Long>(), search("tripcode"))
+  }
+
+  @Test
+  fun `test migrated search table has the same columns as the one created by Room`() {
+    Migration_v40_to_v41().migrate(database)
+
+    val currentDatabase = SchemaTestHelper.createCurrentDatabase()
+
+    assertEquals(
+      SchemaTestHelper.selectColumns(currentDatabase, ChanPostSearchEntity.TABLE_NAME),
+      SchemaTestHelper.selectColumns(database, ChanPostSearchEntity.TABLE_NAME)
+    )
+  }
+
+  private fun insertPost(postId: Long, postNo: Long, name: String?) {
+    database.execSQL(
+      "INSERT INTO chan_post_id (post_id, owner_thread_id, post_no, post_sub_no) VALUES (?, 1, ?, 0)",
+      arrayOf(postId, postNo)
+    )
+
+    database.execSQL(
+      """
+        INSERT INTO chan_post (chan_post_id, deleted, timestamp_seconds, name, poster_id_color, is_op,
+          is_saved_reply, is_sage)
+        VALUES (?, 0, 0, ?, 0, ?, 0, 0)
+      """.trimIndent(),
+      arrayOf(postId, name, if (postId == 1L) 1 else 0)
+    )
+  }
+
+  private fun insertTextSpan(ownerPostId: Long, parsedText: String, textType: Int) {
+    database.execSQL(
+      "INSERT INTO chan_text_span (owner_post_id, parsed_text, span_info_bytes, text_type) VALUES (?, ?, ?, ?)",
+      arrayOf(ownerPostId, parsedText, ByteArray(0), textType)
+    )
+  }
+
+  private fun insertImage(ownerPostId: Long, filename: String?, serverFilename: String, isInlined: Boolean) {
+    database.execSQL(
+      """
+        INSERT INTO chan_post_image (owner_post_id, server_filename, filename, image_width, image_height,
+          spoiler, is_inlined, file_size)
+        VALUES (?, ?, ?, 0, 0, 0, ?, 0)
+      """.trimIndent(),
+      arrayOf(ownerPostId, serverFilename, filename, if (isInlined) 1 else 0)
+    )
+  }
+
+  private fun selectSearchRows(): List<List<String>> {
+    val rows = mutableListOf<List<String>>()
+
+    database.query("SELECT rowid, comment, subject, name, file_names FROM chan_post_search ORDER BY rowid").use { cursor ->
+      while (cursor.moveToNext()) {
+        rows += (0 until cursor.columnCount).map { columnIndex -> cursor.getString(columnIndex) }
+      }
+    }
+
+    return rows
+  }
+
+  private fun search(query: String): List<Long> {
+    val postIds = mutableListOf<Long>()
+    val matchQuery = ChanPostSearchDao.createMatchQuery(query)!!
+
+    database.query(
+      "SELECT rowid FROM chan_post_search WHERE chan_post_search MATCH ? ORDER BY rowid",
+      arrayOf(matchQuery)
+    ).use { cursor ->
+      while (cursor.moveToNext()) {
+        postIds += cursor.getLong(0)
+      }
+    }
+
+    return postIds
+  }
+
+}
@@ -0,0 +1,89 @@
+package com.github.k1rakishou.model.migrations
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.github.k1rakishou.model.entity.chan.post.ChanPostEntity
+import junit.framework.Assert.assertEquals
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.shadows.ShadowLog
+
+@RunWith(RobolectricTestRunner::class)
+class Migration_v41_to_v42Test {
+  private lateinit var database: SupportSQLiteDatabase
+
+  @Before
+  fun setUp() {
+    ShadowLog.stream = System.out
+
+    // There is no exported v41 schema (it only added the search table) so v41 is created by migrating v40
+    database = SchemaTestHelper.createDatabase(40)
+    Migration_v40_to_v41().migrate(database)
+  }
+
+  @After
+  fun tearDown() {
+    database.close()
+  }
+
+  @Test
+  fun `test posts that are already in the database have no hash after the migration`() {
+    database.execSQL("INSERT INTO chan_site_id (site_name) VALUES ('test')")
+    database.execSQL("INSERT INTO chan_board_id (board_id, owner_site_name, board_code) VALUES (1, 'test', 'g')")
+    database.execSQL("""
+      INSERT INTO chan_thread (thread_id, thread_no, owner_board_id, last_modified, catalog_replies_count,
+        catalog_images_count, unique_ips, sticky, closed, archived)
+      VALUES (1, 100, 1, 0, 0, 0, 0, 0, 0, 0)
+    """.trimIndent())
+
+    listOf(1L to 100L, 2L to 101L).forEach { (postId, postNo) ->
+      database.execSQL(
+        "INSERT INTO chan_post_id (post_id, owner_thread_id, post_no, post_sub_no) VALUES (?, 1, ?, 0)",
+        arrayOf(postId, postNo)
+      )
+
+      database.execSQL(
+        """
+          INSERT INTO chan_post (chan_post_id, deleted, timestamp_seconds, poster_id_color, is_op, is_saved_reply, is_sage)
+          VALUES (?, 0, 0, 0, 0, 0, 0)
+        """.trimIndent(),
+        arrayOf(postId)
+      )
+    }
+
+    Migration_v41_to_v42().migrate(database)
+
+    assertEquals(listOf(Triple(1L, 0L, 0L), Triple(2L, 0L, 0L)), selectPostHashes())
+
+    // Murmur3 hash values are stored as signed 64 bit integers
+    database.execSQL("UPDATE chan_post SET post_hash_val1 = -1, post_hash_val2 = 42 WHERE chan_post_id = 2")
+    assertEquals(listOf(Triple(1L, 0L, 0L), Triple(2L, -1L, 42L)), selectPostHashes())
+  }
+
+  @Test
+  fun `test migrated post table has the same columns as the one created by Room`() {
+    Migration_v41_to_v42().migrate(database)
+
+    val currentDatabase = SchemaTestHelper.createCurrentDatabase()
+
+    assertEquals(
+      SchemaTestHelper.selectColumns(currentDatabase, ChanPostEntity.TABLE_NAME),
+      SchemaTestHelper.selectColumns(database, ChanPostEntity.TABLE_NAME)
+    )
+  }
+
+  private fun selectPostHashes(): List<Triple<Long, Long, Long>> {
+    val postHashes = mutableListOf<Triple<Long, Long, Long>>()
+
+    database.query("SELECT chan_post_id, post_hash_val1, post_hash_val2 FROM chan_post ORDER BY chan_post_id").use { cursor ->
+      while (cursor.moveToNext()) {
+        postHashes += Triple(cursor.getLong(0), cursor.getLong(1), cursor.getLong(2))
+      }
+    }
+
+    return postHashes
+  }
+
+}
@@ -0,0 +1,96 @@
+package com.github.k1rakishou.model.migrations
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.sqlite.db.SupportSQLiteOpenHelper
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory
+import com.github.k1rakishou.model.TestDatabaseModuleComponent
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import org.robolectric.RuntimeEnvironment
+import java.io.File
+
+/**
+ * Creates in-memory databases out of the schemas exported by Room (core-model/schemas) so that the
+ * migrations can be run against the exact tables of the older database versions.
+ * */
+object SchemaTestHelper {
+  private const val SCHEMAS_DIRECTORY = "schemas/com.github.k1rakishou.model.KurobaDatabase"
+
+  fun createDatabase(version: Int): SupportSQLiteDatabase {
+    val createQueries = readCreateQueries(version)
+
+    val configuration = SupportSQLiteOpenHelper.Configuration.builder(RuntimeEnvironment.application)
+      .name(null)
+      .callback(object : SupportSQLiteOpenHelper.Callback(version) {
+        override fun onCreate(db: SupportSQLiteDatabase) {
+          createQueries.forEach { createQuery -> db.execSQL(createQuery) }
+        }
+
+        override fun onUpgrade(db: SupportSQLiteDatabase, oldVersion: Int, newVersion: Int) {
+          throw IllegalStateException("Unexpected upgrade from $oldVersion to $newVersion")
+        }
+      })
+      .build()
+
+    return FrameworkSQLiteOpenHelperFactory().create(configuration).writableDatabase
+  }
+
+  /**
+   * The database created by Room out of the current entities, to compare the migrated tables with.
+   * */
+  fun createCurrentDatabase(): SupportSQLiteDatabase {
+    return TestDatabaseModuleComponent()
+      .provideInMemoryKurobaDatabase()
+      .openHelper
+      .writableDatabase
+  }
+
+  fun selectColumns(database: SupportSQLiteDatabase, tableName: String): Map<String, String> {
+    val columns = mutableMapOf<String, String>()
+
+    database.query("PRAGMA table_info(`$tableName`)").use { cursor ->
+      val nameColumnIndex = cursor.getColumnIndexOrThrow("name")
+      val typeColumnIndex = cursor.getColumnIndexOrThrow("type")
+      val notNullColumnIndex = cursor.getColumnIndexOrThrow("notnull")
+
+      while (cursor.moveToNext()) {
+        val notNull = if (cursor.getInt(notNullColumnIndex) != 0) " NOT NULL" else ""
+        columns[cursor.getString(nameColumnIndex)] = cursor.getString(typeColumnIndex) + notNull
+      }
+    }
+
+    return columns
+  }
+
+  private fun readCreateQueries(version: Int): List<String> {
+    val schemaFile = File(SCHEMAS_DIRECTORY, "$version.json")
+    check(schemaFile.exists()) { "Schema file ${schemaFile.absolutePath} does not exist" }
+
+    val database = schemaFile.reader().use { reader ->
+      JsonParser.parseReader(reader).asJsonObject.getAsJsonObject("database")
+    }
+
+    val createQueries = mutableListOf<String>()
+
+    database.getAsJsonArray("entities").forEach { jsonElement ->
+      val entity = jsonElement.asJsonObject
+      val tableName = entity.get("tableName").asString
+
+      createQueries += entity.createSql().replace("\${TABLE_NAME}", tableName)
+
+      entity.getAsJsonArray("indices")?.forEach { index ->
+        createQueries += index.asJsonObject.createSql().replace("\${TABLE_NAME}", tableName)
+      }
+    }
+
+    database.getAsJsonArray("views")?.forEach { jsonElement ->
+      val view = jsonElement.asJsonObject
+      createQueries += view.createSql().replace("\${VIEW_NAME}", view.get("viewName").asString)
+    }
+
+    return createQueries
+  }
+
+  private fun JsonObject.createSql(): String = get("createSql").asString
+
+}
@@ -0,0 +1,70 @@
+package com.github.k1rakishou.model.source.cache.thread
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+
+class ThreadAccessFrequencySketchTest {
+
+  @Test
+  fun `test frequency is never underestimated`() {
+    val sketch = ThreadAccessFrequencySketch(expectedThreadsCount = 16)
+    val threadDescriptors = (1L..50L).map { threadNo -> threadDescriptor(threadNo) }
+
+    // 150 additions, less than the sample size so nothing is halved yet
+    repeat(3) { threadDescriptors.forEach { threadDescriptor -> sketch.increment(threadDescriptor) } }
+
+    threadDescriptors.forEach { threadDescriptor -> assertTrue(sketch.frequency(threadDescriptor) >= 3) }
+  }
+
+  @Test
+  fun `test frequency is capped`() {
+    val sketch = ThreadAccessFrequencySketch(expectedThreadsCount = 16)
+    val threadDescriptor = threadDescriptor(1L)
+
+    repeat(1000) { sketch.increment(threadDescriptor) }
+
+    assertEquals(ThreadAccessFrequencySketch.MAX_FREQUENCY.toInt(), sketch.frequency(threadDescriptor))
+  }
+
+  @Test
+  fun `test frequencies are halved once the sample size is reached`() {
+    // 16 counters per row, the sample size is 160 additions
+    val sketch = ThreadAccessFrequencySketch(expectedThreadsCount = 16)
+    val hotThread = threadDescriptor(1L)
+
+    repeat(10) { sketch.increment(hotThread) }
+    assertEquals(10, sketch.frequency(hotThread))
+
+    var otherThreadNo = 1000L
+    while (sketch.frequency(hotThread) >= 10 && otherThreadNo < 10_000L) {
+      sketch.increment(threadDescriptor(otherThreadNo++))
+    }
+
+    // Every other thread is accessed once, so at most one addition each
+    val otherThreadsCount = otherThreadNo - 1000L
+    assertTrue("halved too early: $otherThreadsCount", otherThreadsCount >= 150)
+    assertTrue("not halved", otherThreadNo < 10_000L)
+
+    // Collisions may only make the counters bigger before they are halved
+    val frequency = sketch.frequency(hotThread)
+    assertTrue("bad frequency: $frequency", frequency in 5..7)
+  }
+
+  @Test
+  fun `test clear`() {
+    val sketch = ThreadAccessFrequencySketch(expectedThreadsCount = 16)
+    val threadDescriptor = threadDescriptor(1L)
+
+    repeat(5) { sketch.increment(threadDescriptor) }
+    sketch.clear()
+
+    assertEquals(0, sketch.frequency(threadDescriptor))
+  }
+
+  private fun threadDescriptor(threadNo: Long): ChanDescriptor.ThreadDescriptor {
+    return ChanDescriptor.ThreadDescriptor.create("test", "g", threadNo)
+  }
+
+}
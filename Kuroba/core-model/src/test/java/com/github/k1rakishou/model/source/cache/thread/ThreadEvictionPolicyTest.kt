@@ -0,0 +1,87 @@
+package com.github.k1rakishou.model.source.cache.thread
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+
+class ThreadEvictionPolicyTest {
+  private val policy = ThreadEvictionPolicy(windowPercent = 20, targetPercent = 50)
+
+  @Test
+  fun `test nothing is evicted while under the budget`() {
+    val candidates = listOf(
+      candidate(1L, sizeBytes = 400, lastAccessTime = 1, frequency = 0),
+      candidate(2L, sizeBytes = 500, lastAccessTime = 2, frequency = 0)
+    )
+
+    assertTrue(policy.selectThreadsToEvict(candidates, maxSizeBytes = 1000).isEmpty())
+  }
+
+  @Test
+  fun `test least frequently accessed threads are evicted first`() {
+    val candidates = listOf(
+      candidate(1L, sizeBytes = 300, lastAccessTime = 1, frequency = 10),
+      candidate(2L, sizeBytes = 300, lastAccessTime = 2, frequency = 1),
+      candidate(3L, sizeBytes = 300, lastAccessTime = 3, frequency = 5),
+      candidate(4L, sizeBytes = 200, lastAccessTime = 4, frequency = 0)
+    )
+
+    // Thread 4 is in the window, 1100 - 500 = 600 bytes have to go
+    assertEquals(listOf(2L, 3L), policy.selectThreadsToEvict(candidates, maxSizeBytes = 1000).threadNos())
+  }
+
+  @Test
+  fun `test least recently accessed thread is evicted first when frequencies are equal`() {
+    val candidates = listOf(
+      candidate(1L, sizeBytes = 400, lastAccessTime = 2, frequency = 3),
+      candidate(2L, sizeBytes = 400, lastAccessTime = 1, frequency = 3),
+      candidate(3L, sizeBytes = 400, lastAccessTime = 3, frequency = 3)
+    )
+
+    assertEquals(listOf(2L, 1L), policy.selectThreadsToEvict(candidates, maxSizeBytes = 1000).threadNos())
+  }
+
+  @Test
+  fun `test protected threads are never evicted but still count towards the budget`() {
+    val candidates = listOf(
+      candidate(1L, sizeBytes = 900, lastAccessTime = 1, frequency = 0, isProtected = true),
+      candidate(2L, sizeBytes = 300, lastAccessTime = 2, frequency = 5),
+      candidate(3L, sizeBytes = 100, lastAccessTime = 3, frequency = 5)
+    )
+
+    assertEquals(listOf(2L), policy.selectThreadsToEvict(candidates, maxSizeBytes = 1000).threadNos())
+  }
+
+  @Test
+  fun `test older threads do not get into the window once it is full`() {
+    val candidates = listOf(
+      candidate(1L, sizeBytes = 50, lastAccessTime = 1, frequency = 0),
+      candidate(2L, sizeBytes = 900, lastAccessTime = 2, frequency = 9),
+      candidate(3L, sizeBytes = 150, lastAccessTime = 3, frequency = 0)
+    )
+
+    // Thread 3 fills the window, thread 2 doesn't fit so thread 1 is not in the window either
+    assertEquals(listOf(1L, 2L), policy.selectThreadsToEvict(candidates, maxSizeBytes = 1000).threadNos())
+  }
+
+  private fun List<ChanDescriptor.ThreadDescriptor>.threadNos(): List<Long> {
+    return map { threadDescriptor -> threadDescriptor.threadNo }
+  }
+
+  private fun candidate(
+    threadNo: Long,
+    sizeBytes: Long,
+    lastAccessTime: Long,
+    frequency: Int,
+    isProtected: Boolean = false
+  ): ThreadEvictionPolicy.Candidate {
+    return ThreadEvictionPolicy.Candidate(
+      threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "g", threadNo),
+      sizeBytes = sizeBytes,
+      lastAccessTime = lastAccessTime,
+      frequency = frequency,
+      isProtected = isProtected
+    )
+  }
+}
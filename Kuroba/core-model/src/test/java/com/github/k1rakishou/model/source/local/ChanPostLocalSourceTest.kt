@@ -0,0 +1,207 @@
+package com.github.k1rakishou.model.source.local
+
+import androidx.room.withTransaction
+import com.github.k1rakishou.common.MurmurHashUtils
+import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.TestDatabaseModuleComponent
+import com.github.k1rakishou.model.dao.ChanPostDao
+import com.github.k1rakishou.model.dao.ChanPostSearchDao
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanOriginalPost
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostImage
+import com.github.k1rakishou.model.data.post.PostComment
+import com.github.k1rakishou.model.entity.chan.post.ChanPostSearchEntity
+import com.github.k1rakishou.model.entity.chan.site.ChanSiteIdEntity
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runBlocking
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.shadows.ShadowLog
+
+@RunWith(RobolectricTestRunner::class)
+class ChanPostLocalSourceTest {
+  lateinit var database: KurobaDatabase
+  lateinit var localSource: ChanPostLocalSource
+  lateinit var chanPostDao: ChanPostDao
+  lateinit var chanPostSearchDao: ChanPostSearchDao
+
+  private val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "g", 100L)
+
+  @Before
+  fun setUp() {
+    ShadowLog.stream = System.out
+
+    database = TestDatabaseModuleComponent().provideInMemoryKurobaDatabase()
+    localSource = ChanPostLocalSource(database)
+    chanPostDao = database.chanPostDao()
+    chanPostSearchDao = database.chanPostSearchDao()
+
+    runBlocking {
+      database.chanSiteDao().insertDefaultSiteIdsOrIgnore(listOf(ChanSiteIdEntity(threadDescriptor.siteName())))
+    }
+  }
+
+  @Test
+  fun `test inserted posts are added to the search table`() = runBlocking<Unit>(Dispatchers.Default) {
+    database.withTransaction {
+      localSource.insertPosts(
+        listOf(
+          originalPost(
+            comment = "Original post comment",
+            subject = "Thread subject",
+            name = "Anonymous",
+            postImages = listOf(
+              ChanPostImage(serverFilename = "1600000000001", filename = "cat", extension = "jpg"),
+              ChanPostImage(serverFilename = "1600000000002", extension = "png"),
+              ChanPostImage(serverFilename = "inlined_server", filename = "inlined", isInlined = true)
+            )
+          ),
+          post(101L, comment = "Reply comment")
+        )
+      )
+    }
+
+    val postIds = chanPostDao.testGetAllChanPostIds()
+      .sortedBy { chanPostIdEntity -> chanPostIdEntity.postNo }
+      .map { chanPostIdEntity -> chanPostIdEntity.postId }
+
+    assertEquals(
+      listOf(
+        ChanPostSearchEntity(postIds[0], "Original post comment", "Thread subject", "Anonymous", "cat 1600000000001 1600000000002"),
+        ChanPostSearchEntity(postIds[1], "Reply comment", "", "", "")
+      ),
+      chanPostSearchDao.testGetAll()
+    )
+
+    assertEquals(listOf(postDescriptor(100L)), search("cat"))
+    assertEquals(listOf(postDescriptor(100L)), search("subj anon"))
+    assertEquals(listOf(postDescriptor(101L), postDescriptor(100L)), search("comment"))
+    assertTrue(search("inlined").isEmpty())
+  }
+
+  @Test
+  fun `test re-inserted posts are searched by their new contents`() = runBlocking<Unit>(Dispatchers.Default) {
+    database.withTransaction {
+      localSource.insertPosts(listOf(originalPost(comment = "Original post"), post(101L, comment = "First version")))
+    }
+
+    database.withTransaction {
+      localSource.insertPosts(listOf(originalPost(comment = "Original post"), post(101L, comment = "Edited version")))
+    }
+
+    assertTrue(search("first").isEmpty())
+    assertEquals(listOf(postDescriptor(101L)), search("edited"))
+    assertEquals(listOf(postDescriptor(101L)), search("version"))
+
+    // Only the current version of every post is left after the orphaned rows are deleted
+    chanPostSearchDao.deleteOrphaned()
+
+    assertEquals(
+      chanPostDao.testGetAllChanPostIds().map { chanPostIdEntity -> chanPostIdEntity.postId }.sorted(),
+      chanPostSearchDao.testGetAll().map { chanPostSearchEntity -> chanPostSearchEntity.ownerPostId }
+    )
+  }
+
+  @Test
+  fun `test rows of deleted posts are removed by deleteOrphaned`() = runBlocking<Unit>(Dispatchers.Default) {
+    database.withTransaction {
+      localSource.insertPosts(listOf(originalPost(comment = "Original post"), post(101L), post(102L)))
+    }
+
+    assertEquals(0, chanPostSearchDao.deleteOrphaned())
+
+    database.withTransaction {
+      localSource.deletePost(postDescriptor(101L))
+    }
+
+    // Deleted posts are never returned even before the orphaned rows are deleted
+    assertEquals(listOf(postDescriptor(102L)), search("reply"))
+    assertEquals(3, chanPostSearchDao.testGetAll().size)
+
+    assertEquals(1, chanPostSearchDao.deleteOrphaned())
+    assertEquals(2, chanPostSearchDao.testGetAll().size)
+    assertEquals(listOf(postDescriptor(102L)), search("reply"))
+
+    database.withTransaction {
+      localSource.deleteAll()
+    }
+
+    assertTrue(chanPostSearchDao.testGetAll().isEmpty())
+  }
+
+  @Test
+  fun `test post hashes are stored and loaded back`() = runBlocking<Unit>(Dispatchers.Default) {
+    val postHash = MurmurHashUtils.Murmur3Hash(Long.MIN_VALUE, 42L)
+
+    database.withTransaction {
+      val threadId = localSource.insertManyOriginalPosts(listOf(originalPost(comment = "Original post"))).first()
+
+      // Post 102 was stored without a hash
+      localSource.insertThreadPosts(
+        ownerThreadId = threadId,
+        chanPostList = listOf(post(101L), post(102L)),
+        postHashes = mapOf(postDescriptor(101L) to postHash)
+      )
+    }
+
+    val postHashes = database.withTransaction { localSource.getThreadPostHashes(threadDescriptor) }
+    assertEquals(mapOf(postDescriptor(101L) to postHash), postHashes)
+  }
+
+  private suspend fun search(query: String): List<PostDescriptor> {
+    return database.withTransaction { localSource.searchPosts(query, offset = 0, count = 100) }
+  }
+
+  private fun postDescriptor(postNo: Long): PostDescriptor = PostDescriptor.create(threadDescriptor, postNo)
+
+  private fun originalPost(
+    comment: String,
+    subject: String? = null,
+    name: String? = null,
+    postImages: List<ChanPostImage> = emptyList()
+  ): ChanOriginalPost {
+    return ChanOriginalPost(
+      chanPostId = 0L,
+      postDescriptor = postDescriptor(threadDescriptor.threadNo),
+      postImages = postImages,
+      postIcons = emptyList(),
+      repliesTo = emptySet(),
+      postComment = PostComment(comment, comment, emptyList()),
+      subject = subject,
+      name = name,
+      isSavedReply = false,
+      lastModified = 0L,
+      sticky = false,
+      closed = false,
+      archived = false,
+      endless = false,
+      isSage = false,
+      deleted = false,
+      posterIdColor = 0
+    )
+  }
+
+  private fun post(postNo: Long, comment: String = "Reply $postNo"): ChanPost {
+    return ChanPost(
+      chanPostId = 0L,
+      postDescriptor = postDescriptor(postNo),
+      _postImages = mutableListOf(),
+      postIcons = emptyList(),
+      repliesTo = setOf(postDescriptor(threadDescriptor.threadNo)),
+      postComment = PostComment(comment, comment, emptyList()),
+      subject = null,
+      tripcode = null,
+      isSavedReply = false,
+      isSage = false,
+      deleted = false,
+      posterIdColor = 0
+    )
+  }
+
+}
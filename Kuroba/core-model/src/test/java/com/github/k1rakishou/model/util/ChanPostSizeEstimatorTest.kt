@@ -0,0 +1,110 @@
+package com.github.k1rakishou.model.util
+
+import android.text.SpannableString
+import android.text.Spanned
+import android.text.style.ForegroundColorSpan
+import android.text.style.StyleSpan
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostImage
+import com.github.k1rakishou.model.data.post.PostComment
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class ChanPostSizeEstimatorTest {
+  private val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+
+  @Test
+  fun `test same posts have the same estimation`() {
+    assertEquals(
+      ChanPostSizeEstimator.estimatePostSize(post(comment = "comment")),
+      ChanPostSizeEstimator.estimatePostSize(post(comment = "comment"))
+    )
+  }
+
+  @Test
+  fun `test longer comment increases the estimation`() {
+    val shortPost = ChanPostSizeEstimator.estimatePostSize(post(comment = "short"))
+    val longPost = ChanPostSizeEstimator.estimatePostSize(post(comment = "long ".repeat(1000)))
+
+    assertTrue(longPost > shortPost)
+  }
+
+  @Test
+  fun `test spans increase the estimation`() {
+    val text = "quote and a link"
+
+    val spannedComment = SpannableString(text).apply {
+      setSpan(ForegroundColorSpan(0xFF00FF00.toInt()), 0, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+      setSpan(StyleSpan(android.graphics.Typeface.BOLD), 10, 16, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+    }
+
+    val plain = ChanPostSizeEstimator.estimatePostSize(post(comment = text))
+    val spanned = ChanPostSizeEstimator.estimatePostSize(post(comment = spannedComment))
+
+    assertTrue(spanned > plain)
+  }
+
+  @Test
+  fun `test images increase the estimation`() {
+    val noImages = ChanPostSizeEstimator.estimatePostSize(post(comment = "comment"))
+    val oneImage = ChanPostSizeEstimator.estimatePostSize(post(comment = "comment", imagesCount = 1))
+    val threeImages = ChanPostSizeEstimator.estimatePostSize(post(comment = "comment", imagesCount = 3))
+
+    assertTrue(oneImage > noImages)
+    assertTrue(threeImages > oneImage)
+  }
+
+  @Test
+  fun `test replies increase the estimation`() {
+    val noReplies = ChanPostSizeEstimator.estimatePostSize(post(comment = "comment"))
+    val repliesTo = ChanPostSizeEstimator.estimatePostSize(post(comment = "comment", repliesTo = listOf(2L, 3L)))
+
+    val postWithRepliesFrom = post(comment = "comment")
+    postWithRepliesFrom.repliesFrom.addAll(listOf(4L, 5L, 6L).map { postNo -> postDescriptor(postNo) })
+    val repliesFrom = ChanPostSizeEstimator.estimatePostSize(postWithRepliesFrom)
+
+    assertTrue(repliesTo > noReplies)
+    assertTrue(repliesFrom > noReplies)
+  }
+
+  private fun post(
+    comment: CharSequence,
+    imagesCount: Int = 0,
+    repliesTo: List<Long> = emptyList()
+  ): ChanPost {
+    val postImages = (0 until imagesCount).map { index ->
+      ChanPostImage(
+        serverFilename = "16000000000$index",
+        actualThumbnailUrl = "https://i.test.com/g/16000000000${index}s.jpg".toHttpUrl(),
+        imageUrl = "https://i.test.com/g/16000000000${index}.png".toHttpUrl(),
+        filename = "image_$index",
+        extension = "png"
+      )
+    }
+
+    return ChanPost(
+      chanPostId = 1L,
+      postDescriptor = postDescriptor(1L),
+      _postImages = postImages.toMutableList(),
+      postIcons = emptyList(),
+      repliesTo = repliesTo.map { postNo -> postDescriptor(postNo) }.toSet(),
+      postComment = PostComment(comment, comment.toString(), emptyList()),
+      subject = null,
+      tripcode = null,
+      isSavedReply = false,
+      isSage = false,
+      deleted = false,
+      posterIdColor = 0
+    )
+  }
+
+  private fun postDescriptor(postNo: Long): PostDescriptor = PostDescriptor.create(threadDescriptor, postNo)
+
+}
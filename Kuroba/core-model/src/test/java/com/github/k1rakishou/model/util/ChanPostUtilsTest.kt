@@ -0,0 +1,89 @@
+package com.github.k1rakishou.model.util
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.PostComment
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+
+class ChanPostUtilsTest {
+  private val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+
+  @Test
+  fun `test post with replies includes replies to replies`() {
+    val posts = postsMap(
+      post(1L, repliesFrom = listOf(2L, 3L)),
+      post(2L, repliesFrom = listOf(4L)),
+      post(3L),
+      post(4L),
+      post(5L, repliesFrom = listOf(6L)),
+      post(6L)
+    )
+
+    val found = ChanPostUtils.findPostWithReplies(postDescriptor(1L), posts)
+    assertEquals(setOf(1L, 2L, 3L, 4L), found.postNos())
+  }
+
+  @Test
+  fun `test reply cycles are visited only once`() {
+    val posts = postsMap(
+      post(1L, repliesFrom = listOf(2L)),
+      post(2L, repliesFrom = listOf(3L)),
+      post(3L, repliesFrom = listOf(1L, 2L))
+    )
+
+    val found = ChanPostUtils.findPostWithReplies(postDescriptor(2L), posts)
+    assertEquals(setOf(1L, 2L, 3L), found.postNos())
+  }
+
+  @Test
+  fun `test unknown posts are skipped`() {
+    val posts = postsMap(
+      post(1L, repliesFrom = listOf(2L, 100L)),
+      post(2L)
+    )
+
+    assertEquals(setOf(1L, 2L), ChanPostUtils.findPostWithReplies(postDescriptor(1L), posts).postNos())
+    assertTrue(ChanPostUtils.findPostWithReplies(postDescriptor(100L), posts).isEmpty())
+  }
+
+  @Test
+  fun `test deep reply chain does not overflow the stack`() {
+    val chainLength = 100_000L
+    val posts = postsMap(
+      *(1L..chainLength)
+        .map { postNo -> post(postNo, repliesFrom = if (postNo < chainLength) listOf(postNo + 1) else emptyList()) }
+        .toTypedArray()
+    )
+
+    assertEquals(chainLength.toInt(), ChanPostUtils.findPostWithReplies(postDescriptor(1L), posts).size)
+  }
+
+  private fun Set<ChanPost>.postNos(): Set<Long> = map { post -> post.postNo() }.toSet()
+
+  private fun postsMap(vararg posts: ChanPost): Map<PostDescriptor, ChanPost> {
+    return posts.associateBy { post -> post.postDescriptor }
+  }
+
+  private fun postDescriptor(postNo: Long): PostDescriptor = PostDescriptor.create(threadDescriptor, postNo)
+
+  private fun post(postNo: Long, repliesFrom: List<Long> = emptyList()): ChanPost {
+    return ChanPost(
+      chanPostId = postNo,
+      postDescriptor = postDescriptor(postNo),
+      _postImages = mutableListOf(),
+      postIcons = emptyList(),
+      repliesTo = emptySet(),
+      postComment = PostComment("", "", emptyList()),
+      subject = null,
+      tripcode = null,
+      isSavedReply = false,
+      isSage = false,
+      repliesFrom = repliesFrom.map { replyPostNo -> postDescriptor(replyPostNo) }.toSet(),
+      deleted = false,
+      posterIdColor = 0
+    )
+  }
+}
@@ -7,6 +7,11 @@ import org.jsoup.parser.Parser
  * Not thread safe!
  * */
 class HtmlParser {
+  // Reusable buffers. Tag parsing never recurses while these are in use so it's
+  // safe to share them between nested tags.
+  private val tagPartBuilder = StringBuilder(32)
+  private val tagParts = mutableListWithCap<String>(8)
+  private val attributeParts = mutableListWithCap<String>(2)
 
   fun parse(html: String): HtmlDocument {
     try {
@@ -17,23 +22,24 @@ class HtmlParser {
     }
   }
 
+  /**
+   * Scans [html] by index ranges. Text nodes are created directly from substrings of the input and are
+   * only unescaped when they contain '&', tags are split into name/attributes using the reusable buffers.
+   * */
   private fun parseInternal(parentNode: HtmlNode? = null, html: String, start: Int): ParseResult {
     var localOffset = start
     var tagIndex = 0
 
     val outNodes = mutableListWithCap<HtmlNode>(4)
-    val currentBuffer = mutableListWithCap<Char>(32)
+    var textStart = localOffset
+    var textHasEntities = false
 
     while (localOffset < html.length) {
       val currChar = html[localOffset]
 
       if (currChar == '<') {
-        if (currentBuffer.size > 0) {
-          val text = String(currentBuffer.toCharArray())
-          val textUnescaped = Parser.unescapeEntities(text, false)
-
-          addNewTextNode(parentNode, outNodes, textUnescaped)
-          currentBuffer.clear()
+        if (localOffset > textStart) {
+          addNewTextNode(parentNode, outNodes, extractText(html, textStart, localOffset, textHasEntities))
         }
 
         ++localOffset
@@ -56,155 +62,182 @@ class HtmlParser {
 
         // Skip any '\n' symbols after <br> tag
         if (htmlNode is HtmlNode.Tag && htmlNode.htmlTag.tagName == "br") {
-          while (html.getOrNull(localOffset) == '\n') {
+          while (localOffset < html.length && html[localOffset] == '\n') {
             ++localOffset
           }
         }
 
+        textStart = localOffset
+        textHasEntities = false
         continue
       }
 
-      currentBuffer.add(currChar)
+      if (currChar == '&') {
+        textHasEntities = true
+      }
+
       ++localOffset
     }
 
-    if (currentBuffer.size > 0) {
-      val text = String(currentBuffer.toCharArray())
-      val textUnescaped = Parser.unescapeEntities(text, false)
-
-      addNewTextNode(parentNode, outNodes, textUnescaped)
-      currentBuffer.clear()
+    if (localOffset > textStart) {
+      addNewTextNode(parentNode, outNodes, extractText(html, textStart, localOffset, textHasEntities))
     }
 
     return ParseResult(outNodes, localOffset)
   }
 
-  private fun addNewTextNode(parentNode: HtmlNode?, outNodes: MutableList<HtmlNode>, textUnescaped: String) {
-    val lastNode = outNodes.lastOrNull()
-    val isLastNodeVoid = (lastNode as? HtmlNode.Tag)?.htmlTag?.isVoidElement == true
-    val emptyOrNewLineCharacter = textUnescaped.trim().let { text -> text.isEmpty() || (text.length == 1 && text[0] == '\n') }
-
-    if (lastNode == null || !isLastNodeVoid || !emptyOrNewLineCharacter) {
-      outNodes.add(HtmlNode.Text(textUnescaped, parentNode))
+  private fun extractText(html: String, start: Int, end: Int, hasEntities: Boolean): String {
+    val text = html.substring(start, end)
+    if (!hasEntities) {
+      return text
     }
+
+    return Parser.unescapeEntities(text, false)
   }
 
   private fun parseNode(parentNode: HtmlNode?, html: String, start: Int, tagIndex: Int): ParseNodeResult {
-    var localOffset = start
-    val tagRaw = mutableListWithCap<Char>(32)
-
-    while (localOffset < html.length) {
-      val ch = html[localOffset]
-      if (ch == '>') {
-        break
-      }
-
-      tagRaw.add(ch)
-      ++localOffset
-    }
-
-    // Skip the ">"
-    ++localOffset
-
-    val htmlNodeTag = createHtmlTag(parentNode, tagRaw.toCharArray(), tagIndex)
-    if (htmlNodeTag.htmlTag.isVoidElement) {
-      return ParseNodeResult(htmlNodeTag, localOffset)
+    var tagEnd = html.indexOf('>', start)
+    if (tagEnd < 0) {
+      tagEnd = html.length
     }
 
-    val parseResult = parseInternal(htmlNodeTag, html, localOffset)
-
-    val updatedHtmlTag = HtmlTag(
-      index = tagIndex,
-      parentNode = parentNode,
-      tagName = htmlNodeTag.htmlTag.tagName,
-      attributes = htmlNodeTag.htmlTag.attributes,
-      children = parseResult.nodes,
-      isVoidElement = false
-    )
-
-    return ParseNodeResult(HtmlNode.Tag(updatedHtmlTag), parseResult.offset)
-  }
-
-  private fun createHtmlTag(parentNode: HtmlNode?, tagRaw: CharArray, tagIndex: Int): HtmlNode.Tag {
-    val tagParts = splitIntoPartsBySeparator(tagRaw, separator = ' ')
+    splitRangeIntoPartsBySeparator(html, start, tagEnd, ' ', tagParts)
     if (tagParts.isEmpty()) {
-      throw ParsingException("tagParts is empty! tagRaw=${tagRaw.joinToString()}")
+      throw ParsingException("tagParts is empty! tagRaw=${html.substring(start, tagEnd)}")
     }
 
-    var tagNameMaybe: CharArray? = null
-    val attributes = mutableListWithCap<HtmlAttribute>(4)
+    var tagName: String? = null
+    var attributes: MutableList<HtmlAttribute>? = null
 
     for (tagPart in tagParts) {
-      if (!tagPart.contains('=')) {
-        if (tagNameMaybe == null) {
-          tagNameMaybe = tagPart
+      if (tagPart.indexOf('=') < 0) {
+        if (tagName == null) {
+          tagName = tagPart
         } else {
-          attributes.add(HtmlAttribute(tagPart, charArrayOf()))
-        }
-
-        continue
-      }
+          if (attributes == null) {
+            attributes = mutableListWithCap(4)
+          }
 
-      val attributeSplitList = splitIntoPartsBySeparator(tagPart, '=')
-      val attrName = attributeSplitList.getOrNull(0) ?: CharArray(0)
-      var attrValue = attributeSplitList?.getOrNull(1) ?: CharArray(0)
+          attributes.add(HtmlAttribute(tagPart, ""))
+        }
 
-      if (attrName.isEmpty() || attrValue.isEmpty()) {
         continue
       }
 
-      val firstCh = attrValue.getOrNull(0)
+      val attribute = parseAttribute(tagPart)
         ?: continue
-      val secondCh = attrValue.getOrNull(1)
 
-      if (firstCh == '\\' && secondCh == '\"') {
-        attrValue = attrValue.copyOfRange(2, attrValue.size)
-      } else if (firstCh == '\"') {
-        attrValue = attrValue.copyOfRange(1, attrValue.size)
+      if (attributes == null) {
+        attributes = mutableListWithCap(4)
       }
 
-      val lastCh = attrValue.getOrNull(attrValue.lastIndex)
-        ?: continue
-      val secondToLastCh = attrValue.getOrNull(attrValue.lastIndex - 1)
-
-      if (secondToLastCh == '\\' && lastCh == '\"') {
-        attrValue = attrValue.copyOfRange(0, attrValue.size - 2)
-      } else if (lastCh == '\"') {
-        attrValue = attrValue.copyOfRange(0, attrValue.size - 1)
-      }
-
-      attributes.add(HtmlAttribute(attrName, attrValue))
+      attributes.add(attribute)
     }
 
-    if (tagNameMaybe == null || tagNameMaybe.isEmpty()) {
+    if (tagName == null || tagName.isEmpty()) {
       throw ParsingException("Tag has no name!")
     }
 
-    val tagName = String(tagNameMaybe)
+    // Skip the ">"
+    val localOffset = tagEnd + 1
     val isVoidElement = VOID_TAGS.contains(tagName)
 
-    return HtmlNode.Tag(
+    if (isVoidElement) {
+      val htmlTag = HtmlTag(
+        index = tagIndex,
+        parentNode = parentNode,
+        tagName = tagName,
+        attributes = attributes ?: emptyList(),
+        children = emptyList(),
+        isVoidElement = true
+      )
+
+      return ParseNodeResult(HtmlNode.Tag(htmlTag), localOffset)
+    }
+
+    // Children need a reference to the parent node so we have to create the parent first and then
+    // replace it with the tag that contains the children.
+    val parentTag = HtmlNode.Tag(
       HtmlTag(
         index = tagIndex,
         parentNode = parentNode,
         tagName = tagName,
-        attributes = attributes,
-        children = mutableListWithCap(4),
-        isVoidElement = isVoidElement
+        attributes = attributes ?: emptyList(),
+        children = emptyList(),
+        isVoidElement = false
       )
     )
+
+    val parseResult = parseInternal(parentTag, html, localOffset)
+
+    val updatedHtmlTag = HtmlTag(
+      index = tagIndex,
+      parentNode = parentNode,
+      tagName = tagName,
+      attributes = parentTag.htmlTag.attributes,
+      children = parseResult.nodes,
+      isVoidElement = false
+    )
+
+    return ParseNodeResult(HtmlNode.Tag(updatedHtmlTag), parseResult.offset)
   }
 
-  private fun splitIntoPartsBySeparator(tagRaw: CharArray, separator: Char): List<CharArray> {
+  private fun parseAttribute(tagPart: String): HtmlAttribute? {
+    splitRangeIntoPartsBySeparator(tagPart, 0, tagPart.length, '=', attributeParts)
+
+    val attrName = attributeParts.getOrNull(0) ?: ""
+    val attrValue = attributeParts.getOrNull(1) ?: ""
+
+    if (attrName.isEmpty() || attrValue.isEmpty()) {
+      return null
+    }
+
+    var valueStart = 0
+    var valueEnd = attrValue.length
+
+    if (attrValue[0] == '\\' && attrValue.length > 1 && attrValue[1] == '\"') {
+      valueStart = 2
+    } else if (attrValue[0] == '\"') {
+      valueStart = 1
+    }
+
+    if (valueEnd - valueStart <= 0) {
+      return null
+    }
+
+    val lastCh = attrValue[valueEnd - 1]
+    val secondToLastCh = if (valueEnd - 2 >= valueStart) attrValue[valueEnd - 2] else NO_CHAR
+
+    if (secondToLastCh == '\\' && lastCh == '\"') {
+      valueEnd -= 2
+    } else if (lastCh == '\"') {
+      valueEnd -= 1
+    }
+
+    return HtmlAttribute(attrName, attrValue.substring(valueStart, valueEnd))
+  }
+
+  /**
+   * Splits a range of [input] by [separator] (ignoring separators inside quoted strings) and accumulates
+   * the parts into a reusable [StringBuilder] instead of boxed char lists.
+   * */
+  private fun splitRangeIntoPartsBySeparator(
+    input: CharSequence,
+    start: Int,
+    end: Int,
+    separator: Char,
+    outParts: MutableList<String>
+  ) {
+    outParts.clear()
+    tagPartBuilder.setLength(0)
+
     var isInsideString = false
-    var offset = 0
-    val tagParts = mutableListWithCap<CharArray>(4)
-    val currentTagPart = mutableListWithCap<Char>(32)
+    var offset = start
 
-    while (offset < tagRaw.size) {
-      val prevCh = tagRaw.getOrNull(offset - 1)
-      val currentCh = tagRaw[offset]
-      val nextCh = tagRaw.getOrNull(offset + 1)
+    while (offset < end) {
+      val prevCh = if (offset - 1 >= start) input[offset - 1] else NO_CHAR
+      val currentCh = input[offset]
+      val nextCh = if (offset + 1 < end) input[offset + 1] else NO_CHAR
 
       if (currentCh == '\"' && prevCh != '\\') {
         isInsideString = isInsideString.not()
@@ -213,8 +246,8 @@ class HtmlParser {
       }
 
       if (currentCh == separator && !isInsideString && nextCh != '/') {
-        tagParts.add(currentTagPart.toCharArray())
-        currentTagPart.clear()
+        outParts.add(tagPartBuilder.toString())
+        tagPartBuilder.setLength(0)
 
         ++offset
         continue
@@ -225,16 +258,24 @@ class HtmlParser {
         continue
       }
 
-      currentTagPart.add(currentCh)
+      tagPartBuilder.append(currentCh)
       ++offset
     }
 
-    if (currentTagPart.size > 0) {
-      tagParts.add(currentTagPart.toCharArray())
-      currentTagPart.clear()
+    if (tagPartBuilder.isNotEmpty()) {
+      outParts.add(tagPartBuilder.toString())
+      tagPartBuilder.setLength(0)
     }
+  }
+
+  private fun addNewTextNode(parentNode: HtmlNode?, outNodes: MutableList<HtmlNode>, textUnescaped: String) {
+    val lastNode = outNodes.lastOrNull()
+    val isLastNodeVoid = (lastNode as? HtmlNode.Tag)?.htmlTag?.isVoidElement == true
+    val emptyOrNewLineCharacter = textUnescaped.trim().let { text -> text.isEmpty() || (text.length == 1 && text[0] == '\n') }
 
-    return tagParts
+    if (lastNode == null || !isLastNodeVoid || !emptyOrNewLineCharacter) {
+      outNodes.add(HtmlNode.Text(textUnescaped, parentNode))
+    }
   }
 
   private fun skipTagEnd(html: String, start: Int): Int {
@@ -285,12 +326,13 @@ class HtmlParser {
     for (attribute in attributes) {
       resultString
         .append(", ")
-        .append(attribute.name)
+        .append(attribute.nameAsString())
 
-      if (attribute.value.isNotEmpty()) {
+      val value = attribute.valueAsString()
+      if (value.isNotEmpty()) {
         resultString
           .append('=')
-          .append(attribute.value)
+          .append(value)
       }
     }
 
@@ -311,6 +353,7 @@ class HtmlParser {
 
   companion object {
     private const val TAG = "HtmlParser"
+    private const val NO_CHAR = '\u0000'
 
     private val VOID_TAGS = mutableSetOf(
       "area",
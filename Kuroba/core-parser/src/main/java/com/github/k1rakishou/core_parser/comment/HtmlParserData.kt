@@ -155,35 +155,48 @@ data class HtmlTag(
 /**
  * Not thread safe!
  * */
-class HtmlAttribute(
-  val name: CharArray,
-  val value: CharArray
+class HtmlAttribute private constructor(
+  private var nameChars: CharArray?,
+  private var valueChars: CharArray?,
+  private var nameAsString: String?,
+  private var valueAsString: String?
 ) {
-  private var nameAsString: String? = null
-  private var valueAsString: String? = null
 
-  fun nameAsString(): String {
-    if (name.isEmpty()) {
-      return ""
+  constructor(name: CharArray, value: CharArray) : this(name, value, null, null)
+  constructor(name: String, value: String) : this(null, null, name, value)
+
+  val name: CharArray
+    get() {
+      if (nameChars == null) {
+        nameChars = nameAsString!!.toCharArray()
+      }
+
+      return nameChars!!
+    }
+
+  val value: CharArray
+    get() {
+      if (valueChars == null) {
+        valueChars = valueAsString!!.toCharArray()
+      }
+
+      return valueChars!!
     }
 
+  fun nameAsString(): String {
     if (nameAsString == null) {
-      nameAsString = String(name)
+      nameAsString = String(nameChars!!)
     }
 
     return nameAsString!!
   }
 
   fun valueAsString(): String {
-    if (value.isEmpty()) {
-      return ""
-    }
-
     if (valueAsString == null) {
-      valueAsString = String(value)
+      valueAsString = String(valueChars!!)
     }
 
     return valueAsString!!
   }
 
-}
\ No newline at end of file
+}
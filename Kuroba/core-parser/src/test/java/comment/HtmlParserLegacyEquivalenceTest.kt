@@ -0,0 +1,62 @@
+package comment
+
+import com.github.k1rakishou.core_parser.comment.HtmlParser
+import junit.framework.Assert.assertEquals
+import org.junit.Test
+
+class HtmlParserLegacyEquivalenceTest {
+
+  @Test
+  fun parser_produces_the_same_nodes_as_legacy_parser_4chan() {
+    assertProducesTheSameNodesAsLegacyParser(readComments(FOUR_CHAN_COMMENTS))
+  }
+
+  @Test
+  fun parser_produces_the_same_nodes_as_legacy_parser_dvach() {
+    assertProducesTheSameNodesAsLegacyParser(readComments(DVACH_COMMENTS))
+  }
+
+  @Test
+  fun parser_produces_the_same_nodes_as_legacy_parser_edge_cases() {
+    val comments = listOf(
+      "",
+      "&amp;",
+      "text&",
+      "<br>",
+      "<br/>\n\n\ntext",
+      "<a  href=\"#p1\"  class=\"quotelink\">&gt;&gt;1</a>",
+      "<iframe width=\\\"560\\\" src=\\\"https://www.youtube.com/embed/GjUrSjjUbVk?&amp;autoplay=1\\\" allowfullscreen></iframe>",
+      "<span class=\"quote\">&gt;unclosed",
+      "<a href=/unquoted/value>link</a>",
+      "<a href=\"\">empty</a><a href=\"\\\"\">escaped</a>",
+    )
+
+    assertProducesTheSameNodesAsLegacyParser(comments)
+  }
+
+  private fun assertProducesTheSameNodesAsLegacyParser(comments: List<String>) {
+    val legacyParser = LegacyHtmlParser()
+    val streamingParser = HtmlParser()
+
+    for (comment in comments) {
+      val expected = streamingParser.debugConcatIntoString(legacyParser.parse(comment).nodes)
+      val actual = streamingParser.debugConcatIntoString(streamingParser.parse(comment).nodes)
+
+      assertEquals(comment, expected, actual)
+    }
+  }
+
+  private fun readComments(fileName: String): List<String> {
+    val fileBytes = javaClass.classLoader!!.getResourceAsStream(fileName).readBytes()
+
+    return String(fileBytes)
+      .lines()
+      .filter { line -> line.isNotBlank() }
+  }
+
+  companion object {
+    private const val FOUR_CHAN_COMMENTS = "parsing/comments/4chan_comments.txt"
+    private const val DVACH_COMMENTS = "parsing/comments/dvach_comments.txt"
+  }
+
+}
@@ -1,18 +1,23 @@
 package com.github.k1rakishou.core_spannable.parcelable_spannable_string
 
 import android.util.Log
+import com.github.k1rakishou.common.unmarshall
 import com.github.k1rakishou.core_spannable.ParcelableSpannableString
+import com.github.k1rakishou.core_spannable.ParcelableSpans
 import com.github.k1rakishou.core_spannable.parcelable_spannable_string.v1.ParcelableSpannableStringMapperV1
+import com.github.k1rakishou.core_spannable.parcelable_spannable_string.v2.ParcelableSpannableStringMapperV2
+import com.github.k1rakishou.core_spannable.parcelable_spannable_string.v2.ParcelableSpansBinaryCodec
 import java.util.concurrent.ConcurrentHashMap
 
 object ParcelableSpannableStringMapper {
   private const val TAG = "ParcelableStringMapper"
-  const val CURRENT_MAPPER_VERSION = 1
+  const val CURRENT_MAPPER_VERSION = 2
 
   private val mappers = ConcurrentHashMap<Int, ParcelableStringMapper>()
 
   init {
     mappers[ParcelableSpannableStringMapperV1.version] = ParcelableSpannableStringMapperV1
+    mappers[ParcelableSpannableStringMapperV2.version] = ParcelableSpannableStringMapperV2
     // Add new mappers here if ParcelableSpannableString internal structure ever changes
   }
 
@@ -74,5 +79,49 @@ object ParcelableSpannableStringMapper {
     }
   }
 
+  /**
+   * Spans are always stored using the binary format of V2 (see [ParcelableSpansBinaryCodec]).
+   * */
+  @JvmStatic
+  fun spansToBytes(parcelableSpans: ParcelableSpans): ByteArray {
+    return ParcelableSpansBinaryCodec.encode(parcelableSpans)
+  }
+
+  /**
+   * Reads spans stored either in the binary format of V2 or as a marshalled [android.os.Parcel] (V1).
+   * */
+  @JvmStatic
+  fun spansFromBytes(bytes: ByteArray): ParcelableSpans? {
+    try {
+      if (ParcelableSpansBinaryCodec.isBinaryEncoded(bytes)) {
+        return ParcelableSpansBinaryCodec.decode(bytes)
+      }
+
+      return bytes.unmarshall(ParcelableSpans.CREATOR).unwrap()
+    } catch (error: Throwable) {
+      Log.e(TAG, "KurobaEx spansFromBytes() error", error)
+      return null
+    }
+  }
+
+  /**
+   * Whether [bytes] use an older storage format and should be rewritten with [spansToBytes].
+   * */
+  @JvmStatic
+  fun isLegacySpansBytes(bytes: ByteArray): Boolean {
+    return !ParcelableSpansBinaryCodec.isBinaryEncoded(bytes)
+  }
+
+  /**
+   * Spans of older versions have the same structure, only the way they are stored differs.
+   * */
+  @JvmStatic
+  fun upgradeSpans(parcelableSpans: ParcelableSpans): ParcelableSpans {
+    if (parcelableSpans.version == CURRENT_MAPPER_VERSION) {
+      return parcelableSpans
+    }
+
+    return ParcelableSpans(CURRENT_MAPPER_VERSION, parcelableSpans.spanInfoList)
+  }
 
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+package com.github.k1rakishou.core_spannable.parcelable_spannable_string.v2
+
+import com.github.k1rakishou.core_spannable.ParcelableSpannableString
+import com.github.k1rakishou.core_spannable.ParcelableSpans
+import com.github.k1rakishou.core_spannable.parcelable_spannable_string.ParcelableStringMapper
+import com.github.k1rakishou.core_spannable.parcelable_spannable_string.v1.ParcelableSpannableStringMapperV1
+
+/**
+ * Spans are converted the same way as in V1, the only difference is how they are stored in the
+ * database (see [ParcelableSpansBinaryCodec]).
+ * */
+internal object ParcelableSpannableStringMapperV2 : ParcelableStringMapper {
+  private const val MAPPER_VERSION = 2
+
+  override val version: Int
+    get() = MAPPER_VERSION
+
+  override fun toParcelableSpannableString(
+    charSequence: CharSequence?
+  ): ParcelableSpannableString? {
+    val parcelableSpannableString = ParcelableSpannableStringMapperV1.toParcelableSpannableString(charSequence)
+      ?: return null
+
+    return ParcelableSpannableString(
+      parcelableSpans = ParcelableSpans(MAPPER_VERSION, parcelableSpannableString.parcelableSpans.spanInfoList),
+      text = parcelableSpannableString.text
+    )
+  }
+
+  override fun fromParcelableSpannableString(
+    parcelableSpannableString: ParcelableSpannableString?
+  ): CharSequence {
+    return ParcelableSpannableStringMapperV1.fromParcelableSpannableString(parcelableSpannableString)
+  }
+
+}
@@ -0,0 +1,376 @@
+package com.github.k1rakishou.core_spannable.parcelable_spannable_string.v2
+
+import com.github.k1rakishou.core_spannable.ParcelableSpan
+import com.github.k1rakishou.core_spannable.ParcelableSpanInfo
+import com.github.k1rakishou.core_spannable.ParcelableSpanType
+import com.github.k1rakishou.core_spannable.ParcelableSpans
+import com.github.k1rakishou.core_spannable.PostLinkableValue
+import com.github.k1rakishou.core_themes.ChanThemeColorId
+
+/**
+ * Compact binary encoding of [ParcelableSpans] used since [ParcelableSpannableStringMapperV2]. V1 used
+ * [android.os.Parcel] which writes every int as 4 bytes, every string as UTF-16 and the full class name
+ * of every span.
+ *
+ * Layout:
+ * ```
+ * magic (2 bytes) | version (varint) | strings count (varint) | strings | spans count (varint) | spans
+ * string: byte length (varint) | UTF-8 bytes
+ * span: type (byte) | start (varint) | end - start (varint) | flags (varint) | type specific payload
+ * ```
+ * All strings (PostLinkable keys, board codes, links etc.) are interned into the string table and spans
+ * refer to them by index. Post numbers are stored as zigzag varlongs, colors as fixed 4 byte ints.
+ * */
+internal object ParcelableSpansBinaryCodec {
+  private const val MAGIC_0 = 0x4B.toByte()
+  private const val MAGIC_1 = 0x53.toByte()
+
+  private const val VALUE_ARCHIVE = 0
+  private const val VALUE_BOARD = 1
+  private const val VALUE_LINK = 2
+  private const val VALUE_QUOTE = 3
+  private const val VALUE_DEAD = 4
+  private const val VALUE_SEARCH = 5
+  private const val VALUE_SPOILER = 6
+  private const val VALUE_THREAD_OR_POST = 7
+
+  /**
+   * Parcel-encoded (V1) bytes start with the version int (little endian) so they can never start with
+   * the magic bytes.
+   * */
+  fun isBinaryEncoded(bytes: ByteArray): Boolean {
+    return bytes.size >= 2 && bytes[0] == MAGIC_0 && bytes[1] == MAGIC_1
+  }
+
+  fun encode(parcelableSpans: ParcelableSpans): ByteArray {
+    val stringTable = StringTable()
+    val spansWriter = ByteWriter(parcelableSpans.spanInfoList.size * 8)
+    var spansCount = 0
+
+    for (spanInfo in parcelableSpans.spanInfoList) {
+      if (writeSpan(spansWriter, stringTable, spanInfo)) {
+        ++spansCount
+      }
+    }
+
+    val writer = ByteWriter(spansWriter.size + stringTable.estimatedSize() + 8)
+    writer.writeByte(MAGIC_0)
+    writer.writeByte(MAGIC_1)
+    writer.writeVarInt(parcelableSpans.version)
+
+    writer.writeVarInt(stringTable.strings.size)
+    for (string in stringTable.strings) {
+      val stringBytes = string.toByteArray(Charsets.UTF_8)
+      writer.writeVarInt(stringBytes.size)
+      writer.writeBytes(stringBytes)
+    }
+
+    writer.writeVarInt(spansCount)
+    writer.writeBytes(spansWriter.buffer, spansWriter.size)
+
+    return writer.toByteArray()
+  }
+
+  fun decode(bytes: ByteArray): ParcelableSpans {
+    require(isBinaryEncoded(bytes)) { "Not a binary encoded ParcelableSpans" }
+
+    val reader = ByteReader(bytes, 2)
+    val version = reader.readVarInt()
+
+    val stringsCount = reader.readVarInt()
+    val strings = Array(stringsCount) {
+      val length = reader.readVarInt()
+      reader.readString(length)
+    }
+
+    val spansCount = reader.readVarInt()
+    val spanInfoList = ArrayList<ParcelableSpanInfo>(spansCount)
+
+    repeat(spansCount) {
+      spanInfoList += readSpan(reader, strings)
+    }
+
+    return ParcelableSpans(version, spanInfoList)
+  }
+
+  private fun writeSpan(writer: ByteWriter, stringTable: StringTable, spanInfo: ParcelableSpanInfo): Boolean {
+    val parcelableSpan = spanInfo.parcelableSpan
+    val spanType = ParcelableSpanType.from(spanInfo.parcelableTypeRaw)
+
+    if (parcelableSpan == null || spanType == ParcelableSpanType.Unknown) {
+      return false
+    }
+
+    if (spanInfo.spanStart < 0 || spanInfo.spanEnd < spanInfo.spanStart) {
+      return false
+    }
+
+    writer.writeByte(spanType.value.toByte())
+    writer.writeVarInt(spanInfo.spanStart)
+    writer.writeVarInt(spanInfo.spanEnd - spanInfo.spanStart)
+    writer.writeVarInt(spanInfo.flags)
+
+    when (parcelableSpan) {
+      is ParcelableSpan.AbsoluteSize -> writer.writeVarLong(zigzag(parcelableSpan.size.toLong()))
+      is ParcelableSpan.BackgroundColor -> writer.writeFixedInt(parcelableSpan.color)
+      is ParcelableSpan.ForegroundColor -> writer.writeFixedInt(parcelableSpan.color)
+      is ParcelableSpan.BackgroundColorId -> writer.writeVarInt(parcelableSpan.colorId.id)
+      is ParcelableSpan.ForegroundColorId -> writer.writeVarInt(parcelableSpan.colorId.id)
+      is ParcelableSpan.Style -> writer.writeVarInt(parcelableSpan.style)
+      is ParcelableSpan.Typeface -> writer.writeVarInt(stringTable.indexOf(parcelableSpan.family))
+      ParcelableSpan.Strikethrough -> {
+        // no payload
+      }
+      is ParcelableSpan.PostLinkable -> {
+        writer.writeVarInt(stringTable.indexOf(parcelableSpan.key))
+        writer.writeVarInt(parcelableSpan.postLinkableTypeRaw)
+        writePostLinkableValue(writer, stringTable, parcelableSpan.postLinkableValue)
+      }
+    }
+
+    return true
+  }
+
+  private fun writePostLinkableValue(
+    writer: ByteWriter,
+    stringTable: StringTable,
+    postLinkableValue: PostLinkableValue
+  ) {
+    when (postLinkableValue) {
+      is PostLinkableValue.Archive -> {
+        writer.writeByte(VALUE_ARCHIVE.toByte())
+        writer.writeVarInt(stringTable.indexOf(postLinkableValue.archiveDomain))
+        writer.writeVarInt(stringTable.indexOf(postLinkableValue.boardCode))
+        writer.writeVarLong(zigzag(postLinkableValue.threadNo))
+        writer.writeVarLong(zigzag(postLinkableValue.postNo))
+        writer.writeVarLong(zigzag(postLinkableValue.postSubNo))
+      }
+      is PostLinkableValue.Board -> {
+        writer.writeByte(VALUE_BOARD.toByte())
+        writer.writeVarInt(stringTable.indexOf(postLinkableValue.boardCode))
+      }
+      is PostLinkableValue.Link -> {
+        writer.writeByte(VALUE_LINK.toByte())
+        writer.writeVarInt(stringTable.indexOf(postLinkableValue.link))
+      }
+      is PostLinkableValue.Quote -> {
+        writer.writeByte(VALUE_QUOTE.toByte())
+        writer.writeVarLong(zigzag(postLinkableValue.postNo))
+        writer.writeVarLong(zigzag(postLinkableValue.postSubNo))
+      }
+      is PostLinkableValue.Dead -> {
+        writer.writeByte(VALUE_DEAD.toByte())
+        writer.writeVarLong(zigzag(postLinkableValue.postNo))
+        writer.writeVarLong(zigzag(postLinkableValue.postSubNo))
+      }
+      is PostLinkableValue.Search -> {
+        writer.writeByte(VALUE_SEARCH.toByte())
+        writer.writeVarInt(stringTable.indexOf(postLinkableValue.boardCode))
+        writer.writeVarInt(stringTable.indexOf(postLinkableValue.searchQuery))
+      }
+      PostLinkableValue.Spoiler -> {
+        writer.writeByte(VALUE_SPOILER.toByte())
+      }
+      is PostLinkableValue.ThreadOrPost -> {
+        writer.writeByte(VALUE_THREAD_OR_POST.toByte())
+        writer.writeVarInt(stringTable.indexOf(postLinkableValue.boardCode))
+        writer.writeVarLong(zigzag(postLinkableValue.threadNo))
+        writer.writeVarLong(zigzag(postLinkableValue.postNo))
+        writer.writeVarLong(zigzag(postLinkableValue.postSubNo))
+      }
+    }
+  }
+
+  private fun readSpan(reader: ByteReader, strings: Array<String>): ParcelableSpanInfo {
+    val spanTypeRaw = reader.readByte().toInt()
+    val spanStart = reader.readVarInt()
+    val spanEnd = spanStart + reader.readVarInt()
+    val flags = reader.readVarInt()
+
+    val parcelableSpan = when (ParcelableSpanType.from(spanTypeRaw)) {
+      ParcelableSpanType.ForegroundColorSpanType -> ParcelableSpan.ForegroundColor(reader.readFixedInt())
+      ParcelableSpanType.BackgroundColorSpanType -> ParcelableSpan.BackgroundColor(reader.readFixedInt())
+      ParcelableSpanType.StrikethroughSpanType -> ParcelableSpan.Strikethrough
+      ParcelableSpanType.StyleSpanType -> ParcelableSpan.Style(reader.readVarInt())
+      ParcelableSpanType.TypefaceSpanType -> ParcelableSpan.Typeface(strings[reader.readVarInt()])
+      ParcelableSpanType.AbsoluteSizeSpanHashed -> ParcelableSpan.AbsoluteSize(unzigzag(reader.readVarLong()).toInt())
+      ParcelableSpanType.BackgroundColorIdSpan -> ParcelableSpan.BackgroundColorId(ChanThemeColorId.byId(reader.readVarInt()))
+      ParcelableSpanType.ForegroundColorIdSpan -> ParcelableSpan.ForegroundColorId(ChanThemeColorId.byId(reader.readVarInt()))
+      ParcelableSpanType.PostLinkable -> {
+        val key = strings[reader.readVarInt()]
+        val postLinkableTypeRaw = reader.readVarInt()
+
+        ParcelableSpan.PostLinkable(key, postLinkableTypeRaw, readPostLinkableValue(reader, strings))
+      }
+      ParcelableSpanType.Unknown -> throw IllegalStateException("Unknown span type: $spanTypeRaw")
+    }
+
+    return ParcelableSpanInfo(
+      spanStart = spanStart,
+      spanEnd = spanEnd,
+      flags = flags,
+      parcelableTypeRaw = spanTypeRaw,
+      parcelableSpan = parcelableSpan
+    )
+  }
+
+  private fun readPostLinkableValue(reader: ByteReader, strings: Array<String>): PostLinkableValue {
+    return when (val valueType = reader.readByte().toInt()) {
+      VALUE_ARCHIVE -> PostLinkableValue.Archive(
+        archiveDomain = strings[reader.readVarInt()],
+        boardCode = strings[reader.readVarInt()],
+        threadNo = unzigzag(reader.readVarLong()),
+        postNo = unzigzag(reader.readVarLong()),
+        postSubNo = unzigzag(reader.readVarLong())
+      )
+      VALUE_BOARD -> PostLinkableValue.Board(strings[reader.readVarInt()])
+      VALUE_LINK -> PostLinkableValue.Link(strings[reader.readVarInt()])
+      VALUE_QUOTE -> PostLinkableValue.Quote(
+        postNo = unzigzag(reader.readVarLong()),
+        postSubNo = unzigzag(reader.readVarLong())
+      )
+      VALUE_DEAD -> PostLinkableValue.Dead(
+        postNo = unzigzag(reader.readVarLong()),
+        postSubNo = unzigzag(reader.readVarLong())
+      )
+      VALUE_SEARCH -> PostLinkableValue.Search(
+        boardCode = strings[reader.readVarInt()],
+        searchQuery = strings[reader.readVarInt()]
+      )
+      VALUE_SPOILER -> PostLinkableValue.Spoiler
+      VALUE_THREAD_OR_POST -> PostLinkableValue.ThreadOrPost(
+        boardCode = strings[reader.readVarInt()],
+        threadNo = unzigzag(reader.readVarLong()),
+        postNo = unzigzag(reader.readVarLong()),
+        postSubNo = unzigzag(reader.readVarLong())
+      )
+      else -> throw IllegalStateException("Unknown PostLinkableValue type: $valueType")
+    }
+  }
+
+  private fun zigzag(value: Long): Long = (value shl 1) xor (value shr 63)
+  private fun unzigzag(value: Long): Long = (value ushr 1) xor -(value and 1L)
+
+  private class StringTable {
+    val strings = mutableListOf<String>()
+    private val indexes = HashMap<String, Int>()
+    private var totalLength = 0
+
+    fun indexOf(string: String): Int {
+      return indexes.getOrPut(string) {
+        strings += string
+        totalLength += string.length
+
+        strings.lastIndex
+      }
+    }
+
+    fun estimatedSize(): Int = totalLength + strings.size * 2
+  }
+
+  private class ByteWriter(initialCapacity: Int) {
+    var buffer = ByteArray(initialCapacity.coerceAtLeast(16))
+      private set
+    var size = 0
+      private set
+
+    fun writeByte(byte: Byte) {
+      ensureCapacity(1)
+      buffer[size++] = byte
+    }
+
+    fun writeBytes(bytes: ByteArray, length: Int = bytes.size) {
+      ensureCapacity(length)
+      System.arraycopy(bytes, 0, buffer, size, length)
+      size += length
+    }
+
+    fun writeFixedInt(value: Int) {
+      ensureCapacity(4)
+      buffer[size++] = value.toByte()
+      buffer[size++] = (value ushr 8).toByte()
+      buffer[size++] = (value ushr 16).toByte()
+      buffer[size++] = (value ushr 24).toByte()
+    }
+
+    fun writeVarInt(value: Int) {
+      writeVarLong(value.toLong() and 0xFFFFFFFFL)
+    }
+
+    fun writeVarLong(value: Long) {
+      ensureCapacity(10)
+
+      var remaining = value
+      while (remaining and 0x7FL.inv() != 0L) {
+        buffer[size++] = ((remaining and 0x7F) or 0x80).toByte()
+        remaining = remaining ushr 7
+      }
+
+      buffer[size++] = remaining.toByte()
+    }
+
+    fun toByteArray(): ByteArray = buffer.copyOf(size)
+
+    private fun ensureCapacity(extra: Int) {
+      if (size + extra <= buffer.size) {
+        return
+      }
+
+      buffer = buffer.copyOf(maxOf(buffer.size * 2, size + extra))
+    }
+  }
+
+  private class ByteReader(
+    private val bytes: ByteArray,
+    private var position: Int
+  ) {
+
+    fun readByte(): Byte {
+      if (position >= bytes.size) {
+        throw IndexOutOfBoundsException("Unexpected end of data at $position")
+      }
+
+      return bytes[position++]
+    }
+
+    fun readFixedInt(): Int {
+      val b0 = readByte().toInt() and 0xFF
+      val b1 = readByte().toInt() and 0xFF
+      val b2 = readByte().toInt() and 0xFF
+      val b3 = readByte().toInt() and 0xFF
+
+      return b0 or (b1 shl 8) or (b2 shl 16) or (b3 shl 24)
+    }
+
+    fun readVarInt(): Int = readVarLong().toInt()
+
+    fun readVarLong(): Long {
+      var result = 0L
+      var shift = 0
+
+      while (shift < 64) {
+        val byte = readByte().toInt()
+        result = result or ((byte and 0x7F).toLong() shl shift)
+
+        if (byte and 0x80 == 0) {
+          return result
+        }
+
+        shift += 7
+      }
+
+      throw IllegalStateException("Malformed varint at $position")
+    }
+
+    fun readString(length: Int): String {
+      if (length < 0 || position + length > bytes.size) {
+        throw IndexOutOfBoundsException("Bad string length $length at $position")
+      }
+
+      val string = String(bytes, position, length, Charsets.UTF_8)
+      position += length
+
+      return string
+    }
+  }
+}
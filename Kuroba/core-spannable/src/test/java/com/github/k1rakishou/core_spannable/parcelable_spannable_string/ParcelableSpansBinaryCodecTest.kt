@@ -0,0 +1,176 @@
+package com.github.k1rakishou.core_spannable.parcelable_spannable_string
+
+import com.github.k1rakishou.common.marshall
+import com.github.k1rakishou.core_spannable.ParcelableSpan
+import com.github.k1rakishou.core_spannable.ParcelableSpanInfo
+import com.github.k1rakishou.core_spannable.ParcelableSpanType
+import com.github.k1rakishou.core_spannable.ParcelableSpans
+import com.github.k1rakishou.core_spannable.PostLinkableType
+import com.github.k1rakishou.core_spannable.PostLinkableValue
+import com.github.k1rakishou.core_spannable.parcelable_spannable_string.v2.ParcelableSpansBinaryCodec
+import com.github.k1rakishou.core_themes.ChanThemeColorId
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class ParcelableSpansBinaryCodecTest {
+
+  @Test
+  fun `test every span type survives the round trip`() {
+    val parcelableSpans = ParcelableSpans(ParcelableSpannableStringMapper.CURRENT_MAPPER_VERSION, allSpanTypes())
+
+    assertRoundTrip(parcelableSpans)
+  }
+
+  @Test
+  fun `test empty spans survive the round trip`() {
+    val parcelableSpans = ParcelableSpans(ParcelableSpannableStringMapper.CURRENT_MAPPER_VERSION, emptyList())
+    val bytes = ParcelableSpannableStringMapper.spansToBytes(parcelableSpans)
+
+    assertTrue(ParcelableSpansBinaryCodec.isBinaryEncoded(bytes))
+    assertFalse(ParcelableSpannableStringMapper.isLegacySpansBytes(bytes))
+    assertRoundTrip(parcelableSpans)
+  }
+
+  @Test
+  fun `test maximal values survive the round trip`() {
+    val longString = buildString { repeat(10_000) { index -> append("ÿ€😀").append(index) } }
+
+    val spans = listOf(
+      spanInfo(Int.MAX_VALUE - 1, Int.MAX_VALUE, ParcelableSpan.ForegroundColor(Int.MIN_VALUE), flags = -1),
+      spanInfo(0, Int.MAX_VALUE, ParcelableSpan.BackgroundColor(-1), flags = Int.MAX_VALUE),
+      spanInfo(0, 0, ParcelableSpan.AbsoluteSize(Int.MIN_VALUE)),
+      spanInfo(0, 0, ParcelableSpan.AbsoluteSize(Int.MAX_VALUE)),
+      spanInfo(0, 0, ParcelableSpan.Style(Int.MAX_VALUE)),
+      spanInfo(0, 0, ParcelableSpan.Typeface(longString)),
+      postLinkable(0, 1, PostLinkableType.Quote, PostLinkableValue.Quote(Long.MAX_VALUE, Long.MIN_VALUE)),
+      postLinkable(0, 1, PostLinkableType.Dead, PostLinkableValue.Dead(Long.MIN_VALUE, -1L)),
+      postLinkable(0, 1, PostLinkableType.Link, PostLinkableValue.Link(longString)),
+      postLinkable(
+        0,
+        1,
+        PostLinkableType.Archive,
+        PostLinkableValue.Archive(longString, "", Long.MAX_VALUE, Long.MIN_VALUE, 0L)
+      )
+    )
+
+    // Lots of spans sharing the same strings
+    val manySpans = (0 until 10_000).map { index ->
+      postLinkable(index, index + 5, PostLinkableType.Quote, PostLinkableValue.Quote(index.toLong(), 0L))
+    }
+
+    assertRoundTrip(ParcelableSpans(ParcelableSpannableStringMapper.CURRENT_MAPPER_VERSION, spans + manySpans))
+  }
+
+  @Test
+  fun `test spans that can't be stored are skipped`() {
+    val validSpan = spanInfo(0, 5, ParcelableSpan.Strikethrough)
+    val spans = listOf(
+      ParcelableSpanInfo(0, 5, 0, ParcelableSpanType.StyleSpanType.value, null),
+      ParcelableSpanInfo(0, 5, 0, ParcelableSpanType.Unknown.value, ParcelableSpan.Style(1)),
+      spanInfo(5, 4, ParcelableSpan.Style(1)),
+      validSpan
+    )
+
+    val bytes = ParcelableSpannableStringMapper.spansToBytes(
+      ParcelableSpans(ParcelableSpannableStringMapper.CURRENT_MAPPER_VERSION, spans)
+    )
+
+    assertEquals(listOf(validSpan), ParcelableSpannableStringMapper.spansFromBytes(bytes)!!.spanInfoList)
+  }
+
+  @Test
+  fun `test truncated data is not decoded`() {
+    val bytes = ParcelableSpannableStringMapper.spansToBytes(
+      ParcelableSpans(ParcelableSpannableStringMapper.CURRENT_MAPPER_VERSION, allSpanTypes())
+    )
+
+    for (length in 2 until bytes.size) {
+      assertNull(ParcelableSpannableStringMapper.spansFromBytes(bytes.copyOf(length)))
+    }
+  }
+
+  @Test
+  fun `test spans stored in the legacy parcel format are still decoded`() {
+    val legacySpans = ParcelableSpans(1, allSpanTypes())
+    val legacyBytes = legacySpans.marshall()
+
+    assertTrue(ParcelableSpannableStringMapper.isLegacySpansBytes(legacyBytes))
+
+    val decodedSpans = ParcelableSpannableStringMapper.spansFromBytes(legacyBytes)!!
+    assertEquals(1, decodedSpans.version)
+    assertEquals(legacySpans.spanInfoList, decodedSpans.spanInfoList)
+
+    // Rewriting the legacy spans into the current format keeps all of them
+    val upgradedBytes = ParcelableSpannableStringMapper.spansToBytes(
+      ParcelableSpannableStringMapper.upgradeSpans(decodedSpans)
+    )
+
+    assertFalse(ParcelableSpannableStringMapper.isLegacySpansBytes(upgradedBytes))
+
+    val upgradedSpans = ParcelableSpannableStringMapper.spansFromBytes(upgradedBytes)!!
+    assertEquals(ParcelableSpannableStringMapper.CURRENT_MAPPER_VERSION, upgradedSpans.version)
+    assertEquals(legacySpans.spanInfoList, upgradedSpans.spanInfoList)
+  }
+
+  private fun assertRoundTrip(parcelableSpans: ParcelableSpans) {
+    val bytes = ParcelableSpannableStringMapper.spansToBytes(parcelableSpans)
+    val decodedSpans = ParcelableSpannableStringMapper.spansFromBytes(bytes)!!
+
+    assertEquals(parcelableSpans.version, decodedSpans.version)
+    assertEquals(parcelableSpans.spanInfoList, decodedSpans.spanInfoList)
+  }
+
+  private fun allSpanTypes(): List<ParcelableSpanInfo> {
+    return listOf(
+      spanInfo(0, 10, ParcelableSpan.ForegroundColor(0xFF112233.toInt())),
+      spanInfo(1, 11, ParcelableSpan.BackgroundColor(0x00FFFFFF)),
+      spanInfo(2, 12, ParcelableSpan.Strikethrough),
+      spanInfo(3, 13, ParcelableSpan.Style(android.graphics.Typeface.BOLD_ITALIC)),
+      spanInfo(4, 14, ParcelableSpan.Typeface("monospace")),
+      spanInfo(5, 15, ParcelableSpan.AbsoluteSize(24)),
+      spanInfo(6, 16, ParcelableSpan.BackgroundColorId(ChanThemeColorId.BackColorSecondary)),
+      spanInfo(7, 17, ParcelableSpan.ForegroundColorId(ChanThemeColorId.PostQuoteColor)),
+      postLinkable(8, 18, PostLinkableType.Quote, PostLinkableValue.Quote(123456789L, 2L)),
+      postLinkable(9, 19, PostLinkableType.Link, PostLinkableValue.Link("https://example.com/?a=b")),
+      postLinkable(10, 20, PostLinkableType.Spoiler, PostLinkableValue.Spoiler),
+      postLinkable(11, 21, PostLinkableType.Thread, PostLinkableValue.ThreadOrPost("g", 1L, 2L, 3L)),
+      postLinkable(12, 22, PostLinkableType.Board, PostLinkableValue.Board("g")),
+      postLinkable(13, 23, PostLinkableType.Search, PostLinkableValue.Search("g", "search query")),
+      postLinkable(14, 24, PostLinkableType.Dead, PostLinkableValue.Dead(987654321L)),
+      postLinkable(15, 25, PostLinkableType.Archive, PostLinkableValue.Archive("archived.moe", "g", 1L, 2L, 0L))
+    )
+  }
+
+  private fun spanInfo(start: Int, end: Int, parcelableSpan: ParcelableSpan, flags: Int = 33): ParcelableSpanInfo {
+    val spanType = when (parcelableSpan) {
+      is ParcelableSpan.AbsoluteSize -> ParcelableSpanType.AbsoluteSizeSpanHashed
+      is ParcelableSpan.BackgroundColor -> ParcelableSpanType.BackgroundColorSpanType
+      is ParcelableSpan.ForegroundColor -> ParcelableSpanType.ForegroundColorSpanType
+      is ParcelableSpan.BackgroundColorId -> ParcelableSpanType.BackgroundColorIdSpan
+      is ParcelableSpan.ForegroundColorId -> ParcelableSpanType.ForegroundColorIdSpan
+      is ParcelableSpan.PostLinkable -> ParcelableSpanType.PostLinkable
+      is ParcelableSpan.Style -> ParcelableSpanType.StyleSpanType
+      is ParcelableSpan.Typeface -> ParcelableSpanType.TypefaceSpanType
+      ParcelableSpan.Strikethrough -> ParcelableSpanType.StrikethroughSpanType
+    }
+
+    return ParcelableSpanInfo(start, end, flags, spanType.value, parcelableSpan)
+  }
+
+  private fun postLinkable(
+    start: Int,
+    end: Int,
+    postLinkableType: PostLinkableType,
+    postLinkableValue: PostLinkableValue
+  ): ParcelableSpanInfo {
+    val key = "key_${postLinkableType.name}"
+    return spanInfo(start, end, ParcelableSpan.PostLinkable(key, postLinkableType.value, postLinkableValue))
+  }
+
+}